@@ -1,6 +1,9 @@
 package data;
 import java.util.ArrayList;
 import interfaces.CSListener;
+import util.Clock;
+import util.SystemClock;
+import util.Util;
 
 /**
  * A class to provide a centralized, synchronized location
@@ -16,11 +19,6 @@ public class DataCenter {
 	 * sensor data.
 	 */
 	private Object usLock;
-	/**
-	 * Variable to tell the ultrasonic sensors to
-	 * follow the wall or not.
-	 */
-	private boolean isWallFollowing;
 	/**
 	 * The number of distances to keep track of.
 	 * These correspond to 0 degrees (right), 
@@ -35,6 +33,10 @@ public class DataCenter {
 	 * The filtered distances in cm recorded by the ultrasonic sensors.
 	 */
 	private int[] filteredDistances; 
+	/**
+	 * The number of distances recorded by each ultrasonic sensor.
+	 */
+	private int[] samples;
 	
 	/**
 	 * Lock for synchronized access to odometer data.
@@ -73,13 +75,25 @@ public class DataCenter {
 	 * The current color sensor reading.
 	 */
 	private int csValue;
+
+	/**
+	 * The manager of the sensors.
+	 */
+	private final SensorManager sensors;
 	
 	/**
 	 * Default constructor.
 	 */
 	public DataCenter() {
+		this(new SystemClock());
+	}
+
+	/**
+	 * Constructor timing the sensor manager on a clock.
+	 * @param clock The clock.
+	 */
+	public DataCenter(Clock clock) {
 		usLock = new Object();
-		isWallFollowing = false;
 		distances = new int[NUM_DISTANCES];
 		for (int i = 0; i < NUM_DISTANCES; ++i) {
 			distances[i] = 255;
@@ -88,6 +102,7 @@ public class DataCenter {
 		for (int i = 0; i < NUM_DISTANCES; ++i) {
 			filteredDistances[i] = 255;
 		}
+		samples = new int[NUM_DISTANCES];
 		
 		odometerLock = new Object();
 		x = 0.0;
@@ -99,32 +114,17 @@ public class DataCenter {
 		
 		csValueLock = new Object();
 		csValue = 0;
+
+		sensors = new SensorManager(clock);
 	}
 	
 	/**
-	 * Sets the robot's wall following behavior
-	 * to the value of b. If b is true, sets the
-	 * robot to follow the wall, and if b is false,
-	 * sets it to stop following the wall.
-	 * @param b The value that determines if the
-	 * 			robot will wall follow.
-	 */
-	public void setWallFollowing(boolean b) {
-		synchronized (usLock) {
-			isWallFollowing = b;
-		}
-	}
-	
-	/**
-	 * Returns true if the robot is wall following,
-	 * and false otherwise.
-	 * @return true if the robot is wall following,
-	 * 		   and false otherwise.
+	 * Returns the manager of the sensors, which the consumers of the
+	 * sensor data declare the sensors they read to.
+	 * @return The manager of the sensors.
 	 */
-	public boolean getWallFollowing() {
-		synchronized (usLock) {
-			return isWallFollowing;
-		}
+	public SensorManager getSensors() {
+		return sensors;
 	}
 	
 	/**
@@ -141,12 +141,15 @@ public class DataCenter {
 			switch (angle) {
 			case 0:
 				distances[0] = distance;
+				++samples[0];
 				break;
 			case 90:
 				distances[1] = distance;
+				++samples[1];
 				break;
 			case 180:
 				distances[2] = distance;
+				++samples[2];
 				break;
 			default:
 				throw new RuntimeException(
@@ -209,6 +212,31 @@ public class DataCenter {
 		}
 	}
 	
+	/**
+	 * Returns the number of distances recorded by the ultrasonic sensor
+	 * at the specified angle in degrees, which changes with each new
+	 * reading. Accepts angles of 0 degrees, 90 degrees and 180 degrees.
+	 * @param angle The angle from the robot
+	 * 				to the wall in degrees. Accepts 
+	 * 				0 degrees, 90 degrees and 180 degrees as values.
+	 * @return The number of distances recorded.
+	 */
+	public int getSamples(int angle) {
+		synchronized (usLock) {
+			switch (angle) {
+			case 0:
+				return samples[0];
+			case 90:
+				return samples[1];
+			case 180:
+				return samples[2];
+			default:
+				throw new RuntimeException(
+					"Invalid angle passed to DataCenter::getSamples.");
+			}
+		}
+	}
+	
 	/**
 	 * Returns the filtered distance in cm from the robot to
 	 * the wall at the specified angle in degrees.
@@ -266,6 +294,22 @@ public class DataCenter {
 		}
 	}
 	
+	/**
+	 * Adds the given offsets to the x and y positions in cm and the
+	 * theta orientation in degrees of the robot as an atomic operation.
+	 * Keeps theta in [0, 360).
+	 * @param dx The offset to add to x, in cm.
+	 * @param dy The offset to add to y, in cm.
+	 * @param dTheta The offset to add to theta, in degrees.
+	 */
+	public void offsetXYT(double dx, double dy, double dTheta) {
+		synchronized (odometerLock) {
+			this.x += dx;
+			this.y += dy;
+			this.theta = Util.toRange(this.theta + dTheta, 0.0, false);
+		}
+	}
+	
 	/**
 	 * Sets the value of the x position of the
 	 * robot in cm.
@@ -336,7 +380,8 @@ public class DataCenter {
 	}
 
 	/**
-	 * Adds the listener if it does not currently exists.
+	 * Adds the listener if it does not currently exists, and
+	 * demands the color sensor for it.
 	 * @param csListener The listener to add.
 	 */
 	public void addListener(CSListener csListener) {
@@ -348,10 +393,12 @@ public class DataCenter {
 			}
 			csListeners.add(csListener);
 		}
+		sensors.demand(csListener, SensorManager.COLOR, SensorManager.FASTEST);
 	}
 
 	/**
-	 * Remove the listener if it is currently listening.
+	 * Remove the listener if it is currently listening, and
+	 * releases the color sensor for it.
 	 * @param csListener The listener to remove.
 	 */
 	public void removeListener(CSListener csListener) {
@@ -362,6 +409,7 @@ public class DataCenter {
 						"Invalid CSListener to remove in DataCenter.");
 			}
 		}
+		sensors.release(csListener, SensorManager.COLOR);
 	}
 
 	/**
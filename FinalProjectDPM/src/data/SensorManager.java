@@ -0,0 +1,298 @@
+package data;
+import java.util.ArrayList;
+
+import util.Clock;
+import util.SystemClock;
+
+/**
+ * A class keeping track of which sensors are needed and how often, so that
+ * the pollers only run the sensors someone reads. Each consumer demands the
+ * channels it reads with the longest time it can wait between readings,
+ * and releases them when done. A poller runs its sensor at the shortest
+ * period demanded, keeps it running for LINGER after the last release so
+ * that back to back uses do not restart it, and turns it off and sleeps
+ * otherwise. Consumers demand the sensors before the motion that precedes
+ * their use, such as the turn before a tunnel, so that the sensor warms
+ * up during it, and can wait for the sensor to be ready afterwards.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class SensorManager {
+	/**
+	 * The channels of the sensors.
+	 */
+	public static final int RIGHT_US = 0, FRONT_US = 1, LEFT_US = 2, COLOR = 3;
+	/**
+	 * The number of channels.
+	 */
+	private static final int CHANNELS = 4;
+	/**
+	 * The period to demand to get readings as fast as the sensor gives them.
+	 */
+	public static final int FASTEST = 0;
+	/**
+	 * The time in ms a sensor keeps running after its last demand is released.
+	 */
+	private static final long LINGER = 500;
+
+	/**
+	 * A demand of a consumer on a channel.
+	 */
+	private static class Demand {
+		/**
+		 * The consumer.
+		 */
+		final Object consumer;
+		/**
+		 * The channel demanded.
+		 */
+		final int channel;
+		/**
+		 * The longest time in ms between readings.
+		 */
+		int period;
+
+		/**
+		 * Default constructor.
+		 */
+		Demand(Object consumer, int channel, int period) {
+			this.consumer = consumer;
+			this.channel = channel;
+			this.period = period;
+		}
+	}
+
+	/**
+	 * The current demands.
+	 */
+	private final ArrayList<Demand> demands;
+	/**
+	 * The shortest period in ms demanded on each channel when its last
+	 * demand was released, which it keeps running at while it lingers.
+	 */
+	private final int[] lastPeriods;
+	/**
+	 * The time in ms at which the last demand on each channel was released.
+	 */
+	private final long[] released;
+	/**
+	 * Variables keeping track of if the sensor of each channel has given
+	 * enough readings since it started for its filter to be full.
+	 */
+	private final boolean[] ready;
+	/**
+	 * The clock timing the lingering sensors.
+	 */
+	private final Clock clock;
+
+	/**
+	 * Default constructor.
+	 */
+	public SensorManager() {
+		this(new SystemClock());
+	}
+
+	/**
+	 * Constructor timing the lingering sensors on a clock.
+	 * @param clock The clock.
+	 */
+	public SensorManager(Clock clock) {
+		this.clock = clock;
+		demands = new ArrayList<Demand>();
+		lastPeriods = new int[CHANNELS];
+		released = new long[CHANNELS];
+		for (int i = 0; i < CHANNELS; ++i) {
+			released[i] = Long.MIN_VALUE / 2;
+		}
+		ready = new boolean[CHANNELS];
+	}
+
+	/**
+	 * Returns the channel of the ultrasonic sensor at an angle in degrees
+	 * counterclockwise from the right of the robot.
+	 * @param angle The angle of the sensor. Accepts angles of 0 degrees,
+	 * 				90 degrees and 180 degrees.
+	 * @return The channel of the sensor.
+	 */
+	public static int usChannel(int angle) {
+		switch (angle) {
+		case 0:
+			return RIGHT_US;
+		case 90:
+			return FRONT_US;
+		case 180:
+			return LEFT_US;
+		default:
+			throw new RuntimeException(
+				"Invalid angle passed to SensorManager::usChannel.");
+		}
+	}
+
+	/**
+	 * Declares that the consumer reads the channel, and starts its sensor
+	 * if it was off. Replaces the period of an earlier demand of the
+	 * consumer on the channel.
+	 * @param consumer The consumer, which releases the demand with itself.
+	 * @param channel The channel read.
+	 * @param period The longest time in ms the consumer can wait between
+	 * 				 readings, or FASTEST.
+	 */
+	public synchronized void demand(Object consumer, int channel, int period) {
+		checkChannel(channel);
+		for (Demand d : demands) {
+			if (d.consumer == consumer && d.channel == channel) {
+				d.period = period;
+				notifyAll();
+				return;
+			}
+		}
+		demands.add(new Demand(consumer, channel, period));
+		notifyAll();
+	}
+
+	/**
+	 * Releases the demand of the consumer on the channel, if there is one.
+	 * @param consumer The consumer.
+	 * @param channel The channel released.
+	 */
+	public synchronized void release(Object consumer, int channel) {
+		checkChannel(channel);
+		for (int i = 0; i < demands.size(); ++i) {
+			Demand d = demands.get(i);
+			if (d.consumer == consumer && d.channel == channel) {
+				int period = getDemandedPeriod(channel);
+				demands.remove(i);
+				if (getDemandedPeriod(channel) < 0) {
+					lastPeriods[channel] = period;
+					released[channel] = clock.currentTimeMillis();
+				}
+				notifyAll();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Releases all of the demands of the consumer.
+	 * @param consumer The consumer.
+	 */
+	public synchronized void releaseAll(Object consumer) {
+		for (int channel = 0; channel < CHANNELS; ++channel) {
+			release(consumer, channel);
+		}
+	}
+
+	/**
+	 * Returns the period at which to run the sensor of the channel.
+	 * @param channel The channel.
+	 * @return The shortest period in ms demanded, the last one while the
+	 * 		   sensor lingers after its last release, or -1 if the sensor
+	 * 		   is not needed.
+	 */
+	public synchronized int getPeriod(int channel) {
+		checkChannel(channel);
+		int period = getDemandedPeriod(channel);
+		if (period < 0 && clock.currentTimeMillis() - released[channel] < LINGER)
+			period = lastPeriods[channel];
+		return period;
+	}
+
+	/**
+	 * Waits until the sensor of the channel is needed. Used by the pollers
+	 * while their sensor is off.
+	 * @param channel The channel.
+	 * @return The period in ms at which to run the sensor.
+	 */
+	public synchronized int awaitDemand(int channel) {
+		int period = getPeriod(channel);
+		while (period < 0) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			period = getPeriod(channel);
+		}
+		return period;
+	}
+
+	/**
+	 * Sets if the sensor of the channel has filled its filter since it
+	 * started. Used by the pollers.
+	 * @param channel The channel.
+	 * @param ready true if the filter is full.
+	 */
+	public synchronized void setReady(int channel, boolean ready) {
+		checkChannel(channel);
+		this.ready[channel] = ready;
+		notifyAll();
+	}
+
+	/**
+	 * Returns true if a consumer demands the channel, not counting
+	 * the time the sensor lingers after its last release.
+	 * @param channel The channel.
+	 * @return true if the channel is demanded.
+	 */
+	public synchronized boolean isDemanded(int channel) {
+		checkChannel(channel);
+		return getDemandedPeriod(channel) >= 0;
+	}
+
+	/**
+	 * Returns true if the sensor of the channel has filled its filter
+	 * since it started.
+	 * @param channel The channel.
+	 * @return true if the sensor is ready.
+	 */
+	public synchronized boolean isReady(int channel) {
+		checkChannel(channel);
+		return ready[channel];
+	}
+
+	/**
+	 * Waits until the sensor of the channel has filled its filter, which
+	 * returns at once if it warmed up while the consumer was doing
+	 * something else. The channel must be demanded.
+	 * @param channel The channel.
+	 * @param timeout The longest time in ms to wait.
+	 * @return true if the sensor is ready.
+	 */
+	public synchronized boolean awaitReady(int channel, long timeout) {
+		checkChannel(channel);
+		long end = System.currentTimeMillis() + timeout;
+		long left = timeout;
+		while (!ready[channel] && left > 0) {
+			try {
+				wait(left);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			left = end - System.currentTimeMillis();
+		}
+		return ready[channel];
+	}
+
+	/**
+	 * Returns the shortest period in ms demanded on the channel, or -1
+	 * if it is not demanded.
+	 */
+	private int getDemandedPeriod(int channel) {
+		int period = -1;
+		for (Demand d : demands) {
+			if (d.channel == channel && (period < 0 || d.period < period))
+				period = d.period;
+		}
+		return period;
+	}
+
+	/**
+	 * Throws an exception if the channel does not exist.
+	 */
+	private void checkChannel(int channel) {
+		if (channel < 0 || channel >= CHANNELS)
+			throw new RuntimeException(
+				"Invalid channel passed to SensorManager.");
+	}
+}
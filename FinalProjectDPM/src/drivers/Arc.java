@@ -0,0 +1,119 @@
+package drivers;
+import util.Util;
+
+/**
+ * A constant curvature motion primitive: the center of the robot moves
+ * along a circular arc while its heading changes by a fixed angle. A
+ * straight move is an arc with no angle, a turn in place is an arc with no
+ * length, a pivot turn is an arc whose radius is half the distance between
+ * the wheels, so that the inner wheel stays still, and a swing turn is any
+ * larger radius.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class Arc {
+	/**
+	 * The length in cm of the path of the center of the robot.
+	 */
+	private double length;
+	/**
+	 * The change of heading in degrees, positive counterclockwise.
+	 */
+	private double angle;
+
+	/**
+	 * Default constructor.
+	 * @param length The length in cm of the path of the center of the
+	 * 				 robot. Must not be negative.
+	 * @param angle The change of heading in degrees, positive counterclockwise.
+	 */
+	public Arc(double length, double angle) {
+		if (length < 0)
+			throw new RuntimeException("Negative arc length.");
+		this.length = length;
+		this.angle = angle;
+	}
+
+	/**
+	 * Returns the arc turning by the angle around a center at the
+	 * given distance from the center of the robot.
+	 * @param radius The radius in cm of the path of the center of the robot.
+	 * @param angle The change of heading in degrees, positive counterclockwise.
+	 * @return The arc.
+	 */
+	public static Arc turn(double radius, double angle) {
+		return new Arc(Math.abs(Math.toRadians(angle) * radius), angle);
+	}
+
+	/**
+	 * Returns the length in cm of the path of the center of the robot.
+	 * @return The length in cm.
+	 */
+	public double getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the change of heading in degrees, positive counterclockwise.
+	 * @return The change of heading in degrees.
+	 */
+	public double getAngle() {
+		return angle;
+	}
+
+	/**
+	 * Returns true if the arc is a turn in place.
+	 * @return true if the arc has no length.
+	 */
+	public boolean isSpin() {
+		return length == 0;
+	}
+
+	/**
+	 * Returns the distances the wheels travel along the arc.
+	 * @param width The distance in cm between the wheels.
+	 * @return The left and right distances in cm, negative backwards.
+	 */
+	public double[] getWheelDistances(double width) {
+		double turn = Math.toRadians(angle) * width / 2;
+		double[] distances = {length - turn, length + turn};
+		return distances;
+	}
+
+	/**
+	 * Returns the wheel speeds that drive the arc.
+	 * @param speed The speed of the faster wheel.
+	 * @param width The distance in cm between the wheels.
+	 * @return The left and right wheel speeds, in the units of speed.
+	 */
+	public double[] getWheelSpeeds(double speed, double width) {
+		double[] distances = getWheelDistances(width);
+		double scale = Math.max(Math.abs(distances[0]), Math.abs(distances[1]));
+		double[] speeds = {0, 0};
+		if (scale > 0) {
+			speeds[0] = speed * distances[0] / scale;
+			speeds[1] = speed * distances[1] / scale;
+		}
+		return speeds;
+	}
+
+	/**
+	 * Moves the pose to the end of the arc.
+	 * @param pose The x and y position in cm and the heading in degrees
+	 * 			   at the start of the arc, replaced by those at its end.
+	 */
+	public void move(double[] pose) {
+		double start = Math.toRadians(pose[2]);
+		double turn = Math.toRadians(angle);
+		if (Math.abs(turn) < 1e-9) {
+			pose[0] += length * Math.cos(start);
+			pose[1] += length * Math.sin(start);
+		} else {
+			double radius = length / turn;
+			pose[0] += radius * (Math.sin(start + turn) - Math.sin(start));
+			pose[1] += radius * (Math.cos(start) - Math.cos(start + turn));
+		}
+		pose[2] = Util.toRange(pose[2] + angle, 0.0, false);
+	}
+}
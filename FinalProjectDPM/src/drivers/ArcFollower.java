@@ -0,0 +1,253 @@
+package drivers;
+import util.Util;
+
+/**
+ * Drives a sequence of arcs without stopping between them. Each arc is
+ * driven at the wheel speed ratio of its curvature, with the heading
+ * controller steering back onto the planned arc. The speed follows a
+ * velocity profile over the whole sequence and slows down before the
+ * tight arcs, so that the outer wheel stays within the highest speed.
+ * The robot only stops to turn in place.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ArcFollower {
+	/**
+	 * The highest wheel speed in deg/s.
+	 */
+	private static final int HIGH_SPD = 500;
+	/**
+	 * The wheel speed in deg/s used while turning in place.
+	 */
+	private static final int TURN_SPD = 200;
+	/**
+	 * The speed in deg/s below which the robot does not slow down.
+	 */
+	private static final int CREEP_SPD = 50;
+	/**
+	 * The acceleration in deg/s/s and jerk in deg/s/s/s of the speed profile.
+	 * Same as in Navigation.
+	 */
+	private static final double ACCELERATION = 900, JERK = 20000;
+	/**
+	 * The motor acceleration in deg/s/s, used to stop the turns in place.
+	 */
+	private static final double MOTOR_ACCELERATION = 1000;
+	/**
+	 * The gains and largest output of the heading controller. Same as in Navigation.
+	 */
+	private static final double KP = 8.0, KI = 2.0, KD = 0.3, MAX_CORRECTION = 150;
+	/**
+	 * The distance in cm ahead on the arc at which the robot aims
+	 * to get back onto it.
+	 */
+	private static final double LOOKAHEAD = 10.0;
+	/**
+	 * The heading error in degrees at which a turn in place ends.
+	 */
+	private static final double SPIN_ERR = 1.0;
+
+	/**
+	 * The arcs to drive.
+	 */
+	private Arc[] arcs;
+	/**
+	 * The planned pose at the start of each arc, and at the end of the last one.
+	 */
+	private double[][] poses;
+	/**
+	 * The radius in cm of the wheels the speeds are given for.
+	 */
+	private double radius;
+	/**
+	 * The distance in cm between the wheels.
+	 */
+	private double width;
+	/**
+	 * The index of the current arc.
+	 */
+	private int current;
+	/**
+	 * The speed profile of the arcs up to the next turn in place.
+	 */
+	private MotionProfile profile;
+	/**
+	 * The time in s since the start of the profile.
+	 */
+	private double time;
+	/**
+	 * The speed of the center of the robot in deg/s of wheel rotation
+	 * at the last update.
+	 */
+	private double speed;
+	/**
+	 * The controller steering back onto the arcs.
+	 */
+	private HeadingController heading;
+
+	/**
+	 * Default constructor.
+	 * @param arcs The arcs to drive.
+	 * @param x The x position in cm at the start of the arcs.
+	 * @param y The y position in cm at the start of the arcs.
+	 * @param theta The heading in degrees at the start of the arcs.
+	 * @param radius The radius in cm of the wheels the speeds are given for.
+	 * @param width The distance in cm between the wheels.
+	 */
+	public ArcFollower(Arc[] arcs, double x, double y, double theta, double radius, double width) {
+		this.arcs = arcs;
+		this.radius = radius;
+		this.width = width;
+		poses = new double[arcs.length + 1][];
+		double[] pose = {x, y, theta};
+		for (int i = 0; i < arcs.length; ++i) {
+			poses[i] = pose.clone();
+			arcs[i].move(pose);
+		}
+		poses[arcs.length] = pose;
+		heading = new HeadingController(KP, KI, KD, MAX_CORRECTION);
+		current = 0;
+		startProfile();
+	}
+
+	/**
+	 * Computes the wheel speeds for the current pose.
+	 * @param x The x position in cm.
+	 * @param y The y position in cm.
+	 * @param theta The heading in degrees.
+	 * @param dt The time in s since the last update.
+	 * @return The left and right wheel speeds in deg/s,
+	 * 		   or null once the last arc is driven.
+	 */
+	public double[] update(double x, double y, double theta, double dt) {
+		time += dt;
+		double[] progress = new double[3];
+		while (current < arcs.length && done(x, y, theta, progress)) {
+			boolean spin = arcs[current].isSpin();
+			++current;
+			if (spin)
+				startProfile();
+		}
+		if (current == arcs.length)
+			return null;
+		Arc arc = arcs[current];
+
+		if (arc.isSpin()) {
+			//Slows down to stop on the heading like the regulated motors do in rotate.
+			double error = Util.toRange(poses[current + 1][2] - theta, -180.0, true);
+			double wheel = Math.toDegrees(Math.toRadians(Math.abs(error)) * width / 2 / radius);
+			double turn = Math.min(TURN_SPD, Math.sqrt(2 * MOTOR_ACCELERATION * wheel));
+			double sign = Math.signum(error);
+			double[] speeds = {-sign * turn, sign * turn};
+			return speeds;
+		}
+
+		//Steers towards a point ahead on the arc.
+		double along = progress[0];
+		double lateral = progress[1];
+		double tangent = progress[2];
+		double error = Util.toRange(tangent + Math.toDegrees(Math.atan2(-lateral, LOOKAHEAD)) - theta,
+				-180.0, true);
+		double correction = heading.update(error, dt);
+
+		//Ramps up along the profile, slows down on the distance left,
+		//and before the arcs too tight for the current speed. The distance
+		//covered until the next update is subtracted since the speed
+		//cannot change before then.
+		double left = toWheel(arc.getLength() - along) - speed * dt;
+		speed = profile.getSpeed(time, left + toWheel(lengthToSpin(current + 1)));
+		double distance = 0;
+		for (int i = current; i < arcs.length && !arcs[i].isSpin(); ++i) {
+			double limit = maxSpeed(arcs[i]);
+			speed = Math.min(speed, Math.sqrt(limit * limit + 2 * ACCELERATION * Math.max(distance, 0)));
+			distance += i == current ? left : toWheel(arcs[i].getLength());
+		}
+		speed = Math.max(speed, CREEP_SPD);
+
+		double curvature = Math.toRadians(arc.getAngle()) / arc.getLength();
+		double[] speeds = {speed * (1 - curvature * width / 2) - correction,
+				speed * (1 + curvature * width / 2) + correction};
+		return speeds;
+	}
+
+	/**
+	 * Returns the index of the arc being driven.
+	 * @return The index of the arc being driven.
+	 */
+	public int getCurrent() {
+		return current;
+	}
+
+	/**
+	 * Returns true if the current arc is driven. Otherwise, stores the
+	 * distance in cm covered along the arc, the distance in cm to the left
+	 * of the arc and the heading in degrees of the arc at the closest point.
+	 */
+	private boolean done(double x, double y, double theta, double[] progress) {
+		Arc arc = arcs[current];
+		double[] start = poses[current];
+		if (arc.isSpin())
+			return Math.abs(Util.toRange(poses[current + 1][2] - theta, -180.0, true)) < SPIN_ERR;
+		double h = Math.toRadians(start[2]);
+		double dx = x - start[0];
+		double dy = y - start[1];
+		double turn = Math.toRadians(arc.getAngle());
+		if (Math.abs(turn) < 1e-9) {
+			progress[0] = dx * Math.cos(h) + dy * Math.sin(h);
+			progress[1] = -dx * Math.sin(h) + dy * Math.cos(h);
+			progress[2] = start[2];
+		} else {
+			//The center is on the left of the robot for counterclockwise arcs.
+			double r = arc.getLength() / turn;
+			double cx = start[0] - r * Math.sin(h);
+			double cy = start[1] + r * Math.cos(h);
+			double startAngle = Math.atan2(start[1] - cy, start[0] - cx);
+			double angle = Math.atan2(y - cy, x - cx);
+			double swept = Math.toRadians(Util.toRange(Math.toDegrees(angle - startAngle), -180.0, true));
+			progress[0] = swept * r;
+			progress[1] = Math.signum(turn) * (Math.abs(r) - Math.hypot(x - cx, y - cy));
+			progress[2] = Math.toDegrees(angle) + Math.signum(turn) * 90;
+		}
+		return progress[0] >= arc.getLength();
+	}
+
+	/**
+	 * Starts a new speed profile from rest over the arcs up to the next turn in place.
+	 */
+	private void startProfile() {
+		double distance = toWheel(lengthToSpin(current));
+		profile = new MotionProfile(distance, HIGH_SPD, ACCELERATION, JERK);
+		time = 0;
+		speed = 0;
+		heading.reset();
+	}
+
+	/**
+	 * Returns the length in cm of the arcs from the given one
+	 * up to the next turn in place.
+	 */
+	private double lengthToSpin(int from) {
+		double length = 0;
+		for (int i = from; i < arcs.length && !arcs[i].isSpin(); ++i) {
+			length += arcs[i].getLength();
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the highest speed in deg/s of the center of the robot
+	 * on the arc, so that the outer wheel stays within HIGH_SPD.
+	 */
+	private double maxSpeed(Arc arc) {
+		double curvature = Math.abs(Math.toRadians(arc.getAngle())) / arc.getLength();
+		return HIGH_SPD / (1 + curvature * width / 2);
+	}
+
+	/**
+	 * Converts a distance in cm to degrees of wheel rotation.
+	 */
+	private double toWheel(double distance) {
+		return Math.toDegrees(distance / radius);
+	}
+}
@@ -0,0 +1,106 @@
+package drivers;
+import util.Point;
+import util.Util;
+
+/**
+ * Turns a path of corners into arcs driven without stopping. Each corner
+ * is rounded by an arc tangent to both of its segments, with the largest
+ * radius up to the given one that fits in the segments. The robot only
+ * turns in place to face the first segment and at corners too sharp
+ * to round.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ArcPlanner {
+	/**
+	 * The change of heading in degrees above which a corner
+	 * is turned in place instead of rounded.
+	 */
+	private static final double SPIN_ANGLE = 120.0;
+	/**
+	 * The distance in cm under which consecutive points are merged.
+	 */
+	private static final double MIN_LENGTH = 0.5;
+
+	/**
+	 * The largest radius in cm of the arcs rounding the corners.
+	 */
+	private double radius;
+
+	/**
+	 * Default constructor.
+	 * @param radius The largest radius in cm of the arcs rounding the corners.
+	 */
+	public ArcPlanner(double radius) {
+		if (radius <= 0)
+			throw new RuntimeException("Invalid arc radius.");
+		this.radius = radius;
+	}
+
+	/**
+	 * Plans the arcs from the pose through the points of the path.
+	 * @param x The x position in cm.
+	 * @param y The y position in cm.
+	 * @param theta The heading in degrees.
+	 * @param path The points to go through, in cm.
+	 * @return The arcs, in order.
+	 */
+	public Arc[] plan(double x, double y, double theta, Point[] path) {
+		//Drops the points on top of the previous one.
+		Point[] points = new Point[path.length + 1];
+		int n = 0;
+		points[n++] = new Point(x, y);
+		for (Point p : path) {
+			Point last = points[n - 1];
+			if (Math.hypot(p.x - last.x, p.y - last.y) >= MIN_LENGTH)
+				points[n++] = p;
+		}
+		int segments = n - 1;
+		if (segments == 0)
+			return new Arc[0];
+
+		//Heading and length of each segment.
+		double[] headings = new double[segments];
+		double[] lengths = new double[segments];
+		for (int i = 0; i < segments; ++i) {
+			double dx = points[i + 1].x - points[i].x;
+			double dy = points[i + 1].y - points[i].y;
+			headings[i] = Math.toDegrees(Math.atan2(dy, dx));
+			lengths[i] = Math.hypot(dx, dy);
+		}
+
+		//The change of heading, the radius and the length of segment
+		//used by the arc at each corner. Corner i is at the start of segment i.
+		double[] turns = new double[segments];
+		double[] radii = new double[segments];
+		double[] tangents = new double[segments];
+		turns[0] = Util.toRange(headings[0] - theta, -180.0, true);
+		for (int i = 1; i < segments; ++i) {
+			turns[i] = Util.toRange(headings[i] - headings[i - 1], -180.0, true);
+			double half = Math.tan(Math.toRadians(Math.abs(turns[i])) / 2);
+			if (Math.abs(turns[i]) > SPIN_ANGLE || half == 0)
+				continue;
+			//Segments rounded at both ends give half of their length to each arc.
+			double before = i == 1 ? lengths[0] : lengths[i - 1] / 2;
+			double after = i == segments - 1 ? lengths[i] : lengths[i] / 2;
+			radii[i] = Math.min(radius, Math.min(before, after) / half);
+			tangents[i] = radii[i] * half;
+		}
+
+		Arc[] arcs = new Arc[3 * segments];
+		int count = 0;
+		for (int i = 0; i < segments; ++i) {
+			if (radii[i] > 0)
+				arcs[count++] = Arc.turn(radii[i], turns[i]);
+			else if (turns[i] != 0)
+				arcs[count++] = new Arc(0, turns[i]);
+			double straight = lengths[i] - tangents[i] - (i + 1 < segments ? tangents[i + 1] : 0);
+			if (straight > 0)
+				arcs[count++] = new Arc(straight, 0);
+		}
+		Arc[] result = new Arc[count];
+		System.arraycopy(arcs, 0, result, 0, count);
+		return result;
+	}
+}
@@ -1,5 +1,7 @@
 package drivers;
 import data.DataCenter;
+import data.SensorManager;
+import lejos.nxt.ColorSensor;
 import lejos.nxt.Sound;
 
 /**
@@ -29,6 +31,15 @@ public class CSPoller extends Thread {
 	 * The location to send notifications to.
 	 */
 	private DataCenter dc;
+	/**
+	 * The color sensor polled, initialized when the thread starts.
+	 */
+	private ColorSensor cs;
+	/**
+	 * The time in ms the color sensor takes to give steady readings
+	 * after the floodlight is turned on.
+	 */
+	private static final int WARM_UP = 30;
 	
 	/**
 	 * Default constructor.
@@ -37,17 +48,42 @@ public class CSPoller extends Thread {
 	public CSPoller(DataCenter dc) {
 		this.dc = dc;
 		this.data = new int[NUM_VALUES];
-		HWConstants.CS.setFloodlight(true);
 	}
 
 	/**
 	 * Method called when thread is started. Takes color sensor values
-	 * and notifies the data center when a grid line is detected.
+	 * and notifies the data center when a grid line is detected, at the
+	 * rate demanded of the color sensor in the sensor manager. Turns the
+	 * floodlight off and sleeps while no one needs the sensor.
 	 */
 	@Override
 	public void run() {
-		init();
+		cs = HWConstants.getCS();
+		SensorManager sensors = dc.getSensors();
 		while (true) {
+			int period = sensors.getPeriod(SensorManager.COLOR);
+			if (period < 0) {
+				cs.setFloodlight(false);
+				sensors.setReady(SensorManager.COLOR, false);
+				period = sensors.awaitDemand(SensorManager.COLOR);
+				cs.setFloodlight(true);
+				//Readings taken while the floodlight comes on look dark
+				//and would be taken as a grid line.
+				try {
+					Thread.sleep(WARM_UP);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+				init();
+				sensors.setReady(SensorManager.COLOR, true);
+			}
+			if (period > 0) {
+				try {
+					Thread.sleep(period);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
 			int csValue = poll();
 			dc.setCSValue(csValue);
 			int current = getMean();
@@ -64,7 +100,7 @@ public class CSPoller extends Thread {
 	 */
 	private void init() {
 		for (int i = 0; i < NUM_VALUES; ++i) {
-			data[i] = HWConstants.CS.getLightValue();
+			data[i] = cs.getLightValue();
 		}
 	}
 
@@ -73,7 +109,7 @@ public class CSPoller extends Thread {
 	 * @return The color sensor reading.
 	 */
 	private int poll() {
-		int val = HWConstants.CS.getLightValue();
+		int val = cs.getLightValue();
 		for (int i = 0; i < NUM_VALUES-1; ++i) {
 			data[i] = data[i+1]; 
 		}
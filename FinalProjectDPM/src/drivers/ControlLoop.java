@@ -0,0 +1,153 @@
+package drivers;
+import util.Clock;
+import util.SystemClock;
+
+/**
+ * Paces a control loop at a fixed rate. Each iteration sleeps until the
+ * next multiple of the period after the start of the loop, so the rate does
+ * not depend on how long the iterations take. Keeps track of the time spent
+ * running the iterations and sleeping, which is the time left to the
+ * other threads, such as the sensor pollers.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ControlLoop {
+	/**
+	 * The source of time.
+	 */
+	private final Clock clock;
+	/**
+	 * The time in ms between consecutive iterations.
+	 */
+	private long period;
+	/**
+	 * The time in ms at which the next iteration starts.
+	 */
+	private long deadline;
+	/**
+	 * The time in ms at which the current iteration started.
+	 */
+	private long wake;
+	/**
+	 * The number of iterations completed.
+	 */
+	private long iterations;
+	/**
+	 * The number of iterations that took longer than the period.
+	 */
+	private long overruns;
+	/**
+	 * The total time in ms spent in the iterations and sleeping.
+	 */
+	private long busyTime, idleTime;
+
+	/**
+	 * Default constructor.
+	 * @param period The time in ms between consecutive iterations.
+	 */
+	public ControlLoop(long period) {
+		this(period, new SystemClock());
+	}
+
+	/**
+	 * Constructor for a given source of time.
+	 * @param period The time in ms between consecutive iterations.
+	 * @param clock The source of time.
+	 */
+	public ControlLoop(long period, Clock clock) {
+		this.clock = clock;
+		setPeriod(period);
+		start();
+	}
+
+	/**
+	 * Sets the time between consecutive iterations. Takes effect
+	 * at the next start of the loop.
+	 * @param period The time in ms between consecutive iterations.
+	 */
+	public synchronized void setPeriod(long period) {
+		if (period <= 0)
+			throw new RuntimeException("Invalid control period.");
+		this.period = period;
+	}
+
+	/**
+	 * Returns the time in ms between consecutive iterations.
+	 * @return The time in ms between consecutive iterations.
+	 */
+	public synchronized long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Starts timing the iterations from now. Called before the first
+	 * iteration of a loop, and after anything that blocked the loop,
+	 * such as a turn in place, so that the blocked time is not counted.
+	 */
+	public synchronized void start() {
+		wake = clock.currentTimeMillis();
+		deadline = wake + period;
+	}
+
+	/**
+	 * Ends the current iteration and sleeps until the next one starts.
+	 * Does not sleep if the iteration overran the period, but starts
+	 * the next period from now.
+	 */
+	public void waitForNextTick() {
+		long now = clock.currentTimeMillis();
+		long sleep;
+		synchronized (this) {
+			busyTime += now - wake;
+			++iterations;
+			sleep = deadline - now;
+			if (sleep <= 0) {
+				++overruns;
+				deadline = now;
+				sleep = 0;
+			}
+			deadline += period;
+		}
+		if (sleep > 0)
+			clock.sleep(sleep);
+		long end = clock.currentTimeMillis();
+		synchronized (this) {
+			idleTime += end - now;
+			wake = end;
+		}
+	}
+
+	/**
+	 * Returns the number of iterations completed.
+	 * @return The number of iterations completed.
+	 */
+	public synchronized long getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Returns the number of iterations that took longer than the period.
+	 * @return The number of iterations that took longer than the period.
+	 */
+	public synchronized long getOverruns() {
+		return overruns;
+	}
+
+	/**
+	 * Returns the total time in ms spent running the iterations.
+	 * @return The total time in ms spent running the iterations.
+	 */
+	public synchronized long getBusyTime() {
+		return busyTime;
+	}
+
+	/**
+	 * Returns the total time in ms spent sleeping between iterations,
+	 * which the other threads can use.
+	 * @return The total time in ms spent sleeping between iterations.
+	 */
+	public synchronized long getIdleTime() {
+		return idleTime;
+	}
+}
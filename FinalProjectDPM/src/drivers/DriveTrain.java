@@ -0,0 +1,72 @@
+package drivers;
+
+/**
+ * The pair of motors driving the wheels of the robot. Issues every
+ * command to both motors together and samples both tachometers
+ * together, so that the wheels start, change speed and are measured at
+ * the same time. Speeds and angles are in degrees of motor rotation,
+ * positive to move the robot forward. Implementations are thread safe.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public interface DriveTrain {
+	/**
+	 * Sets the acceleration of both motors.
+	 * @param acceleration The acceleration in deg/s/s.
+	 */
+	public void setAcceleration(int acceleration);
+
+	/**
+	 * Runs the motors at the given speeds until the next command.
+	 * @param left The speed of the left motor in deg/s.
+	 * @param right The speed of the right motor in deg/s.
+	 */
+	public void setSpeeds(int left, int right);
+
+	/**
+	 * Starts rotating the motors by the given angles at the given speeds.
+	 * Returns immediately. A motor rotated by 0 degrees holds its position.
+	 * @param leftSpeed The speed of the left motor in deg/s.
+	 * @param rightSpeed The speed of the right motor in deg/s.
+	 * @param leftAngle The angle by which to rotate the left motor in degrees.
+	 * @param rightAngle The angle by which to rotate the right motor in degrees.
+	 */
+	public void rotate(int leftSpeed, int rightSpeed, int leftAngle, int rightAngle);
+
+	/**
+	 * Returns true if either motor is rotating to an angle.
+	 * @return true if either motor is rotating to an angle.
+	 */
+	public boolean isMoving();
+
+	/**
+	 * Stops both motors and holds their position.
+	 */
+	public void stop();
+
+	/**
+	 * Floats both motors.
+	 */
+	public void flt();
+
+	/**
+	 * Reads both tachometers at the same time.
+	 * @param counts Storage for the left and right counts in degrees.
+	 */
+	public void getTachoCounts(int[] counts);
+
+	/**
+	 * Returns the times between the commands sent to the left and
+	 * to the right motor.
+	 * @return The statistics of the start skew.
+	 */
+	public SkewStatistics getStartSkew();
+
+	/**
+	 * Returns the times between the reads of the left and of the
+	 * right tachometer.
+	 * @return The statistics of the read skew.
+	 */
+	public SkewStatistics getReadSkew();
+}
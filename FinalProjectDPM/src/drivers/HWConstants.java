@@ -93,6 +93,11 @@ public class HWConstants {
 	 */
 	public static final int DIRECTION;
 	
+	/**
+	 * The left and right wheel motors, commanded and read together.
+	 */
+	public static final DriveTrain DRIVE_TRAIN;
+	
 	/**
 	 * The sensor port for the left ultrasonic sensor.
 	 */
@@ -114,19 +119,17 @@ public class HWConstants {
 	public static final SensorPort CS_PORT;
 
 	/**
-	 * The ultrasonic sensor polling the left of the robot.
+	 * The ultrasonic sensors polling the left, front and right of the
+	 * robot, or null until they are first used.
 	 */
-	public static final UltrasonicSensor LEFT_US;
+	private static UltrasonicSensor leftUS, frontUS, rightUS;
 
 	/**
-	 * The ultrasonic sensor polling the front of the robot.
+	 * The locks guarding the initialization of the sensor on each port,
+	 * private so that no other code holding a port can block it.
 	 */
-	public static final UltrasonicSensor FRONT_US;
-	
-	/**
-	 * The ultrasonic sensor polling the right of the robot.
-	 */
-	public static final UltrasonicSensor RIGHT_US;
+	private static final Object LEFT_US_LOCK = new Object(), FRONT_US_LOCK = new Object(),
+			RIGHT_US_LOCK = new Object(), CS_LOCK = new Object();
 	
 	/**
 	 * The distance in cm between the left ultrasonic sensor and
@@ -147,9 +150,10 @@ public class HWConstants {
 	public static final double RIGHT_US_DISTANCE;
 	
 	/**
-	 * The color sensor used by the robot to detect grid lines.
+	 * The color sensor used by the robot to detect grid lines,
+	 * or null until it is first used.
 	 */
-	public static final ColorSensor CS;
+	private static ColorSensor cs;
 
 	/**
 	 * The distance between the center of rotation of the robot and
@@ -201,20 +205,17 @@ public class HWConstants {
 				LAUNCH_SIDE_DISTANCE * LAUNCH_SIDE_DISTANCE);
 		LAUNCH_ANGLE = Math.toDegrees(Math.atan2(-LAUNCH_SIDE_DISTANCE, LAUNCH_FRONT_DISTANCE));
 		DIRECTION = 1;
+		DRIVE_TRAIN = new NXTDriveTrain(LEFT_MOTOR, RIGHT_MOTOR, DIRECTION);
 
 		LEFT_US_PORT = SensorPort.S1;
 		FRONT_US_PORT = SensorPort.S3;
 		RIGHT_US_PORT = SensorPort.S4;
 		CS_PORT = SensorPort.S2;
 
-		LEFT_US = new UltrasonicSensor(LEFT_US_PORT);
-		FRONT_US = new UltrasonicSensor(FRONT_US_PORT);
-		RIGHT_US = new UltrasonicSensor(RIGHT_US_PORT);
 		LEFT_US_DISTANCE = 7.5;
 		FRONT_US_DISTANCE = 4;
 		RIGHT_US_DISTANCE = 10.7;
 
-		CS = new ColorSensor(CS_PORT);
 		FRONT_CS_DISTANCE = -11.5;
 		SIDE_CS_DISTANCE = -0.3;
 		CS_DISTANCE = Math.sqrt(FRONT_CS_DISTANCE * FRONT_CS_DISTANCE +
@@ -222,4 +223,51 @@ public class HWConstants {
 		CS_ANGLE = Math.toDegrees(Math.atan2(-SIDE_CS_DISTANCE, FRONT_CS_DISTANCE));
 		TILE_DISTANCE = 30.48;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the ultrasonic sensor at an angle in degrees counterclockwise
+	 * from the right of the robot. Initializes the sensor on first use, so
+	 * that a program only initializes the sensors it polls. Sensors on
+	 * different ports are initialized concurrently by different threads.
+	 * @param angle The angle of the sensor. Accepts angles of 0 degrees,
+	 * 				90 degrees and 180 degrees.
+	 * @return The ultrasonic sensor.
+	 */
+	public static UltrasonicSensor getUS(int angle) {
+		switch (angle) {
+		case 0:
+			synchronized (RIGHT_US_LOCK) {
+				if (rightUS == null)
+					rightUS = new UltrasonicSensor(RIGHT_US_PORT);
+				return rightUS;
+			}
+		case 90:
+			synchronized (FRONT_US_LOCK) {
+				if (frontUS == null)
+					frontUS = new UltrasonicSensor(FRONT_US_PORT);
+				return frontUS;
+			}
+		case 180:
+			synchronized (LEFT_US_LOCK) {
+				if (leftUS == null)
+					leftUS = new UltrasonicSensor(LEFT_US_PORT);
+				return leftUS;
+			}
+		default:
+			throw new RuntimeException(
+				"Invalid angle passed to HWConstants::getUS.");
+		}
+	}
+
+	/**
+	 * Returns the color sensor. Initializes the sensor on first use.
+	 * @return The color sensor.
+	 */
+	public static ColorSensor getCS() {
+		synchronized (CS_LOCK) {
+			if (cs == null)
+				cs = new ColorSensor(CS_PORT);
+			return cs;
+		}
+	}
+}
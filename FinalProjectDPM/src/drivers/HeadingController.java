@@ -0,0 +1,81 @@
+package drivers;
+
+/**
+ * A PID controller of the heading of the robot while it drives. Turns the
+ * heading error into a differential wheel speed added to the right wheel
+ * and subtracted from the left one, so that the robot steers towards its
+ * destination without stopping. The output is bounded and the integral
+ * only accumulates while the output is not saturated.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class HeadingController {
+	/**
+	 * The proportional, integral and derivative gains, in deg/s of
+	 * wheel speed per degree, per degree second and per degree per second.
+	 */
+	private double kp, ki, kd;
+	/**
+	 * The largest differential speed in deg/s.
+	 */
+	private double maxOutput;
+	/**
+	 * The integral of the error in degree seconds.
+	 */
+	private double integral;
+	/**
+	 * The error at the last update in degrees.
+	 */
+	private double previousError;
+	/**
+	 * Variable keeping track of if an update was done since the last reset.
+	 */
+	private boolean started;
+
+	/**
+	 * Default constructor.
+	 * @param kp The proportional gain.
+	 * @param ki The integral gain.
+	 * @param kd The derivative gain.
+	 * @param maxOutput The largest differential speed in deg/s.
+	 */
+	public HeadingController(double kp, double ki, double kd, double maxOutput) {
+		this.kp = kp;
+		this.ki = ki;
+		this.kd = kd;
+		this.maxOutput = maxOutput;
+		reset();
+	}
+
+	/**
+	 * Clears the integral and derivative terms. Called after the robot
+	 * stops or turns in place.
+	 */
+	public void reset() {
+		integral = 0;
+		previousError = 0;
+		started = false;
+	}
+
+	/**
+	 * Computes the differential speed for the heading error.
+	 * @param error The heading error in degrees, in the range (-180, 180],
+	 * 				positive if the robot must turn counterclockwise.
+	 * @param dt The time in s since the last update.
+	 * @return The differential speed in deg/s, positive to turn counterclockwise.
+	 */
+	public double update(double error, double dt) {
+		double derivative = 0;
+		if (started && dt > 0)
+			derivative = (error - previousError) / dt;
+		previousError = error;
+		started = true;
+
+		double output = kp * error + ki * integral + kd * derivative;
+		if (Math.abs(output) < maxOutput) {
+			integral += error * dt;
+		}
+		return Math.max(-maxOutput, Math.min(maxOutput, output));
+	}
+}
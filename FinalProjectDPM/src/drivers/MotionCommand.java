@@ -0,0 +1,165 @@
+package drivers;
+import java.util.ArrayList;
+
+/**
+ * A motion of the robot queued on a MotionExecutor. Serves as the
+ * completion handle of the motion: callers can wait for it to finish,
+ * cancel it, or chain commands that are cancelled along with it.
+ * A running command stops at its next check of isCancelled().
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public abstract class MotionCommand {
+	/**
+	 * The states of a command.
+	 */
+	private static final int PENDING = 0, RUNNING = 1, DONE = 2, CANCELLED = 3;
+
+	/**
+	 * The current state of the command.
+	 */
+	private int state;
+	/**
+	 * Variable keeping track of if the command was cancelled while running.
+	 */
+	private boolean cancelRequested;
+	/**
+	 * The commands cancelled when this one is cancelled.
+	 */
+	private ArrayList<MotionCommand> chained;
+
+	/**
+	 * Default constructor.
+	 */
+	public MotionCommand() {
+		state = PENDING;
+		cancelRequested = false;
+		chained = new ArrayList<MotionCommand>();
+	}
+
+	/**
+	 * Performs the motion. Called on the thread of the executor.
+	 * Long motions should return early once isCancelled() is true.
+	 */
+	protected abstract void execute();
+
+	/**
+	 * Cancels the command. A pending command is skipped by the executor,
+	 * while a running command is asked to stop. The chained commands
+	 * are cancelled as well.
+	 */
+	public void cancel() {
+		synchronized (this) {
+			if (state == DONE || state == CANCELLED || cancelRequested)
+				return;
+			if (state == PENDING) {
+				state = CANCELLED;
+				notifyAll();
+			} else {
+				cancelRequested = true;
+			}
+		}
+		cancelChained();
+	}
+
+	/**
+	 * Chains a command to this one, so that it is cancelled if this
+	 * one is cancelled. The chained command must be queued after this one.
+	 * @param next The command to chain.
+	 * @return The chained command.
+	 */
+	public MotionCommand then(MotionCommand next) {
+		boolean cancelled;
+		synchronized (this) {
+			cancelled = state == CANCELLED || cancelRequested;
+			if (!cancelled)
+				chained.add(next);
+		}
+		if (cancelled)
+			next.cancel();
+		return next;
+	}
+
+	/**
+	 * Waits until the command is done or cancelled.
+	 */
+	public synchronized void waitFor() {
+		while (state != DONE && state != CANCELLED) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Waits until the command is done or cancelled, or the timeout expires.
+	 * @param timeout The maximum time to wait in ms.
+	 * @return true if the command is done or cancelled.
+	 */
+	public synchronized boolean waitFor(long timeout) {
+		long end = System.currentTimeMillis() + timeout;
+		long remaining = timeout;
+		while (state != DONE && state != CANCELLED && remaining > 0) {
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			remaining = end - System.currentTimeMillis();
+		}
+		return state == DONE || state == CANCELLED;
+	}
+
+	/**
+	 * Returns true if the command finished or was cancelled.
+	 * @return true if the command finished or was cancelled.
+	 */
+	public synchronized boolean isDone() {
+		return state == DONE || state == CANCELLED;
+	}
+
+	/**
+	 * Returns true if the command was cancelled.
+	 * @return true if the command was cancelled.
+	 */
+	public synchronized boolean isCancelled() {
+		return state == CANCELLED || cancelRequested;
+	}
+
+	/**
+	 * Runs the command unless it was cancelled before starting.
+	 * Called by the executor.
+	 */
+	void run() {
+		synchronized (this) {
+			if (state != PENDING)
+				return;
+			state = RUNNING;
+		}
+		try {
+			execute();
+		} finally {
+			synchronized (this) {
+				state = cancelRequested ? CANCELLED : DONE;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Cancels the chained commands.
+	 */
+	private void cancelChained() {
+		MotionCommand[] next;
+		synchronized (this) {
+			next = chained.toArray(new MotionCommand[chained.size()]);
+			chained.clear();
+		}
+		for (MotionCommand c : next) {
+			c.cancel();
+		}
+	}
+}
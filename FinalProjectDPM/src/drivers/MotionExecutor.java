@@ -0,0 +1,143 @@
+package drivers;
+
+/**
+ * A thread owning the motors of the robot. Runs the queued motion
+ * commands one at a time in the order they were submitted. The queue
+ * is bounded, so submitting blocks while it is full.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MotionExecutor extends Thread {
+	/**
+	 * The maximum number of commands waiting in the queue.
+	 */
+	private static final int CAPACITY = 8;
+
+	/**
+	 * The circular buffer of waiting commands.
+	 */
+	private MotionCommand[] queue;
+	/**
+	 * The index of the next command in the queue.
+	 */
+	private int head;
+	/**
+	 * The number of commands in the queue.
+	 */
+	private int count;
+	/**
+	 * The command running, or null if none.
+	 */
+	private MotionCommand current;
+
+	/**
+	 * Default constructor.
+	 */
+	public MotionExecutor() {
+		queue = new MotionCommand[CAPACITY];
+		head = 0;
+		count = 0;
+		current = null;
+		setDaemon(true);
+	}
+
+	/**
+	 * Queues a command. Waits while the queue is full. Commands submitted
+	 * from a running command are run immediately, since that command holds
+	 * the motors.
+	 * @param command The command to run.
+	 * @return The command, as its completion handle.
+	 */
+	public MotionCommand submit(MotionCommand command) {
+		if (Thread.currentThread() == this) {
+			command.run();
+			return command;
+		}
+		synchronized (this) {
+			while (count == CAPACITY) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+			queue[(head + count) % CAPACITY] = command;
+			++count;
+			notifyAll();
+		}
+		return command;
+	}
+
+	/**
+	 * Cancels the running command and all queued commands.
+	 */
+	public void cancelAll() {
+		MotionCommand[] commands;
+		synchronized (this) {
+			commands = new MotionCommand[count + 1];
+			for (int i = 0; i < count; ++i) {
+				commands[i] = queue[(head + i) % CAPACITY];
+			}
+			commands[count] = current;
+		}
+		for (MotionCommand c : commands) {
+			if (c != null)
+				c.cancel();
+		}
+	}
+
+	/**
+	 * Returns true if the running command was cancelled.
+	 * @return true if the running command was cancelled.
+	 */
+	public boolean isCurrentCancelled() {
+		MotionCommand c;
+		synchronized (this) {
+			c = current;
+		}
+		return c != null && c.isCancelled();
+	}
+
+	/**
+	 * Returns true if a command is running or queued.
+	 * @return true if a command is running or queued.
+	 */
+	public synchronized boolean isBusy() {
+		return current != null || count > 0;
+	}
+
+	/**
+	 * Method called when thread is started. Runs the commands as they are queued.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			MotionCommand command;
+			synchronized (this) {
+				while (count == 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+				command = queue[head];
+				queue[head] = null;
+				head = (head + 1) % CAPACITY;
+				--count;
+				current = command;
+				notifyAll();
+			}
+			try {
+				command.run();
+			} catch (RuntimeException e) {
+				//Keeps the executor alive for the next commands.
+				e.printStackTrace();
+			}
+			synchronized (this) {
+				current = null;
+			}
+		}
+	}
+}
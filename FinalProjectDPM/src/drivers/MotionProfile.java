@@ -0,0 +1,182 @@
+package drivers;
+
+/**
+ * A time-optimal velocity profile for a straight move from rest to rest
+ * within a maximum speed, acceleration and jerk. With a jerk limit, the
+ * acceleration ramps up and down linearly (an S-curve); with an infinite
+ * jerk limit, the profile is trapezoidal. Short moves that cannot reach
+ * the maximum speed use the highest peak speed that still fits. The
+ * profile can be followed open loop in time, or closed loop by ramping up
+ * in time and slowing down on the distance left.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MotionProfile {
+	/**
+	 * The number of bisection steps used to find the peak speed of short moves.
+	 */
+	private static final int ITERATIONS = 40;
+
+	/**
+	 * The acceleration and jerk limits.
+	 */
+	private double acceleration, jerk;
+	/**
+	 * The peak speed reached.
+	 */
+	private double peakSpeed;
+	/**
+	 * The peak acceleration reached.
+	 */
+	private double peakAcceleration;
+	/**
+	 * The duration of each jerk phase, in s.
+	 */
+	private double jerkTime;
+	/**
+	 * The duration of the acceleration and of the deceleration, in s.
+	 */
+	private double accelerationTime;
+	/**
+	 * The duration at the peak speed, in s.
+	 */
+	private double cruiseTime;
+
+	/**
+	 * Default constructor. The units only need to be consistent,
+	 * e.g. degrees of wheel rotation and seconds.
+	 * @param distance The distance to move. Must not be negative.
+	 * @param speed The maximum speed.
+	 * @param acceleration The maximum acceleration.
+	 * @param jerk The maximum jerk, or Double.POSITIVE_INFINITY for
+	 * 			   a trapezoidal profile.
+	 */
+	public MotionProfile(double distance, double speed, double acceleration, double jerk) {
+		if (distance < 0 || speed <= 0 || acceleration <= 0 || jerk <= 0)
+			throw new RuntimeException("Invalid motion profile limits.");
+		this.acceleration = acceleration;
+		this.jerk = jerk;
+		if (accelerationDistance(speed, acceleration) <= distance / 2) {
+			setPeak(speed, acceleration);
+			cruiseTime = (distance - speed * accelerationTime) / speed;
+		} else {
+			//Finds the peak speed at which accelerating and decelerating covers the distance.
+			double low = 0;
+			double high = speed;
+			for (int i = 0; i < ITERATIONS; ++i) {
+				double mid = (low + high) / 2;
+				if (accelerationDistance(mid, acceleration) <= distance / 2)
+					low = mid;
+				else
+					high = mid;
+			}
+			setPeak(low, acceleration);
+			cruiseTime = 0;
+		}
+	}
+
+	/**
+	 * Returns the total duration of the move in s.
+	 * @return The total duration of the move in s.
+	 */
+	public double getDuration() {
+		return 2 * accelerationTime + cruiseTime;
+	}
+
+	/**
+	 * Returns the peak speed reached.
+	 * @return The peak speed reached.
+	 */
+	public double getPeakSpeed() {
+		return peakSpeed;
+	}
+
+	/**
+	 * Returns the speed at the given time.
+	 * @param t The time in s since the start of the move.
+	 * @return The speed, or 0 outside of the move.
+	 */
+	public double getSpeed(double t) {
+		if (t <= 0 || t >= getDuration())
+			return 0;
+		if (t < accelerationTime)
+			return accelerationSpeed(t);
+		if (t <= accelerationTime + cruiseTime)
+			return peakSpeed;
+		return accelerationSpeed(getDuration() - t);
+	}
+
+	/**
+	 * Returns the speed to command in closed loop: the acceleration of the
+	 * profile at the given time, limited by the speed from which the
+	 * deceleration of the profile stops within the distance left. Moves that
+	 * lag behind the profile keep their speed instead of stopping short.
+	 * @param t The time in s since the start of the move.
+	 * @param remaining The distance left.
+	 * @return The speed.
+	 */
+	public double getSpeed(double t, double remaining) {
+		double ramp = t >= accelerationTime ? peakSpeed : accelerationSpeed(Math.max(t, 0));
+		return Math.min(ramp, getStoppingSpeed(remaining));
+	}
+
+	/**
+	 * Returns the highest speed, up to the peak speed, from which the
+	 * deceleration of the profile stops within the distance.
+	 * @param distance The distance left.
+	 * @return The speed.
+	 */
+	public double getStoppingSpeed(double distance) {
+		if (distance <= 0)
+			return 0;
+		if (accelerationDistance(peakSpeed, acceleration) <= distance)
+			return peakSpeed;
+		double low = 0;
+		double high = peakSpeed;
+		for (int i = 0; i < ITERATIONS / 2; ++i) {
+			double mid = (low + high) / 2;
+			if (accelerationDistance(mid, acceleration) <= distance)
+				low = mid;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Sets the phases for the given peak speed.
+	 */
+	private void setPeak(double speed, double acceleration) {
+		peakSpeed = speed;
+		//Without enough speed to reach the maximum acceleration, the
+		//acceleration ramps up and straight back down.
+		peakAcceleration = Math.min(acceleration, Math.sqrt(speed * jerk));
+		jerkTime = peakAcceleration / jerk;
+		accelerationTime = speed == 0 ? 0 : speed / peakAcceleration + jerkTime;
+	}
+
+	/**
+	 * Returns the distance covered while accelerating from rest to the speed.
+	 */
+	private double accelerationDistance(double speed, double acceleration) {
+		double a = Math.min(acceleration, Math.sqrt(speed * jerk));
+		if (speed == 0)
+			return 0;
+		//The speed rises symmetrically about half of its peak.
+		return speed * (speed / a + a / jerk) / 2;
+	}
+
+	/**
+	 * Returns the speed at time t of the acceleration phase.
+	 */
+	private double accelerationSpeed(double t) {
+		if (t < jerkTime)
+			return jerk * t * t / 2;
+		if (t > accelerationTime - jerkTime) {
+			double left = accelerationTime - t;
+			return peakSpeed - jerk * left * left / 2;
+		}
+		return peakAcceleration * jerkTime / 2 + peakAcceleration * (t - jerkTime);
+	}
+}
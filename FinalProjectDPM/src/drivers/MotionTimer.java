@@ -0,0 +1,163 @@
+package drivers;
+import util.Point;
+import util.Util;
+
+/**
+ * Estimates how long the moves of Navigation take, from the velocity
+ * profiles it drives them with. Used to plan and compare routes before
+ * driving them. The estimates leave out the time to settle at the end
+ * of each move.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MotionTimer {
+	/**
+	 * Same values as in Navigation.
+	 */
+	private static final int HIGH_SPD = 500, TURN_SPD = 200, PROFILE_ACCELERATION = 900;
+	/**
+	 * Same value as in Navigation.
+	 */
+	private static final double JERK = 20000;
+
+	/**
+	 * The radius of the wheels in cm.
+	 */
+	private final double radius;
+	/**
+	 * The distance between the wheels in cm.
+	 */
+	private final double width;
+
+	/**
+	 * Default constructor.
+	 * @param radius The radius of the wheels in cm.
+	 * @param width The distance between the wheels in cm.
+	 */
+	public MotionTimer(double radius, double width) {
+		this.radius = radius;
+		this.width = width;
+	}
+
+	/**
+	 * Returns the time in s to turn in place from one heading to another
+	 * by the smallest angle, like Navigation.turnTo.
+	 * @param from The heading at the start in degrees.
+	 * @param to The heading at the end in degrees.
+	 * @return The time in s.
+	 */
+	public double turnTime(double from, double to) {
+		return spinTime(Math.abs(Util.toRange(to - from, -180.0, true)), TURN_SPD);
+	}
+
+	/**
+	 * Returns the time in s to spin in place by an angle with the wheels
+	 * at the given speed.
+	 * @param angle The angle in degrees.
+	 * @param speed The wheel speed in deg/s.
+	 * @return The time in s.
+	 */
+	public double spinTime(double angle, double speed) {
+		double wheel = Math.toDegrees(Math.PI * width * Math.abs(angle) / 360 / radius);
+		if (wheel == 0)
+			return 0;
+		return new MotionProfile(wheel, speed, PROFILE_ACCELERATION,
+				Double.POSITIVE_INFINITY).getDuration();
+	}
+
+	/**
+	 * Returns the time in s to drive straight with the velocity profile
+	 * of Navigation.
+	 * @param distance The distance in cm.
+	 * @return The time in s.
+	 */
+	public double straightTime(double distance) {
+		double wheel = Math.toDegrees(Math.abs(distance) / radius);
+		if (wheel == 0)
+			return 0;
+		return new MotionProfile(wheel, HIGH_SPD, PROFILE_ACCELERATION, JERK).getDuration();
+	}
+
+	/**
+	 * Returns the time in s to drive an arc, set by its outer wheel.
+	 * @param arc The arc to drive.
+	 * @return The time in s.
+	 */
+	public double arcTime(Arc arc) {
+		if (arc.isSpin())
+			return spinTime(arc.getAngle(), TURN_SPD);
+		double[] wheels = arc.getWheelDistances(width);
+		return straightTime(Math.max(Math.abs(wheels[0]), Math.abs(wheels[1])));
+	}
+
+	/**
+	 * Returns the time in s to travel through the points of a path like
+	 * Navigation.travel, turning in place towards each point before
+	 * driving straight to it.
+	 * @param x The x position in cm at the start.
+	 * @param y The y position in cm at the start.
+	 * @param theta The heading in degrees at the start.
+	 * @param path The points to travel to, in cm.
+	 * @param pose Storage for the x and y position in cm and the heading
+	 * 			   in degrees at the end, or null.
+	 * @return The time in s.
+	 */
+	public double travelTime(double x, double y, double theta, Point[] path, double[] pose) {
+		double time = 0;
+		for (Point p : path) {
+			double distance = Math.hypot(p.x - x, p.y - y);
+			if (distance > 0) {
+				double heading = Util.toRange(Math.toDegrees(Math.atan2(p.y - y, p.x - x)), 0.0, false);
+				time += turnTime(theta, heading) + straightTime(distance);
+				theta = heading;
+			}
+			x = p.x;
+			y = p.y;
+		}
+		if (pose != null) {
+			pose[0] = x;
+			pose[1] = y;
+			pose[2] = theta;
+		}
+		return time;
+	}
+
+	/**
+	 * Returns the time in s to follow the points of a path like
+	 * Navigation.followPath, turning in place towards the first point
+	 * and then driving through the points without stopping.
+	 * @param x The x position in cm at the start.
+	 * @param y The y position in cm at the start.
+	 * @param theta The heading in degrees at the start.
+	 * @param path The points to follow, in cm.
+	 * @param pose Storage for the x and y position in cm and the heading
+	 * 			   in degrees at the end, along the last segment, or null.
+	 * @return The time in s.
+	 */
+	public double followTime(double x, double y, double theta, Point[] path, double[] pose) {
+		double time = 0;
+		double length = 0;
+		boolean turned = false;
+		for (Point p : path) {
+			double distance = Math.hypot(p.x - x, p.y - y);
+			if (distance > 0) {
+				double heading = Util.toRange(Math.toDegrees(Math.atan2(p.y - y, p.x - x)), 0.0, false);
+				if (!turned)
+					time += turnTime(theta, heading);
+				turned = true;
+				length += distance;
+				theta = heading;
+			}
+			x = p.x;
+			y = p.y;
+		}
+		time += straightTime(length);
+		if (pose != null) {
+			pose[0] = x;
+			pose[1] = y;
+			pose[2] = theta;
+		}
+		return time;
+	}
+}
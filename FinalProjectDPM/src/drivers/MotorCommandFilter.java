@@ -0,0 +1,99 @@
+package drivers;
+
+/**
+ * Filters the speeds sent to the motors. A command is only sent when a
+ * wheel changes direction or its speed moves by more than a deadband from
+ * the speed last sent, since each command sets the speed and direction of
+ * both motors. Counts the commands issued and suppressed.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MotorCommandFilter {
+	/**
+	 * The largest change in deg/s of a wheel speed that is not sent.
+	 */
+	private int deadband;
+	/**
+	 * The speeds in deg/s last sent.
+	 */
+	private int left, right;
+	/**
+	 * Variable keeping track of if the motors still run the speeds last sent.
+	 */
+	private boolean valid;
+	/**
+	 * The number of commands issued and suppressed.
+	 */
+	private long issued, suppressed;
+
+	/**
+	 * Default constructor.
+	 * @param deadband The largest change in deg/s of a wheel speed that is not sent.
+	 */
+	public MotorCommandFilter(int deadband) {
+		setDeadband(deadband);
+		valid = false;
+	}
+
+	/**
+	 * Sets the deadband.
+	 * @param deadband The largest change in deg/s of a wheel speed that is not sent.
+	 */
+	public synchronized void setDeadband(int deadband) {
+		if (deadband < 0)
+			throw new RuntimeException("Invalid deadband.");
+		this.deadband = deadband;
+	}
+
+	/**
+	 * Decides if the speeds must be sent to the motors, and
+	 * remembers them if so.
+	 * @param lSpd The speed of the left wheel in deg/s.
+	 * @param rSpd The speed of the right wheel in deg/s.
+	 * @return true if the speeds must be sent.
+	 */
+	public synchronized boolean accept(int lSpd, int rSpd) {
+		if (valid && !changed(left, lSpd) && !changed(right, rSpd)) {
+			++suppressed;
+			return false;
+		}
+		left = lSpd;
+		right = rSpd;
+		valid = true;
+		++issued;
+		return true;
+	}
+
+	/**
+	 * Forgets the speeds last sent. Called when the motors are commanded
+	 * in another way, such as stopped or rotated, so that the next speeds
+	 * are sent.
+	 */
+	public synchronized void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * Returns the number of commands issued.
+	 * @return The number of commands issued.
+	 */
+	public synchronized long getIssued() {
+		return issued;
+	}
+
+	/**
+	 * Returns the number of commands suppressed.
+	 * @return The number of commands suppressed.
+	 */
+	public synchronized long getSuppressed() {
+		return suppressed;
+	}
+
+	/**
+	 * Returns true if the wheel speed must be sent.
+	 */
+	private boolean changed(int last, int speed) {
+		return Math.signum(last) != Math.signum(speed) || Math.abs(speed - last) > deadband;
+	}
+}
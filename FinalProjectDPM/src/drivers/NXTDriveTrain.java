@@ -0,0 +1,135 @@
+package drivers;
+import lejos.nxt.NXTRegulatedMotor;
+import lejos.robotics.RegulatedMotor;
+
+/**
+ * The drive train of the NXT. Synchronizes the right motor with the left
+ * one, so that the commands sent to both between startSynchronization and
+ * endSynchronization take effect together at the next regulator update.
+ * The tachometers are read in the same way, so that the regulator does not
+ * update them between the two reads. Measures the time between the two
+ * calls of each pair, which is how far apart they would happen without
+ * the synchronization.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class NXTDriveTrain implements DriveTrain {
+	/**
+	 * The motors of the left and right wheels.
+	 */
+	private NXTRegulatedMotor left, right;
+	/**
+	 * 1 if the motors move the robot forward when rotating
+	 * forward, -1 otherwise.
+	 */
+	private int direction;
+	/**
+	 * The statistics of the time between the calls to each motor.
+	 */
+	private SkewStatistics startSkew, readSkew;
+
+	/**
+	 * Default constructor.
+	 * @param left The motor of the left wheel.
+	 * @param right The motor of the right wheel.
+	 * @param direction 1 if the motors move the robot forward when
+	 * 					rotating forward, -1 otherwise.
+	 */
+	public NXTDriveTrain(NXTRegulatedMotor left, NXTRegulatedMotor right, int direction) {
+		this.left = left;
+		this.right = right;
+		this.direction = direction;
+		this.startSkew = new SkewStatistics();
+		this.readSkew = new SkewStatistics();
+		left.synchronizeWith(new RegulatedMotor[] {right});
+	}
+
+	@Override
+	public synchronized void setAcceleration(int acceleration) {
+		left.startSynchronization();
+		left.setAcceleration(acceleration);
+		right.setAcceleration(acceleration);
+		left.endSynchronization();
+	}
+
+	@Override
+	public synchronized void setSpeeds(int lSpd, int rSpd) {
+		left.startSynchronization();
+		long start = System.nanoTime();
+		run(left, lSpd);
+		run(right, rSpd);
+		long end = System.nanoTime();
+		left.endSynchronization();
+		//Time between the middles of the two calls.
+		startSkew.record((end - start) / 2);
+	}
+
+	@Override
+	public synchronized void rotate(int leftSpeed, int rightSpeed, int leftAngle, int rightAngle) {
+		left.startSynchronization();
+		long start = System.nanoTime();
+		left.setSpeed(Math.abs(leftSpeed));
+		left.rotate(direction * leftAngle, true);
+		right.setSpeed(Math.abs(rightSpeed));
+		right.rotate(direction * rightAngle, true);
+		long end = System.nanoTime();
+		left.endSynchronization();
+		//Time between the middles of the two calls.
+		startSkew.record((end - start) / 2);
+	}
+
+	@Override
+	public synchronized boolean isMoving() {
+		return left.isMoving() || right.isMoving();
+	}
+
+	@Override
+	public synchronized void stop() {
+		left.startSynchronization();
+		left.stop(true);
+		right.stop(true);
+		left.endSynchronization();
+	}
+
+	@Override
+	public synchronized void flt() {
+		left.startSynchronization();
+		left.flt(true);
+		right.flt(true);
+		left.endSynchronization();
+	}
+
+	@Override
+	public synchronized void getTachoCounts(int[] counts) {
+		left.startSynchronization();
+		long start = System.nanoTime();
+		counts[0] = direction * left.getTachoCount();
+		counts[1] = direction * right.getTachoCount();
+		long end = System.nanoTime();
+		left.endSynchronization();
+		//Time between the middles of the two calls.
+		readSkew.record((end - start) / 2);
+	}
+
+	@Override
+	public SkewStatistics getStartSkew() {
+		return startSkew;
+	}
+
+	@Override
+	public SkewStatistics getReadSkew() {
+		return readSkew;
+	}
+
+	/**
+	 * Runs the motor at the speed, backwards if it is negative.
+	 */
+	private void run(NXTRegulatedMotor motor, int speed) {
+		motor.setSpeed(Math.abs(speed));
+		if (speed * direction < 0)
+			motor.backward();
+		else
+			motor.forward();
+	}
+}
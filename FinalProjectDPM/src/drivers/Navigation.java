@@ -1,6 +1,10 @@
 package drivers;
 import data.DataCenter;
+import data.SensorManager;
+import planning.DStarLite;
+import util.Clock;
 import util.Point;
+import util.SystemClock;
 import util.Util;
 
 /**
@@ -13,14 +17,6 @@ import util.Util;
  *
  */
 public class Navigation {
-	/**
-	 * The lowest speed used by the robot's motors for navigation in deg/s.
-	 */
-	private static final int LOW_SPD = 100;
-	/**
-	 * The intermediate speed used by the robot's motors for navigation in deg/s.
-	 */
-	private static final int MID_SPD = 300;
 	/**
 	 * The highest speed used by the robot's motors for navigation in deg/s.
 	 */
@@ -30,10 +26,41 @@ public class Navigation {
 	 * The left motor speed is scaled accordingly.
 	 */
 	private static final int TURN_SPD = 200;
+	/**
+	 * The default highest wheel speed in deg/s while following a wall,
+	 * around which the former law drove. The wall model beats the former
+	 * law on time at HIGH_SPD, but crosses the distance to keep more often.
+	 */
+	private static final int WALL_SPD = 300;
 	/**
 	 * The acceleration used by the robot's motors in deg/s/s.
 	 */
 	private static final int ACCELERATION = 1000;
+	/**
+	 * The acceleration of the straight moves in deg/s/s. Below the motor
+	 * acceleration so that the left motor, whose speed is scaled up, can
+	 * follow it and the wheels stay synchronized.
+	 */
+	private static final int PROFILE_ACCELERATION = 900;
+	/**
+	 * The default jerk limit of the straight moves in deg/s/s/s.
+	 */
+	private static final double JERK = 20000;
+	/**
+	 * The speed in deg/s below which the straight moves do not slow
+	 * down, so that the robot does not stall before its destination.
+	 */
+	private static final int CREEP_SPD = 50;
+	/**
+	 * The proportional, integral and derivative gains of the heading
+	 * controller, in deg/s of differential wheel speed per degree, per
+	 * degree second and per degree per second.
+	 */
+	private static final double HEADING_KP = 8.0, HEADING_KI = 2.0, HEADING_KD = 0.3;
+	/**
+	 * The largest differential wheel speed in deg/s used to steer.
+	 */
+	private static final double MAX_CORRECTION = 150;
 
 	/**
 	 * The maximum error in x or y when traveling to a point, in cm.
@@ -43,11 +70,45 @@ public class Navigation {
 	 * The maximum error in angle when traveling to a point, in degrees.
 	 */
 	private final double DEG_ERR = 2.0;
+	/**
+	 * The heading error in degrees above which the robot turns in place
+	 * instead of steering towards its destination.
+	 */
+	private final double TURN_ERR = 30.0;
+	/**
+	 * The distance in cm from the destination within which the robot
+	 * holds its heading instead of steering, since the heading towards
+	 * the destination swings as it gets close.
+	 */
+	private final double APPROACH_DISTANCE = 3.0;
+	/**
+	 * The time in s after which a heading error above DEG_ERR that steering
+	 * did not remove is corrected by turning in place.
+	 */
+	private final double STEER_TIMEOUT = 1.0;
+	/**
+	 * The default largest radius in cm of the arcs rounding the corners of a path.
+	 */
+	private final double ARC_RADIUS = 15.0;
 	/**
 	 * When the robot's heading is within this, in degrees, of the heading 
 	 * towards destination, stops wall following.
 	 */
 	private final double WALL_FOLLOW_DEG_ERR = 15.0;
+	/**
+	 * Time in ms to wait between consecutive checks of the motors during a rotation.
+	 */
+	private static final long MOTOR_DELAY = 10;
+	/**
+	 * The default time in ms between consecutive iterations of the control
+	 * loops. Same as the period of the odometer, so that the heading
+	 * controller acts on every new heading.
+	 */
+	private static final long CONTROL_PERIOD = 10;
+	/**
+	 * The largest change in deg/s of a wheel speed that is not sent to the motors.
+	 */
+	private static final int SPEED_DEADBAND = 2;
 
 	/**
 	 * The minimum distance in cm from a frontal obstacle to keep the robot's center at.
@@ -57,56 +118,320 @@ public class Navigation {
 	 * The minimum distance in cm from a side obstacle to keep the robot's center at.
 	 */
 	private final int MIN_SIDE_DISTANCE = 10;
+	/**
+	 * The half width in degrees of the beam of the ultrasonic sensors.
+	 */
+	private static final double US_BEAM = 10.0;
+	/**
+	 * The radius in cm of the footprint of the robot that obstacles are
+	 * inflated by in the grid of the replanner.
+	 */
+	private final double ROBOT_RADIUS = 10.0;
+	/**
+	 * The width in cm of the obstacle added to the grid of the replanner
+	 * for each reading of the front sensor. Wider than the beam at
+	 * MIN_FRONT_DISTANCE, so that fewer stops are needed to get around,
+	 * and wider than a tile, since the repaired route is followed without
+	 * facing each of its segments and the parts the beam missed are not
+	 * seen before the robot passes them.
+	 */
+	private final double OBSTACLE_WIDTH = 40.0;
+	/**
+	 * The longest time in ms to wait for a sensor to fill its filter
+	 * after it was demanded.
+	 */
+	private static final long READY_TIMEOUT = 10 * USPoller.PING_DELAY;
+	
+	/**
+	 * The consumers demanding the sensors for the obstacle detection,
+	 * the wall following and the travels through tunnels. Separate so
+	 * that the end of a nested use does not release the sensors of the
+	 * use around it.
+	 */
+	private final Object obstacleDemand, wallDemand, tunnelDemand;
 	
 	/**
 	 * The location where the navigator can get data.
 	 */
 	private DataCenter dc;
+	/**
+	 * The motors of the wheels.
+	 */
+	private DriveTrain driveTrain;
+	/**
+	 * The source of time of the motions.
+	 */
+	private Clock clock;
 	
 	/**
-	 * Variable keeping track of if the navigator is running.
+	 * The thread running the motions of the navigator in order.
+	 */
+	private MotionExecutor executor;
+	/**
+	 * The jerk limit of the straight moves in deg/s/s/s.
+	 */
+	private double jerk;
+	/**
+	 * The largest radius in cm of the arcs rounding the corners of a path.
+	 */
+	private double arcRadius;
+	/**
+	 * The highest wheel speed in deg/s while following a wall.
+	 */
+	private int wallSpeed;
+	/**
+	 * The controller steering the straight moves towards their destination.
+	 */
+	private HeadingController heading;
+	/**
+	 * The pace of the control loops.
+	 */
+	private ControlLoop controlLoop;
+	/**
+	 * The filter of the speeds sent to the motors.
 	 */
-	private boolean navigating;
+	private MotorCommandFilter commands;
+	/**
+	 * The planner repairing the routes around unexpected obstacles,
+	 * or null to follow the obstacles.
+	 */
+	private DStarLite replanner;
 	
 	/**
-	 * Default constructor.
+	 * Default constructor. Drives the wheel motors of the robot.
 	 * @param dc The data storage location to get data from.
 	 */
 	public Navigation(DataCenter dc) {
+		this(dc, HWConstants.DRIVE_TRAIN);
+	}
+
+	/**
+	 * Constructor for a given drive train.
+	 * @param dc The data storage location to get data from.
+	 * @param driveTrain The motors of the wheels.
+	 */
+	public Navigation(DataCenter dc, DriveTrain driveTrain) {
+		this(dc, driveTrain, new SystemClock());
+	}
+
+	/**
+	 * Constructor for a given drive train and source of time, used to
+	 * drive a simulated robot.
+	 * @param dc The data storage location to get data from.
+	 * @param driveTrain The motors of the wheels.
+	 * @param clock The source of time of the motions.
+	 */
+	public Navigation(DataCenter dc, DriveTrain driveTrain, Clock clock) {
 		this.dc = dc;
-		HWConstants.LEFT_MOTOR.setAcceleration(ACCELERATION);
-		HWConstants.RIGHT_MOTOR.setAcceleration(ACCELERATION);
-		this.navigating = false;
+		this.driveTrain = driveTrain;
+		this.clock = clock;
+		driveTrain.setAcceleration(ACCELERATION);
+		this.jerk = JERK;
+		this.arcRadius = ARC_RADIUS;
+		this.wallSpeed = WALL_SPD;
+		heading = new HeadingController(HEADING_KP, HEADING_KI, HEADING_KD, MAX_CORRECTION);
+		controlLoop = new ControlLoop(CONTROL_PERIOD, clock);
+		commands = new MotorCommandFilter(SPEED_DEADBAND);
+		executor = new MotionExecutor();
+		executor.start();
+		obstacleDemand = new Object();
+		wallDemand = new Object();
+		tunnelDemand = new Object();
+	}
+
+	/**
+	 * Sets the jerk limit of the straight moves. An infinite limit gives
+	 * trapezoidal speed profiles.
+	 * @param jerk The jerk limit in deg/s/s/s.
+	 */
+	public synchronized void setJerk(double jerk) {
+		this.jerk = jerk;
+	}
+
+	/**
+	 * Sets the largest radius of the arcs rounding the corners of a path
+	 * in travelArcs. Takes effect at the next motion.
+	 * @param arcRadius The largest radius in cm.
+	 */
+	public synchronized void setArcRadius(double arcRadius) {
+		this.arcRadius = arcRadius;
+	}
+
+	/**
+	 * Sets the highest wheel speed while following a wall around an
+	 * obstacle. Takes effect at the next wall.
+	 * @param wallSpeed The highest wheel speed in deg/s.
+	 */
+	public synchronized void setWallSpeed(int wallSpeed) {
+		this.wallSpeed = wallSpeed;
+	}
+
+	/**
+	 * Sets the time between consecutive iterations of the control loops.
+	 * Takes effect at the next motion.
+	 * @param period The time in ms between consecutive iterations.
+	 */
+	public void setControlPeriod(long period) {
+		controlLoop.setPeriod(period);
+	}
+
+	/**
+	 * Returns the pace of the control loops, which keeps track of the
+	 * time spent running them and the time left to the other threads.
+	 * @return The pace of the control loops.
+	 */
+	public ControlLoop getControlLoop() {
+		return controlLoop;
+	}
+
+	/**
+	 * Returns the filter of the speeds sent to the motors, which counts
+	 * the commands issued and suppressed.
+	 * @return The filter of the speeds sent to the motors.
+	 */
+	public MotorCommandFilter getMotorCommands() {
+		return commands;
 	}
 	
+	/**
+	 * Sets the planner used to go around unexpected obstacles. With a
+	 * planner, travels that check for obstacles stop in front of them, add
+	 * them to its grid and drive the repaired route to their destination.
+	 * Without one, the robot follows the obstacles until it faces its
+	 * destination again.
+	 * @param replanner The planner over the grid of the field, or null.
+	 */
+	public synchronized void setReplanner(DStarLite replanner) {
+		this.replanner = replanner;
+	}
+
 	/**
 	 * Makes the robot move to the points on the given path.
 	 * @param path The path to travel.
 	 * @param obstacles Should the navigator check for obstacles?
 	 */
 	public void travel(Point[] path, boolean obstacles) {
-		lock();
-		for (Point p : path) {
-			travelToPoint(p, obstacles);
-		}
-		try {
-			Thread.sleep(100);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		unlock();
+		startTravel(path, obstacles).waitFor();
+	}
+
+	/**
+	 * Queues a travel along the given path.
+	 * @param path The path to travel.
+	 * @param obstacles Should the navigator check for obstacles?
+	 * @return The handle of the motion.
+	 */
+	public MotionCommand startTravel(final Point[] path, final boolean obstacles) {
+		return executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				for (Point p : path) {
+					if (isCancelled())
+						return;
+					travelAround(p, obstacles);
+				}
+				clock.sleep(100);
+			}
+		});
+	}
+
+	/**
+	 * Makes the robot follow the path continuously with pure pursuit,
+	 * blending through the points instead of stopping at each of them.
+	 * Does not check for obstacles.
+	 * @param path The path to follow.
+	 */
+	public void followPath(Point[] path) {
+		startFollowPath(path).waitFor();
+	}
+
+	/**
+	 * Queues a continuous travel along the given path.
+	 * @param path The path to follow.
+	 * @return The handle of the motion.
+	 */
+	public MotionCommand startFollowPath(final Point[] path) {
+		return executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				followPoints(path);
+			}
+		});
+	}
+
+	/**
+	 * Makes the robot drive through the points of the path on arcs,
+	 * rounding the corners instead of stopping at each point. Only
+	 * stops at the end and to turn in place towards the first point or
+	 * at corners too sharp to round. Does not check for obstacles.
+	 * @param path The points to go through.
+	 */
+	public void travelArcs(Point[] path) {
+		startTravelArcs(path).waitFor();
 	}
 
 	/**
-	 * Synchronized public version of the travel to method for
-	 * calls from other threads. Takes the robot to the destination.
+	 * Queues a travel through the points of the path on arcs.
+	 * @param path The points to go through.
+	 * @return The handle of the motion.
+	 */
+	public MotionCommand startTravelArcs(final Point[] path) {
+		return executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				followArcs(path);
+			}
+		});
+	}
+
+	/**
+	 * Makes the robot drive along an arc and stop at its end.
+	 * @param radius The radius in cm of the path of the center of the robot.
+	 * 				 0 turns in place, and half the distance between the
+	 * 				 wheels pivots on the inner wheel.
+	 * @param angle The change of heading in degrees, positive counterclockwise.
+	 */
+	public void turnArc(double radius, double angle) {
+		startTurnArc(radius, angle).waitFor();
+	}
+
+	/**
+	 * Queues a drive along an arc.
+	 * @param radius The radius in cm of the path of the center of the robot.
+	 * @param angle The change of heading in degrees, positive counterclockwise.
+	 * @return The handle of the motion.
+	 */
+	public MotionCommand startTurnArc(final double radius, final double angle) {
+		return executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				driveArc(Arc.turn(radius, angle),
+						(HWConstants.CC_WIDTH + HWConstants.C_WIDTH) / 2, TURN_SPD);
+			}
+		});
+	}
+
+	/**
+	 * Queues a travel to the destination and waits for it.
 	 * @param destination
 	 * @param obstacles Should the navigator check for obstacles?
 	 */
 	public void travelTo(Point destination, boolean obstacles) {
-		lock();
-		travelToPoint(destination, obstacles);
-		unlock();
+		startTravelTo(destination, obstacles).waitFor();
+	}
+
+	/**
+	 * Queues a travel to the destination.
+	 * @param destination
+	 * @param obstacles Should the navigator check for obstacles?
+	 * @return The handle of the motion.
+	 */
+	public MotionCommand startTravelTo(final Point destination, final boolean obstacles) {
+		return executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				travelAround(destination, obstacles);
+			}
+		});
 	}
 	
 	/**
@@ -116,74 +441,139 @@ public class Navigation {
 	 * @param obstacles Should the navigator check for obstacles?
 	 */
 	public void moveForward(double distance, boolean obstacles) {
-		lock();
-		double[] xyt = dc.getXYT();
-		Point destination = new Point(xyt[0] + distance * Math.cos(Math.toRadians(xyt[2])),
-				xyt[1] + distance * Math.sin(Math.toRadians(xyt[2])));
-		travelToPoint(destination, obstacles);
-		unlock();
+		startMoveForward(distance, obstacles).waitFor();
+	}
+
+	/**
+	 * Queues a forward motion of a specified distance. The distance
+	 * is measured from the pose at which the motion starts.
+	 * @param distance The distance to move forward by. Negative
+	 * 				   distances mean moving backwards.
+	 * @param obstacles Should the navigator check for obstacles?
+	 * @return The handle of the motion.
+	 */
+	public MotionCommand startMoveForward(final double distance, final boolean obstacles) {
+		return executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				double[] xyt = dc.getXYT();
+				Point destination = new Point(xyt[0] + distance * Math.cos(Math.toRadians(xyt[2])),
+						xyt[1] + distance * Math.sin(Math.toRadians(xyt[2])));
+				travelToPoint(destination, obstacles);
+			}
+		});
 	}
 	
 	/**
-	 * Synchronized public version of the turn to method for calls from 
-	 * other threads. Turns the robot a minimal angle to the given angle heading in degrees.
+	 * Queues a turn by a minimal angle to the given angle heading in
+	 * degrees and waits for it.
 	 * @param angle The final heading of the robot in degrees.
 	 */
 	public void turnTo(double angle) {
-		lock();
-		turnToAngle(angle);
-		unlock();
+		startTurnTo(angle, TURN_SPD).waitFor();
 	}
 	
 	/**
-	 * Synchronized public version of the turn to method for calls from 
-	 * other threads. Turns the robot a minimal angle to the given angle heading in degrees,
-	 * with the motors running at the desired speed.
+	 * Queues a turn by a minimal angle to the given angle heading in degrees,
+	 * with the motors running at the desired speed, and waits for it.
 	 * @param angle The final heading of the robot in degrees.
 	 * @param speed The speed to use for the right motor in deg/s. The left
 	 * 				motor's speed is scaled appropriately.
 	 */
 	public void turnTo(double angle, int speed) {
-		lock();
-		turnToAngle(angle, speed);
-		unlock();
+		startTurnTo(angle, speed).waitFor();
+	}
+
+	/**
+	 * Queues a turn by a minimal angle to the given angle heading in degrees,
+	 * with the motors running at the desired speed.
+	 * @param angle The final heading of the robot in degrees.
+	 * @param speed The speed to use for the right motor in deg/s. The left
+	 * 				motor's speed is scaled appropriately.
+	 * @return The handle of the motion.
+	 */
+	public MotionCommand startTurnTo(final double angle, final int speed) {
+		return executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				turnToAngle(angle, speed);
+			}
+		});
 	}
 	
 	/**
-	 * Synchronized public version of the turn method for calls from 
-	 * other threads. Turns the robot a specified angle in degrees counterclockwise.
+	 * Queues a turn by a specified angle in degrees counterclockwise
+	 * and waits for it.
 	 * @param angle The angle to turn by in degrees.
 	 */
 	public void turn(double angle) {
-		lock();
-		turnAngle(angle);
-		unlock();
+		turn(angle, TURN_SPD);
 	}
 	
 	/**
-	 * Synchronized public version of the turn method for calls from 
-	 * other threads. Turns the robot a specified angle in degrees counterclockwise,
-	 * with the motors running at the desired speed.
+	 * Queues a turn by a specified angle in degrees counterclockwise, with
+	 * the motors running at the desired speed, and waits for it.
 	 * @param angle The angle to turn by in degrees.
 	 * @param speed The speed to use for the right motor in deg/s. The left
 	 * 				motor's speed is scaled appropriately.
 	 */
-	public void turn(double angle, int speed) {
-		lock();
-		turnAngle(angle, speed);
-		unlock();
+	public void turn(final double angle, final int speed) {
+		executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				turnAngle(angle, speed);
+			}
+		}).waitFor();
 	}
 	
 	/**
-	 * Synchronized public version of the set speeds method for
-	 * calls from other threads. Sets the motor speeds as an atomic operation.
+	 * Queues a change of the motor speeds and waits for it. The motors
+	 * keep running once the command is done.
 	 * @param lSpd The speed of the left motor to set in deg/s.
 	 * @param rSpd The speed of the right motor to set in deg/s.
 	 */
 	public void setSpeeds(int lSpd, int rSpd) {
-		lock();
-		setMotorSpeeds(lSpd, rSpd);
-		unlock();
+		startSetSpeeds(lSpd, rSpd).waitFor();
+	}
+
+	/**
+	 * Queues a change of the motor speeds. The motors keep
+	 * running once the command is done. Unlike the speeds set by the
+	 * control loops, the speeds are always sent to the motors, even
+	 * if they are within the deadband of the last ones sent.
+	 * @param lSpd The speed of the left motor to set in deg/s.
+	 * @param rSpd The speed of the right motor to set in deg/s.
+	 * @return The handle of the motion.
+	 */
+	public MotionCommand startSetSpeeds(final int lSpd, final int rSpd) {
+		return executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				commands.invalidate();
+				setMotorSpeeds(lSpd, rSpd);
+			}
+		});
+	}
+	
+	/**
+	 * Cancels the running and queued motions and stops both motors.
+	 */
+	public void stop() {
+		executor.cancelAll();
+		executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				floatMotors();
+			}
+		}).waitFor();
+	}
+
+	/**
+	 * Cancels the running and queued motions. The motion running
+	 * stops at its next check and floats the motors.
+	 */
+	public void cancelAll() {
+		executor.cancelAll();
 	}
 	
 	/**
@@ -191,17 +581,64 @@ public class Navigation {
 	 * @return true if the Navigator is running, and false otherwise.
 	 */
 	public boolean isNavigating() {
+		return executor.isBusy();
+	}
+	
+	/**
+	 * Takes the robot to the destination, going around unexpected
+	 * obstacles on routes repaired by the replanner if there is one.
+	 * @param destination The point to go to, in cm.
+	 * @param obstacles Should the navigator check for obstacles?
+	 */
+	private void travelAround(Point destination, boolean obstacles) {
+		DStarLite replanner;
 		synchronized (this) {
-			return navigating;
+			replanner = this.replanner;
+		}
+		if (!obstacles || replanner == null) {
+			travelToPoint(destination, obstacles);
+			return;
+		}
+		
+		replanner.setGoal(destination);
+		while (!executor.isCurrentCancelled()) {
+			double[] xyt = dc.getXYT();
+			Point[] route = replanner.plan(new Point(xyt[0], xyt[1]));
+			//Without a route, falls back on following the obstacles.
+			if (route == null) {
+				travelToPoint(destination, true);
+				return;
+			}
+			//Follows the route without stopping at its corners.
+			if (followPoints(route, true) || executor.isCurrentCancelled())
+				return;
+			
+			//Adds the obstacle in front of the robot to the grid, across
+			//the heading of the robot.
+			xyt = dc.getXYT();
+			double distance = dc.getFilteredDistance(90) + HWConstants.FRONT_US_DISTANCE;
+			double rad = Math.toRadians(xyt[2]);
+			double x = xyt[0] + distance * Math.cos(rad);
+			double y = xyt[1] + distance * Math.sin(rad);
+			double dx = -OBSTACLE_WIDTH / 2 * Math.sin(rad);
+			double dy = OBSTACLE_WIDTH / 2 * Math.cos(rad);
+			//An obstacle already in the grid cannot be planned around.
+			if (replanner.addObstacle(x - dx, y - dy, x + dx, y + dy, ROBOT_RADIUS) == 0)
+				wallFollow(destination);
 		}
 	}
-	
+
 	/**
 	 * Takes the robot to position (x, y), where x and y are in cm.
 	 * @param destination
 	 * @param obstacles Should the navigator check for obstacles? 
 	 */
 	private void travelToPoint(Point destination, boolean obstacles) {
+		//Starts the front sensor, which warms up during the turn.
+		SensorManager sensors = dc.getSensors();
+		if (obstacles)
+			sensors.demand(obstacleDemand, SensorManager.FRONT_US, SensorManager.FASTEST);
+		
 		//Gets the current x and y position in cm.
 		double[] xyt = dc.getXYT();
 		double currentX = xyt[0];
@@ -222,36 +659,78 @@ public class Navigation {
 		
 		//Gets the distance to any frontal obstacles.
 		int usData = 0;
-		if (obstacles)
+		if (obstacles) {
+			awaitReady(SensorManager.FRONT_US);
 			usData = dc.getFilteredDistance(90);
+		}
+		
+		//Plans the speed along the straight line to the destination.
+		MotionProfile profile = planMove(destination, currentX, currentY);
+		long start = clock.currentTimeMillis();
+		double speed = 0;
+		double correction = 0;
+		long steerStart = start;
+		heading.reset();
+		long period = controlLoop.getPeriod();
+		controlLoop.start();
 		
 		//Loops while the robot is not at its destination.
-		while (Math.abs(destination.x - currentX) > CM_ERR || Math.abs(destination.y - currentY) > CM_ERR) {
-			double dist = (destination.x - currentX)*(destination.x - currentX) + 
-					(destination.y - currentY)*(destination.y - currentY);
-			if (dist > HWConstants.TILE_DISTANCE)
-				dist = HWConstants.TILE_DISTANCE;
-			double speed = LOW_SPD + dist / (HWConstants.TILE_DISTANCE) * (HIGH_SPD - LOW_SPD);
-			setMotorSpeeds((int)speed, (int)speed);
+		while ((Math.abs(destination.x - currentX) > CM_ERR || Math.abs(destination.y - currentY) > CM_ERR) &&
+				!executor.isCurrentCancelled()) {
+			//Ramps up along the profile and slows down on the distance left.
+			//The distance covered until the next update is subtracted since
+			//the speed cannot change before then.
+			double remaining = Math.toDegrees(Math.hypot(destination.x - currentX,
+					destination.y - currentY) / HWConstants.RIGHT_RADIUS);
+			remaining -= speed * period / 1000.0;
+			speed = profile.getSpeed((clock.currentTimeMillis() - start) / 1000.0, remaining);
+			speed = Math.max(speed, CREEP_SPD);
+			//Steers by slowing down one wheel and speeding up the other.
+			setMotorSpeeds((int)(speed - correction), (int)(speed + correction));
+			boolean replan = false;
 			
 			//If too close to the front of the wall, follow the wall.
 			if (obstacles && usData < MIN_FRONT_DISTANCE) {
 				wallFollow(destination);
+				replan = true;
 			}
+			
+			controlLoop.waitForNextTick();
 
 			//Updates current position in cm.
 			xyt = dc.getXYT();
 			currentX = xyt[0];
 			currentY = xyt[1];
 			
-			//Calculates the minimal absolute angle to the destination 
-			//and turns in that direction if the angle is off.
+			//Calculates the heading error towards the destination, 
+			//positive if the robot must turn counterclockwise.
 			minAng = Math.toDegrees(Math.atan2(destination.y - currentY, destination.x - currentX));
-			//Sets the angle in the range [0, 360).
-			minAng = Util.toRange(minAng, 0.0, false);
-			if (Math.abs(xyt[2] - minAng) > DEG_ERR && 
-					Math.abs(xyt[2] - minAng) < 360 - DEG_ERR)
-				this.turnToAngle(minAng);
+			double error = Util.toRange(minAng - xyt[2], -180.0, true);
+			long now = clock.currentTimeMillis();
+			if (Math.abs(error) <= DEG_ERR)
+				steerStart = now;
+			//Turns in place if the error is too large to steer out of,
+			//or if steering did not remove it in time.
+			if (Math.abs(error) > TURN_ERR || now - steerStart > STEER_TIMEOUT * 1000) {
+				this.turnToAngle(Util.toRange(minAng, 0.0, false));
+				replan = true;
+			} else if (Math.hypot(destination.x - currentX, destination.y - currentY) < APPROACH_DISTANCE) {
+				correction = 0;
+			} else {
+				correction = heading.update(error, period / 1000.0);
+			}
+			
+			//Plans a new move from rest after stopping to turn.
+			if (replan) {
+				xyt = dc.getXYT();
+				currentX = xyt[0];
+				currentY = xyt[1];
+				profile = planMove(destination, currentX, currentY);
+				start = clock.currentTimeMillis();
+				steerStart = start;
+				correction = 0;
+				heading.reset();
+			}
 			
 			//Get the distance to any frontal obstacle.
 			usData = 0;
@@ -260,25 +739,187 @@ public class Navigation {
 		}
 		
 		floatMotors();
+		if (obstacles)
+			sensors.release(obstacleDemand, SensorManager.FRONT_US);
+	}
+
+	/**
+	 * Plans the velocity profile of a straight move from rest to the destination.
+	 * @param destination
+	 * @param currentX The current x position in cm.
+	 * @param currentY The current y position in cm.
+	 * @return The profile, in degrees of wheel rotation.
+	 */
+	private MotionProfile planMove(Point destination, double currentX, double currentY) {
+		double distance = Math.toDegrees(Math.hypot(destination.x - currentX,
+				destination.y - currentY) / HWConstants.RIGHT_RADIUS);
+		double limit;
+		synchronized (this) {
+			limit = jerk;
+		}
+		return new MotionProfile(distance, HIGH_SPD, PROFILE_ACCELERATION, limit);
+	}
+
+	/**
+	 * Follows the path from the current position with a PathFollower
+	 * until its end.
+	 * @param path The path to follow.
+	 */
+	private void followPoints(Point[] path) {
+		followPoints(path, false);
+	}
+
+	/**
+	 * Follows the path from the current position with a PathFollower
+	 * until its end.
+	 * @param path The path to follow.
+	 * @param obstacles Should the robot stop in front of obstacles?
+	 * @return false if the robot stopped in front of an obstacle.
+	 */
+	private boolean followPoints(Point[] path, boolean obstacles) {
+		SensorManager sensors = dc.getSensors();
+		double[] xyt = dc.getXYT();
+		if (obstacles) {
+			//Starts the front sensor, which warms up during the turn.
+			sensors.demand(obstacleDemand, SensorManager.FRONT_US, SensorManager.FASTEST);
+			//Turns away from an obstacle the robot stopped in front of
+			//before driving, so that it is not seen again.
+			turnToAngle(Util.toRange(Math.toDegrees(Math.atan2(path[0].y - xyt[1],
+					path[0].x - xyt[0])), 0.0, false));
+			awaitReady(SensorManager.FRONT_US);
+			xyt = dc.getXYT();
+		}
+		Point[] points = new Point[path.length + 1];
+		points[0] = new Point(xyt[0], xyt[1]);
+		System.arraycopy(path, 0, points, 1, path.length);
+		PathFollower follower = new PathFollower(points, HWConstants.RIGHT_RADIUS,
+				(HWConstants.CC_WIDTH + HWConstants.C_WIDTH) / 2);
+		
+		double[] speeds = follower.update(xyt[0], xyt[1], xyt[2]);
+		controlLoop.start();
+		while (speeds != null && !executor.isCurrentCancelled()) {
+			//Only checks ahead while driving forward, since the sensor
+			//sweeps past the walls beside the robot while it turns in place.
+			if (obstacles && speeds[0] + speeds[1] > 0 &&
+					dc.getFilteredDistance(90) < MIN_FRONT_DISTANCE) {
+				driveTrain.stop();
+				waitForMotors();
+				sensors.release(obstacleDemand, SensorManager.FRONT_US);
+				return false;
+			}
+			setMotorSpeeds((int)speeds[0], (int)speeds[1]);
+			controlLoop.waitForNextTick();
+			xyt = dc.getXYT();
+			speeds = follower.update(xyt[0], xyt[1], xyt[2]);
+		}
+		
+		floatMotors();
+		if (obstacles)
+			sensors.release(obstacleDemand, SensorManager.FRONT_US);
+		return true;
+	}
+
+	/**
+	 * Drives through the points of the path on the arcs planned
+	 * from the current pose, until the end of the last arc.
+	 * @param path The points to go through.
+	 */
+	private void followArcs(Point[] path) {
+		double[] xyt = dc.getXYT();
+		double radius;
+		synchronized (this) {
+			radius = arcRadius;
+		}
+		Arc[] arcs = new ArcPlanner(radius).plan(xyt[0], xyt[1], xyt[2], path);
+		ArcFollower follower = new ArcFollower(arcs, xyt[0], xyt[1], xyt[2],
+				HWConstants.RIGHT_RADIUS, (HWConstants.CC_WIDTH + HWConstants.C_WIDTH) / 2);
+		double dt = controlLoop.getPeriod() / 1000.0;
+		
+		double[] speeds = follower.update(xyt[0], xyt[1], xyt[2], 0);
+		controlLoop.start();
+		while (speeds != null && !executor.isCurrentCancelled()) {
+			setMotorSpeeds((int)speeds[0], (int)speeds[1]);
+			controlLoop.waitForNextTick();
+			xyt = dc.getXYT();
+			speeds = follower.update(xyt[0], xyt[1], xyt[2], dt);
+		}
+		
+		floatMotors();
+	}
+
+	/**
+	 * Drives along the arc with both wheels rotating by their share of it,
+	 * so that they end together, and stops at its end.
+	 * @param arc The arc to drive.
+	 * @param width The distance in cm between the wheels along the arc.
+	 * @param speed The speed in deg/s of the faster wheel.
+	 */
+	private void driveArc(Arc arc, double width, int speed) {
+		double[] distances = arc.getWheelDistances(width);
+		int leftAngle = (int) Math.toDegrees(distances[0] / HWConstants.LEFT_RADIUS);
+		int rightAngle = (int) Math.toDegrees(distances[1] / HWConstants.RIGHT_RADIUS);
+		int larger = Math.max(Math.abs(leftAngle), Math.abs(rightAngle));
+		if (larger == 0)
+			return;
+		driveTrain.rotate(speed * Math.abs(leftAngle) / larger, speed * Math.abs(rightAngle) / larger,
+				leftAngle, rightAngle);
+		waitForMotors();
 	}
 
 	/**
 	 * Sets the robot to follow the wall until its heading is within
-	 * WALL_FOLLOW_DEG degrees of the heading to the destination.
+	 * WALL_FOLLOW_DEG degrees of the heading to the destination. Adds every
+	 * new reading of the left and front sensors to a model of the wall, and
+	 * steers along it at speed with a WallFollower.
 	 * @param destination
 	 */
 	private void wallFollow(Point destination) {
-		dc.setWallFollowing(true);
-		//Turns 90 degrees clockwise to prepare to wall follow.
+		//Starts the left sensor, which warms up during the turn.
+		SensorManager sensors = dc.getSensors();
+		sensors.demand(wallDemand, SensorManager.LEFT_US, SensorManager.FASTEST);
+		sensors.demand(wallDemand, SensorManager.FRONT_US, SensorManager.FASTEST);
+		int speed;
+		synchronized (this) {
+			speed = wallSpeed;
+		}
+		WallFollower follower = new WallFollower((HWConstants.CC_WIDTH + HWConstants.C_WIDTH) / 2,
+				MIN_SIDE_DISTANCE + HWConstants.LEFT_US_DISTANCE, US_BEAM, speed);
+		WallModel model = follower.getModel();
+		//The obstacle in front is the wall to follow.
+		double[] xyt = dc.getXYT();
+		model.addFront(xyt[0], xyt[1], xyt[2],
+				dc.getFilteredDistance(90) + HWConstants.FRONT_US_DISTANCE, clock.currentTimeMillis());
+		//Stops before turning 90 degrees clockwise to prepare to wall follow,
+		//so that the wheels turn by the same angle in place.
+		stopMotors();
 		turnAngle(-90);
+		xyt = dc.getXYT();
+		model.start(xyt[0], xyt[1], xyt[2]);
+		int leftSamples = dc.getSamples(180);
+		int frontSamples = dc.getSamples(90);
 		
-		while (true) {
-			//Processes the distances from each sensor.
-			processUSData(dc.getFilteredDistance(180), dc.getFilteredDistance(90));
+		controlLoop.start();
+		while (!executor.isCurrentCancelled()) {
+			//Adds the readings taken since the last update.
+			xyt = dc.getXYT();
+			long time = clock.currentTimeMillis();
+			if (dc.getSamples(180) != leftSamples) {
+				leftSamples = dc.getSamples(180);
+				model.addSide(xyt[0], xyt[1], xyt[2],
+						dc.getDistance(180) + HWConstants.LEFT_US_DISTANCE, time);
+			}
+			if (dc.getSamples(90) != frontSamples) {
+				frontSamples = dc.getSamples(90);
+				model.addFront(xyt[0], xyt[1], xyt[2],
+						dc.getDistance(90) + HWConstants.FRONT_US_DISTANCE, time);
+			}
+			double[] speeds = follower.update(xyt[0], xyt[1], xyt[2], time);
+			setMotorSpeeds((int) speeds[0], (int) speeds[1]);
+			controlLoop.waitForNextTick();
 
 			//Calculate the angle difference between the current angle
 			//and the angle required to reach the destination.
-			double[] xyt = dc.getXYT();
+			xyt = dc.getXYT();
 			double angle = xyt[2];
 			double currentX = xyt[0];
 			double currentY = xyt[1];
@@ -289,38 +930,13 @@ public class Navigation {
 			//stop wall following and head to destination.
 			if (Math.abs(angle - minAng) < WALL_FOLLOW_DEG_ERR || 
 					Math.abs(angle - minAng) > 360 - WALL_FOLLOW_DEG_ERR) {
-				dc.setWallFollowing(false);
+				sensors.releaseAll(wallDemand);
 				this.turnToAngle(minAng);
 				break;
 			}
 		}
-	}
-
-	/**
-	 * Processes the distances from the robot to the wall and controls the
-	 * robots motion using a p-type controller.
-	 * @param leftDistance The distance to the wall on the left (180 degrees) in cm.
-	 * @param frontDistance The distance to the wall on the front (90 degrees) in cm.
-	 */
-	private void processUSData(int leftDistance, int frontDistance) {
-		if (frontDistance < MIN_FRONT_DISTANCE) {
-			//Turns 45 degrees clockwise.
-			turnAngle(-45);
-		} else {
-			//Sets errors that are too positive into 
-			//the range [-bandCenter, bandCenter]
-			//where p type control is applied.
-			int error = leftDistance - MIN_SIDE_DISTANCE;
-			if (error > MIN_SIDE_DISTANCE)
-				error = MIN_SIDE_DISTANCE;
-			if (error < 0) {
-				setMotorSpeeds(MID_SPD + (HIGH_SPD - MID_SPD) * -error / MIN_SIDE_DISTANCE, 
-						MID_SPD + (LOW_SPD - MID_SPD) * -error / MIN_SIDE_DISTANCE);
-			} else {
-				setMotorSpeeds(MID_SPD + (LOW_SPD - MID_SPD) * error / MIN_SIDE_DISTANCE,
-						MID_SPD + (HIGH_SPD - MID_SPD) * error / MIN_SIDE_DISTANCE);
-			}
-		}
+		//Stops wall following if the motion was cancelled.
+		sensors.releaseAll(wallDemand);
 	}
 	
 	/**
@@ -328,22 +944,7 @@ public class Navigation {
 	 * @param angle The final heading of the robot in degrees.
 	 */
 	private void turnToAngle(double angle) {
-		//Gets the difference between the two angles in degrees.
-		double error = angle - dc.getTheta();
-		
-		//Sets it to be a minimal angle in the range (-180, 180].
-		error = Util.toRange(error, -180.0, true);
-
-		//Executes the instructions as an atomic operation.
-		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-		HWConstants.LEFT_MOTOR.setSpeed((int)(
-				TURN_SPD * HWConstants.RIGHT_RADIUS / HWConstants.LEFT_RADIUS));
-		HWConstants.RIGHT_MOTOR.setSpeed(TURN_SPD);
-		HWConstants.LEFT_MOTOR.rotate(HWConstants.DIRECTION * -convertAngle(
-				HWConstants.LEFT_RADIUS, error), true);
-		HWConstants.RIGHT_MOTOR.rotate(HWConstants.DIRECTION * convertAngle(
-				HWConstants.RIGHT_RADIUS, error), false);
-		Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+		turnToAngle(angle, TURN_SPD);
 	}
 	
 	/**
@@ -360,16 +961,10 @@ public class Navigation {
 		//Sets it to be a minimal angle in the range (-180, 180].
 		error = Util.toRange(error, -180.0, true);
 
-		//Executes the instructions as an atomic operation.
-		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-		HWConstants.LEFT_MOTOR.setSpeed((int)(
-				speed * HWConstants.RIGHT_RADIUS / HWConstants.LEFT_RADIUS));
-		HWConstants.RIGHT_MOTOR.setSpeed(speed);
-		HWConstants.LEFT_MOTOR.rotate(HWConstants.DIRECTION * -convertAngle(
-				HWConstants.LEFT_RADIUS, error), true);
-		HWConstants.RIGHT_MOTOR.rotate(HWConstants.DIRECTION * convertAngle(
-				HWConstants.RIGHT_RADIUS, error), false);
-		Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+		driveTrain.rotate((int)(speed * HWConstants.RIGHT_RADIUS / HWConstants.LEFT_RADIUS), speed,
+				-convertAngle(HWConstants.LEFT_RADIUS, error),
+				convertAngle(HWConstants.RIGHT_RADIUS, error));
+		waitForMotors();
 	}
 	
 	/**
@@ -377,16 +972,7 @@ public class Navigation {
 	 * @param angle The angle to turn by in degrees.
 	 */
 	private void turnAngle(double angle) {
-		//Executes the instructions as an atomic operation.
-		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-		HWConstants.LEFT_MOTOR.setSpeed((int)(
-				TURN_SPD * HWConstants.RIGHT_RADIUS / HWConstants.LEFT_RADIUS));
-		HWConstants.RIGHT_MOTOR.setSpeed(TURN_SPD);
-		HWConstants.LEFT_MOTOR.rotate(HWConstants.DIRECTION * -convertAngle(
-				HWConstants.LEFT_RADIUS, angle), true);
-		HWConstants.RIGHT_MOTOR.rotate(HWConstants.DIRECTION * convertAngle(
-				HWConstants.RIGHT_RADIUS, angle), false);
-		Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+		turnAngle(angle, TURN_SPD);
 	}
 	
 	/**
@@ -397,49 +983,79 @@ public class Navigation {
 	 * 				motor's speed is scaled appropriately.
 	 */
 	private void turnAngle(double angle, int speed) {
-		//Executes the instructions as an atomic operation.
-		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-		HWConstants.LEFT_MOTOR.setSpeed((int)(
-				speed * HWConstants.RIGHT_RADIUS / HWConstants.LEFT_RADIUS));
-		HWConstants.RIGHT_MOTOR.setSpeed(speed);
-		HWConstants.LEFT_MOTOR.rotate(HWConstants.DIRECTION * -convertAngle(
-				HWConstants.LEFT_RADIUS, angle), true);
-		HWConstants.RIGHT_MOTOR.rotate(HWConstants.DIRECTION * convertAngle(
-				HWConstants.RIGHT_RADIUS, angle), false);
-		Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+		driveTrain.rotate((int)(speed * HWConstants.RIGHT_RADIUS / HWConstants.LEFT_RADIUS), speed,
+				-convertAngle(HWConstants.LEFT_RADIUS, angle),
+				convertAngle(HWConstants.RIGHT_RADIUS, angle));
+		waitForMotors();
 	}
 	
 	/**
-	 * Sets the motor speeds as an atomic operation.
+	 * Sets the motor speeds together. Does nothing if the speeds
+	 * are within the deadband of the speeds last set.
 	 * @param lSpd The speed of the left motor to set in deg/s.
 	 * @param rSpd The speed of the right motor to set in deg/s.
 	 */
 	private void setMotorSpeeds(int lSpd, int rSpd) {
-		//Sets max priority to execute instructions atomically.
-		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);	
-		HWConstants.LEFT_MOTOR.setSpeed((int)(
-			Math.abs(lSpd) * HWConstants.RIGHT_RADIUS / 
-				HWConstants.LEFT_RADIUS));
-		HWConstants.RIGHT_MOTOR.setSpeed(Math.abs(rSpd));
-		if (lSpd * HWConstants.DIRECTION < 0)
-			HWConstants.LEFT_MOTOR.backward();
-		else
-			HWConstants.LEFT_MOTOR.forward();
-		if (rSpd * HWConstants.DIRECTION < 0)
-			HWConstants.RIGHT_MOTOR.backward();
-		else
-			HWConstants.RIGHT_MOTOR.forward();
-		Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+		if (!commands.accept(lSpd, rSpd))
+			return;
+		driveTrain.setSpeeds((int)(lSpd * HWConstants.RIGHT_RADIUS / HWConstants.LEFT_RADIUS), rSpd);
 	}
 	
+	/**
+	 * Waits for both motors to finish rotating. Stops them
+	 * early if the running command is cancelled. Restarts the
+	 * timing of the control loop, which the rotation blocked.
+	 */
+	private void waitForMotors() {
+		commands.invalidate();
+		while (driveTrain.isMoving()) {
+			if (executor.isCurrentCancelled()) {
+				floatMotors();
+				return;
+			}
+			clock.sleep(MOTOR_DELAY);
+		}
+		controlLoop.start();
+	}
+
+	/**
+	 * Stops both motors and waits until the wheels stop turning, so that
+	 * a rotation started next is not shortened by the speed left.
+	 */
+	private void stopMotors() {
+		commands.invalidate();
+		driveTrain.stop();
+		int[] last = new int[2];
+		int[] counts = new int[2];
+		driveTrain.getTachoCounts(counts);
+		do {
+			last[0] = counts[0];
+			last[1] = counts[1];
+			clock.sleep(MOTOR_DELAY);
+			driveTrain.getTachoCounts(counts);
+		} while ((counts[0] != last[0] || counts[1] != last[1]) && !executor.isCurrentCancelled());
+	}
+
+	/**
+	 * Waits until the sensor of the channel has filled its filter, for
+	 * at most READY_TIMEOUT. Checks on the clock of the motions, so that
+	 * a simulated sensor warms up while waiting.
+	 * @param channel The channel of the sensor.
+	 */
+	private void awaitReady(int channel) {
+		SensorManager sensors = dc.getSensors();
+		long end = clock.currentTimeMillis() + READY_TIMEOUT;
+		while (!sensors.isReady(channel) && clock.currentTimeMillis() < end) {
+			clock.sleep(MOTOR_DELAY);
+		}
+	}
+
 	/**
 	 * Floats both motors.
 	 */
 	private void floatMotors() {
-		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-		HWConstants.LEFT_MOTOR.flt();
-		HWConstants.RIGHT_MOTOR.flt();
-		Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+		commands.invalidate();
+		driveTrain.flt();
 	}
 
 	/**
@@ -461,59 +1077,31 @@ public class Navigation {
 	 * Turns the robot left 90 degrees by pivoting on the left wheel.
 	 */
 	public void turnLeft() {
-		lock();
-		HWConstants.RIGHT_MOTOR.setSpeed(TURN_SPD);
-		HWConstants.LEFT_MOTOR.stop();
-		double angle = Math.toDegrees(HWConstants.L_WIDTH * Math.PI / 
-				(2 * HWConstants.RIGHT_RADIUS));
-		HWConstants.RIGHT_MOTOR.rotate(HWConstants.DIRECTION * (int)angle);
-		unlock();
+		executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				driveArc(Arc.turn(HWConstants.L_WIDTH / 2, 90), HWConstants.L_WIDTH, TURN_SPD);
+			}
+		}).waitFor();
 	}
 	
 	/**
 	 * Turns the robot right 90 degrees by pivoting on the right wheel.
 	 */
 	public void turnRight() {
-		lock();
-		HWConstants.LEFT_MOTOR.setSpeed(TURN_SPD);
-		HWConstants.RIGHT_MOTOR.stop();
-		double angle = Math.toDegrees(HWConstants.R_WIDTH * Math.PI / 
-				(2 * HWConstants.LEFT_RADIUS));
-		HWConstants.LEFT_MOTOR.rotate(HWConstants.DIRECTION * (int)angle);
-		unlock();
-	}
-	
-	/**
-	 * Locks the navigation while it performs a task.
-	 */
-	private void lock() {
-		//Waits until the robot is not navigating to start.
-		boolean navigating = true;
-		while (navigating) {
-			synchronized (this) {
-				navigating = this.navigating;
+		executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				driveArc(Arc.turn(HWConstants.R_WIDTH / 2, -90), HWConstants.R_WIDTH, TURN_SPD);
 			}
-		}
-		//Sets the robot to navigating.
-		synchronized (this) {
-			this.navigating = true;
-		}
-	}
-	
-	/**
-	 * Unlocks the navigation after it performs a task.
-	 */
-	private void unlock() {
-		//Sets the robot to not navigating.
-		synchronized (this) {
-			this.navigating = false;
-		}
+		}).waitFor();
 	}
 	
 	/**
-	 * Time in ms to wait between consecutive checks of the position during tunneling.
+	 * The distance in cm ahead along the tunnel at which the robot aims to
+	 * be back on the center line. Sets how hard it steers towards it.
 	 */
-	private static final long TUNNEL_DELAY = 2000;
+	private static final double TUNNEL_LOOKAHEAD = 15.0;
 	
 	/**
 	 * Experimental class to use when traveling in a vertical tunnel
@@ -522,92 +1110,22 @@ public class Navigation {
 	 * @param positive Are you traveling in the +y direction?
 	 */
 	public void travelInTunnelVertical(Point destination, boolean positive) {
-		lock();
-		dc.setWallFollowing(true);
-		//Gets the current x and y position in cm.
-		double[] xyt = dc.getXYT();
-		double currentX = xyt[0];
-		double currentY = xyt[1];
-		
-		//Calculates the minimal absolute angle to the destination 
-		//and turns in that direction.
-		double minAng;
-		minAng = Math.toDegrees(Math.atan2(destination.y - currentY, destination.x - currentX));
-		//Sets the angle in the range [0, 360).
-		minAng = Util.toRange(minAng, 0.0, false);
-		this.turnToAngle(minAng);
-		
-		try {
-			Thread.sleep(5 * USPoller.PING_DELAY);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		long start = System.currentTimeMillis();
-		//Gets current distances to wall.
-		double previousLeft = dc.getFilteredDistance(180) + HWConstants.LEFT_US_DISTANCE;
-		double previousRight = dc.getFilteredDistance(0) + HWConstants.RIGHT_US_DISTANCE;
-		
-		//Updates current position in cm.
-		xyt = dc.getXYT();
-		currentX = xyt[0];
-		currentY = xyt[1];
-		
-		double previousY = currentY;
-		
-		//Loops while the robot is not at its destination.
-		while (Math.abs(destination.x - currentX) > CM_ERR || Math.abs(destination.y - currentY) > CM_ERR) {
-			double dist = (destination.x - currentX)*(destination.x - currentX) + 
-					(destination.y - currentY)*(destination.y - currentY);
-			if (dist > HWConstants.TILE_DISTANCE)
-				dist = HWConstants.TILE_DISTANCE;
-			double speed = LOW_SPD + dist / (HWConstants.TILE_DISTANCE) * (HIGH_SPD - LOW_SPD);
-			setMotorSpeeds((int)speed, (int)speed);
+		startTunnelVertical(destination, positive).waitFor();
+	}
 
-			//Updates current position in cm.
-			xyt = dc.getXYT();
-			currentX = xyt[0];
-			currentY = xyt[1];
-			
-			//Calculates the minimal absolute angle to the destination 
-			//and turns in that direction if the angle is off.
-			minAng = Math.toDegrees(Math.atan2(destination.y - currentY, destination.x - currentX));
-			//Sets the angle in the range [0, 360).
-			minAng = Util.toRange(minAng, 0.0, false);
-			if (Math.abs(xyt[2] - minAng) > DEG_ERR && 
-					Math.abs(xyt[2] - minAng) < 360 - DEG_ERR) {
-				this.turnToAngle(minAng);
-				continue;
-			}
-			
-			long end = System.currentTimeMillis();
-			if (end - start > TUNNEL_DELAY) {
-				start = end;
-				double left = dc.getFilteredDistance(180) + HWConstants.LEFT_US_DISTANCE;
-				double right = dc.getFilteredDistance(0) + HWConstants.RIGHT_US_DISTANCE;
-				if (left > HWConstants.TILE_DISTANCE || right > HWConstants.TILE_DISTANCE) { 
-					continue;
-				}
-				double avgXDisplacement = 0;
-				double avgX = 0;
-				currentY = dc.getY();
-				if (positive) {
-					avgXDisplacement = ((previousRight - right) + (left - previousLeft)) / 2;
-					avgX = destination.x + (left - right) / 2;
-				} else {
-					avgXDisplacement = ((right - previousRight) + (previousLeft - left)) / 2;
-					avgX = destination.x + (right - left) / 2;
-				}
-				//double correctAngle = Math.toDegrees(Math.atan2(currentY - previousY, avgXDisplacement));
-				//dc.setXYT(avgX, currentY, correctAngle);
-				dc.setX(avgX);
-				previousLeft = left;
-				previousRight = right;
-				previousY = currentY;
+	/**
+	 * Queues a travel in a vertical tunnel 1 tile wide.
+	 * @param destination
+	 * @param positive Are you traveling in the +y direction?
+	 * @return The handle of the motion.
+	 */
+	public MotionCommand startTunnelVertical(final Point destination, final boolean positive) {
+		return executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				tunnel(destination, positive ? 90 : 270);
 			}
-		}
-		dc.setWallFollowing(false);
-		floatMotors();
-		unlock();
+		});
 	}
 	
 	/**
@@ -617,91 +1135,99 @@ public class Navigation {
 	 * @param positive Are you traveling in the +x direction?
 	 */
 	public void travelInTunnelHorizontal(Point destination, boolean positive) {
-		lock();
-		dc.setWallFollowing(true);
-		//Gets the current x and y position in cm.
-		double[] xyt = dc.getXYT();
-		double currentX = xyt[0];
-		double currentY = xyt[1];
-		
-		//Calculates the minimal absolute angle to the destination 
-		//and turns in that direction.
-		double minAng;
-		minAng = Math.toDegrees(Math.atan2(destination.y - currentY, destination.x - currentX));
-		//Sets the angle in the range [0, 360).
-		minAng = Util.toRange(minAng, 0.0, false);
-		this.turnToAngle(minAng);
-		
-		try {
-			Thread.sleep(5 * USPoller.PING_DELAY);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		long start = System.currentTimeMillis();
-		//Gets current distances to wall.
-		double previousLeft = dc.getFilteredDistance(180) + HWConstants.LEFT_US_DISTANCE;
-		double previousRight = dc.getFilteredDistance(0) + HWConstants.RIGHT_US_DISTANCE;
+		startTunnelHorizontal(destination, positive).waitFor();
+	}
+
+	/**
+	 * Queues a travel in a horizontal tunnel 1 tile wide.
+	 * @param destination
+	 * @param positive Are you traveling in the +x direction?
+	 * @return The handle of the motion.
+	 */
+	public MotionCommand startTunnelHorizontal(final Point destination, final boolean positive) {
+		return executor.submit(new MotionCommand() {
+			@Override
+			protected void execute() {
+				tunnel(destination, positive ? 0 : 180);
+			}
+		});
+	}
+
+	/**
+	 * Travels through a tunnel 1 tile wide to the destination, which is on
+	 * its center line. Estimates the offset and heading in the tunnel from
+	 * every pair of new readings of both sides with a TunnelTracker, corrects the
+	 * odometry with them, and steers back to the center line at speed.
+	 * @param destination
+	 * @param axis The heading in degrees along the tunnel.
+	 */
+	private void tunnel(Point destination, double axis) {
+		//Starts the side sensors, which warm up during the turn.
+		SensorManager sensors = dc.getSensors();
+		sensors.demand(tunnelDemand, SensorManager.LEFT_US, SensorManager.FASTEST);
+		sensors.demand(tunnelDemand, SensorManager.RIGHT_US, SensorManager.FASTEST);
+		this.turnToAngle(Util.toRange(axis, 0.0, false));
 		
-		//Updates current position in cm.
-		xyt = dc.getXYT();
-		currentX = xyt[0];
-		currentY = xyt[1];
+		//Waits for the side sensors to fill their filters if the turn
+		//was too short for them to.
+		awaitReady(SensorManager.LEFT_US);
+		awaitReady(SensorManager.RIGHT_US);
+		double[] xyt = dc.getXYT();
+		TunnelTracker tracker = new TunnelTracker(destination, axis, HWConstants.TILE_DISTANCE);
+		tracker.start(xyt);
+		int leftSamples = dc.getSamples(180);
+		int rightSamples = dc.getSamples(0);
+		double leftDistance = Double.NaN;
+		double rightDistance = Double.NaN;
 		
-		double previousX = currentX;
+		//Plans the speed along the tunnel.
+		double remaining = tracker.remaining(xyt[0], xyt[1], destination);
+		MotionProfile profile = planMove(destination, xyt[0], xyt[1]);
+		long start = clock.currentTimeMillis();
+		double speed = 0;
+		double correction = 0;
+		heading.reset();
+		long period = controlLoop.getPeriod();
+		controlLoop.start();
 		
-		//Loops while the robot is not at its destination.
-		while (Math.abs(destination.x - currentX) > CM_ERR || Math.abs(destination.y - currentY) > CM_ERR) {
-			double dist = (destination.x - currentX)*(destination.x - currentX) + 
-					(destination.y - currentY)*(destination.y - currentY);
-			if (dist > HWConstants.TILE_DISTANCE)
-				dist = HWConstants.TILE_DISTANCE;
-			double speed = LOW_SPD + dist / (HWConstants.TILE_DISTANCE) * (HIGH_SPD - LOW_SPD);
-			setMotorSpeeds((int)speed, (int)speed);
-
-			//Updates current position in cm.
-			xyt = dc.getXYT();
-			currentX = xyt[0];
-			currentY = xyt[1];
+		//Loops while the robot is not at the end of the tunnel.
+		while (remaining > CM_ERR && !executor.isCurrentCancelled()) {
+			double left = Math.toDegrees(remaining / HWConstants.RIGHT_RADIUS) - speed * period / 1000.0;
+			speed = profile.getSpeed((clock.currentTimeMillis() - start) / 1000.0, left);
+			speed = Math.max(speed, CREEP_SPD);
+			setMotorSpeeds((int)(speed - correction), (int)(speed + correction));
+			controlLoop.waitForNextTick();
 			
-			//Calculates the minimal absolute angle to the destination 
-			//and turns in that direction if the angle is off.
-			minAng = Math.toDegrees(Math.atan2(destination.y - currentY, destination.x - currentX));
-			//Sets the angle in the range [0, 360).
-			minAng = Util.toRange(minAng, 0.0, false);
-			if (Math.abs(xyt[2] - minAng) > DEG_ERR && 
-					Math.abs(xyt[2] - minAng) < 360 - DEG_ERR) {
-				this.turnToAngle(minAng);
-				continue;
+			//Corrects the pose with the readings taken since the last update.
+			xyt = dc.getXYT();
+			double[] corrected = {xyt[0], xyt[1], xyt[2]};
+			//Takes each side's reading once it is new, and fuses the pair
+			//only once both sides have a new one, so that a new reading on
+			//one side is never paired with a reading already used.
+			if (dc.getSamples(180) != leftSamples) {
+				leftSamples = dc.getSamples(180);
+				leftDistance = dc.getDistance(180) + HWConstants.LEFT_US_DISTANCE;
 			}
-			
-			long end = System.currentTimeMillis();
-			if (end - start > TUNNEL_DELAY) {
-				start = end;
-				double left = dc.getFilteredDistance(180) + HWConstants.LEFT_US_DISTANCE;
-				double right = dc.getFilteredDistance(0) + HWConstants.RIGHT_US_DISTANCE;
-				if (left > HWConstants.TILE_DISTANCE || right > HWConstants.TILE_DISTANCE) { 
-					continue;
-				}
-				double avgYDisplacement = 0;
-				double avgY = 0;
-				currentX = dc.getX();
-				if (positive) {
-					avgYDisplacement = ((right - previousRight) + (previousLeft - left)) / 2;
-					avgY = destination.y + (right - left) / 2;
-				} else {
-					avgYDisplacement = ((previousRight - right) + (left - previousLeft)) / 2;
-					avgY = destination.y + (left - right) / 2;
-				}
-				//double correctAngle = Math.toDegrees(Math.atan2(avgYDisplacement, currentX - previousX));
-				//dc.setXYT(currentX, avgY, correctAngle);
-				dc.setY(avgY);
-				previousLeft = left;
-				previousRight = right;
-				previousX = currentX;
+			if (dc.getSamples(0) != rightSamples) {
+				rightSamples = dc.getSamples(0);
+				rightDistance = dc.getDistance(0) + HWConstants.RIGHT_US_DISTANCE;
 			}
+			boolean fused = tracker.update(corrected, leftDistance, rightDistance);
+			if (!Double.isNaN(leftDistance) && !Double.isNaN(rightDistance)) {
+				leftDistance = Double.NaN;
+				rightDistance = Double.NaN;
+			}
+			if (fused) {
+				dc.offsetXYT(corrected[0] - xyt[0], corrected[1] - xyt[1],
+						Util.toRange(corrected[2] - xyt[2], -180.0, true));
+			}
+			
+			//Steers to be back on the center line TUNNEL_LOOKAHEAD ahead.
+			double target = -Math.toDegrees(Math.atan2(tracker.getOffset(), TUNNEL_LOOKAHEAD));
+			correction = heading.update(target - tracker.getHeadingError(), period / 1000.0);
+			remaining = tracker.remaining(corrected[0], corrected[1], destination);
 		}
-		dc.setWallFollowing(false);
+		sensors.releaseAll(tunnelDemand);
 		floatMotors();
-		unlock();
 	}
-}
\ No newline at end of file
+}
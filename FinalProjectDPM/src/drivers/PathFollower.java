@@ -0,0 +1,240 @@
+package drivers;
+import util.Point;
+
+/**
+ * A pure pursuit controller that tracks a whole path with differential
+ * wheel speeds instead of stopping and turning at every waypoint. At each
+ * update, steers along the arc through a point a fixed distance ahead on
+ * the path, slows down on tight arcs and before the end of the path, and
+ * only turns in place if the path is behind the robot.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class PathFollower {
+	/**
+	 * The lowest wheel speed in deg/s used while driving.
+	 */
+	private static final int LOW_SPD = 100;
+	/**
+	 * The highest wheel speed in deg/s.
+	 */
+	private static final int HIGH_SPD = 500;
+	/**
+	 * The wheel speed in deg/s used while turning in place.
+	 */
+	private static final int TURN_SPD = 200;
+	/**
+	 * The wheel acceleration in deg/s/s used to slow down before the end.
+	 * Below the motor acceleration to leave a margin for the control period.
+	 */
+	private static final double DECELERATION = 600;
+	/**
+	 * The distance in cm ahead on the path that the robot steers to.
+	 * Bounds how much the robot cuts corners.
+	 */
+	private static final double LOOKAHEAD = 10.0;
+	/**
+	 * The maximum error in cm at the end of the path.
+	 */
+	private static final double CM_ERR = 1.0;
+	/**
+	 * The heading error in degrees above which the robot turns in place.
+	 */
+	private static final double TURN_ERR = 60.0;
+	/**
+	 * The heading error in degrees at which the turn in place ends.
+	 */
+	private static final double DEG_ERR = 10.0;
+
+	/**
+	 * The path to follow.
+	 */
+	private Point[] path;
+	/**
+	 * The radius in cm of the wheels the speeds are given for.
+	 */
+	private double radius;
+	/**
+	 * The distance in cm between the wheels.
+	 */
+	private double width;
+	/**
+	 * The index of the first point of the current segment.
+	 */
+	private int segment;
+	/**
+	 * Variable keeping track of if the robot is turning in place.
+	 */
+	private boolean turning;
+
+	/**
+	 * Default constructor.
+	 * @param path The path to follow, in cm.
+	 * @param radius The radius in cm of the wheels the speeds are given for.
+	 * @param width The distance in cm between the wheels.
+	 */
+	public PathFollower(Point[] path, double radius, double width) {
+		if (path.length == 0)
+			throw new RuntimeException("Empty path.");
+		this.path = path;
+		this.radius = radius;
+		this.width = width;
+		segment = 0;
+		turning = false;
+	}
+
+	/**
+	 * Computes the wheel speeds for the current pose.
+	 * @param x The x position in cm.
+	 * @param y The y position in cm.
+	 * @param theta The orientation in degrees.
+	 * @return The left and right wheel speeds in deg/s,
+	 * 		   or null once the end of the path is reached.
+	 */
+	public double[] update(double x, double y, double theta) {
+		Point end = path[path.length - 1];
+		advance(x, y);
+		if (Math.hypot(end.x - x, end.y - y) < CM_ERR || passedEnd(x, y))
+			return null;
+
+		//Finds the goal point and its position in the frame of the robot.
+		Point goal = lookahead(x, y);
+		double dx = goal.x - x;
+		double dy = goal.y - y;
+		double rad = Math.toRadians(theta);
+		double ahead = dx * Math.cos(rad) + dy * Math.sin(rad);
+		double lateral = -dx * Math.sin(rad) + dy * Math.cos(rad);
+		double error = Math.toDegrees(Math.atan2(lateral, ahead));
+
+		//Turns in place towards a goal behind the robot.
+		if (Math.abs(error) > TURN_ERR)
+			turning = true;
+		if (turning && Math.abs(error) < DEG_ERR)
+			turning = false;
+		if (turning) {
+			double sign = Math.signum(error);
+			double[] speeds = {-sign * TURN_SPD, sign * TURN_SPD};
+			return speeds;
+		}
+
+		//Curvature of the arc through the goal, in 1/cm. The goal gets
+		//closer than the lookahead near the end, so the distance is bounded
+		//to keep the steering smooth.
+		double distance = Math.max(dx * dx + dy * dy, LOOKAHEAD * LOOKAHEAD);
+		double curvature = 2 * lateral / distance;
+		//Slows down to stop at the end of the path.
+		double stopping = Math.toDegrees(remaining(x, y) / radius);
+		double speed = Math.min(HIGH_SPD, Math.sqrt(2 * DECELERATION * stopping));
+		speed = Math.max(LOW_SPD, speed);
+		double left = speed * (1 - curvature * width / 2);
+		double right = speed * (1 + curvature * width / 2);
+		//Keeps the faster wheel within the highest speed.
+		double scale = Math.max(Math.abs(left), Math.abs(right)) / HIGH_SPD;
+		if (scale > 1) {
+			left /= scale;
+			right /= scale;
+		}
+		double[] speeds = {left, right};
+		return speeds;
+	}
+
+	/**
+	 * Returns the index of the first point of the current segment.
+	 * @return The index of the first point of the current segment.
+	 */
+	public int getSegment() {
+		return segment;
+	}
+
+	/**
+	 * Moves to the next segments while the closest point of the path
+	 * is on them.
+	 */
+	private void advance(double x, double y) {
+		while (segment + 2 < path.length &&
+				distanceToSegment(x, y, segment + 1) <= distanceToSegment(x, y, segment)) {
+			++segment;
+		}
+	}
+
+	/**
+	 * Returns the position along the current segment, from 0 at its
+	 * start to 1 at its end, of the closest point to (x, y).
+	 */
+	private double project(double x, double y, int i) {
+		Point a = path[i];
+		Point b = path[Math.min(i + 1, path.length - 1)];
+		double ex = b.x - a.x;
+		double ey = b.y - a.y;
+		double length = ex * ex + ey * ey;
+		if (length == 0)
+			return 1;
+		return Math.max(0, Math.min(1, ((x - a.x) * ex + (y - a.y) * ey) / length));
+	}
+
+	/**
+	 * Returns the distance in cm from (x, y) to segment i.
+	 */
+	private double distanceToSegment(double x, double y, int i) {
+		Point a = path[i];
+		Point b = path[i + 1];
+		double u = project(x, y, i);
+		return Math.hypot(a.x + u * (b.x - a.x) - x, a.y + u * (b.y - a.y) - y);
+	}
+
+	/**
+	 * Returns true if (x, y) is past the end of the last segment
+	 * and the robot is on it.
+	 */
+	private boolean passedEnd(double x, double y) {
+		if (segment != path.length - 2)
+			return false;
+		Point a = path[path.length - 2];
+		Point b = path[path.length - 1];
+		return (x - b.x) * (b.x - a.x) + (y - b.y) * (b.y - a.y) >= 0;
+	}
+
+	/**
+	 * Returns the length in cm of the path left from the closest point to (x, y).
+	 */
+	private double remaining(double x, double y) {
+		if (path.length == 1)
+			return Math.hypot(path[0].x - x, path[0].y - y);
+		double u = project(x, y, segment);
+		Point a = path[segment];
+		Point b = path[segment + 1];
+		double sum = (1 - u) * Math.hypot(b.x - a.x, b.y - a.y);
+		for (int i = segment + 1; i + 1 < path.length; ++i) {
+			sum += Math.hypot(path[i+1].x - path[i].x, path[i+1].y - path[i].y);
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the point LOOKAHEAD cm ahead of the closest point
+	 * to (x, y) along the path, or the end of the path.
+	 */
+	private Point lookahead(double x, double y) {
+		if (path.length == 1)
+			return path[0];
+		double u = project(x, y, segment);
+		Point a = path[segment];
+		Point b = path[segment + 1];
+		double left = LOOKAHEAD;
+		double px = a.x + u * (b.x - a.x);
+		double py = a.y + u * (b.y - a.y);
+		for (int i = segment; i + 1 < path.length; ++i) {
+			Point to = path[i + 1];
+			double length = Math.hypot(to.x - px, to.y - py);
+			if (length >= left) {
+				return new Point(px + (to.x - px) * left / length,
+						py + (to.y - py) * left / length);
+			}
+			left -= length;
+			px = to.x;
+			py = to.y;
+		}
+		return path[path.length - 1];
+	}
+}
@@ -0,0 +1,54 @@
+package drivers;
+
+/**
+ * Keeps track of the time between two actions meant to happen together,
+ * such as commanding or reading the two motors of the drive train.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class SkewStatistics {
+	/**
+	 * The number of skews recorded.
+	 */
+	private long count;
+	/**
+	 * The sum and the largest of the skews recorded, in ns.
+	 */
+	private long total, max;
+
+	/**
+	 * Records a skew.
+	 * @param skew The time in ns between the two actions.
+	 */
+	public synchronized void record(long skew) {
+		++count;
+		total += skew;
+		if (skew > max)
+			max = skew;
+	}
+
+	/**
+	 * Returns the number of skews recorded.
+	 * @return The number of skews recorded.
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the mean skew in microseconds.
+	 * @return The mean skew in microseconds, or 0 if none was recorded.
+	 */
+	public synchronized double getMean() {
+		return count == 0 ? 0 : total / 1000.0 / count;
+	}
+
+	/**
+	 * Returns the largest skew in microseconds.
+	 * @return The largest skew in microseconds.
+	 */
+	public synchronized double getMax() {
+		return max / 1000.0;
+	}
+}
@@ -0,0 +1,254 @@
+package drivers;
+import util.Point;
+import util.Util;
+
+/**
+ * A Kalman filter of the lateral offset and heading of the robot in a
+ * straight tunnel, from the side ultrasonic sensors. The odometry moves the
+ * state between readings, and each pair of left and right readings measures
+ * the offset from the center line, stretched by the heading. The heading is
+ * not measured directly but follows from how the offset changes as the
+ * robot drives. Readings that do not fit two parallel walls, such as at the
+ * mouth of the tunnel, are rejected.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class TunnelTracker {
+	/**
+	 * The standard deviations of the offset in cm and heading in degrees
+	 * at the start.
+	 */
+	private static final double START_OFFSET_SD = 3.0, START_HEADING_SD = 3.0;
+	/**
+	 * The standard deviation in cm of a reading of a side sensor.
+	 */
+	private static final double READING_SD = 1.5;
+	/**
+	 * The growth of the standard deviations of the offset in cm and of the
+	 * heading in degrees per cm driven, and of the heading per degree turned.
+	 */
+	private static final double OFFSET_DRIFT = 0.02, HEADING_DRIFT = 0.05, TURN_DRIFT = 0.05;
+	/**
+	 * The largest difference in cm between the sum of the readings and the
+	 * distance they would have between the walls.
+	 */
+	private static final double WIDTH_TOLERANCE = 5.0;
+	/**
+	 * The largest heading error in degrees for which the sum of the readings
+	 * is checked against the width.
+	 */
+	private static final double MAX_HEADING = 20.0;
+	/**
+	 * The largest normalized innovation accepted, in standard deviations.
+	 */
+	private static final double GATE = 3.0;
+
+	/**
+	 * A point on the center line of the tunnel in cm.
+	 */
+	private final Point center;
+	/**
+	 * The heading in degrees along the tunnel.
+	 */
+	private final double axis;
+	/**
+	 * The distance in cm between the walls.
+	 */
+	private final double width;
+	/**
+	 * The lateral offset in cm, positive to the left of the center line,
+	 * and the heading error in radians, positive counterclockwise.
+	 */
+	private double offset, heading;
+	/**
+	 * The covariance of the offset and heading.
+	 */
+	private double pOO, pOH, pHH;
+	/**
+	 * The pose at the last update.
+	 */
+	private double lastX, lastY, lastTheta;
+	/**
+	 * The number of readings accepted and rejected.
+	 */
+	private int accepted, rejected;
+
+	/**
+	 * Default constructor.
+	 * @param center A point on the center line of the tunnel in cm.
+	 * @param axis The heading in degrees along the tunnel.
+	 * @param width The distance in cm between the walls.
+	 */
+	public TunnelTracker(Point center, double axis, double width) {
+		this.center = center;
+		this.axis = Util.toRange(axis, 0.0, false);
+		this.width = width;
+	}
+
+	/**
+	 * Starts tracking from the pose, with the uncertainty of a robot that
+	 * has just turned along the tunnel.
+	 * @param xyt The x and y position in cm and the heading in degrees.
+	 */
+	public void start(double[] xyt) {
+		offset = lateral(xyt[0], xyt[1]);
+		heading = Math.toRadians(Util.toRange(xyt[2] - axis, -180.0, true));
+		pOO = START_OFFSET_SD * START_OFFSET_SD;
+		pOH = 0;
+		pHH = Math.toRadians(START_HEADING_SD) * Math.toRadians(START_HEADING_SD);
+		lastX = xyt[0];
+		lastY = xyt[1];
+		lastTheta = xyt[2];
+		accepted = 0;
+		rejected = 0;
+	}
+
+	/**
+	 * Moves the state to the new pose of the odometry and corrects it with
+	 * the readings. Corrects the pose if the readings were accepted.
+	 * @param xyt The x and y position in cm and the heading in degrees
+	 * 			  from the odometry, replaced by the corrected pose.
+	 * @param left The distance in cm from the center of the robot to the
+	 * 			   left wall, or Double.NaN if there is no new reading.
+	 * @param right The distance in cm from the center of the robot to the
+	 * 				right wall, or Double.NaN if there is no new reading.
+	 * @return true if the pose was corrected.
+	 */
+	public boolean update(double[] xyt, double left, double right) {
+		predict(xyt);
+		boolean corrected = false;
+		if (!Double.isNaN(left) && !Double.isNaN(right))
+			corrected = correct(left, right);
+		if (corrected) {
+			//Moves the position across the tunnel to the new offset.
+			double shift = offset - lateral(xyt[0], xyt[1]);
+			double rad = Math.toRadians(axis);
+			xyt[0] -= shift * Math.sin(rad);
+			xyt[1] += shift * Math.cos(rad);
+			xyt[2] = Util.toRange(axis + Math.toDegrees(heading), 0.0, false);
+		}
+		lastX = xyt[0];
+		lastY = xyt[1];
+		lastTheta = xyt[2];
+		return corrected;
+	}
+
+	/**
+	 * Returns the lateral offset from the center line.
+	 * @return The offset in cm, positive to the left of the center line.
+	 */
+	public double getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the heading error relative to the tunnel.
+	 * @return The heading error in degrees, positive counterclockwise.
+	 */
+	public double getHeadingError() {
+		return Math.toDegrees(heading);
+	}
+
+	/**
+	 * Returns the standard deviation of the heading error.
+	 * @return The standard deviation in degrees.
+	 */
+	public double getHeadingDeviation() {
+		return Math.toDegrees(Math.sqrt(pHH));
+	}
+
+	/**
+	 * Returns the number of readings accepted since the start.
+	 * @return The number of readings accepted.
+	 */
+	public int getAccepted() {
+		return accepted;
+	}
+
+	/**
+	 * Returns the number of readings rejected since the start.
+	 * @return The number of readings rejected.
+	 */
+	public int getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * Returns the distance in cm left along the tunnel to the point.
+	 * @param x The x position in cm.
+	 * @param y The y position in cm.
+	 * @param destination The point to reach.
+	 * @return The distance, negative past the point.
+	 */
+	public double remaining(double x, double y, Point destination) {
+		double rad = Math.toRadians(axis);
+		return (destination.x - x) * Math.cos(rad) + (destination.y - y) * Math.sin(rad);
+	}
+
+	/**
+	 * Sets the state from the odometry, which already moved it since the
+	 * last update, and grows the covariance with the distance driven.
+	 */
+	private void predict(double[] xyt) {
+		double ds = Math.hypot(xyt[0] - lastX, xyt[1] - lastY);
+		double turn = Math.abs(Util.toRange(xyt[2] - lastTheta, -180.0, true));
+		offset = lateral(xyt[0], xyt[1]);
+		heading = Math.toRadians(Util.toRange(xyt[2] - axis, -180.0, true));
+		//The offset changes by ds * sin(heading).
+		double f = ds * Math.cos(heading);
+		double oo = pOO + 2 * f * pOH + f * f * pHH;
+		double oh = pOH + f * pHH;
+		double headingDrift = Math.toRadians(HEADING_DRIFT * ds + TURN_DRIFT * turn);
+		pOO = oo + (OFFSET_DRIFT * ds) * (OFFSET_DRIFT * ds);
+		pOH = oh;
+		pHH += headingDrift * headingDrift;
+	}
+
+	/**
+	 * Corrects the state with a pair of readings.
+	 * @return true if the readings were accepted.
+	 */
+	private boolean correct(double left, double right) {
+		//Both walls must be in view, at the width of the tunnel apart.
+		double sum = left + right;
+		if (left <= 0 || right <= 0 || sum < width - WIDTH_TOLERANCE ||
+				sum > width / Math.cos(Math.toRadians(MAX_HEADING)) + WIDTH_TOLERANCE) {
+			++rejected;
+			return false;
+		}
+		//The readings are slanted by the heading: (right - left) / 2 = offset / cos(heading).
+		double cos = Math.cos(heading);
+		double predicted = offset / cos;
+		double hO = 1 / cos;
+		double hH = offset * Math.sin(heading) / (cos * cos);
+		double innovation = (right - left) / 2 - predicted;
+		double s = hO * hO * pOO + 2 * hO * hH * pOH + hH * hH * pHH +
+				READING_SD * READING_SD / 2;
+		if (innovation * innovation > GATE * GATE * s) {
+			++rejected;
+			return false;
+		}
+		double kO = (pOO * hO + pOH * hH) / s;
+		double kH = (pOH * hO + pHH * hH) / s;
+		offset += kO * innovation;
+		heading += kH * innovation;
+		double oo = pOO - kO * (hO * pOO + hH * pOH);
+		double oh = pOH - kO * (hO * pOH + hH * pHH);
+		double hh = pHH - kH * (hO * pOH + hH * pHH);
+		pOO = oo;
+		pOH = oh;
+		pHH = hh;
+		++accepted;
+		return true;
+	}
+
+	/**
+	 * Returns the offset in cm of the position from the center line,
+	 * positive to the left.
+	 */
+	private double lateral(double x, double y) {
+		double rad = Math.toRadians(axis);
+		return -(x - center.x) * Math.sin(rad) + (y - center.y) * Math.cos(rad);
+	}
+}
@@ -1,5 +1,6 @@
 package drivers;
 import data.DataCenter;
+import data.SensorManager;
 import lejos.nxt.UltrasonicSensor;
 
 /**
@@ -20,7 +21,7 @@ public class USPoller extends Thread {
 	/**
 	 * The ultrasonic sensor polled.
 	 */
-	private final UltrasonicSensor US;
+	private UltrasonicSensor US;
 	/**
 	 * The angle in degrees at which the ultrasonic sensor is positioned,
 	 * with 0 degrees being the right of the robot and angles
@@ -37,6 +38,15 @@ public class USPoller extends Thread {
 	 * The data used by the sensor to compute the running minimum, in cm.
 	 */
 	private int[] data;
+	/**
+	 * The number of readings in the data since the sensor started, up
+	 * to NUM_VALUES.
+	 */
+	private int count;
+	/**
+	 * The channel of the sensor in the sensor manager.
+	 */
+	private final int CHANNEL;
 	
 	/**
 	 * The data storage location to send data to.
@@ -53,97 +63,72 @@ public class USPoller extends Thread {
 	 */
 	public USPoller(int angle, DataCenter dc) {
 		this.dc = dc;
-		switch (angle) {
-		case 0:
-			US = HWConstants.RIGHT_US;
-			ANGLE = angle;
-			break;
-		case 90:
-			US = HWConstants.FRONT_US;
-			ANGLE = angle;
-			break;
-		case 180:
-			US = HWConstants.LEFT_US;
-			ANGLE = angle;
-			break;
-		default:
-			throw new RuntimeException(
-				"Invalid angle passed to UltrasonicPoller.");
-		}
+		ANGLE = angle;
+		CHANNEL = SensorManager.usChannel(angle);
 		data = new int[NUM_VALUES];
+		reset();
 	}
 	
 	/**
-	 * Method called when thread is started. Updates the distances
-	 * of the robot from the wall at the angle depending
-	 * on the feedback received from the DataCenter.
+	 * Method called when thread is started. Runs the ultrasonic sensor
+	 * at the rate demanded of its channel in the sensor manager, and
+	 * turns it off and sleeps while no one needs it.
 	 */
 	@Override
 	public void run() {
-		init();
-		//A check to see if the ultrasonic sensor was turned off
-		//for a period of time, which would require reinitialization of the data.
-		boolean paused = false;
+		//Initializes the sensor on this thread, concurrently with the
+		//other pollers.
+		US = HWConstants.getUS(ANGLE);
+		SensorManager sensors = dc.getSensors();
 		while (true) {
-			int[] distances;
-			switch (ANGLE) {
-			case 90:
-				distances = pollMin();
-				dc.setDistance(distances[0], ANGLE);
-				dc.setFilteredDistance(distances[1], ANGLE);
-				break;
-			case 0: case 180: {
-				boolean wallFollowing = dc.getWallFollowing();
-				if (wallFollowing) {
-					if (paused) {
-						paused = false;
-						init();
-					}
-					distances = pollMin();
-					dc.setDistance(distances[0], ANGLE);
-					dc.setFilteredDistance(distances[1], ANGLE);
-				} else {
-					US.off();
-					paused = true;
-				}
-				break;
+			int period = sensors.getPeriod(CHANNEL);
+			if (period < 0) {
+				US.off();
+				sensors.setReady(CHANNEL, false);
+				period = sensors.awaitDemand(CHANNEL);
+				reset();
+			}
+			long start = System.currentTimeMillis();
+			US.ping();
+			try {
+				Thread.sleep(PING_DELAY);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
 			}
-			default:
-				throw new RuntimeException(
-					"Invalid angle passed to UltrasonicPoller.");
+			record(US.getDistance());
+			long wait = period - (System.currentTimeMillis() - start);
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
 			}
 		}
 	}
 	
 	/**
-	 * Makes the robot poll to fill the initial data.
+	 * Clears the data when the sensor starts, so that the readings are
+	 * published from the first ping on instead of after a full set.
+	 * Called by the thread, and directly by a simulation that does not
+	 * start it.
 	 */
-	private void init() {
+	public void reset() {
 		for (int i = 0; i < NUM_VALUES; ++i) {
-			US.ping();
-			try {
-				Thread.sleep(PING_DELAY);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-			data[i] = US.getDistance();
+			data[i] = 255;
 		}
+		count = 0;
 	}
 
 	/**
-	 * Polls the ultrasonic sensor and returns the polled value and the minimum value
-	 * of the previous NUM_VALUES readings and the current one, in cm.
-	 * @return The current and minimum value obtained from the ultrasonic sensor, in cm.
-	 * 		   The current value is stored in index 0 and the minimum in index 1.
+	 * Records a reading of the sensor, and sends it and the minimum of
+	 * the previous NUM_VALUES readings and this one to the DataCenter.
+	 * Sets the sensor ready once the minimum is over real readings.
+	 * Called by the thread, and directly by a simulation that does not
+	 * start it.
+	 * @param val The reading in cm.
 	 */
-	private int[] pollMin() {
-		US.ping();
-		try {
-			Thread.sleep(PING_DELAY);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		int val = US.getDistance();
+	public void record(int val) {
 		int min = val;
 		for (int i = 0; i < NUM_VALUES; ++i) {
 			if (data[i] < min)
@@ -153,7 +138,11 @@ public class USPoller extends Thread {
 			data[i] = data[i+1]; 
 		}
 		data[NUM_VALUES-1] = val;
-		int[] values = {val, min}; 
-		return values;
+		if (count < NUM_VALUES)
+			++count;
+		dc.setDistance(val, ANGLE);
+		dc.setFilteredDistance(min, ANGLE);
+		if (count == NUM_VALUES)
+			dc.getSensors().setReady(CHANNEL, true);
 	}
 }
@@ -0,0 +1,130 @@
+package drivers;
+
+/**
+ * A controller keeping the robot at a distance from the wall on its left
+ * while driving at speed, on a WallModel of the wall. Steers along arcs
+ * whose curvature is the curvature of the path along the wall, fed forward
+ * so that the robot goes around the corners without waiting for an error,
+ * plus a proportional term on the distance error and a derivative term on
+ * the heading relative to the wall, which is how fast the distance changes
+ * per cm driven. Since the gains act per cm driven rather than per second,
+ * the robot settles over the same distance at any speed. Slows down on
+ * tight arcs to keep the outer wheel within the speed, and only turns in
+ * place if an obstacle in front is too close to go around.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class WallFollower {
+	/**
+	 * The wheel speed in deg/s used before the wall is seen.
+	 */
+	private static final int SEARCH_SPD = 200;
+	/**
+	 * The wheel speed in deg/s used while turning in place.
+	 */
+	private static final int TURN_SPD = 200;
+	/**
+	 * The proportional gain in 1/cm of curvature per cm of distance error,
+	 * and the derivative gain in 1/cm of curvature per unit of the sine of
+	 * the heading relative to the wall. The distance error then settles
+	 * like a spring over about 45 cm driven, critically damped.
+	 */
+	private static final double KP = 0.02, KD = 0.3;
+	/**
+	 * The heading in degrees relative to the path past which the robot
+	 * turns in place towards it.
+	 */
+	private static final double MAX_HEADING = 25;
+
+	/**
+	 * The model of the wall.
+	 */
+	private final WallModel model;
+	/**
+	 * The distance in cm between the wheels.
+	 */
+	private final double width;
+	/**
+	 * The distance in cm from the center of the robot to keep from the wall.
+	 */
+	private final double distance;
+	/**
+	 * The highest wheel speed in deg/s.
+	 */
+	private final int speed;
+	/**
+	 * Variable keeping track of if the robot is turning in place.
+	 */
+	private boolean turning;
+
+	/**
+	 * Default constructor.
+	 * @param width The distance in cm between the wheels.
+	 * @param distance The distance in cm from the center of the robot to
+	 * 				   keep from the wall.
+	 * @param beam The half width in degrees of the ultrasonic beam.
+	 * @param speed The highest wheel speed in deg/s.
+	 */
+	public WallFollower(double width, double distance, double beam, int speed) {
+		this.model = new WallModel(distance, beam);
+		this.width = width;
+		this.distance = distance;
+		this.speed = speed;
+		turning = false;
+	}
+
+	/**
+	 * Returns the model of the wall, which the readings are added to.
+	 * @return The model of the wall.
+	 */
+	public WallModel getModel() {
+		return model;
+	}
+
+	/**
+	 * Computes the wheel speeds for the current pose.
+	 * @param x The x position in cm.
+	 * @param y The y position in cm.
+	 * @param theta The heading in degrees.
+	 * @param time The current time in ms.
+	 * @return The left and right wheel speeds in deg/s.
+	 */
+	public double[] update(double x, double y, double theta, double time) {
+		model.update(x, y, theta, time);
+
+		//Turns in place away from an obstacle too close in front, until
+		//there is room to turn onto it on an arc.
+		if (model.getFront() < distance)
+			turning = true;
+		if (turning && model.getFront() > 2 * distance) {
+			turning = false;
+			model.turned(x, y, theta);
+			model.update(x, y, theta, time);
+		}
+		if (turning) {
+			double[] speeds = {TURN_SPD, -TURN_SPD};
+			return speeds;
+		}
+		if (!model.hasWall()) {
+			double[] speeds = {SEARCH_SPD, SEARCH_SPD};
+			return speeds;
+		}
+
+		//Turns in place towards the path when heading far off it, since
+		//an arc would drift away from the distance to keep.
+		if (Math.abs(model.getHeading()) > Math.toRadians(MAX_HEADING)) {
+			double turn = -Math.signum(model.getHeading()) * TURN_SPD;
+			double[] speeds = {-turn, turn};
+			return speeds;
+		}
+		double curvature = model.getCurvature() + KP * (model.getDistance() - distance) -
+				KD * Math.sin(model.getHeading());
+		//At most one wheel stops.
+		curvature = Math.max(-2 / width, Math.min(2 / width, curvature));
+		//Keeps the outer wheel within the highest speed.
+		double base = speed / (1 + Math.abs(curvature) * width / 2);
+		double[] speeds = {base * (1 - curvature * width / 2), base * (1 + curvature * width / 2)};
+		return speeds;
+	}
+}
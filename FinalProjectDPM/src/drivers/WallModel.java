@@ -0,0 +1,758 @@
+package drivers;
+import util.Util;
+
+/**
+ * A local model of the wall followed on the left of the robot, built from
+ * the readings of the left and front ultrasonic sensors. Each reading is
+ * placed on the field with the pose of the odometry at its time, so that
+ * the points stay put as the robot turns, and the wall is the line fit to
+ * the points read over the last WINDOW cm driven. Gives the distance to the
+ * wall and the heading of the robot relative to it.
+ * <p>
+ * The corners are modelled as arcs of the path kept at the distance from
+ * the wall. When the left sensor loses the wall, the robot goes around its
+ * end on an arc centered on it, as it does around points that stay
+ * together while it drives past them, which are the corner of an obstacle
+ * seen at an angle. The front readings that are not on the wall build the
+ * wall ahead, and the robot turns onto it on an arc of radius
+ * CORNER_RADIUS before reaching it. The wall ahead then becomes the wall
+ * followed, already fit before the left sensor sees it. The points seen
+ * ahead are dropped once a reading passes through them.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class WallModel {
+	/**
+	 * The states of the model.
+	 */
+	private static final int NONE = 0, LINE = 1, OUTSIDE = 2, INSIDE = 3;
+	/**
+	 * The maximum number of points kept on each wall.
+	 */
+	private static final int CAPACITY = 128;
+	/**
+	 * The distance in cm driven over which the points of the wall are kept.
+	 */
+	private static final double WINDOW = 30.0;
+	/**
+	 * The time in ms after which a point is dropped.
+	 */
+	private static final double MAX_AGE = 3000;
+	/**
+	 * The largest distance in cm from the center of the robot of a reading
+	 * used as a point. Farther readings are too noisy and may see other walls.
+	 */
+	private static final double MAX_RANGE = 50.0;
+	/**
+	 * The largest distance in cm of a point from the wall for it to be
+	 * on the wall.
+	 */
+	private static final double GATE = 3.0;
+	/**
+	 * The minimum number of points fit to a wall, and the minimum spread in
+	 * cm along it over which its direction is fit. Below, the direction of
+	 * the wall is kept and only its position is fit.
+	 */
+	private static final int MIN_POINTS = 4;
+	private static final double MIN_SPREAD = 5.0;
+	/**
+	 * The number of readings of the left sensor in a row past the wall
+	 * after which the wall has ended.
+	 */
+	private static final int LOST_READINGS = 3;
+	/**
+	 * The largest angle in degrees between the heading of the robot and
+	 * the next side of an obstacle for the arc around its end to stop.
+	 */
+	private static final double MAX_TURN = 20.0;
+	/**
+	 * The radius in cm of the path around an inside corner.
+	 */
+	private static final double CORNER_RADIUS = 10.0;
+	/**
+	 * The sine of the smallest angle between the wall followed and the
+	 * wall ahead for an inside corner.
+	 */
+	private static final double MIN_CORNER = 0.5;
+
+	/**
+	 * The distance in cm to keep from the wall.
+	 */
+	private final double distance;
+	/**
+	 * The half width in degrees of the ultrasonic beam.
+	 */
+	private final double beam;
+	/**
+	 * Storage for the point hit by a reading.
+	 */
+	private final double[] hit = new double[2];
+	/**
+	 * The coordinates in cm, distance driven in cm and time in ms of the
+	 * points on the wall followed, in a circular buffer.
+	 */
+	private final double[] wallX, wallY, wallS, wallT;
+	/**
+	 * The index of the oldest point and the number of points on the wall.
+	 */
+	private int wallStart, wallCount;
+	/**
+	 * The coordinates in cm and time in ms of the points seen ahead.
+	 */
+	private final double[] aheadX, aheadY, aheadT;
+	/**
+	 * The number of points seen ahead.
+	 */
+	private int aheadCount;
+	/**
+	 * The state of the model.
+	 */
+	private int state;
+	/**
+	 * A point on the wall in cm and the unit direction along it in which
+	 * the robot drives, with the wall on its left.
+	 */
+	private double lineX, lineY, dirX, dirY;
+	/**
+	 * The center in cm and the radius in cm of the arc around a corner,
+	 * and the unit direction of the wall after an inside corner.
+	 */
+	private double arcX, arcY, arcRadius, nextX, nextY;
+	/**
+	 * The last point in cm on the wall seen by the left sensor.
+	 */
+	private double endX, endY;
+	/**
+	 * The number of readings of the left sensor in a row off the wall.
+	 */
+	private int lost;
+	/**
+	 * The coordinates in cm and time in ms of the last readings off the
+	 * wall, which the wall is moved to if it was seen too far.
+	 */
+	private final double[] lostX, lostY, lostT;
+	/**
+	 * The distance in cm driven and the last position in cm.
+	 */
+	private double driven, lastX, lastY;
+	/**
+	 * The distance in cm to the wall, the heading of the robot relative
+	 * to the path in radians, positive towards the wall, and the curvature
+	 * of the path in 1/cm, positive to the left, at the last update.
+	 */
+	private double wallDistance, heading, curvature;
+	/**
+	 * The distance in cm from the center of the robot to the obstacle in
+	 * front at the last reading, or infinity.
+	 */
+	private double front;
+
+	/**
+	 * Default constructor.
+	 * @param distance The distance in cm from the center of the robot
+	 * 				   to keep from the wall.
+	 * @param beam The half width in degrees of the ultrasonic beam.
+	 */
+	public WallModel(double distance, double beam) {
+		this.distance = distance;
+		this.beam = beam;
+		wallX = new double[CAPACITY];
+		wallY = new double[CAPACITY];
+		wallS = new double[CAPACITY];
+		wallT = new double[CAPACITY];
+		aheadX = new double[CAPACITY];
+		aheadY = new double[CAPACITY];
+		aheadT = new double[CAPACITY];
+		lostX = new double[LOST_READINGS];
+		lostY = new double[LOST_READINGS];
+		lostT = new double[LOST_READINGS];
+		front = Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Starts following the wall on the left from the pose. The points seen
+	 * in front before turning to put the wall on the left are taken as
+	 * points of the wall.
+	 * @param x The x position in cm.
+	 * @param y The y position in cm.
+	 * @param theta The heading in degrees.
+	 */
+	public void start(double x, double y, double theta) {
+		lastX = x;
+		lastY = y;
+		wallStart = 0;
+		wallCount = 0;
+		lost = 0;
+		front = Double.POSITIVE_INFINITY;
+		double rad = Math.toRadians(theta);
+		dirX = Math.cos(rad);
+		dirY = Math.sin(rad);
+		state = NONE;
+		takeAhead();
+		lock();
+	}
+
+	/**
+	 * Adds a reading of the left sensor.
+	 * @param x The x position in cm at the time of the reading.
+	 * @param y The y position in cm at the time of the reading.
+	 * @param theta The heading in degrees at the time of the reading.
+	 * @param range The distance in cm from the center of the robot to
+	 * 				the wall on its left.
+	 * @param time The time of the reading in ms.
+	 */
+	public void addSide(double x, double y, double theta, double range, double time) {
+		move(x, y);
+		//The wall followed is on the left, perpendicular to the path.
+		if (state == LINE)
+			place(x, y, theta + 90, range, Math.toDegrees(Math.atan2(dirX, -dirY)));
+		else
+			place(x, y, theta + 90, range, Double.NaN);
+		double px = hit[0];
+		double py = hit[1];
+		switch (state) {
+		case NONE:
+			if (range <= MAX_RANGE) {
+				addWall(px, py, time);
+				lock();
+			}
+			break;
+		case LINE:
+			//Readings past the wall, or of nothing, count towards its end.
+			double error = (range > MAX_RANGE) ? Double.POSITIVE_INFINITY : offset(px, py);
+			if (Math.abs(error) <= GATE) {
+				addWall(px, py, time);
+				fitWall();
+				endX = px;
+				endY = py;
+				lost = 0;
+			} else {
+				if (lost < LOST_READINGS) {
+					lostX[lost] = px;
+					lostY[lost] = py;
+					lostT[lost] = time;
+				}
+				if (++lost < LOST_READINGS || wallCount == 0)
+					break;
+				double along = (endX - x) * dirX + (endY - y) * dirY;
+				if (error > GATE && along <= 0) {
+					//Goes around the end of the wall, once level with it.
+					arcX = lineX + ((endX - lineX) * dirX + (endY - lineY) * dirY) * dirX;
+					arcY = lineY + ((endX - lineX) * dirX + (endY - lineY) * dirY) * dirY;
+					arcRadius = distance;
+					wallCount = 0;
+					aheadCount = 0;
+					state = OUTSIDE;
+				} else if (error < -GATE) {
+					//The wall is closer than fit, so starts it over from the
+					//readings in the same direction.
+					wallCount = 0;
+					for (int i = 0; i < LOST_READINGS; ++i) {
+						addWall(lostX[i], lostY[i], lostT[i]);
+					}
+					fitWall();
+					endX = px;
+					endY = py;
+					lost = 0;
+				}
+			}
+			break;
+		case OUTSIDE:
+			//The next side of the obstacle ends the arc once it is fit.
+			if (range <= MAX_RANGE) {
+				addWall(px, py, time);
+				double r = Math.hypot(x - arcX, y - arcY);
+				dirX = -(y - arcY) / r;
+				dirY = (x - arcX) / r;
+				if (wallCount >= MIN_POINTS && spread() >= MIN_SPREAD) {
+					fitWall();
+					//The robot must have come around parallel to the side.
+					double turn = Math.toDegrees(Math.atan2(dirY, dirX)) - theta;
+					if (fitError() <= GATE && Math.abs(Util.toRange(turn, -180.0, true)) <= MAX_TURN) {
+						endX = px;
+						endY = py;
+						lost = 0;
+						aheadCount = 0;
+						state = LINE;
+					} else {
+						//Drops the readings of the end of the wall itself.
+						wallStart = (wallStart + 1) % CAPACITY;
+						--wallCount;
+					}
+				}
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Adds a reading of the front sensor.
+	 * @param x The x position in cm at the time of the reading.
+	 * @param y The y position in cm at the time of the reading.
+	 * @param theta The heading in degrees at the time of the reading.
+	 * @param range The distance in cm from the center of the robot to
+	 * 				the obstacle in front.
+	 * @param time The time of the reading in ms.
+	 */
+	public void addFront(double x, double y, double theta, double range, double time) {
+		move(x, y);
+		front = range;
+		clearAhead(x, y, theta, range);
+		if (range > MAX_RANGE || state == INSIDE)
+			return;
+		//The wall ahead is taken across the path.
+		if (state == LINE)
+			place(x, y, theta, range, Math.toDegrees(Math.atan2(dirY, dirX)));
+		else
+			place(x, y, theta, range, Double.NaN);
+		double px = hit[0];
+		double py = hit[1];
+		//A point on the wall followed is part of it.
+		if (state == LINE && Math.abs(offset(px, py)) <= GATE) {
+			addWall(px, py, time);
+			fitWall();
+			return;
+		}
+		//So is a reading that reaches it at the left edge of the beam, at a
+		//glancing angle, although too slanted to place well. The margin is
+		//wider, since the fit over a short window can be a few degrees off.
+		double rad = Math.toRadians(theta + beam);
+		if (state == LINE && offset(x + range * Math.cos(rad), y + range * Math.sin(rad)) >= -2 * GATE)
+			return;
+		if (aheadCount == CAPACITY)
+			dropAhead(1);
+		aheadX[aheadCount] = px;
+		aheadY[aheadCount] = py;
+		aheadT[aheadCount] = time;
+		++aheadCount;
+	}
+
+	/**
+	 * Updates the state with the current pose and computes the distance
+	 * and heading of the robot relative to the path along the wall.
+	 * @param x The x position in cm.
+	 * @param y The y position in cm.
+	 * @param theta The heading in degrees.
+	 * @param time The current time in ms.
+	 */
+	public void update(double x, double y, double theta, double time) {
+		move(x, y);
+		dropOld(time);
+		//Goes around a wall passed without seeing enough of it.
+		if (state == NONE)
+			lock();
+		if (state == LINE) {
+			//Points seen ahead that turn out to be on the wall followed
+			//are not a wall ahead.
+			int kept = 0;
+			for (int i = 0; i < aheadCount; ++i) {
+				if (Math.abs(offset(aheadX[i], aheadY[i])) > GATE) {
+					aheadX[kept] = aheadX[i];
+					aheadY[kept] = aheadY[i];
+					aheadT[kept] = aheadT[i];
+					++kept;
+				}
+			}
+			aheadCount = kept;
+			if (aheadCount >= MIN_POINTS)
+				planCorner(x, y);
+		}
+		if (state == INSIDE && (x - arcX) * nextX + (y - arcY) * nextY >= 0) {
+			//Past the corner, follows the wall seen ahead.
+			dirX = nextX;
+			dirY = nextY;
+			lost = 0;
+			state = NONE;
+			takeAhead();
+			lock();
+		}
+
+		double rad = Math.toRadians(theta);
+		double pathX, pathY;
+		switch (state) {
+		case LINE:
+			wallDistance = -offset(x, y);
+			pathX = dirX;
+			pathY = dirY;
+			curvature = 0;
+			break;
+		case OUTSIDE: {
+			//Counterclockwise around the end of the wall.
+			double r = Math.hypot(x - arcX, y - arcY);
+			wallDistance = r;
+			pathX = -(y - arcY) / r;
+			pathY = (x - arcX) / r;
+			curvature = 1 / arcRadius;
+			break;
+		}
+		case INSIDE: {
+			//Clockwise inside the corner, with the walls outside the arc.
+			double r = Math.hypot(x - arcX, y - arcY);
+			wallDistance = distance + arcRadius - r;
+			pathX = (y - arcY) / r;
+			pathY = -(x - arcX) / r;
+			curvature = -1 / arcRadius;
+			break;
+		}
+		default:
+			wallDistance = distance;
+			pathX = Math.cos(rad);
+			pathY = Math.sin(rad);
+			curvature = 0;
+			break;
+		}
+		heading = Math.toRadians(Util.toRange(theta -
+				Math.toDegrees(Math.atan2(pathY, pathX)), -180.0, true));
+	}
+
+	/**
+	 * Returns true once the wall has been seen.
+	 * @return true if the distance and heading are measured.
+	 */
+	public boolean hasWall() {
+		return state != NONE;
+	}
+
+	/**
+	 * Returns true while going around a corner.
+	 * @return true on the arc of a corner.
+	 */
+	public boolean isCorner() {
+		return state == OUTSIDE || state == INSIDE;
+	}
+
+	/**
+	 * Returns the distance to the wall at the last update. On the arc of
+	 * an inside corner, the distance the robot would have to the wall
+	 * if it were straight along the arc.
+	 * @return The distance in cm from the center of the robot to the wall.
+	 */
+	public double getDistance() {
+		return wallDistance;
+	}
+
+	/**
+	 * Returns the heading of the robot relative to the path along the wall
+	 * at the last update.
+	 * @return The heading in radians, positive towards the wall.
+	 */
+	public double getHeading() {
+		return heading;
+	}
+
+	/**
+	 * Returns the curvature of the path along the wall at the last update.
+	 * @return The curvature in 1/cm, positive to the left.
+	 */
+	public double getCurvature() {
+		return curvature;
+	}
+
+	/**
+	 * Returns the distance to the obstacle in front at the last reading.
+	 * @return The distance in cm from the center of the robot, or infinity.
+	 */
+	public double getFront() {
+		return front;
+	}
+
+	/**
+	 * Makes the points seen ahead points of the wall followed after turning
+	 * in place in front of it.
+	 * @param x The x position in cm.
+	 * @param y The y position in cm.
+	 * @param theta The heading in degrees.
+	 */
+	public void turned(double x, double y, double theta) {
+		double rad = Math.toRadians(theta);
+		dirX = Math.cos(rad);
+		dirY = Math.sin(rad);
+		lastX = x;
+		lastY = y;
+		front = Double.POSITIVE_INFINITY;
+		lost = 0;
+		state = NONE;
+		takeAhead();
+		lock();
+	}
+
+	/**
+	 * Starts following the wall once its points spread along it, or goes
+	 * around them if they stay together while the robot drives past them,
+	 * as at the corner of an obstacle met at an angle.
+	 */
+	private void lock() {
+		if (wallCount == 0)
+			return;
+		//The points of a wall spread along it as the robot drives past it.
+		double spread = spread();
+		double past = driven - wallS[wallStart];
+		if (wallCount >= MIN_POINTS && spread >= MIN_SPREAD && 2 * spread >= past) {
+			fitWall();
+			int newest = (wallStart + wallCount - 1) % CAPACITY;
+			endX = wallX[newest];
+			endY = wallY[newest];
+			lost = 0;
+			state = LINE;
+		} else if (past >= 2 * MIN_SPREAD) {
+			fitWall();
+			arcX = lineX;
+			arcY = lineY;
+			arcRadius = distance;
+			wallCount = 0;
+			aheadCount = 0;
+			state = OUTSIDE;
+		}
+	}
+
+	/**
+	 * Plans the arc onto the wall ahead and starts it once the robot
+	 * reaches it.
+	 */
+	private void planCorner(double x, double y) {
+		//The wall ahead is fit if its points spread along it, and is
+		//taken perpendicular to the wall followed otherwise.
+		double ux = dirY, uy = -dirX;
+		double mx = 0, my = 0;
+		for (int i = 0; i < aheadCount; ++i) {
+			mx += aheadX[i];
+			my += aheadY[i];
+		}
+		mx /= aheadCount;
+		my /= aheadCount;
+		double sxx = 0, syy = 0, sxy = 0;
+		for (int i = 0; i < aheadCount; ++i) {
+			double dx = aheadX[i] - mx;
+			double dy = aheadY[i] - my;
+			sxx += dx * dx;
+			syy += dy * dy;
+			sxy += dx * dy;
+		}
+		double along = 0.5 * Math.atan2(2 * sxy, sxx - syy);
+		double fx = Math.cos(along), fy = Math.sin(along);
+		double spread = 0;
+		for (int i = 0; i < aheadCount; ++i) {
+			double a = (aheadX[i] - mx) * fx + (aheadY[i] - my) * fy;
+			spread = Math.max(spread, Math.abs(a));
+		}
+		if (2 * spread >= MIN_SPREAD) {
+			//Turns right onto the wall ahead.
+			if (fx * ux + fy * uy < 0) {
+				fx = -fx;
+				fy = -fy;
+			}
+			ux = fx;
+			uy = fy;
+		}
+		//Only walls turning right by 30 degrees or more are corners.
+		if (dirX * uy - dirY * ux > -MIN_CORNER)
+			return;
+		//The center of the arc is CORNER_RADIUS further from both walls
+		//than the path along them.
+		double reach = distance + CORNER_RADIUS;
+		double c1 = (lineX * -dirY + lineY * dirX) - reach;
+		double c2 = (mx * -uy + my * ux) - reach;
+		double det = -dirY * ux + dirX * uy;
+		double cx = (c1 * ux - c2 * dirX) / det;
+		double cy = (c1 * uy - c2 * dirY) / det;
+		if ((cx - x) * dirX + (cy - y) * dirY <= 0) {
+			arcX = cx;
+			arcY = cy;
+			arcRadius = CORNER_RADIUS;
+			nextX = ux;
+			nextY = uy;
+			state = INSIDE;
+		}
+	}
+
+	/**
+	 * Stores the point hit by a reading in hit. The beam hits a wall
+	 * perpendicularly if the normal of the wall is within it, and at the
+	 * edge of the beam closest to the normal otherwise, like in WallFit.
+	 * @param sensor The direction in degrees in which the sensor points.
+	 * @param normal The direction in degrees from the robot to the wall
+	 * 				 along its normal, or Double.NaN to read along the sensor.
+	 */
+	private void place(double x, double y, double sensor, double range, double normal) {
+		double angle = sensor;
+		if (!Double.isNaN(normal)) {
+			double diff = Util.toRange(sensor - normal, -180.0, true);
+			if (Math.abs(diff) < 90.0)
+				angle = normal + Math.max(0, Math.abs(diff) - beam) * Math.signum(diff);
+		}
+		double rad = Math.toRadians(angle);
+		hit[0] = x + range * Math.cos(rad);
+		hit[1] = y + range * Math.sin(rad);
+	}
+
+	/**
+	 * Drops the points seen ahead that are within the beam of a reading
+	 * and closer than it, since the beam would have hit them.
+	 */
+	private void clearAhead(double x, double y, double theta, double range) {
+		double rad = Math.toRadians(theta);
+		double cos = Math.cos(rad), sin = Math.sin(rad);
+		double tan = Math.tan(Math.toRadians(beam));
+		int kept = 0;
+		for (int i = 0; i < aheadCount; ++i) {
+			double along = (aheadX[i] - x) * cos + (aheadY[i] - y) * sin;
+			double across = -(aheadX[i] - x) * sin + (aheadY[i] - y) * cos;
+			if (along <= 0 || along >= range - GATE || Math.abs(across) > along * tan) {
+				aheadX[kept] = aheadX[i];
+				aheadY[kept] = aheadY[i];
+				aheadT[kept] = aheadT[i];
+				++kept;
+			}
+		}
+		aheadCount = kept;
+	}
+
+	/**
+	 * Makes the points seen ahead the points of the wall followed.
+	 */
+	private void takeAhead() {
+		wallStart = 0;
+		wallCount = 0;
+		for (int i = 0; i < aheadCount; ++i) {
+			addWall(aheadX[i], aheadY[i], aheadT[i]);
+		}
+		aheadCount = 0;
+		fitWall();
+		endX = lineX;
+		endY = lineY;
+	}
+
+	/**
+	 * Adds a point to the wall followed, replacing the oldest one if full.
+	 */
+	private void addWall(double x, double y, double time) {
+		if (wallCount == CAPACITY) {
+			wallStart = (wallStart + 1) % CAPACITY;
+			--wallCount;
+		}
+		int i = (wallStart + wallCount) % CAPACITY;
+		wallX[i] = x;
+		wallY[i] = y;
+		wallS[i] = driven;
+		wallT[i] = time;
+		++wallCount;
+	}
+
+	/**
+	 * Drops the points of the wall read more than WINDOW cm driven or
+	 * MAX_AGE ms ago, keeping MIN_POINTS, and the old points seen ahead.
+	 */
+	private void dropOld(double time) {
+		while (wallCount > MIN_POINTS && (driven - wallS[wallStart] > WINDOW ||
+				time - wallT[wallStart] > MAX_AGE)) {
+			wallStart = (wallStart + 1) % CAPACITY;
+			--wallCount;
+		}
+		int old = 0;
+		while (old < aheadCount && time - aheadT[old] > MAX_AGE) {
+			++old;
+		}
+		dropAhead(old);
+	}
+
+	/**
+	 * Drops the oldest points seen ahead.
+	 */
+	private void dropAhead(int n) {
+		if (n == 0)
+			return;
+		System.arraycopy(aheadX, n, aheadX, 0, aheadCount - n);
+		System.arraycopy(aheadY, n, aheadY, 0, aheadCount - n);
+		System.arraycopy(aheadT, n, aheadT, 0, aheadCount - n);
+		aheadCount -= n;
+	}
+
+	/**
+	 * Fits the wall followed to its points by orthogonal least squares.
+	 * Keeps the direction of the wall if the points do not spread along it.
+	 */
+	private void fitWall() {
+		if (wallCount == 0)
+			return;
+		double mx = 0, my = 0;
+		for (int k = 0; k < wallCount; ++k) {
+			int i = (wallStart + k) % CAPACITY;
+			mx += wallX[i];
+			my += wallY[i];
+		}
+		mx /= wallCount;
+		my /= wallCount;
+		lineX = mx;
+		lineY = my;
+		if (wallCount < MIN_POINTS || spread() < MIN_SPREAD)
+			return;
+		double sxx = 0, syy = 0, sxy = 0;
+		for (int k = 0; k < wallCount; ++k) {
+			int i = (wallStart + k) % CAPACITY;
+			double dx = wallX[i] - mx;
+			double dy = wallY[i] - my;
+			sxx += dx * dx;
+			syy += dy * dy;
+			sxy += dx * dy;
+		}
+		//The wall is the direction of most spread of the points.
+		double along = 0.5 * Math.atan2(2 * sxy, sxx - syy);
+		double fx = Math.cos(along), fy = Math.sin(along);
+		//Keeps the direction the robot drives in.
+		if (fx * dirX + fy * dirY < 0) {
+			fx = -fx;
+			fy = -fy;
+		}
+		dirX = fx;
+		dirY = fy;
+	}
+
+	/**
+	 * Returns the spread in cm of the points of the wall along it, as the
+	 * length of a uniform spread with the same variance, so that the noise
+	 * of a few points around a corner does not count as a wall.
+	 */
+	private double spread() {
+		double sum = 0, squares = 0;
+		for (int k = 0; k < wallCount; ++k) {
+			int i = (wallStart + k) % CAPACITY;
+			double a = (wallX[i] - wallX[wallStart]) * dirX + (wallY[i] - wallY[wallStart]) * dirY;
+			sum += a;
+			squares += a * a;
+		}
+		double mean = sum / wallCount;
+		return Math.sqrt(12 * Math.max(0, squares / wallCount - mean * mean));
+	}
+
+	/**
+	 * Returns the largest distance in cm of a point from the wall.
+	 */
+	private double fitError() {
+		double error = 0;
+		for (int k = 0; k < wallCount; ++k) {
+			int i = (wallStart + k) % CAPACITY;
+			error = Math.max(error, Math.abs(offset(wallX[i], wallY[i])));
+		}
+		return error;
+	}
+
+	/**
+	 * Returns the distance in cm of the point from the wall, positive on
+	 * its far side from the robot.
+	 */
+	private double offset(double x, double y) {
+		return (x - lineX) * -dirY + (y - lineY) * dirX;
+	}
+
+	/**
+	 * Adds the distance driven since the last position.
+	 */
+	private void move(double x, double y) {
+		driven += Math.hypot(x - lastX, y - lastY);
+		lastX = x;
+		lastY = y;
+	}
+}
@@ -0,0 +1,57 @@
+package field;
+
+/**
+ * A static class holding the layout of the competition field traveled by
+ * the Mapped, AlphaMapped and BetaDemo missions. The robot starts in the
+ * corner tile at (-1, -1) and the field extends to (11, 11). The blocks
+ * are the ones forming the tunnels on the way to the destination.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class CompetitionField {
+	/**
+	 * The rectangles of the field, as the x and y of two opposite
+	 * corners in tiles. The first one is the outer wall.
+	 */
+	private static final double[][] BLOCKS = {
+		{-1, -1, 11, 11}, {0, 3, 2, 5}, {0, 6, 1, 7}, {2, 5, 3, 6}, {2, 7, 3, 8}
+	};
+	/**
+	 * The single walls of the field, as the x and y of their ends in tiles.
+	 * Closes the left side of the vertical tunnel.
+	 */
+	private static final double[][] WALLS = {
+		{-1, 3, -1, 5}
+	};
+
+	/**
+	 * Builds the map of the competition field.
+	 * @param tileDistance The distance in cm between parallel grid lines.
+	 * @return The map of the field in cm.
+	 */
+	public static FieldMap build(double tileDistance) {
+		double[][] walls = new double[4 * BLOCKS.length + WALLS.length][];
+		int count = 0;
+		for (double[] b : BLOCKS) {
+			walls[count++] = wall(b[0], b[1], b[2], b[1], tileDistance);
+			walls[count++] = wall(b[2], b[1], b[2], b[3], tileDistance);
+			walls[count++] = wall(b[2], b[3], b[0], b[3], tileDistance);
+			walls[count++] = wall(b[0], b[3], b[0], b[1], tileDistance);
+		}
+		for (double[] w : WALLS) {
+			walls[count++] = wall(w[0], w[1], w[2], w[3], tileDistance);
+		}
+		return new FieldMap(walls);
+	}
+
+	/**
+	 * Returns a wall given in tiles converted to cm.
+	 */
+	private static double[] wall(double x1, double y1, double x2, double y2,
+			double tileDistance) {
+		double[] wall = {x1 * tileDistance, y1 * tileDistance,
+				x2 * tileDistance, y2 * tileDistance};
+		return wall;
+	}
+}
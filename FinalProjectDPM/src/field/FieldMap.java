@@ -0,0 +1,483 @@
+package field;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import util.Util;
+
+/**
+ * A class storing the walls of the field as line segments and answering
+ * ray casts against them. The segments are stored in primitive arrays and
+ * indexed by a uniform grid so that a ray only tests the walls in the cells
+ * it passes through. Ray casts do not modify the map and can be made
+ * from several threads at once.
+ *
+ * The map is loaded from a text file with one element per line. Coordinates
+ * are given in tiles and are scaled to cm when loaded. Empty lines and lines
+ * starting with '#' are ignored. The valid elements are:
+ * <pre>
+ * wall x1 y1 x2 y2     A single wall from (x1, y1) to (x2, y2).
+ * block x1 y1 x2 y2    An obstacle filling the rectangle (x1, y1), (x2, y2).
+ * tunnel x1 y1 x2 y2   A tunnel in the rectangle (x1, y1), (x2, y2). Walls are
+ *                      placed along the two long sides and the ends are open.
+ * bounds x1 y1 x2 y2   The outer walls of the field.
+ * </pre>
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class FieldMap {
+	/**
+	 * The default size in cm of a cell of the grid index.
+	 */
+	public static final double DEFAULT_CELL_SIZE = 15.24;
+
+	/**
+	 * Value returned by ray casts that do not hit any wall.
+	 */
+	public static final double NO_HIT = Double.POSITIVE_INFINITY;
+
+	/**
+	 * Tolerance used to avoid dividing by 0 for rays parallel to a wall.
+	 */
+	private static final double EPSILON = 1e-9;
+
+	/**
+	 * The number of walls in the map.
+	 */
+	private final int size;
+	/**
+	 * The x coordinates in cm of the start of each wall.
+	 */
+	private final double[] x1;
+	/**
+	 * The y coordinates in cm of the start of each wall.
+	 */
+	private final double[] y1;
+	/**
+	 * The x coordinates in cm of the end of each wall.
+	 */
+	private final double[] x2;
+	/**
+	 * The y coordinates in cm of the end of each wall.
+	 */
+	private final double[] y2;
+
+	/**
+	 * The size in cm of a cell of the grid index.
+	 */
+	private final double cellSize;
+	/**
+	 * The x coordinate in cm of the lower left corner of the grid.
+	 */
+	private final double minX;
+	/**
+	 * The y coordinate in cm of the lower left corner of the grid.
+	 */
+	private final double minY;
+	/**
+	 * The number of columns of the grid.
+	 */
+	private final int columns;
+	/**
+	 * The number of rows of the grid.
+	 */
+	private final int rows;
+	/**
+	 * The index into cellWalls of the first wall of each cell. The walls
+	 * of cell i are stored from cellStart[i] to cellStart[i+1] exclusively.
+	 */
+	private final int[] cellStart;
+	/**
+	 * The indices of the walls overlapping each cell, stored cell by cell.
+	 */
+	private final int[] cellWalls;
+
+	/**
+	 * The bounds of the walls as {minX, minY, maxX, maxY} in cm.
+	 */
+	private final double[] bounds;
+
+	/**
+	 * Default constructor. Builds the grid index with the default cell size.
+	 * @param walls The walls as {x1, y1, x2, y2} in cm.
+	 */
+	public FieldMap(double[][] walls) {
+		this(walls, DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * Builds a map from the given walls, indexed with the given cell size.
+	 * @param walls The walls as {x1, y1, x2, y2} in cm.
+	 * @param cellSize The size in cm of a cell of the grid index.
+	 */
+	public FieldMap(double[][] walls, double cellSize) {
+		if (walls.length == 0)
+			throw new RuntimeException("Empty wall list passed to FieldMap.");
+		if (cellSize <= 0)
+			throw new RuntimeException("Invalid cell size passed to FieldMap.");
+		size = walls.length;
+		x1 = new double[size];
+		y1 = new double[size];
+		x2 = new double[size];
+		y2 = new double[size];
+		double lowX = Double.MAX_VALUE, lowY = Double.MAX_VALUE;
+		double highX = -Double.MAX_VALUE, highY = -Double.MAX_VALUE;
+		for (int i = 0; i < size; ++i) {
+			x1[i] = walls[i][0];
+			y1[i] = walls[i][1];
+			x2[i] = walls[i][2];
+			y2[i] = walls[i][3];
+			lowX = Math.min(lowX, Math.min(x1[i], x2[i]));
+			lowY = Math.min(lowY, Math.min(y1[i], y2[i]));
+			highX = Math.max(highX, Math.max(x1[i], x2[i]));
+			highY = Math.max(highY, Math.max(y1[i], y2[i]));
+		}
+
+		//Pads the grid by one cell so that walls on the border
+		//are inside of it.
+		this.cellSize = cellSize;
+		minX = lowX - cellSize;
+		minY = lowY - cellSize;
+		columns = (int) ((highX - minX) / cellSize) + 2;
+		rows = (int) ((highY - minY) / cellSize) + 2;
+
+		//Counts the walls in each cell, then fills them in.
+		int[] counts = new int[columns * rows];
+		for (int i = 0; i < size; ++i) {
+			int c0 = column(Math.min(x1[i], x2[i]));
+			int c1 = column(Math.max(x1[i], x2[i]));
+			int r0 = row(Math.min(y1[i], y2[i]));
+			int r1 = row(Math.max(y1[i], y2[i]));
+			for (int r = r0; r <= r1; ++r) {
+				for (int c = c0; c <= c1; ++c) {
+					if (overlapsCell(i, c, r))
+						++counts[r * columns + c];
+				}
+			}
+		}
+		cellStart = new int[columns * rows + 1];
+		for (int i = 0; i < columns * rows; ++i) {
+			cellStart[i+1] = cellStart[i] + counts[i];
+		}
+		cellWalls = new int[cellStart[columns * rows]];
+		int[] fill = new int[columns * rows];
+		for (int i = 0; i < size; ++i) {
+			int c0 = column(Math.min(x1[i], x2[i]));
+			int c1 = column(Math.max(x1[i], x2[i]));
+			int r0 = row(Math.min(y1[i], y2[i]));
+			int r1 = row(Math.max(y1[i], y2[i]));
+			for (int r = r0; r <= r1; ++r) {
+				for (int c = c0; c <= c1; ++c) {
+					if (overlapsCell(i, c, r)) {
+						int cell = r * columns + c;
+						cellWalls[cellStart[cell] + fill[cell]] = i;
+						++fill[cell];
+					}
+				}
+			}
+		}
+
+		bounds = new double[] {lowX, lowY, highX, highY};
+	}
+
+	/**
+	 * Loads a map from a stream in the format described in the class
+	 * documentation.
+	 * @param in The stream to read from.
+	 * @param scale The number of cm per unit of the file, usually the
+	 * 				tile distance.
+	 * @return The map described by the stream.
+	 * @throws IOException If the stream cannot be read.
+	 */
+	public static FieldMap load(InputStream in, double scale) throws IOException {
+		ArrayList<double[]> walls = new ArrayList<double[]>();
+		String[] lines = Util.readLines(in);
+		for (int i = 0; i < lines.length; ++i) {
+			parseLine(lines[i], scale, walls, i + 1);
+		}
+		double[][] result = new double[walls.size()][];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = walls.get(i);
+		}
+		return new FieldMap(result);
+	}
+
+	/**
+	 * Parses a line of a map file and adds the walls it describes.
+	 * @param line The line to parse.
+	 * @param scale The number of cm per unit of the file.
+	 * @param walls The list to add the walls to.
+	 * @param lineNumber The number of the line, used in error messages.
+	 */
+	private static void parseLine(String line, double scale,
+			ArrayList<double[]> walls, int lineNumber) {
+		String[] tokens = Util.tokenize(line);
+		if (tokens.length == 0 || tokens[0].charAt(0) == '#')
+			return;
+		if (tokens.length != 5)
+			throw new RuntimeException(
+				"Invalid number of values at line " + lineNumber + " of map.");
+		double ax = scale * Double.parseDouble(tokens[1]);
+		double ay = scale * Double.parseDouble(tokens[2]);
+		double bx = scale * Double.parseDouble(tokens[3]);
+		double by = scale * Double.parseDouble(tokens[4]);
+		String type = tokens[0];
+		if (type.equals("wall")) {
+			walls.add(new double[] {ax, ay, bx, by});
+		} else if (type.equals("block") || type.equals("bounds")) {
+			walls.add(new double[] {ax, ay, bx, ay});
+			walls.add(new double[] {bx, ay, bx, by});
+			walls.add(new double[] {bx, by, ax, by});
+			walls.add(new double[] {ax, by, ax, ay});
+		} else if (type.equals("tunnel")) {
+			if (Math.abs(bx - ax) >= Math.abs(by - ay)) {
+				walls.add(new double[] {ax, ay, bx, ay});
+				walls.add(new double[] {ax, by, bx, by});
+			} else {
+				walls.add(new double[] {ax, ay, ax, by});
+				walls.add(new double[] {bx, ay, bx, by});
+			}
+		} else {
+			throw new RuntimeException(
+				"Invalid element at line " + lineNumber + " of map.");
+		}
+	}
+
+	/**
+	 * Returns the distance in cm from (x, y) to the first wall hit by a ray
+	 * leaving in the given direction, or NO_HIT if it hits nothing within
+	 * maxRange. Traverses the grid cell by cell and stops as soon as a hit
+	 * closer than the exit of the current cell is found.
+	 * @param x The x coordinate of the origin of the ray in cm.
+	 * @param y The y coordinate of the origin of the ray in cm.
+	 * @param angle The direction of the ray in degrees counterclockwise
+	 * 				from the +x axis.
+	 * @param maxRange The maximum distance in cm to look for walls.
+	 * @return The distance in cm to the first wall hit, or NO_HIT.
+	 */
+	public double castRay(double x, double y, double angle, double maxRange) {
+		double rad = Math.toRadians(angle);
+		return castRay(x, y, Math.cos(rad), Math.sin(rad), maxRange);
+	}
+
+	/**
+	 * Returns the distance in cm from (x, y) to the first wall hit by a ray
+	 * with the given unit direction, or NO_HIT if it hits nothing within maxRange.
+	 * @param x The x coordinate of the origin of the ray in cm.
+	 * @param y The y coordinate of the origin of the ray in cm.
+	 * @param dx The x component of the unit direction of the ray.
+	 * @param dy The y component of the unit direction of the ray.
+	 * @param maxRange The maximum distance in cm to look for walls.
+	 * @return The distance in cm to the first wall hit, or NO_HIT.
+	 */
+	public double castRay(double x, double y, double dx, double dy, double maxRange) {
+		//Clips the start of the ray to the grid.
+		double t = 0.0;
+		double tEnd = maxRange;
+		double gridMaxX = minX + columns * cellSize;
+		double gridMaxY = minY + rows * cellSize;
+		if (x < minX || x >= gridMaxX || y < minY || y >= gridMaxY) {
+			double[] range = clip(x, y, dx, dy, gridMaxX, gridMaxY);
+			if (range == null || range[0] > tEnd)
+				return NO_HIT;
+			t = range[0];
+			tEnd = Math.min(tEnd, range[1]);
+		}
+		double sx = x + t * dx;
+		double sy = y + t * dy;
+		int c = Math.min(Math.max(column(sx), 0), columns - 1);
+		int r = Math.min(Math.max(row(sy), 0), rows - 1);
+
+		//Sets up the cell traversal.
+		int stepC = dx > 0 ? 1 : -1;
+		int stepR = dy > 0 ? 1 : -1;
+		double tDeltaX = Math.abs(dx) < EPSILON ? Double.MAX_VALUE : cellSize / Math.abs(dx);
+		double tDeltaY = Math.abs(dy) < EPSILON ? Double.MAX_VALUE : cellSize / Math.abs(dy);
+		double nextX = minX + (dx > 0 ? c + 1 : c) * cellSize;
+		double nextY = minY + (dy > 0 ? r + 1 : r) * cellSize;
+		double tMaxX = Math.abs(dx) < EPSILON ? Double.MAX_VALUE : (nextX - x) / dx;
+		double tMaxY = Math.abs(dy) < EPSILON ? Double.MAX_VALUE : (nextY - y) / dy;
+
+		double best = NO_HIT;
+		while (true) {
+			int cell = r * columns + c;
+			for (int k = cellStart[cell]; k < cellStart[cell+1]; ++k) {
+				double hit = intersect(cellWalls[k], x, y, dx, dy);
+				if (hit < best)
+					best = hit;
+			}
+			double tExit = Math.min(tMaxX, tMaxY);
+			if (best <= tExit || tExit > tEnd)
+				break;
+			if (tMaxX < tMaxY) {
+				c += stepC;
+				tMaxX += tDeltaX;
+			} else {
+				r += stepR;
+				tMaxY += tDeltaY;
+			}
+			if (c < 0 || c >= columns || r < 0 || r >= rows)
+				break;
+		}
+		return best <= maxRange ? best : NO_HIT;
+	}
+
+	/**
+	 * Finds the wall closest to (x, y) within maxDistance. Only the grid
+	 * cells within maxDistance of the point are searched.
+	 * @param x The x coordinate of the point in cm.
+	 * @param y The y coordinate of the point in cm.
+	 * @param maxDistance The maximum distance in cm to look for walls.
+	 * @param closest Storage for the closest point of the wall found, in cm.
+	 * @return The index of the closest wall, or -1 if there is
+	 * 		   no wall within maxDistance.
+	 */
+	public int nearestWall(double x, double y, double maxDistance, double[] closest) {
+		int c0 = Math.max(column(x - maxDistance), 0);
+		int c1 = Math.min(column(x + maxDistance), columns - 1);
+		int r0 = Math.max(row(y - maxDistance), 0);
+		int r1 = Math.min(row(y + maxDistance), rows - 1);
+		int best = -1;
+		double bestSquared = maxDistance * maxDistance;
+		for (int r = r0; r <= r1; ++r) {
+			for (int c = c0; c <= c1; ++c) {
+				int cell = r * columns + c;
+				for (int k = cellStart[cell]; k < cellStart[cell+1]; ++k) {
+					int i = cellWalls[k];
+					//Projects the point on the wall and clamps to its ends.
+					double ex = x2[i] - x1[i];
+					double ey = y2[i] - y1[i];
+					double lengthSquared = ex * ex + ey * ey;
+					double u = lengthSquared < EPSILON ? 0 :
+						((x - x1[i]) * ex + (y - y1[i]) * ey) / lengthSquared;
+					u = Math.max(0, Math.min(1, u));
+					double px = x1[i] + u * ex;
+					double py = y1[i] + u * ey;
+					double squared = (x - px) * (x - px) + (y - py) * (y - py);
+					if (squared < bestSquared) {
+						bestSquared = squared;
+						best = i;
+						closest[0] = px;
+						closest[1] = py;
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the distance along the ray to wall i, or NO_HIT if the
+	 * ray does not intersect it.
+	 */
+	private double intersect(int i, double x, double y, double dx, double dy) {
+		double ex = x2[i] - x1[i];
+		double ey = y2[i] - y1[i];
+		double denom = dx * ey - dy * ex;
+		if (Math.abs(denom) < EPSILON)
+			return NO_HIT;
+		double wx = x1[i] - x;
+		double wy = y1[i] - y;
+		double t = (wx * ey - wy * ex) / denom;
+		double u = (wx * dy - wy * dx) / denom;
+		if (t < 0 || u < 0 || u > 1)
+			return NO_HIT;
+		return t;
+	}
+
+	/**
+	 * Clips a ray to the bounds of the grid.
+	 * @return The entry and exit distances along the ray, or null if
+	 * 		   the ray misses the grid.
+	 */
+	private double[] clip(double x, double y, double dx, double dy,
+			double maxX, double maxY) {
+		double tMin = 0.0;
+		double tMax = Double.MAX_VALUE;
+		if (Math.abs(dx) < EPSILON) {
+			if (x < minX || x >= maxX)
+				return null;
+		} else {
+			double ta = (minX - x) / dx;
+			double tb = (maxX - x) / dx;
+			tMin = Math.max(tMin, Math.min(ta, tb));
+			tMax = Math.min(tMax, Math.max(ta, tb));
+		}
+		if (Math.abs(dy) < EPSILON) {
+			if (y < minY || y >= maxY)
+				return null;
+		} else {
+			double ta = (minY - y) / dy;
+			double tb = (maxY - y) / dy;
+			tMin = Math.max(tMin, Math.min(ta, tb));
+			tMax = Math.min(tMax, Math.max(ta, tb));
+		}
+		if (tMin > tMax)
+			return null;
+		double[] range = {tMin, tMax};
+		return range;
+	}
+
+	/**
+	 * Returns true if wall i passes through the given cell.
+	 */
+	private boolean overlapsCell(int i, int c, int r) {
+		double cx0 = minX + c * cellSize;
+		double cy0 = minY + r * cellSize;
+		double cx1 = cx0 + cellSize;
+		double cy1 = cy0 + cellSize;
+		//Checks on which side of the wall each corner of the cell is.
+		double ex = x2[i] - x1[i];
+		double ey = y2[i] - y1[i];
+		double s0 = ex * (cy0 - y1[i]) - ey * (cx0 - x1[i]);
+		double s1 = ex * (cy0 - y1[i]) - ey * (cx1 - x1[i]);
+		double s2 = ex * (cy1 - y1[i]) - ey * (cx0 - x1[i]);
+		double s3 = ex * (cy1 - y1[i]) - ey * (cx1 - x1[i]);
+		//Walls lying on the border of a cell are counted in it.
+		boolean allPositive = s0 > EPSILON && s1 > EPSILON && s2 > EPSILON && s3 > EPSILON;
+		boolean allNegative = s0 < -EPSILON && s1 < -EPSILON && s2 < -EPSILON && s3 < -EPSILON;
+		return !allPositive && !allNegative;
+	}
+
+	/**
+	 * Returns the column of the grid containing the x coordinate.
+	 */
+	private int column(double x) {
+		return (int) Math.floor((x - minX) / cellSize);
+	}
+
+	/**
+	 * Returns the row of the grid containing the y coordinate.
+	 */
+	private int row(double y) {
+		return (int) Math.floor((y - minY) / cellSize);
+	}
+
+	/**
+	 * Returns the number of walls in the map.
+	 * @return The number of walls in the map.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns wall i as {x1, y1, x2, y2} in cm.
+	 * @param i The index of the wall.
+	 * @return The coordinates of the wall in cm.
+	 */
+	public double[] getWall(int i) {
+		double[] wall = {x1[i], y1[i], x2[i], y2[i]};
+		return wall;
+	}
+
+	/**
+	 * Returns the bounds of the map as {minX, minY, maxX, maxY} in cm.
+	 * @return The bounds of the map in cm.
+	 */
+	public double[] getBounds() {
+		double[] result = {bounds[0], bounds[1], bounds[2], bounds[3]};
+		return result;
+	}
+}
@@ -0,0 +1,124 @@
+package field;
+import drivers.HWConstants;
+
+/**
+ * A class predicting the readings of the ultrasonic sensors from
+ * a given pose of the robot using ray casts against a field map.
+ * The sensors use the same angles as the DataCenter, with 0 degrees
+ * being the right of the robot and angles increasing counterclockwise.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class USModel {
+	/**
+	 * The distance in cm reported by the ultrasonic sensors
+	 * when no echo is received.
+	 */
+	public static final int MAX_DISTANCE = 255;
+
+	/**
+	 * The map to cast rays against.
+	 */
+	private final FieldMap map;
+	/**
+	 * The offsets in cm of the right, front and left sensors from
+	 * the robot's center, along the direction in which they point.
+	 */
+	private final double[] offsets;
+
+	/**
+	 * Default constructor. Uses the sensor offsets from HWConstants.
+	 * @param map The map to cast rays against.
+	 */
+	public USModel(FieldMap map) {
+		this(map, HWConstants.RIGHT_US_DISTANCE, HWConstants.FRONT_US_DISTANCE,
+				HWConstants.LEFT_US_DISTANCE);
+	}
+
+	/**
+	 * Builds a model with the given sensor offsets.
+	 * @param map The map to cast rays against.
+	 * @param rightOffset The offset in cm of the right sensor.
+	 * @param frontOffset The offset in cm of the front sensor.
+	 * @param leftOffset The offset in cm of the left sensor.
+	 */
+	public USModel(FieldMap map, double rightOffset, double frontOffset, double leftOffset) {
+		this.map = map;
+		offsets = new double[] {rightOffset, frontOffset, leftOffset};
+	}
+
+	/**
+	 * Returns the distance in cm that the sensor at the given angle
+	 * should read from the given pose. Returns MAX_DISTANCE if the sensor
+	 * should not see any wall.
+	 * @param x The x position of the robot in cm.
+	 * @param y The y position of the robot in cm.
+	 * @param theta The orientation of the robot in degrees.
+	 * @param angle The angle of the sensor. Accepts angles of
+	 * 				0 degrees, 90 degrees and 180 degrees.
+	 * @return The expected reading of the sensor in cm.
+	 */
+	public double expectedDistance(double x, double y, double theta, int angle) {
+		double offset = offsets[index(angle)];
+		double rad = Math.toRadians(theta + angle - 90.0);
+		double dx = Math.cos(rad);
+		double dy = Math.sin(rad);
+		double distance = map.castRay(x + offset * dx, y + offset * dy,
+				dx, dy, MAX_DISTANCE);
+		if (distance == FieldMap.NO_HIT)
+			return MAX_DISTANCE;
+		return distance;
+	}
+
+	/**
+	 * Returns the expected readings of the right, front and left sensors
+	 * in cm from the given pose, in that order.
+	 * @param x The x position of the robot in cm.
+	 * @param y The y position of the robot in cm.
+	 * @param theta The orientation of the robot in degrees.
+	 * @return The expected readings of the sensors at 0 degrees, 90 degrees
+	 * 		   and 180 degrees in positions 0, 1 and 2.
+	 */
+	public double[] expectedDistances(double x, double y, double theta) {
+		double[] distances = {expectedDistance(x, y, theta, 0),
+				expectedDistance(x, y, theta, 90),
+				expectedDistance(x, y, theta, 180)};
+		return distances;
+	}
+
+	/**
+	 * Returns the offset in cm of the sensor at the given angle.
+	 * @param angle The angle of the sensor. Accepts angles of
+	 * 				0 degrees, 90 degrees and 180 degrees.
+	 * @return The offset of the sensor in cm.
+	 */
+	public double getOffset(int angle) {
+		return offsets[index(angle)];
+	}
+
+	/**
+	 * Returns the map used by the model.
+	 * @return The map used by the model.
+	 */
+	public FieldMap getMap() {
+		return map;
+	}
+
+	/**
+	 * Converts a sensor angle into an index into offsets.
+	 */
+	private static int index(int angle) {
+		switch (angle) {
+		case 0:
+			return 0;
+		case 90:
+			return 1;
+		case 180:
+			return 2;
+		default:
+			throw new RuntimeException(
+				"Invalid angle passed to USModel.");
+		}
+	}
+}
@@ -0,0 +1,303 @@
+package localization;
+import util.Util;
+import data.DataCenter;
+import data.SensorManager;
+import interfaces.CSListener;
+
+/**
+ * A thread that localizes the robot in the background while it moves.
+ * Feeds an estimator with the odometry increments from the DataCenter,
+ * the grid line detections and the new ultrasonic ranges, and writes its
+ * estimate back to the DataCenter when the estimator accepts it. The
+ * subclasses give the estimator.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public abstract class BackgroundLocalizer extends Thread implements CSListener {
+	/**
+	 * Time in ms between consecutive updates of the estimator.
+	 */
+	private static final long PERIOD = 50;
+	/**
+	 * The distance in cm to travel between ultrasonic updates.
+	 * Prevents the estimator from becoming overconfident while stopped.
+	 */
+	private static final double MIN_DISTANCE = 2.0;
+	/**
+	 * The angle in degrees to turn between ultrasonic updates.
+	 */
+	private static final double MIN_TURN = 5.0;
+	/**
+	 * The longest time in ms between readings of the ultrasonic sensors,
+	 * about the time taken to travel MIN_DISTANCE at full speed.
+	 */
+	private static final int RANGE_PERIOD = 100;
+
+	/**
+	 * The location of the odometry, sensor data and corrected pose.
+	 */
+	protected final DataCenter dc;
+	/**
+	 * The ultrasonic sensors used, as DataCenter angles.
+	 */
+	private final int[] sensors;
+	/**
+	 * The odometer pose at the last update, in cm and degrees.
+	 */
+	private double[] last;
+	/**
+	 * The distance in cm traveled since the last ultrasonic update.
+	 */
+	private double traveled;
+	/**
+	 * The angle in degrees turned since the last ultrasonic update.
+	 */
+	private double turned;
+	/**
+	 * The number of readings of each sensor at the last ultrasonic update.
+	 */
+	private final int[] samples;
+	/**
+	 * The last estimate of the estimator.
+	 */
+	private double[] estimate;
+	/**
+	 * Variable keeping track of if the localizer is correcting the pose.
+	 */
+	private boolean running;
+
+	/**
+	 * Default constructor. The subclass must call reset() once its
+	 * estimator is built.
+	 * @param dc The location of the odometry and sensor data.
+	 * @param sensors The angles of the ultrasonic sensors to use. Accepts
+	 * 				  angles of 0 degrees, 90 degrees and 180 degrees.
+	 */
+	protected BackgroundLocalizer(DataCenter dc, int[] sensors) {
+		this.dc = dc;
+		this.sensors = sensors;
+		samples = new int[sensors.length];
+		running = false;
+	}
+
+	/**
+	 * Resets the estimator around the current pose in the DataCenter
+	 * and starts correcting the pose. Listens on the color sensor
+	 * if a CSPoller is running, and starts the ultrasonic sensors.
+	 * @param sigmaXY The uncertainty of the current position in cm.
+	 * @param sigmaTheta The uncertainty of the current orientation in degrees.
+	 */
+	public void begin(double sigmaXY, double sigmaTheta) {
+		boolean wasRunning;
+		synchronized (this) {
+			reset(sigmaXY, sigmaTheta);
+			traveled = 0;
+			turned = 0;
+			//Only the readings taken from now on are used.
+			for (int i = 0; i < sensors.length; ++i) {
+				samples[i] = dc.getSamples(sensors[i]);
+			}
+			wasRunning = running;
+			running = true;
+		}
+		//Registers outside of the lock since pings are delivered
+		//while the DataCenter holds its listener lock.
+		if (!wasRunning) {
+			dc.addListener(this);
+			for (int angle : sensors) {
+				dc.getSensors().demand(this, SensorManager.usChannel(angle), RANGE_PERIOD);
+			}
+		}
+	}
+
+	/**
+	 * Stops correcting the pose and listening on the sensors.
+	 */
+	public void end() {
+		boolean wasRunning;
+		synchronized (this) {
+			wasRunning = running;
+			running = false;
+		}
+		if (wasRunning) {
+			dc.removeListener(this);
+			dc.getSensors().releaseAll(this);
+		}
+	}
+
+	/**
+	 * Returns the last estimate of the estimator.
+	 * @return The x and y in cm and theta in degrees in positions 0, 1
+	 * 		   and 2, the standard deviation of the position in cm in position 3
+	 * 		   and the standard deviation of the orientation in degrees in position 4.
+	 */
+	public synchronized double[] getEstimate() {
+		double[] result = new double[estimate.length];
+		for (int i = 0; i < estimate.length; ++i) {
+			result[i] = estimate[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if the localizer is correcting the pose.
+	 * @return true if the localizer is correcting the pose.
+	 */
+	public synchronized boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns the confidence in the pose in the DataCenter, as the
+	 * probability that it is within the tolerances of the missions.
+	 * It is 0 while the localizer is not running.
+	 * @return The confidence, between 0 and 1.
+	 */
+	public abstract double getConfidence();
+
+	/**
+	 * Method called when thread is started. Updates the estimator every period.
+	 */
+	@Override
+	public void run() {
+		long updateStart, updateEnd;
+		while (true) {
+			updateStart = System.currentTimeMillis();
+			update();
+			updateEnd = System.currentTimeMillis();
+			if (updateEnd - updateStart < PERIOD) {
+				try {
+					Thread.sleep(PERIOD - (updateEnd - updateStart));
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Updates the estimator once with the odometry and the ultrasonic
+	 * readings. Called every period by the thread.
+	 */
+	public void update() {
+		step(false);
+	}
+
+	/**
+	 * The method to be called to notify the
+	 * listener of a grid line detection by
+	 * the color sensor.
+	 */
+	@Override
+	public void ping() {
+		step(true);
+	}
+
+	/**
+	 * Resets the estimator around the current pose in the DataCenter.
+	 * @param sigmaXY The uncertainty of the current position in cm.
+	 * @param sigmaTheta The uncertainty of the current orientation in degrees.
+	 */
+	protected final synchronized void reset(double sigmaXY, double sigmaTheta) {
+		last = dc.getXYT();
+		init(last[0], last[1], last[2], sigmaXY, sigmaTheta);
+		estimate = settle();
+	}
+
+	/**
+	 * Initializes the estimator around a pose.
+	 * @param x The x position in cm.
+	 * @param y The y position in cm.
+	 * @param theta The orientation in degrees.
+	 * @param sigmaXY The uncertainty of the position in cm.
+	 * @param sigmaTheta The uncertainty of the orientation in degrees.
+	 */
+	protected abstract void init(double x, double y, double theta,
+			double sigmaXY, double sigmaTheta);
+
+	/**
+	 * Moves the estimator by an odometry increment.
+	 * @param distance The signed distance traveled in cm.
+	 * @param turn The angle turned in degrees counterclockwise.
+	 */
+	protected abstract void predict(double distance, double turn);
+
+	/**
+	 * Corrects the estimator with a grid line detection.
+	 * @param xyt The pose of the odometry at the detection.
+	 */
+	protected abstract void updateLine(double[] xyt);
+
+	/**
+	 * Corrects the estimator with a new ultrasonic reading.
+	 * @param angle The angle of the sensor.
+	 * @param distance The distance read in cm.
+	 */
+	protected abstract void updateRange(int angle, double distance);
+
+	/**
+	 * Finishes an update of the estimator and returns its estimate.
+	 * @return The estimate, in the format of getEstimate().
+	 */
+	protected abstract double[] settle();
+
+	/**
+	 * Returns true if the estimate is good enough to be written to the
+	 * DataCenter.
+	 * @param estimate The estimate, in the format of getEstimate().
+	 * @return true if the estimate is written.
+	 */
+	protected abstract boolean accept(double[] estimate);
+
+	/**
+	 * Moves the estimator by the odometry increment since the last update,
+	 * applies the available measurements and corrects the DataCenter.
+	 * @param line Was a grid line just detected?
+	 */
+	private synchronized void step(boolean line) {
+		if (!running)
+			return;
+		double[] xyt = dc.getXYT();
+		double dx = xyt[0] - last[0];
+		double dy = xyt[1] - last[1];
+		double turn = Util.toRange(xyt[2] - last[2], -180.0, true);
+		double distance = Math.sqrt(dx * dx + dy * dy);
+		//Moving backwards gives a displacement opposite to the heading.
+		double heading = Math.toRadians(last[2] + turn / 2);
+		if (dx * Math.cos(heading) + dy * Math.sin(heading) < 0)
+			distance = -distance;
+		predict(distance, turn);
+		traveled += Math.abs(distance);
+		turned += Math.abs(turn);
+
+		if (line)
+			updateLine(xyt);
+		if (traveled > MIN_DISTANCE || turned > MIN_TURN) {
+			//Skips the sensors without a new reading.
+			for (int i = 0; i < sensors.length; ++i) {
+				int count = dc.getSamples(sensors[i]);
+				if (count != samples[i]) {
+					samples[i] = count;
+					updateRange(sensors[i], dc.getDistance(sensors[i]));
+				}
+			}
+			traveled = 0;
+			turned = 0;
+		}
+		estimate = settle();
+
+		//Applies the correction relative to the pose read, so that
+		//odometry increments since then are kept.
+		if (accept(estimate)) {
+			double cx = estimate[0] - xyt[0];
+			double cy = estimate[1] - xyt[1];
+			double ct = Util.toRange(estimate[2] - xyt[2], -180.0, true);
+			dc.offsetXYT(cx, cy, ct);
+			xyt[0] = estimate[0];
+			xyt[1] = estimate[1];
+			xyt[2] = estimate[2];
+		}
+		last = xyt;
+	}
+}
@@ -2,6 +2,7 @@ package localization;
 import util.Point;
 import util.Util;
 import data.DataCenter;
+import data.SensorManager;
 import drivers.HWConstants;
 import drivers.Navigation;
 import interfaces.CSListener;
@@ -25,9 +26,9 @@ public class CSLocalizer implements CSListener {
 	private static final double CORRECTION_FACTOR = 1;
 	
 	/**
-	 * The number of grid lines to detect during localization.
+	 * The maximum number of grid line detections recorded in a rotation.
 	 */
-	private static final int NUM_LINES = 4;
+	private static final int MAX_LINES = 16;
 	/**
 	 * The maximum number of times to attempt localization before giving up.
 	 */
@@ -37,7 +38,45 @@ public class CSLocalizer implements CSListener {
 	 */
 	private static final long DELAY = 200;
 	/**
-	 * The NUM_LINES {x, y, theta} tuples for grid line detection.
+	 * The speed of the wheels in deg/s during a sweep.
+	 */
+	private static final int SWEEP_SPD = 200;
+	/**
+	 * The time in ms between consecutive samples during a sweep.
+	 */
+	private static final long SAMPLE_DELAY = 5;
+	/**
+	 * The maximum angle in degrees to rotate during a sweep.
+	 */
+	private static final double MAX_SWEEP = 400.0;
+	/**
+	 * The number of crossings the solver must keep before a sweep stops.
+	 * Three crossings fit the pose exactly, so a fourth is needed for a
+	 * wrong detection to leave a residual the solver can reject.
+	 */
+	private static final int MIN_CROSSINGS = 4;
+	/**
+	 * The speed of the wheels in deg/s while scanning the line behind
+	 * the robot to fine tune the orientation.
+	 */
+	private static final int FINE_SPD = 50;
+	/**
+	 * The heading in degrees at which the color sensor is centered on
+	 * the line behind the robot, before the correction factor.
+	 */
+	private static final double FINE_HEADING = 90.0;
+	/**
+	 * The angle in degrees before FINE_HEADING from which the line is
+	 * scanned, and the maximum angle in degrees scanned.
+	 */
+	private static final double FINE_START = 10.0, FINE_SCAN = 30.0;
+	/**
+	 * The longest time in ms to wait for the color sensor to start
+	 * after it was demanded.
+	 */
+	private static final long READY_TIMEOUT = 100;
+	/**
+	 * The {x, y, theta} tuples for grid line detection.
 	 */
 	private double[][] data;
 	/**
@@ -67,128 +106,170 @@ public class CSLocalizer implements CSListener {
 	public CSLocalizer(DataCenter dc, Navigation nav) {
 		this.dc = dc;
 		this.nav = nav;
-		data = new double[NUM_LINES][3];
+		data = new double[MAX_LINES][];
 		count = 0;
 		lastPing = System.currentTimeMillis();
 	}
 
 	/**
-	 * Performs color sensor localization. Robot must be facing
-	 * roughly 45 degrees counterclockwise from the +x axis. A CSPoller
-	 * must be running using the same DataCenter as this object.
+	 * Performs color sensor localization. Robot must be near (0, 0) and
+	 * its odometry roughly correct. A CSPoller must be running using the
+	 * same DataCenter as this object.
 	 */
 	public void doLocalization() {
 		doLocalization(new Point(0, 0));
 	}
 
 	/**
-	 * Performs color sensor localization around (xGrid, yGrid). Robot must be facing
-	 * roughly 45 degrees counterclockwise from the +x axis. A CSPoller
-	 * must be running using the same DataCenter as this object. Takes grid
-	 * as being the grid line intersection that it is supposed to detect.
-	 * The distances are in cm.
+	 * Performs color sensor localization around grid. Robot must be near
+	 * grid and its odometry roughly correct, so that the detections can be
+	 * sorted into x and y lines. A CSPoller must be running using the same
+	 * DataCenter as this object. Takes grid as being the grid line
+	 * intersection that it is supposed to detect. The distances are in cm.
 	 * @param grid The position of the grid line to localize against.
 	 */
 	public void doLocalization(Point grid) {
-		//Rotates 360 degrees until it clocks NUM_LINES grid lines in one complete
-		//rotation. The localization assumes it starts roughly facing 45 
-		//degrees counterclockwise from the +x axis. Therefore it should 
-		//detect the grid lines in the order {x, y, x, y} when turning clockwise.
-		
+		//Rotates 360 degrees clockwise, recording the pose at each grid line
+		//detection, and solves for the pose from all of the detections. Extra
+		//or missing detections are handled by the solver, so the rotation is
+		//only repeated if too few lines were detected.
+		double[] correction = null;
 		int numberOfTries = 0;
 		dc.addListener(this);
-		while (count != NUM_LINES) {
-			//Turns 360 degrees clockwise.
-			nav.turn(-360);
-			if (count != NUM_LINES) {
-				data = new double[NUM_LINES][3];
-				count = 0;
-				++numberOfTries;
-			}
+		while (correction == null) {
 			if (numberOfTries > MAX_TRIES) {
 				//Gives up if it tries to localize too many times.
 				dc.removeListener(this);
 				return;
 			}
+			count = 0;
+			nav.turn(-360);
+			correction = CrossingSolver.solve(data, count, grid,
+					HWConstants.CS_DISTANCE, HWConstants.CS_ANGLE);
+			++numberOfTries;
 		}
 		dc.removeListener(this);
 		count = 0;
 		
-		//Computes the difference between the x and y angles measured.
-		//Makes the difference be in the (-180, 180] range.
-		double[] diffs = getXAndYDiff(data[0][2], data[1][2], data[2][2], data[3][2]);
-		double thetaXDiff = diffs[0];
-		double thetaYDiff = diffs[1];
-		thetaXDiff = Util.toRange(thetaXDiff, -180.0, true);
-		thetaYDiff = Util.toRange(thetaYDiff, -180.0, true);
+		//Corrects the pose.
+		dc.offsetXYT(correction[0], correction[1], correction[2] + CORRECTION_FACTOR);
+		fineTune(grid);
 		
-		//Computes the NUM_LINES offsets from actual values for the NUM_LINES 
-		//orientation angles measured previously and averages them.
-		double[] actual = new double[NUM_LINES];
-		if (thetaXDiff >= 0) {
-			actual[0] = 270.0 + thetaXDiff / 2;
-			actual[2] = 270.0 - thetaXDiff / 2;
-		} else {
-			actual[0] = 90.0 + thetaXDiff / 2;
-			actual[2] = 90.0 - thetaXDiff / 2;
-		}
-		if (thetaYDiff >= 0) {
-			actual[1] = 180.0 + thetaYDiff / 2;
-			actual[3] = 180.0 - thetaYDiff / 2;
-		} else {
-			actual[1] = thetaYDiff / 2;
-			actual[3] = -thetaYDiff / 2;
-		}
-		for (int i = 0; i < NUM_LINES; ++i) {
-			actual[i] = Util.toRange(actual[i], 0.0, false);
-		}
-		double[] changes = new double[NUM_LINES];
-		for (int i = 0; i < NUM_LINES; ++i) {
-			changes[i] = actual[i] - data[i][2];
-			changes[i] = Util.toRange(changes[i], -180.0, true);
+		try {
+			Thread.sleep(TIMEOUT);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
 		}
-		double sum = 0;
-		for (double error : changes)
-			sum += error;
-		double averageError = sum / NUM_LINES;
-				
-		double x, y;
-		if (thetaYDiff >= 0.0)
-			x = grid.x - HWConstants.CS_DISTANCE * Math.cos(Math.toRadians(thetaYDiff)/2);
-		else
-			x = grid.x + HWConstants.CS_DISTANCE * Math.cos(Math.toRadians(thetaYDiff)/2);
-		if (thetaXDiff >= 0.0)
-			y = grid.y - HWConstants.CS_DISTANCE * Math.cos(Math.toRadians(thetaXDiff)/2);
-		else
-			y = grid.y + HWConstants.CS_DISTANCE * Math.cos(Math.toRadians(thetaXDiff)/2);
-		
-		//Gets current distance.
-		double[] dist = dc.getXYT();
-		//Corrects the position.
-		double actualAngle = dist[2] + averageError + CORRECTION_FACTOR;
-		actualAngle = Util.toRange(actualAngle, 0.0, false);
-		dc.setXYT(x, y, actualAngle);
-		
-		//TODO
-		nav.travelTo(grid, false);
-		nav.turnTo(80);
-		while (dc.getCSValue() > 47) {
-			nav.turn(0.5);
+	}
+	
+	/**
+	 * Performs color sensor localization around (0, 0) with a single sweep.
+	 * A CSPoller must be running using the same DataCenter as this object.
+	 * @return true if the sweep determined the pose.
+	 */
+	public boolean doSweepLocalization() {
+		return doSweepLocalization(new Point(0, 0));
+	}
+
+	/**
+	 * Performs color sensor localization around grid with a single sweep.
+	 * Makes the robot rotate clockwise while sampling the light values
+	 * continuously, and stops as soon as the lines crossed determine the
+	 * pose with one crossing to spare, correcting the orientation by
+	 * CORRECTION_FACTOR like doLocalization(grid). The center of each line is interpolated from the shape of the
+	 * dip in the light values, so no fine tuning is needed afterwards. Falls
+	 * back on doLocalization(grid) if the pose cannot be determined. A
+	 * CSPoller must be running using the same DataCenter as this object.
+	 * @param grid The position of the grid line intersection to localize against.
+	 * @return true if the sweep determined the pose.
+	 */
+	public boolean doSweepLocalization(Point grid) {
+		LineScan scan = new LineScan();
+		double[][] crossings = new double[MAX_LINES][];
+		double[] correction = null;
+		SensorManager sensors = dc.getSensors();
+		sensors.demand(this, SensorManager.COLOR, SensorManager.FASTEST);
+		sensors.awaitReady(SensorManager.COLOR, READY_TIMEOUT);
+		double previous = dc.getTheta();
+		double rotated = 0.0;
+		nav.setSpeeds(SWEEP_SPD, -SWEEP_SPD);
+		while (rotated < MAX_SWEEP) {
+			double angle = dc.getTheta();
+			rotated += Math.abs(Util.toRange(angle - previous, -180.0, true));
+			previous = angle;
+			if (scan.addSample(angle, dc.getCSValue()) && scan.getCount() <= MAX_LINES) {
+				//The robot turns in place, so the current position is
+				//the position at the center of the line.
+				int lines = scan.getCount();
+				double[] xyt = dc.getXYT();
+				double[] crossing = {xyt[0], xyt[1], scan.getLine(lines - 1)};
+				crossings[lines - 1] = crossing;
+				double[] solution = CrossingSolver.solve(crossings, lines, grid,
+						HWConstants.CS_DISTANCE, HWConstants.CS_ANGLE);
+				//Keeps the last solution in case the sweep ends without
+				//a redundant crossing.
+				if (solution != null)
+					correction = solution;
+				if (solution != null && solution[4] >= MIN_CROSSINGS)
+					break;
+			}
+			try {
+				Thread.sleep(SAMPLE_DELAY);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
 		}
-		double tmin = dc.getTheta();
-		while (dc.getCSValue() <= 47) {
-			nav.turn(0.5);
+		nav.stop();
+		//Listening in doLocalization demands the sensor again.
+		sensors.release(this, SensorManager.COLOR);
+		if (correction == null) {
+			doLocalization(grid);
+			return false;
 		}
-		double tmax = dc.getTheta();
-		double tavg = (tmin + tmax) / 2;
-		dc.setTheta(tmax + (Util.toRange(90 + CORRECTION_FACTOR - tavg, -180, true)));
-		//TODO
-		
+		dc.offsetXYT(correction[0], correction[1], correction[2] + CORRECTION_FACTOR);
 		try {
 			Thread.sleep(TIMEOUT);
 		} catch (InterruptedException e) {
 			e.printStackTrace();
 		}
+		return true;
+	}
+
+	/**
+	 * Fine tunes the orientation on the line behind the robot. Travels to
+	 * grid, turns to just before the line and rotates slowly counterclockwise
+	 * across it while sampling the light values, and sets the orientation
+	 * from the center of the line interpolated by a LineScan. Leaves the
+	 * orientation as it is if no line is found.
+	 * @param grid The position of the grid line intersection to localize against.
+	 */
+	private void fineTune(Point grid) {
+		SensorManager sensors = dc.getSensors();
+		sensors.demand(this, SensorManager.COLOR, SensorManager.FASTEST);
+		nav.travelTo(grid, false);
+		nav.turnTo(FINE_HEADING - FINE_START);
+		sensors.awaitReady(SensorManager.COLOR, READY_TIMEOUT);
+		LineScan scan = new LineScan();
+		double previous = dc.getTheta();
+		double rotated = 0.0;
+		nav.setSpeeds(-FINE_SPD, FINE_SPD);
+		while (rotated < FINE_SCAN) {
+			double angle = dc.getTheta();
+			rotated += Math.abs(Util.toRange(angle - previous, -180.0, true));
+			previous = angle;
+			if (scan.addSample(angle, dc.getCSValue()))
+				break;
+			try {
+				Thread.sleep(SAMPLE_DELAY);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+		nav.stop();
+		sensors.release(this, SensorManager.COLOR);
+		if (scan.getCount() > 0)
+			dc.offsetXYT(0, 0, Util.toRange(FINE_HEADING + CORRECTION_FACTOR - scan.getLine(0),
+					-180.0, true));
 	}
 	
 	/**
@@ -200,63 +281,11 @@ public class CSLocalizer implements CSListener {
 	public void ping() {
 		long currentPing = System.currentTimeMillis();
 		if (currentPing - lastPing > DELAY) {
-			if (count < NUM_LINES) {
+			if (count < MAX_LINES) {
 				data[count] = dc.getXYT();
 				++count;
-			} else {
-				count = NUM_LINES + 1;
 			}
 			lastPing = currentPing;
 		}
 	}
-	
-	/**
-	 * Tests all possible combinations for the given angles and finds the best one
-	 * to localize with. The angles x1, y1, x2, y2 are the headings of the robot
-	 * as it turns 360 degrees and detects lines.
-	 * @return the difference in x angles (x1-x2) in position 0 and the difference in
-	 * 		   y angles (y1-y2) in position 1 of the array.
-	 */
-	private double[] getXAndYDiff(double x1, double y1, double x2, double y2) {
-		for (int j = 0; j < 4; ++j) {
-			double thetaXDiff = Math.signum(1.5 - j) * (x1 - x2);
-			double thetaYDiff = Math.signum(0.5 - (j % 2)) * (y1 - y2);
-			
-			double[] actual = new double[NUM_LINES];
-			if (thetaXDiff >= 0) {
-				actual[0] = 270.0 + thetaXDiff / 2;
-				actual[2] = 270.0 - thetaXDiff / 2;
-			} else {
-				actual[0] = 90.0 + thetaXDiff / 2;
-				actual[2] = 90.0 - thetaXDiff / 2;
-			}
-			if (thetaYDiff >= 0) {
-				actual[1] = 180.0 + thetaYDiff / 2;
-				actual[3] = 180.0 - thetaYDiff / 2;
-			} else {
-				actual[1] = thetaYDiff / 2;
-				actual[3] = -thetaYDiff / 2;
-			}
-			for (int i = 0; i < NUM_LINES; ++i) {
-				actual[i] = Util.toRange(actual[i], 0.0, false);
-			}
-			double[] changes = new double[NUM_LINES];
-			for (int i = 0; i < NUM_LINES; ++i) {
-				changes[i] = actual[i] - data[i][2];
-				changes[i] = Util.toRange(changes[i], -180.0, true);
-			}
-			double sum = 0;
-			for (double error : changes)
-				sum += error;
-			double averageError = sum / NUM_LINES;
-			if (averageError >= 315 || averageError <= 45) {
-				double[] result = new double[2];
-				result[0] = thetaXDiff;
-				result[1] = thetaYDiff;
-				return result;
-			}
-		}
-		double[] result = {(x1-x2), (y1-y2)};
-		return result;
-	}
 }
@@ -0,0 +1,215 @@
+package localization;
+import util.Point;
+
+/**
+ * A static class computing the pose of a robot rotating near a grid line
+ * intersection from the poses at which its color sensor crossed the grid
+ * lines. The crossings are sorted into crossings of the x and y lines using
+ * the odometry. The orientation error is then solved in closed form by
+ * weighted least squares: within each line the sensor position across the
+ * line must be the same for all crossings, which makes the cosine and sine
+ * of the error the eigenvector of the smallest eigenvalue of a 2x2 matrix.
+ * The position error follows as a weighted mean. Crossings too far from
+ * the solution are rejected one at a time and the pose is solved again.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class CrossingSolver {
+	/**
+	 * The maximum distance in cm between the color sensor and
+	 * the line it crossed for a crossing to be kept.
+	 */
+	private static final double MAX_RESIDUAL = 1.5;
+
+	/**
+	 * Computes the correction of the odometry from the crossings, giving
+	 * all crossings the same weight.
+	 * @param crossings The x and y in cm and theta in degrees of the robot
+	 * 					according to the odometry at each crossing.
+	 * @param count The number of crossings.
+	 * @param grid The grid line intersection crossed.
+	 * @param csDistance The distance in cm of the color sensor from the center.
+	 * @param csAngle The angle in degrees of the color sensor from the front.
+	 * @return The correction of x and y in cm in positions 0 and 1 and of
+	 * 		   theta in degrees in position 2, the root mean square distance in cm
+	 * 		   of the sensor from the lines at the crossings kept in position 3
+	 * 		   and the number of crossings kept in position 4. Returns null if the
+	 * 		   crossings do not include two crossings of one line and one crossing
+	 * 		   of the other.
+	 */
+	public static double[] solve(double[][] crossings, int count, Point grid,
+			double csDistance, double csAngle) {
+		double[] weights = new double[count];
+		for (int i = 0; i < count; ++i) {
+			weights[i] = 1.0;
+		}
+		return solve(crossings, weights, count, grid, csDistance, csAngle);
+	}
+
+	/**
+	 * Computes the correction of the odometry from the weighted crossings.
+	 * @param crossings The x and y in cm and theta in degrees of the robot
+	 * 					according to the odometry at each crossing.
+	 * @param weights The weight of each crossing.
+	 * @param count The number of crossings.
+	 * @param grid The grid line intersection crossed.
+	 * @param csDistance The distance in cm of the color sensor from the center.
+	 * @param csAngle The angle in degrees of the color sensor from the front.
+	 * @return The correction of x and y in cm in positions 0 and 1 and of
+	 * 		   theta in degrees in position 2, the root mean square distance in cm
+	 * 		   of the sensor from the lines at the crossings kept in position 3
+	 * 		   and the number of crossings kept in position 4. Returns null if the
+	 * 		   crossings do not include two crossings of one line and one crossing
+	 * 		   of the other.
+	 */
+	public static double[] solve(double[][] crossings, double[] weights, int count,
+			Point grid, double csDistance, double csAngle) {
+		//Sorts the crossings into lines using the odometry.
+		boolean[] xLine = new boolean[count];
+		boolean[] used = new boolean[count];
+		for (int i = 0; i < count; ++i) {
+			double rad = Math.toRadians(crossings[i][2] + csAngle);
+			double sx = crossings[i][0] + csDistance * Math.cos(rad);
+			double sy = crossings[i][1] + csDistance * Math.sin(rad);
+			xLine[i] = Math.abs(sx - grid.x) < Math.abs(sy - grid.y);
+			used[i] = weights[i] > 0;
+		}
+
+		int remaining = 0;
+		for (int i = 0; i < count; ++i) {
+			if (used[i])
+				++remaining;
+		}
+		while (true) {
+			double[] result = solveUsed(crossings, weights, used, xLine, count,
+					grid, csDistance, csAngle);
+			if (result == null)
+				return null;
+			//Rejects the worst crossing if it is an outlier.
+			int worst = -1;
+			double worstResidual = MAX_RESIDUAL;
+			for (int i = 0; i < count; ++i) {
+				if (!used[i])
+					continue;
+				double r = Math.abs(residual(crossings[i], xLine[i], result, grid,
+						csDistance, csAngle));
+				if (r > worstResidual) {
+					worstResidual = r;
+					worst = i;
+				}
+			}
+			if (worst < 0)
+				return result;
+			used[worst] = false;
+			--remaining;
+			if (remaining < 3)
+				return null;
+		}
+	}
+
+	/**
+	 * Solves for the correction using the crossings marked as used.
+	 */
+	private static double[] solveUsed(double[][] crossings, double[] weights, boolean[] used,
+			boolean[] xLine, int count, Point grid, double csDistance, double csAngle) {
+		//Weighted means of the cosines and sines of the sensor angles of each line.
+		double[] weightSum = new double[2];
+		double[] cosSum = new double[2];
+		double[] sinSum = new double[2];
+		int[] lineCount = new int[2];
+		for (int i = 0; i < count; ++i) {
+			if (!used[i])
+				continue;
+			int line = xLine[i] ? 0 : 1;
+			double rad = Math.toRadians(crossings[i][2] + csAngle);
+			weightSum[line] += weights[i];
+			cosSum[line] += weights[i] * Math.cos(rad);
+			sinSum[line] += weights[i] * Math.sin(rad);
+			++lineCount[line];
+		}
+		if (lineCount[0] == 0 || lineCount[1] == 0 || (lineCount[0] < 2 && lineCount[1] < 2))
+			return null;
+
+		//Builds the 2x2 matrix of the spread of the sensor positions across
+		//each line as a function of (cos, sin) of the orientation error.
+		double a = 0, b = 0, d = 0;
+		for (int i = 0; i < count; ++i) {
+			if (!used[i])
+				continue;
+			int line = xLine[i] ? 0 : 1;
+			double rad = Math.toRadians(crossings[i][2] + csAngle);
+			double dc = Math.cos(rad) - cosSum[line] / weightSum[line];
+			double ds = Math.sin(rad) - sinSum[line] / weightSum[line];
+			//x = R (cos c - sin s) and y = R (sin c + cos s).
+			double pc = xLine[i] ? dc : ds;
+			double ps = xLine[i] ? -ds : dc;
+			a += weights[i] * pc * pc;
+			b += weights[i] * pc * ps;
+			d += weights[i] * ps * ps;
+		}
+		//Eigenvector of the smallest eigenvalue.
+		double lambda = (a + d) / 2 - Math.sqrt((a - d) * (a - d) / 4 + b * b);
+		double c1 = b, s1 = lambda - a;
+		double c2 = lambda - d, s2 = b;
+		double c, s;
+		if (c1 * c1 + s1 * s1 >= c2 * c2 + s2 * s2) {
+			c = c1;
+			s = s1;
+		} else {
+			c = c2;
+			s = s2;
+		}
+		if (c * c + s * s < 1e-18) {
+			c = 1;
+			s = 0;
+		}
+		//Takes the solution closest to the odometry.
+		if (c < 0) {
+			c = -c;
+			s = -s;
+		}
+		double correction = Math.toDegrees(Math.atan2(s, c));
+
+		//The position correction is the weighted mean over each line.
+		double[] offsetSum = new double[2];
+		for (int i = 0; i < count; ++i) {
+			if (!used[i])
+				continue;
+			double rad = Math.toRadians(crossings[i][2] + csAngle + correction);
+			if (xLine[i])
+				offsetSum[0] += weights[i] * (grid.x - crossings[i][0] - csDistance * Math.cos(rad));
+			else
+				offsetSum[1] += weights[i] * (grid.y - crossings[i][1] - csDistance * Math.sin(rad));
+		}
+		double[] result = {offsetSum[0] / weightSum[0], offsetSum[1] / weightSum[1],
+				correction, 0, 0};
+
+		double squared = 0, total = 0;
+		int kept = 0;
+		for (int i = 0; i < count; ++i) {
+			if (!used[i])
+				continue;
+			double r = residual(crossings[i], xLine[i], result, grid, csDistance, csAngle);
+			squared += weights[i] * r * r;
+			total += weights[i];
+			++kept;
+		}
+		result[3] = Math.sqrt(squared / total);
+		result[4] = kept;
+		return result;
+	}
+
+	/**
+	 * Returns the distance in cm of the sensor from its line at
+	 * the crossing after applying the correction.
+	 */
+	private static double residual(double[] crossing, boolean xLine, double[] correction,
+			Point grid, double csDistance, double csAngle) {
+		double rad = Math.toRadians(crossing[2] + csAngle + correction[2]);
+		if (xLine)
+			return crossing[0] + correction[0] + csDistance * Math.cos(rad) - grid.x;
+		else
+			return crossing[1] + correction[1] + csDistance * Math.sin(rad) - grid.y;
+	}
+}
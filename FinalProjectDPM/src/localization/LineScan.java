@@ -0,0 +1,140 @@
+package localization;
+import util.Util;
+
+/**
+ * A class detecting grid lines in the light values sampled continuously
+ * by the color sensor while the robot rotates. A line is a dip of the
+ * values below the floor level, which is learned from the samples, and
+ * the angle of its center is interpolated as the centroid of the dip
+ * weighted by its depth. This places the line more finely than the
+ * spacing between samples.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class LineScan {
+	/**
+	 * The maximum number of lines recorded.
+	 */
+	private static final int MAX_LINES = 8;
+	/**
+	 * The minimum depth of a dip below the floor level for it to be a line.
+	 */
+	private static final int MIN_DEPTH = 5;
+	/**
+	 * The weight of a new sample in the floor level.
+	 */
+	private static final double FLOOR_WEIGHT = 0.1;
+	/**
+	 * The number of samples used to learn the floor level before
+	 * looking for lines.
+	 */
+	private static final int WARMUP = 5;
+
+	/**
+	 * The angles in degrees of the centers of the lines found.
+	 */
+	private final double[] lines;
+	/**
+	 * The number of lines found.
+	 */
+	private int count;
+	/**
+	 * The number of samples received.
+	 */
+	private int samples;
+	/**
+	 * The light value of the floor.
+	 */
+	private double floor;
+	/**
+	 * Variable keeping track of if the current samples are in a dip.
+	 */
+	private boolean inDip;
+	/**
+	 * The sum of the weights and of the weighted angles of the current dip.
+	 */
+	private double weightSum, angleSum;
+	/**
+	 * The first angle of the current dip, from which the
+	 * other angles are measured to avoid wrapping around.
+	 */
+	private double dipStart;
+
+	/**
+	 * Default constructor.
+	 */
+	public LineScan() {
+		lines = new double[MAX_LINES];
+		reset();
+	}
+
+	/**
+	 * Clears all lines found and the floor level.
+	 */
+	public void reset() {
+		count = 0;
+		samples = 0;
+		floor = 0;
+		inDip = false;
+	}
+
+	/**
+	 * Records a sample.
+	 * @param angle The orientation of the robot in degrees.
+	 * @param value The light value read by the color sensor.
+	 * @return true if the sample ended a line.
+	 */
+	public boolean addSample(double angle, int value) {
+		++samples;
+		if (samples <= WARMUP) {
+			floor += (value - floor) / samples;
+			return false;
+		}
+		double depth = floor - value;
+		if (!inDip) {
+			if (depth >= MIN_DEPTH) {
+				inDip = true;
+				dipStart = angle;
+				weightSum = depth;
+				angleSum = 0;
+			} else {
+				floor += FLOOR_WEIGHT * (value - floor);
+			}
+			return false;
+		}
+		//Ends the dip once the values are back up to half the minimum depth.
+		if (depth < MIN_DEPTH / 2.0) {
+			inDip = false;
+			if (count < MAX_LINES) {
+				lines[count] = dipStart + angleSum / weightSum;
+				++count;
+			}
+			floor += FLOOR_WEIGHT * (value - floor);
+			return true;
+		}
+		double offset = Util.toRange(angle - dipStart, -180.0, true);
+		weightSum += depth;
+		angleSum += depth * offset;
+		return false;
+	}
+
+	/**
+	 * Returns the number of lines found.
+	 * @return The number of lines found.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the angle of the center of line i, in the order in which
+	 * the lines were found.
+	 * @param i The index of the line.
+	 * @return The orientation of the robot in degrees when the color
+	 * 		   sensor was at the center of the line.
+	 */
+	public double getLine(int i) {
+		return lines[i];
+	}
+}
@@ -0,0 +1,107 @@
+package localization;
+import util.Point;
+import drivers.Navigation;
+
+/**
+ * A class deciding at the checkpoints of a mission whether to stop and
+ * localize. Each checkpoint gives the confidence it needs in the pose, and
+ * the robot only stops for a light localization if the localizer tracking
+ * the pose, a MotionLocalizer or an MCLocalizer, is less confident than that. After a stop, tracking resumes from the
+ * localized pose.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class LocalizationScheduler {
+	/**
+	 * The uncertainties in cm and degrees of the pose after a light localization.
+	 */
+	private static final double LOCALIZED_XY = 1.0, LOCALIZED_THETA = 2.0;
+
+	/**
+	 * The localizer tracking the pose while moving.
+	 */
+	private BackgroundLocalizer ml;
+	/**
+	 * The navigation used to turn before localizing.
+	 */
+	private Navigation nav;
+	/**
+	 * The light localizer used at the stops.
+	 */
+	private CSLocalizer ll;
+	/**
+	 * The number of checkpoints reached and of stops made at them.
+	 */
+	private int checkpoints, stops;
+
+	/**
+	 * Default constructor.
+	 * @param ml The localizer tracking the pose while moving. Must be started.
+	 * @param nav The navigation used to turn before localizing.
+	 * @param ll The light localizer used at the stops.
+	 */
+	public LocalizationScheduler(BackgroundLocalizer ml, Navigation nav, CSLocalizer ll) {
+		this.ml = ml;
+		this.nav = nav;
+		this.ll = ll;
+		checkpoints = 0;
+		stops = 0;
+	}
+
+	/**
+	 * Starts tracking the pose. The robot must have just localized.
+	 */
+	public void begin() {
+		ml.begin(LOCALIZED_XY, LOCALIZED_THETA);
+	}
+
+	/**
+	 * Stops tracking the pose.
+	 */
+	public void end() {
+		ml.end();
+	}
+
+	/**
+	 * Localizes at the grid intersection if the confidence in the pose
+	 * is below the given minimum. The robot must be near the intersection.
+	 * @param grid The grid intersection to localize at.
+	 * @param minConfidence The minimum confidence, between 0 and 1, at which
+	 * 						the localization is skipped.
+	 * @return true if the robot stopped to localize.
+	 */
+	public boolean checkpoint(Point grid, double minConfidence) {
+		synchronized (this) {
+			++checkpoints;
+		}
+		if (ml.getConfidence() >= minConfidence)
+			return false;
+		//Stops tracking so that it does not correct the pose during the localization.
+		ml.end();
+		//Turns to 45 degrees for the light localization.
+		nav.turnTo(45);
+		ll.doSweepLocalization(grid);
+		ml.begin(LOCALIZED_XY, LOCALIZED_THETA);
+		synchronized (this) {
+			++stops;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of checkpoints reached.
+	 * @return The number of checkpoints reached.
+	 */
+	public synchronized int getCheckpoints() {
+		return checkpoints;
+	}
+
+	/**
+	 * Returns the number of stops made to localize.
+	 * @return The number of stops made to localize.
+	 */
+	public synchronized int getStops() {
+		return stops;
+	}
+}
@@ -0,0 +1,141 @@
+package localization;
+import data.DataCenter;
+import util.Util;
+import drivers.HWConstants;
+import field.USModel;
+
+/**
+ * A thread that localizes the robot continuously with a particle filter.
+ * Feeds the filter with the odometry increments from the DataCenter, the
+ * ultrasonic ranges and the grid line detections, and writes the corrected
+ * pose back to the DataCenter when the filter is confident enough. This
+ * replaces stopping to localize with a background activity. The missions
+ * run the MotionLocalizer unless the MissionRunner is built with the
+ * particle filter, whose confidence then schedules their stops.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MCLocalizer extends BackgroundLocalizer {
+	/**
+	 * The number of particles used by the filter.
+	 */
+	private static final int NUM_PARTICLES = 300;
+	/**
+	 * The maximum standard deviation in cm of the position at which
+	 * the estimate is written to the DataCenter.
+	 */
+	private static final double MAX_SIGMA_XY = 3.0;
+	/**
+	 * The maximum standard deviation in degrees of the orientation at which
+	 * the estimate is written to the DataCenter.
+	 */
+	private static final double MAX_SIGMA_THETA = 4.0;
+	/**
+	 * The tolerances in cm and degrees on the pose used for the confidence.
+	 * Same values as in MotionLocalizer.
+	 */
+	private static final double TOLERANCE_XY = 2.0, TOLERANCE_THETA = 3.0;
+
+	/**
+	 * The particle filter.
+	 */
+	private ParticleFilter filter;
+	/**
+	 * The last confidence of the filter.
+	 */
+	private double confidence;
+
+	/**
+	 * Default constructor. Uses the front ultrasonic sensor only.
+	 * @param dc The location of the odometry and sensor data.
+	 * @param model The model used to predict ultrasonic readings.
+	 */
+	public MCLocalizer(DataCenter dc, USModel model) {
+		this(dc, model, new int[] {90});
+	}
+
+	/**
+	 * Builds a localizer using the given ultrasonic sensors. The
+	 * corresponding USPollers must be running.
+	 * @param dc The location of the odometry and sensor data.
+	 * @param model The model used to predict ultrasonic readings.
+	 * @param sensors The angles of the sensors to use. Accepts angles of
+	 * 				  0 degrees, 90 degrees and 180 degrees.
+	 */
+	public MCLocalizer(DataCenter dc, USModel model, int[] sensors) {
+		super(dc, sensors);
+		filter = new ParticleFilter(model, NUM_PARTICLES, System.currentTimeMillis());
+		filter.setColorSensor(HWConstants.CS_DISTANCE, HWConstants.CS_ANGLE,
+				HWConstants.TILE_DISTANCE);
+		reset(2.0, 2.0);
+	}
+
+	/**
+	 * Returns the confidence in the pose in the DataCenter, as the
+	 * probability that it is within 2 cm and 3 degrees of the true pose,
+	 * from the spread of the particles. It is 0 while the localizer is
+	 * not running.
+	 * @return The confidence, between 0 and 1.
+	 */
+	@Override
+	public synchronized double getConfidence() {
+		return isRunning() ? confidence : 0;
+	}
+
+	/**
+	 * Spreads the particles around the pose.
+	 */
+	@Override
+	protected void init(double x, double y, double theta, double sigmaXY, double sigmaTheta) {
+		filter.init(x, y, theta, sigmaXY, sigmaTheta);
+	}
+
+	/**
+	 * Moves the particles by the increment with noise.
+	 */
+	@Override
+	protected void predict(double distance, double turn) {
+		filter.predict(distance, turn);
+	}
+
+	/**
+	 * Weighs the particles by their distance to a grid line.
+	 */
+	@Override
+	protected void updateLine(double[] xyt) {
+		filter.updateLine();
+	}
+
+	/**
+	 * Weighs the particles by the likelihood of the reading.
+	 */
+	@Override
+	protected void updateRange(int angle, double distance) {
+		filter.updateRange(angle, distance);
+	}
+
+	/**
+	 * Resamples the particles if their weights are too uneven and
+	 * records the confidence of the filter.
+	 */
+	@Override
+	protected double[] settle() {
+		filter.resampleIfNeeded();
+		double[] estimate = filter.getEstimate();
+		//Treats the spread like PoseTracker.getConfidence, with the total
+		//variance of the position split evenly between both axes.
+		double position = 1 - Math.exp(-TOLERANCE_XY * TOLERANCE_XY / (estimate[3] * estimate[3]));
+		double orientation = Util.erf(TOLERANCE_THETA / (Math.sqrt(2) * estimate[4]));
+		confidence = position * orientation;
+		return estimate;
+	}
+
+	/**
+	 * Accepts the estimate when the particles are concentrated enough.
+	 */
+	@Override
+	protected boolean accept(double[] estimate) {
+		return estimate[3] < MAX_SIGMA_XY && estimate[4] < MAX_SIGMA_THETA;
+	}
+}
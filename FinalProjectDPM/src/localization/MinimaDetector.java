@@ -0,0 +1,302 @@
+package localization;
+import util.Util;
+
+/**
+ * A class detecting the two perpendicular wall minima seen by the front
+ * ultrasonic sensor while the robot rotates in a corner. The samples are
+ * stored in a fixed number of angle bins, so memory does not grow with the
+ * rotation, and the minima are searched for as the samples arrive so that
+ * the rotation can stop as soon as both walls are identified.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MinimaDetector {
+	/**
+	 * The width in degrees of an angle bin.
+	 */
+	private static final int BIN_SIZE = 2;
+	/**
+	 * The number of angle bins.
+	 */
+	private static final int NUM_BINS = 360 / BIN_SIZE;
+	/**
+	 * The number of bins on each side of a minimum that must have been
+	 * swept for it to be confirmed.
+	 */
+	private static final int CONFIRM_BINS = 20 / BIN_SIZE;
+	/**
+	 * The minimum increase in cm of the distance at one of the edges of
+	 * the confirmation window for a minimum to be confirmed. Only one edge
+	 * is checked since the other may be close to the second wall.
+	 */
+	private static final int MIN_RISE = 3;
+	/**
+	 * The maximum difference in cm from the minimum distance of the
+	 * readings taken as part of the minimum.
+	 */
+	private static final int PLATEAU_TOLERANCE = 3;
+	/**
+	 * The maximum distance in cm at which a minimum can be a wall.
+	 */
+	private static final int MAX_WALL_DISTANCE = 60;
+	/**
+	 * The maximum error in degrees from 90 degrees between the two minima.
+	 */
+	private static final double MAX_ANGLE_ERROR = 20.0;
+	/**
+	 * Value of an empty bin.
+	 */
+	private static final int EMPTY = Integer.MAX_VALUE;
+
+	/**
+	 * The minimum raw distance in cm recorded in each bin.
+	 */
+	private final int[] distance;
+	/**
+	 * The minimum filtered distance in cm recorded in each bin.
+	 */
+	private final int[] filteredDistance;
+	/**
+	 * Whether each bin is a confirmed wall minimum.
+	 */
+	private final boolean[] confirmed;
+	/**
+	 * Storage for the bins of the distinct minima found.
+	 */
+	private final int[] candidates;
+	/**
+	 * The number of bins filled.
+	 */
+	private int filled;
+	/**
+	 * The angles in degrees of the two minima found and their
+	 * filtered distances in cm.
+	 */
+	private double angleA, angleB;
+	private int distanceA, distanceB;
+	/**
+	 * Variable keeping track of if both minima have been found.
+	 */
+	private boolean done;
+
+	/**
+	 * Default constructor.
+	 */
+	public MinimaDetector() {
+		distance = new int[NUM_BINS];
+		filteredDistance = new int[NUM_BINS];
+		confirmed = new boolean[NUM_BINS];
+		candidates = new int[NUM_BINS / CONFIRM_BINS + 1];
+		reset();
+	}
+
+	/**
+	 * Clears all recorded samples.
+	 */
+	public void reset() {
+		for (int i = 0; i < NUM_BINS; ++i) {
+			distance[i] = EMPTY;
+			filteredDistance[i] = EMPTY;
+			confirmed[i] = false;
+		}
+		filled = 0;
+		done = false;
+	}
+
+	/**
+	 * Records a sample and checks if both walls are now identified.
+	 * @param angle The orientation of the robot in degrees.
+	 * @param dist The distance read by the front sensor in cm.
+	 * @param filteredDist The filtered distance of the front sensor in cm.
+	 * @return true if both minima have been identified.
+	 */
+	public boolean addSample(double angle, int dist, int filteredDist) {
+		int bin = bin(angle);
+		if (distance[bin] == EMPTY)
+			++filled;
+		if (dist < distance[bin])
+			distance[bin] = dist;
+		if (filteredDist < filteredDistance[bin])
+			filteredDistance[bin] = filteredDist;
+		if (!done)
+			search(bin);
+		return done;
+	}
+
+	/**
+	 * Returns true if both minima have been identified.
+	 * @return true if both minima have been identified.
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * Returns the fraction of the full rotation that has been recorded.
+	 * @return The fraction of the angle bins filled, in [0, 1].
+	 */
+	public double getCoverage() {
+		return (double) filled / NUM_BINS;
+	}
+
+	/**
+	 * Returns the minima found, ordered so that the one with the
+	 * smaller filtered distance comes first.
+	 * @return The angle in degrees and filtered distance in cm of the closest
+	 * 		   wall in positions 0 and 1, and of the other wall in positions 2 and 3.
+	 * 		   Returns null if both minima have not been found.
+	 */
+	public double[] getMinima() {
+		if (!done)
+			return null;
+		if (distanceA <= distanceB) {
+			double[] result = {angleA, distanceA, angleB, distanceB};
+			return result;
+		} else {
+			double[] result = {angleB, distanceB, angleA, distanceA};
+			return result;
+		}
+	}
+
+	/**
+	 * Picks the minima from the samples recorded so far when they could not
+	 * be confirmed, the same way as a full rotation scan. Takes the bin with
+	 * the smallest distance and, of the bins 90 degrees on either side of it,
+	 * the one with the smaller filtered distance.
+	 * @return true if enough samples were recorded to pick the minima.
+	 */
+	public boolean forceResult() {
+		if (done)
+			return true;
+		int min = -1;
+		for (int i = 0; i < NUM_BINS; ++i) {
+			if (distance[i] != EMPTY && (min < 0 || distance[i] < distance[min]))
+				min = i;
+		}
+		if (min < 0)
+			return false;
+		int plus = wrap(min + 90 / BIN_SIZE);
+		int minus = wrap(min - 90 / BIN_SIZE);
+		int other = filteredDistance[plus] < filteredDistance[minus] ? plus : minus;
+		if (filteredDistance[other] == EMPTY)
+			return false;
+		angleA = plateauCenter(min);
+		distanceA = filteredDistance[min];
+		angleB = plateauCenter(other);
+		distanceB = filteredDistance[other];
+		done = true;
+		return true;
+	}
+
+	/**
+	 * Updates the confirmed minima around the given bin, which just
+	 * changed, and searches them for two walls 90 degrees apart.
+	 */
+	private void search(int bin) {
+		boolean changed = false;
+		for (int k = -CONFIRM_BINS; k <= CONFIRM_BINS; ++k) {
+			int i = wrap(bin + k);
+			boolean value = isConfirmedMinimum(i);
+			if (value != confirmed[i]) {
+				confirmed[i] = value;
+				changed = true;
+			}
+		}
+		if (!changed)
+			return;
+
+		//Collects one candidate per plateau of confirmed bins.
+		int count = 0;
+		for (int i = 0; i < NUM_BINS && count < candidates.length; ++i) {
+			if (!confirmed[i])
+				continue;
+			boolean duplicate = false;
+			for (int j = 0; j < count; ++j) {
+				if (circularDistance(i, candidates[j]) <= CONFIRM_BINS)
+					duplicate = true;
+			}
+			if (!duplicate) {
+				candidates[count] = i;
+				++count;
+			}
+		}
+
+		//Takes the closest pair of walls roughly 90 degrees apart.
+		int bestSum = EMPTY;
+		for (int a = 0; a < count; ++a) {
+			for (int b = a + 1; b < count; ++b) {
+				double centerA = plateauCenter(candidates[a]);
+				double centerB = plateauCenter(candidates[b]);
+				double diff = Math.abs(Util.toRange(centerB - centerA, -180.0, true));
+				int sum = filteredDistance[candidates[a]] + filteredDistance[candidates[b]];
+				if (Math.abs(diff - 90.0) <= MAX_ANGLE_ERROR && sum < bestSum) {
+					bestSum = sum;
+					angleA = centerA;
+					angleB = centerB;
+					distanceA = filteredDistance[candidates[a]];
+					distanceB = filteredDistance[candidates[b]];
+					done = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns true if bin i is a wall minimum whose surroundings
+	 * have been completely swept.
+	 */
+	private boolean isConfirmedMinimum(int i) {
+		int value = distance[i];
+		if (value == EMPTY || value > MAX_WALL_DISTANCE)
+			return false;
+		for (int k = 1; k <= CONFIRM_BINS; ++k) {
+			int left = distance[wrap(i - k)];
+			int right = distance[wrap(i + k)];
+			if (left == EMPTY || right == EMPTY || left < value || right < value)
+				return false;
+		}
+		return distance[wrap(i - CONFIRM_BINS)] >= value + MIN_RISE ||
+				distance[wrap(i + CONFIRM_BINS)] >= value + MIN_RISE;
+	}
+
+	/**
+	 * Returns the angle in degrees at the center of the bins around i
+	 * within PLATEAU_TOLERANCE of its distance. Using a tolerance
+	 * keeps single noisy readings from moving the center. The plateau
+	 * is searched up to 45 degrees on each side.
+	 */
+	private double plateauCenter(int i) {
+		int value = distance[i] + PLATEAU_TOLERANCE;
+		int maxBins = 45 / BIN_SIZE;
+		int low = 0, high = 0;
+		while (low < maxBins && distance[wrap(i - low - 1)] <= value)
+			++low;
+		while (high < maxBins && distance[wrap(i + high + 1)] <= value)
+			++high;
+		double center = (i + (high - low) / 2.0 + 0.5) * BIN_SIZE;
+		return Util.toRange(center, 0.0, false);
+	}
+
+	/**
+	 * Returns the bin containing the angle.
+	 */
+	private static int bin(double angle) {
+		return wrap((int) (Util.toRange(angle, 0.0, false) / BIN_SIZE));
+	}
+
+	/**
+	 * Wraps a bin index into [0, NUM_BINS).
+	 */
+	private static int wrap(int i) {
+		return ((i % NUM_BINS) + NUM_BINS) % NUM_BINS;
+	}
+
+	/**
+	 * Returns the number of bins between bins i and j around the circle.
+	 */
+	private static int circularDistance(int i, int j) {
+		int d = Math.abs(i - j);
+		return Math.min(d, NUM_BINS - d);
+	}
+}
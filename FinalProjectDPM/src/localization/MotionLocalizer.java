@@ -0,0 +1,159 @@
+package localization;
+import data.DataCenter;
+import drivers.HWConstants;
+import field.USModel;
+
+/**
+ * A thread that localizes the robot while it travels between waypoints.
+ * Feeds a PoseTracker with the odometry increments from the DataCenter,
+ * the grid lines crossed by the color sensor and, if a map is given, the
+ * ultrasonic ranges to its walls. Each fix is applied only if it agrees
+ * with the tracked pose within its uncertainty, and the tracked pose is
+ * written back to the DataCenter only while its own uncertainty is small.
+ * The confidence of the tracker lets the missions skip localization stops
+ * they do not need.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MotionLocalizer extends BackgroundLocalizer {
+	/**
+	 * The minimum distance in cm moved by the color sensor between two
+	 * line detections. The poller reports a line on every sample over it,
+	 * so closer detections are the same line.
+	 */
+	private static final double MIN_SEPARATION = 5.0;
+	/**
+	 * The tolerances in cm and degrees on the pose used for the confidence.
+	 * Matches the accuracy needed to navigate the tunnels and to aim.
+	 */
+	private static final double TOLERANCE_XY = 2.0, TOLERANCE_THETA = 3.0;
+	/**
+	 * The maximum standard deviations in cm and degrees of the tracked
+	 * pose at which it is written to the DataCenter. Well under half a
+	 * tile, past which a line fix can snap to the wrong grid line.
+	 */
+	private static final double MAX_SIGMA_XY = 6.0, MAX_SIGMA_THETA = 8.0;
+
+	/**
+	 * The pose tracker.
+	 */
+	private PoseTracker tracker;
+	/**
+	 * The position in cm of the color sensor at the last line detection.
+	 */
+	private double lineX, lineY;
+	/**
+	 * The last confidence of the tracker.
+	 */
+	private double confidence;
+	/**
+	 * Variable keeping track of if a fix was applied since the tracked
+	 * pose was last written to the DataCenter.
+	 */
+	private boolean fixed;
+
+	/**
+	 * Default constructor. Uses the grid lines only.
+	 * @param dc The location of the odometry and sensor data.
+	 */
+	public MotionLocalizer(DataCenter dc) {
+		this(dc, null, new int[0]);
+	}
+
+	/**
+	 * Builds a localizer using the grid lines and the given ultrasonic
+	 * sensors. The corresponding USPollers must be running.
+	 * @param dc The location of the odometry and sensor data.
+	 * @param model The model used to predict ultrasonic readings.
+	 * @param sensors The angles of the sensors to use. Accepts angles of
+	 * 				  0 degrees, 90 degrees and 180 degrees.
+	 */
+	public MotionLocalizer(DataCenter dc, USModel model, int[] sensors) {
+		super(dc, sensors);
+		tracker = new PoseTracker(model);
+		tracker.setColorSensor(HWConstants.CS_DISTANCE, HWConstants.CS_ANGLE,
+				HWConstants.TILE_DISTANCE);
+		lineX = Double.POSITIVE_INFINITY;
+		lineY = Double.POSITIVE_INFINITY;
+		reset(2.0, 2.0);
+	}
+
+	/**
+	 * Returns the confidence in the pose in the DataCenter, as the
+	 * probability that it is within 2 cm and 3 degrees of the true pose.
+	 * The confidence falls with the distance traveled and the angle turned
+	 * and rises with each grid line or wall matched. It is 0 while the
+	 * localizer is not running.
+	 * @return The confidence, between 0 and 1.
+	 */
+	@Override
+	public synchronized double getConfidence() {
+		return isRunning() ? confidence : 0;
+	}
+
+	/**
+	 * Sets the tracked pose and its uncertainty.
+	 */
+	@Override
+	protected void init(double x, double y, double theta, double sigmaXY, double sigmaTheta) {
+		tracker.init(x, y, theta, sigmaXY, sigmaTheta);
+		fixed = false;
+	}
+
+	/**
+	 * Moves the tracked pose by the increment and grows its uncertainty.
+	 */
+	@Override
+	protected void predict(double distance, double turn) {
+		tracker.predict(distance, turn);
+	}
+
+	/**
+	 * Snaps the tracked pose to the line crossed. Only the first
+	 * detection of each line is used.
+	 */
+	@Override
+	protected void updateLine(double[] xyt) {
+		double rad = Math.toRadians(xyt[2] + HWConstants.CS_ANGLE);
+		double sx = xyt[0] + HWConstants.CS_DISTANCE * Math.cos(rad);
+		double sy = xyt[1] + HWConstants.CS_DISTANCE * Math.sin(rad);
+		if ((sx - lineX) * (sx - lineX) + (sy - lineY) * (sy - lineY) >
+				MIN_SEPARATION * MIN_SEPARATION && tracker.updateLine())
+			fixed = true;
+		lineX = sx;
+		lineY = sy;
+	}
+
+	/**
+	 * Corrects the tracked pose with the wall seen, if it matches.
+	 */
+	@Override
+	protected void updateRange(int angle, double distance) {
+		if (tracker.updateRange(angle, distance))
+			fixed = true;
+	}
+
+	/**
+	 * Records the confidence of the tracker.
+	 */
+	@Override
+	protected double[] settle() {
+		confidence = tracker.getConfidence(TOLERANCE_XY, TOLERANCE_THETA);
+		return tracker.getEstimate();
+	}
+
+	/**
+	 * Accepts the estimate once a fix moved it away from the odometry,
+	 * and only while its uncertainty is small, so that a tracker that
+	 * lost the pose leaves the odometry alone. A fix held back is
+	 * written with the next estimate accepted.
+	 */
+	@Override
+	protected boolean accept(double[] estimate) {
+		if (!fixed || estimate[3] >= MAX_SIGMA_XY || estimate[4] >= MAX_SIGMA_THETA)
+			return false;
+		fixed = false;
+		return true;
+	}
+}
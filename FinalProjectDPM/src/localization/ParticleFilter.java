@@ -0,0 +1,519 @@
+package localization;
+import java.util.Random;
+
+import util.Util;
+import field.USModel;
+
+/**
+ * A Monte Carlo localization engine. Keeps a set of weighted pose
+ * hypotheses which are moved by odometry increments and weighted
+ * by ultrasonic ranges and grid line detections. The particles are
+ * stored as parallel primitive arrays, resampled with a low-variance
+ * sampler, and their weights can be updated by several threads at once.
+ * The threads are started with the filter and wait between updates.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ParticleFilter {
+	/**
+	 * The standard deviation of the distance noise, as a fraction
+	 * of the distance traveled.
+	 */
+	private static final double DISTANCE_NOISE = 0.1;
+	/**
+	 * The standard deviation of the rotation noise, as a fraction
+	 * of the angle turned.
+	 */
+	private static final double TURN_NOISE = 0.1;
+	/**
+	 * The standard deviation in degrees of the heading drift per cm traveled.
+	 */
+	private static final double DRIFT_NOISE = 0.2;
+	/**
+	 * The standard deviation in cm of an ultrasonic reading.
+	 */
+	private static final double RANGE_SIGMA = 3.0;
+	/**
+	 * The probability of an ultrasonic reading being unrelated to the map.
+	 */
+	private static final double RANGE_OUTLIER = 0.1;
+	/**
+	 * The standard deviation in cm of the position of a detected grid line.
+	 */
+	private static final double LINE_SIGMA = 1.5;
+	/**
+	 * The probability of a grid line detection being false.
+	 */
+	private static final double LINE_OUTLIER = 0.05;
+	/**
+	 * Ultrasonic readings greater than this, in cm, are ignored.
+	 */
+	private static final double MAX_RANGE = 150.0;
+
+	/**
+	 * The number of particles.
+	 */
+	private final int size;
+	/**
+	 * The x positions of the particles in cm.
+	 */
+	private double[] x;
+	/**
+	 * The y positions of the particles in cm.
+	 */
+	private double[] y;
+	/**
+	 * The orientations of the particles in degrees.
+	 */
+	private double[] theta;
+	/**
+	 * The weights of the particles.
+	 */
+	private final double[] weight;
+	/**
+	 * Storage for the resampled particles, swapped with x, y and theta.
+	 */
+	private double[] newX, newY, newTheta;
+
+	/**
+	 * The model used to predict ultrasonic readings.
+	 */
+	private final USModel model;
+	/**
+	 * The number of threads used to update the weights.
+	 */
+	private final int threads;
+	/**
+	 * The threads processing all but the last range of particles.
+	 */
+	private final Worker[] workers;
+	/**
+	 * Variable keeping track of if the workers were stopped.
+	 */
+	private boolean stopped;
+	/**
+	 * The random number generator used for the motion noise and resampling.
+	 */
+	private final Random random;
+
+	/**
+	 * The distance in cm between the center of the robot and the color sensor.
+	 */
+	private double csDistance;
+	/**
+	 * The angle in degrees of the color sensor relative to the robot's orientation.
+	 */
+	private double csAngle;
+	/**
+	 * The distance in cm between parallel grid lines.
+	 */
+	private double tileDistance;
+
+	/**
+	 * Default constructor. Uses a single thread.
+	 * @param model The model used to predict ultrasonic readings.
+	 * @param size The number of particles.
+	 * @param seed The seed of the random number generator.
+	 */
+	public ParticleFilter(USModel model, int size, long seed) {
+		this(model, size, 1, seed);
+	}
+
+	/**
+	 * Builds a filter updating weights with the given number of threads.
+	 * @param model The model used to predict ultrasonic readings.
+	 * @param size The number of particles.
+	 * @param threads The number of threads used to update the weights.
+	 * @param seed The seed of the random number generator.
+	 */
+	public ParticleFilter(USModel model, int size, int threads, long seed) {
+		if (size <= 0 || threads <= 0)
+			throw new RuntimeException("Invalid size passed to ParticleFilter.");
+		this.model = model;
+		this.size = size;
+		this.threads = threads;
+		this.random = new Random(seed);
+		x = new double[size];
+		y = new double[size];
+		theta = new double[size];
+		weight = new double[size];
+		newX = new double[size];
+		newY = new double[size];
+		newTheta = new double[size];
+		stopped = false;
+		workers = new Worker[threads - 1];
+		int chunk = (size + threads - 1) / threads;
+		for (int k = 0; k < threads - 1; ++k) {
+			int from = Math.min(size, k * chunk);
+			workers[k] = new Worker(from, Math.min(size, from + chunk));
+			workers[k].start();
+		}
+	}
+
+	/**
+	 * Sets the position of the color sensor and the grid spacing
+	 * used to weight grid line detections.
+	 * @param distance The distance in cm between the center of the robot
+	 * 				   and the color sensor.
+	 * @param angle The angle in degrees of the color sensor relative to
+	 * 				the robot's orientation.
+	 * @param tileDistance The distance in cm between parallel grid lines.
+	 */
+	public void setColorSensor(double distance, double angle, double tileDistance) {
+		this.csDistance = distance;
+		this.csAngle = angle;
+		this.tileDistance = tileDistance;
+	}
+
+	/**
+	 * Spreads the particles around a pose with the given standard deviations.
+	 * @param x The x position in cm.
+	 * @param y The y position in cm.
+	 * @param theta The orientation in degrees.
+	 * @param sigmaXY The standard deviation of the position in cm.
+	 * @param sigmaTheta The standard deviation of the orientation in degrees.
+	 */
+	public synchronized void init(double x, double y, double theta,
+			double sigmaXY, double sigmaTheta) {
+		for (int i = 0; i < size; ++i) {
+			this.x[i] = x + sigmaXY * gaussian();
+			this.y[i] = y + sigmaXY * gaussian();
+			this.theta[i] = Util.toRange(theta + sigmaTheta * gaussian(), 0.0, false);
+			weight[i] = 1.0 / size;
+		}
+	}
+
+	/**
+	 * Spreads the particles uniformly in a rectangle with any orientation.
+	 * @param minX The minimum x position in cm.
+	 * @param minY The minimum y position in cm.
+	 * @param maxX The maximum x position in cm.
+	 * @param maxY The maximum y position in cm.
+	 */
+	public synchronized void initUniform(double minX, double minY, double maxX, double maxY) {
+		for (int i = 0; i < size; ++i) {
+			x[i] = minX + (maxX - minX) * random.nextDouble();
+			y[i] = minY + (maxY - minY) * random.nextDouble();
+			theta[i] = 360.0 * random.nextDouble();
+			weight[i] = 1.0 / size;
+		}
+	}
+
+	/**
+	 * Moves the particles by an odometry increment given in the robot's frame.
+	 * @param distance The distance traveled in cm, along the average heading.
+	 * @param turn The angle turned in degrees counterclockwise.
+	 */
+	public synchronized void predict(double distance, double turn) {
+		double absDistance = Math.abs(distance);
+		double absTurn = Math.abs(turn);
+		for (int i = 0; i < size; ++i) {
+			double d = distance + DISTANCE_NOISE * absDistance * gaussian();
+			double t = turn + (TURN_NOISE * absTurn + DRIFT_NOISE * absDistance) * gaussian();
+			double phi = Math.toRadians(theta[i] + t / 2);
+			x[i] += d * Math.cos(phi);
+			y[i] += d * Math.sin(phi);
+			theta[i] = Util.toRange(theta[i] + t, 0.0, false);
+		}
+	}
+
+	/**
+	 * Weights the particles by an ultrasonic reading.
+	 * @param angle The angle of the sensor. Accepts angles of
+	 * 				0 degrees, 90 degrees and 180 degrees.
+	 * @param distance The distance read by the sensor in cm.
+	 * @return true if the reading was used, and false if it was out of range.
+	 */
+	public synchronized boolean updateRange(final int angle, final double distance) {
+		if (distance > MAX_RANGE)
+			return false;
+		runPartitioned(new Partition() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; ++i) {
+					double expected = model.expectedDistance(x[i], y[i], theta[i], angle);
+					double error = (distance - expected) / RANGE_SIGMA;
+					weight[i] *= RANGE_OUTLIER + Math.exp(-0.5 * error * error);
+				}
+			}
+		});
+		normalize();
+		return true;
+	}
+
+	/**
+	 * Weights the particles by the detection of a grid line by the
+	 * color sensor. Particles whose color sensor is not over a grid line
+	 * lose weight.
+	 */
+	public synchronized void updateLine() {
+		if (tileDistance <= 0)
+			throw new RuntimeException(
+				"Color sensor not set in ParticleFilter.");
+		runPartitioned(new Partition() {
+			public void run(int from, int to) {
+				for (int i = from; i < to; ++i) {
+					double rad = Math.toRadians(theta[i] + csAngle);
+					double sx = x[i] + csDistance * Math.cos(rad);
+					double sy = y[i] + csDistance * Math.sin(rad);
+					double dx = sx - tileDistance * Math.floor(sx / tileDistance + 0.5);
+					double dy = sy - tileDistance * Math.floor(sy / tileDistance + 0.5);
+					double error = Math.min(Math.abs(dx), Math.abs(dy)) / LINE_SIGMA;
+					weight[i] *= LINE_OUTLIER + Math.exp(-0.5 * error * error);
+				}
+			}
+		});
+		normalize();
+	}
+
+	/**
+	 * Returns the effective number of particles, which measures
+	 * how many particles carry the weight of the distribution.
+	 * @return The effective number of particles.
+	 */
+	public synchronized double getEffectiveSize() {
+		double sum = 0;
+		for (int i = 0; i < size; ++i) {
+			sum += weight[i] * weight[i];
+		}
+		return 1.0 / sum;
+	}
+
+	/**
+	 * Resamples the particles with a low-variance sampler if the effective
+	 * number of particles is below half of the total.
+	 * @return true if the particles were resampled.
+	 */
+	public synchronized boolean resampleIfNeeded() {
+		if (getEffectiveSize() >= size / 2)
+			return false;
+		resample();
+		return true;
+	}
+
+	/**
+	 * Resamples the particles with a low-variance sampler, drawing a single
+	 * random number and stepping through the cumulative weights.
+	 */
+	public synchronized void resample() {
+		double step = 1.0 / size;
+		double r = step * random.nextDouble();
+		double cumulative = weight[0];
+		int j = 0;
+		for (int i = 0; i < size; ++i) {
+			double u = r + i * step;
+			while (u > cumulative && j < size - 1) {
+				++j;
+				cumulative += weight[j];
+			}
+			newX[i] = x[j];
+			newY[i] = y[j];
+			newTheta[i] = theta[j];
+		}
+		double[] temp = x;
+		x = newX;
+		newX = temp;
+		temp = y;
+		y = newY;
+		newY = temp;
+		temp = theta;
+		theta = newTheta;
+		newTheta = temp;
+		for (int i = 0; i < size; ++i) {
+			weight[i] = step;
+		}
+	}
+
+	/**
+	 * Returns the weighted mean pose of the particles and its spread.
+	 * @return The mean x and y in cm and theta in degrees in positions 0, 1
+	 * 		   and 2, the standard deviation of the position in cm in position 3
+	 * 		   and the standard deviation of the orientation in degrees in position 4.
+	 */
+	public synchronized double[] getEstimate() {
+		double mx = 0, my = 0, cos = 0, sin = 0;
+		for (int i = 0; i < size; ++i) {
+			double rad = Math.toRadians(theta[i]);
+			mx += weight[i] * x[i];
+			my += weight[i] * y[i];
+			cos += weight[i] * Math.cos(rad);
+			sin += weight[i] * Math.sin(rad);
+		}
+		double mt = Util.toRange(Math.toDegrees(Math.atan2(sin, cos)), 0.0, false);
+		double varXY = 0, varT = 0;
+		for (int i = 0; i < size; ++i) {
+			double dt = Util.toRange(theta[i] - mt, -180.0, true);
+			varXY += weight[i] * ((x[i] - mx) * (x[i] - mx) + (y[i] - my) * (y[i] - my));
+			varT += weight[i] * dt * dt;
+		}
+		double[] estimate = {mx, my, mt, Math.sqrt(varXY), Math.sqrt(varT)};
+		return estimate;
+	}
+
+	/**
+	 * Returns the number of particles.
+	 * @return The number of particles.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Scales the weights so that they sum to 1. Resets them to uniform
+	 * if all particles have lost their weight.
+	 */
+	private void normalize() {
+		double sum = 0;
+		for (int i = 0; i < size; ++i) {
+			sum += weight[i];
+		}
+		if (sum <= 0 || Double.isNaN(sum)) {
+			for (int i = 0; i < size; ++i) {
+				weight[i] = 1.0 / size;
+			}
+			return;
+		}
+		for (int i = 0; i < size; ++i) {
+			weight[i] /= sum;
+		}
+	}
+
+	/**
+	 * Returns a normally distributed random number using the Box-Muller method.
+	 */
+	private double gaussian() {
+		double u = 1.0 - random.nextDouble();
+		double v = random.nextDouble();
+		return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * v);
+	}
+
+	/**
+	 * A range of particles to process.
+	 */
+	private static interface Partition {
+		/**
+		 * Processes the particles from index from to index to exclusively.
+		 */
+		void run(int from, int to);
+	}
+
+	/**
+	 * Ends the threads updating the weights. The filter can still be
+	 * used, with the calling thread processing all particles.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		for (Worker worker : workers) {
+			worker.finish();
+		}
+	}
+
+	/**
+	 * Splits the particles into one range per thread and processes them.
+	 * The calling thread processes the last range.
+	 */
+	private void runPartitioned(Partition partition) {
+		if (threads == 1 || stopped) {
+			partition.run(0, size);
+			return;
+		}
+		for (Worker worker : workers) {
+			worker.submit(partition);
+		}
+		int chunk = (size + threads - 1) / threads;
+		partition.run(Math.min(size, (threads - 1) * chunk), size);
+		for (Worker worker : workers) {
+			worker.await();
+		}
+	}
+
+	/**
+	 * A thread processing a fixed range of particles for each partition
+	 * submitted, and waiting for the next one in between.
+	 */
+	private static class Worker extends Thread {
+		/**
+		 * The range of particles processed, from index from to index
+		 * to exclusively.
+		 */
+		private final int from, to;
+		/**
+		 * The partition to process, or null if the last one is done.
+		 */
+		private Partition partition;
+		/**
+		 * Variable keeping track of if the thread must end.
+		 */
+		private boolean finished;
+
+		/**
+		 * Default constructor.
+		 * @param from The index of the first particle processed.
+		 * @param to The index after the last particle processed.
+		 */
+		Worker(int from, int to) {
+			this.from = from;
+			this.to = to;
+			partition = null;
+			finished = false;
+			setDaemon(true);
+		}
+
+		/**
+		 * Ends the thread once it has processed its partition.
+		 */
+		synchronized void finish() {
+			finished = true;
+			notifyAll();
+		}
+
+		/**
+		 * Hands a partition to the thread.
+		 */
+		synchronized void submit(Partition partition) {
+			this.partition = partition;
+			notifyAll();
+		}
+
+		/**
+		 * Waits until the thread has processed its partition.
+		 */
+		synchronized void await() {
+			while (partition != null) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		/**
+		 * Method called when thread is started. Processes the
+		 * partitions as they are submitted, until it is finished.
+		 */
+		@Override
+		public void run() {
+			while (true) {
+				Partition current;
+				synchronized (this) {
+					while (partition == null && !finished) {
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							e.printStackTrace();
+						}
+					}
+					if (partition == null)
+						return;
+					current = partition;
+				}
+				current.run(from, to);
+				synchronized (this) {
+					partition = null;
+					notifyAll();
+				}
+			}
+		}
+	}
+}
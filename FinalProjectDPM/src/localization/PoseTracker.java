@@ -0,0 +1,324 @@
+package localization;
+import util.Util;
+import field.USModel;
+
+/**
+ * An extended Kalman filter tracking the pose of the robot and its
+ * uncertainty while it moves. The pose is moved by the odometry increments,
+ * which make the uncertainty grow, and corrected by the grid lines crossed
+ * by the color sensor and by the ultrasonic ranges to the walls of a map.
+ * Each measurement is matched to the grid line or wall it most likely came
+ * from, and measurements too far from their prediction are rejected. The
+ * uncertainty of the pose gives the confidence in it, so that it can be
+ * used instead of stopping to localize when it is small enough.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class PoseTracker {
+	/**
+	 * The standard deviation in cm of the distance traveled after 1 cm.
+	 * The variances grow with the motion, so that the uncertainty does
+	 * not depend on how often the pose is updated.
+	 */
+	private static final double DISTANCE_NOISE = 0.1;
+	/**
+	 * The standard deviation in degrees of the angle turned after 1 degree.
+	 */
+	private static final double TURN_NOISE = 0.1;
+	/**
+	 * The standard deviation in degrees of the orientation drift after 1 cm.
+	 */
+	private static final double DRIFT_NOISE = 0.6;
+	/**
+	 * The standard deviation in cm of the position of a grid line detection.
+	 */
+	private static final double LINE_SIGMA = 1.0;
+	/**
+	 * The standard deviation in cm of an ultrasonic reading.
+	 */
+	private static final double RANGE_SIGMA = 2.0;
+	/**
+	 * The maximum ultrasonic reading in cm used. Longer readings are too
+	 * likely to come from the side of the beam.
+	 */
+	private static final double MAX_RANGE = 60.0;
+	/**
+	 * The maximum distance of a measurement from its prediction,
+	 * in standard deviations, for it to be accepted.
+	 */
+	private static final double GATE = 3.0;
+	/**
+	 * The minimum ratio of the distances of a line detection from the
+	 * two nearest grid lines, in standard deviations, for it to be matched.
+	 */
+	private static final double AMBIGUITY = 2.0;
+	/**
+	 * The maximum distance in cm of a measurement from its prediction for
+	 * it to be accepted, however uncertain the pose. Larger corrections are
+	 * too likely to come from a misread or mismatched measurement.
+	 */
+	private static final double MAX_INNOVATION = 5.0;
+	/**
+	 * The maximum derivative of an ultrasonic reading with respect to the
+	 * position for it to be used. A wall seen at 60 degrees from its normal
+	 * gives a derivative of 2.
+	 */
+	private static final double MAX_SLOPE = 2.0;
+	/**
+	 * The steps in cm and degrees used to differentiate the ultrasonic model.
+	 */
+	private static final double STEP_XY = 0.5, STEP_THETA = 0.5;
+
+	/**
+	 * The model used to predict ultrasonic readings, or null.
+	 */
+	private USModel model;
+	/**
+	 * The distance in cm of the color sensor from the center of rotation.
+	 */
+	private double csDistance;
+	/**
+	 * The angle in degrees of the color sensor from the front of the robot.
+	 */
+	private double csAngle;
+	/**
+	 * The distance in cm between parallel grid lines.
+	 */
+	private double tileDistance;
+	/**
+	 * The estimated pose, x and y in cm and theta in degrees.
+	 */
+	private double x, y, theta;
+	/**
+	 * The covariance of the pose, in cm and radians.
+	 */
+	private double[][] p;
+
+	/**
+	 * Default constructor.
+	 * @param model The model used to predict ultrasonic readings,
+	 * 				or null to use the grid lines only.
+	 */
+	public PoseTracker(USModel model) {
+		this.model = model;
+		this.tileDistance = 0;
+		p = new double[3][3];
+	}
+
+	/**
+	 * Sets the position of the color sensor and the grid it detects.
+	 * Required before updating with grid lines.
+	 * @param distance The distance in cm of the sensor from the center.
+	 * @param angle The angle in degrees of the sensor from the front.
+	 * @param tileDistance The distance in cm between grid lines.
+	 */
+	public void setColorSensor(double distance, double angle, double tileDistance) {
+		this.csDistance = distance;
+		this.csAngle = angle;
+		this.tileDistance = tileDistance;
+	}
+
+	/**
+	 * Sets the pose and its uncertainty.
+	 * @param x The x position in cm.
+	 * @param y The y position in cm.
+	 * @param theta The orientation in degrees.
+	 * @param sigmaXY The standard deviation of the position in cm.
+	 * @param sigmaTheta The standard deviation of the orientation in degrees.
+	 */
+	public synchronized void init(double x, double y, double theta,
+			double sigmaXY, double sigmaTheta) {
+		this.x = x;
+		this.y = y;
+		this.theta = Util.toRange(theta, 0.0, false);
+		double sigmaRad = Math.toRadians(sigmaTheta);
+		for (int i = 0; i < 3; ++i) {
+			for (int j = 0; j < 3; ++j) {
+				p[i][j] = 0;
+			}
+		}
+		p[0][0] = sigmaXY * sigmaXY;
+		p[1][1] = sigmaXY * sigmaXY;
+		p[2][2] = sigmaRad * sigmaRad;
+	}
+
+	/**
+	 * Moves the pose by an odometry increment and grows its uncertainty.
+	 * @param distance The distance traveled in cm, negative if backwards.
+	 * @param turn The angle turned in degrees, positive counterclockwise.
+	 */
+	public synchronized void predict(double distance, double turn) {
+		double heading = Math.toRadians(theta + turn / 2);
+		double cos = Math.cos(heading);
+		double sin = Math.sin(heading);
+		x += distance * cos;
+		y += distance * sin;
+		theta = Util.toRange(theta + turn, 0.0, false);
+
+		//P = F P F' with F the derivative of the motion with respect to the pose.
+		double a = -distance * sin;
+		double b = distance * cos;
+		double p02 = p[0][2] + a * p[2][2];
+		double p12 = p[1][2] + b * p[2][2];
+		double p00 = p[0][0] + 2 * a * p[0][2] + a * a * p[2][2];
+		double p11 = p[1][1] + 2 * b * p[1][2] + b * b * p[2][2];
+		double p01 = p[0][1] + a * p[1][2] + b * p[0][2] + a * b * p[2][2];
+		//Adds the noise of the distance along the heading and of the turn.
+		double varD = DISTANCE_NOISE * DISTANCE_NOISE * Math.abs(distance);
+		double sigmaT = Math.toRadians(1);
+		double varT = sigmaT * sigmaT * (TURN_NOISE * TURN_NOISE * Math.abs(turn) +
+				DRIFT_NOISE * DRIFT_NOISE * Math.abs(distance));
+		p[0][0] = p00 + varD * cos * cos;
+		p[1][1] = p11 + varD * sin * sin;
+		p[0][1] = p[1][0] = p01 + varD * cos * sin;
+		p[0][2] = p[2][0] = p02;
+		p[1][2] = p[2][1] = p12;
+		p[2][2] += varT;
+	}
+
+	/**
+	 * Corrects the pose with the detection of a grid line by the color
+	 * sensor. The detection is matched to the nearest grid line. It is
+	 * rejected if no line is close enough to the predicted position of
+	 * the sensor, or if a vertical and a horizontal line are about as
+	 * close, since it is then unknown which one was crossed.
+	 * @return true if the detection was used.
+	 */
+	public synchronized boolean updateLine() {
+		if (tileDistance <= 0)
+			throw new RuntimeException(
+				"Color sensor not set in PoseTracker.");
+		double rad = Math.toRadians(theta + csAngle);
+		double cos = Math.cos(rad);
+		double sin = Math.sin(rad);
+		double sx = x + csDistance * cos;
+		double sy = y + csDistance * sin;
+		//The derivatives of the sensor x and y with respect to the pose.
+		double[] hx = {1, 0, -csDistance * sin};
+		double[] hy = {0, 1, csDistance * cos};
+		double innovationX = tileDistance * Math.floor(sx / tileDistance + 0.5) - sx;
+		double innovationY = tileDistance * Math.floor(sy / tileDistance + 0.5) - sy;
+		double errorX = normalized(innovationX, hx, LINE_SIGMA);
+		double errorY = normalized(innovationY, hy, LINE_SIGMA);
+		if (Math.min(errorX, errorY) > GATE || Math.max(errorX, errorY) <
+				AMBIGUITY * Math.min(errorX, errorY))
+			return false;
+		if (errorX < errorY)
+			return correct(innovationX, hx, LINE_SIGMA);
+		else
+			return correct(innovationY, hy, LINE_SIGMA);
+	}
+
+	/**
+	 * Corrects the pose with an ultrasonic reading. The reading is
+	 * rejected if it is out of range, if no wall is expected in range
+	 * or if it is too far from the expected reading.
+	 * @param angle The angle of the sensor. Accepts angles of
+	 * 				0 degrees, 90 degrees and 180 degrees.
+	 * @param distance The reading in cm.
+	 * @return true if the reading was used.
+	 */
+	public synchronized boolean updateRange(int angle, double distance) {
+		if (model == null || distance > MAX_RANGE)
+			return false;
+		double expected = model.expectedDistance(x, y, theta, angle);
+		if (expected > MAX_RANGE)
+			return false;
+		//Differentiates the model numerically.
+		double[] h = {
+			(model.expectedDistance(x + STEP_XY, y, theta, angle) - expected) / STEP_XY,
+			(model.expectedDistance(x, y + STEP_XY, theta, angle) - expected) / STEP_XY,
+			(model.expectedDistance(x, y, theta + STEP_THETA, angle) - expected) /
+					Math.toRadians(STEP_THETA)
+		};
+		//Rejects walls seen at a glancing angle and readings near the edge
+		//of a wall, where a step jumps to another wall. The reading then
+		//changes too fast with the pose for the linear model to hold.
+		double slope = Math.sqrt(h[0] * h[0] + h[1] * h[1]);
+		if (!(slope < MAX_SLOPE) || !(Math.abs(h[2]) <
+				MAX_SLOPE * (expected + model.getOffset(angle))))
+			return false;
+		double innovation = distance - expected;
+		if (normalized(innovation, h, RANGE_SIGMA) > GATE)
+			return false;
+		return correct(innovation, h, RANGE_SIGMA);
+	}
+
+	/**
+	 * Returns the estimated pose and its uncertainty.
+	 * @return The x and y in cm and theta in degrees in positions 0, 1
+	 * 		   and 2, the standard deviation of the position in cm in position 3
+	 * 		   and the standard deviation of the orientation in degrees in position 4.
+	 */
+	public synchronized double[] getEstimate() {
+		double[] estimate = {x, y, theta, Math.sqrt(p[0][0] + p[1][1]),
+				Math.toDegrees(Math.sqrt(p[2][2]))};
+		return estimate;
+	}
+
+	/**
+	 * Returns the confidence in the pose, as the probability that the
+	 * position and the orientation are both within the given tolerances
+	 * of the true pose.
+	 * @param toleranceXY The tolerance on the position in cm.
+	 * @param toleranceTheta The tolerance on the orientation in degrees.
+	 * @return The confidence, between 0 and 1.
+	 */
+	public synchronized double getConfidence(double toleranceXY, double toleranceTheta) {
+		//Treats the position error as circular, with the total variance
+		//split evenly between both axes.
+		double varXY = p[0][0] + p[1][1];
+		double position = 1 - Math.exp(-toleranceXY * toleranceXY / varXY);
+		double sigmaTheta = Math.sqrt(p[2][2]);
+		double orientation = Util.erf(Math.toRadians(toleranceTheta) / (Math.sqrt(2) * sigmaTheta));
+		return position * orientation;
+	}
+
+	/**
+	 * Returns the distance of the measurement from its prediction
+	 * in standard deviations.
+	 */
+	private double normalized(double innovation, double[] h, double sigma) {
+		return Math.abs(innovation) / Math.sqrt(variance(h) + sigma * sigma);
+	}
+
+	/**
+	 * Returns the variance of the prediction h' P.
+	 */
+	private double variance(double[] h) {
+		double s = 0;
+		for (int i = 0; i < 3; ++i) {
+			for (int j = 0; j < 3; ++j) {
+				s += h[i] * p[i][j] * h[j];
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Applies the Kalman update of a scalar measurement.
+	 * Returns false without updating if the innovation is too large.
+	 */
+	private boolean correct(double innovation, double[] h, double sigma) {
+		if (Math.abs(innovation) > MAX_INNOVATION)
+			return false;
+		double s = variance(h) + sigma * sigma;
+		//The gain is P h / s.
+		double[] ph = new double[3];
+		for (int i = 0; i < 3; ++i) {
+			for (int j = 0; j < 3; ++j) {
+				ph[i] += p[i][j] * h[j];
+			}
+		}
+		x += ph[0] / s * innovation;
+		y += ph[1] / s * innovation;
+		theta = Util.toRange(theta + Math.toDegrees(ph[2] / s * innovation), 0.0, false);
+		for (int i = 0; i < 3; ++i) {
+			for (int j = 0; j < 3; ++j) {
+				p[i][j] -= ph[i] * ph[j] / s;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,180 @@
+package localization;
+import data.DataCenter;
+import data.SensorManager;
+import drivers.Navigation;
+import drivers.USPoller;
+import field.USModel;
+
+/**
+ * A thread that relocalizes the robot by matching a short ultrasonic scan
+ * to the field map. The scan is recorded in the background between calls
+ * to startScan() and finishScan(), so it can be taken while the robot
+ * rotates in place or while it drives through a tunnel. The thread sleeps
+ * between scans.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ScanLocalizer extends Thread {
+	/**
+	 * The maximum root mean square distance in cm of the scan to the walls
+	 * at which the correction is applied.
+	 */
+	private static final double MAX_RMS = 2.5;
+	/**
+	 * The minimum number of matched points at which the correction is applied.
+	 */
+	private static final int MIN_MATCHED = 30;
+	/**
+	 * The longest time in ms to wait for a sensor to fill its filter
+	 * after it was demanded.
+	 */
+	private static final long READY_TIMEOUT = 10 * USPoller.PING_DELAY;
+	/**
+	 * The time in ms between checks for new readings of the sensors,
+	 * short enough that no reading is missed.
+	 */
+	private static final long POLL_DELAY = USPoller.PING_DELAY / 4;
+
+	/**
+	 * The location of the odometry and sensor data.
+	 */
+	private DataCenter dc;
+	/**
+	 * The robot's navigation system.
+	 */
+	private Navigation nav;
+	/**
+	 * The scan matcher.
+	 */
+	private ScanMatcher matcher;
+	/**
+	 * The ultrasonic sensors used, as DataCenter angles.
+	 */
+	private int[] sensors;
+	/**
+	 * The number of readings of each sensor at the last recorded reading.
+	 */
+	private int[] samples;
+	/**
+	 * The result of the last match.
+	 */
+	private double[] result;
+	/**
+	 * Variable keeping track of if a scan is being recorded.
+	 */
+	private boolean recording;
+
+	/**
+	 * Default constructor.
+	 * @param dc The location of the odometry and sensor data.
+	 * @param nav The navigation to use to turn the robot.
+	 * @param model The model giving the map and the offsets of the sensors.
+	 * @param sensors The angles of the sensors to use. Accepts angles of
+	 * 				  0 degrees, 90 degrees and 180 degrees. The
+	 * 				  corresponding USPollers must be running.
+	 */
+	public ScanLocalizer(DataCenter dc, Navigation nav, USModel model, int[] sensors) {
+		this.dc = dc;
+		this.nav = nav;
+		this.sensors = sensors;
+		samples = new int[sensors.length];
+		matcher = new ScanMatcher(model, sensors.length);
+		result = null;
+		recording = false;
+	}
+
+	/**
+	 * Performs localization by scanning during a full rotation in place.
+	 * @return true if the correction was applied.
+	 */
+	public boolean doLocalization() {
+		startScan();
+		nav.turn(360);
+		return finishScan();
+	}
+
+	/**
+	 * Starts the sensors, clears the scan and starts recording once the
+	 * sensors have filled their filters.
+	 */
+	public void startScan() {
+		SensorManager manager = dc.getSensors();
+		for (int angle : sensors) {
+			manager.demand(this, SensorManager.usChannel(angle), SensorManager.FASTEST);
+		}
+		for (int angle : sensors) {
+			manager.awaitReady(SensorManager.usChannel(angle), READY_TIMEOUT);
+		}
+		synchronized (this) {
+			matcher.reset();
+			for (int i = 0; i < sensors.length; ++i) {
+				samples[i] = dc.getSamples(sensors[i]);
+			}
+			recording = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Stops recording, matches the scan to the map and corrects the
+	 * pose in the DataCenter if the match is good.
+	 * @return true if the correction was applied.
+	 */
+	public synchronized boolean finishScan() {
+		recording = false;
+		dc.getSensors().releaseAll(this);
+		double[] xyt = dc.getXYT();
+		result = matcher.match(xyt[0], xyt[1]);
+		if (result == null || result[3] > MAX_RMS || result[4] < MIN_MATCHED)
+			return false;
+		dc.offsetXYT(result[0], result[1], result[2]);
+		return true;
+	}
+
+	/**
+	 * Returns the result of the last match.
+	 * @return The correction of x and y in cm and of theta in degrees in
+	 * 		   positions 0, 1 and 2, the root mean square distance in cm of
+	 * 		   the scan to the walls in position 3, the number of matched points
+	 * 		   in position 4 and the standard deviations of the correction in
+	 * 		   positions 5, 6 and 7. Returns null if no scan was matched.
+	 */
+	public synchronized double[] getResult() {
+		return result;
+	}
+
+	/**
+	 * Method called when thread is started. Records each new reading of
+	 * the sensors while a scan is in progress, and waits for the next scan
+	 * otherwise.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			synchronized (this) {
+				while (!recording) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+				double[] xyt = dc.getXYT();
+				for (int i = 0; i < sensors.length; ++i) {
+					int count = dc.getSamples(sensors[i]);
+					if (count != samples[i]) {
+						samples[i] = count;
+						matcher.addSample(xyt[0], xyt[1], xyt[2], sensors[i],
+								dc.getDistance(sensors[i]));
+					}
+				}
+			}
+			try {
+				Thread.sleep(POLL_DELAY);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
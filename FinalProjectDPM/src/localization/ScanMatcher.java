@@ -0,0 +1,245 @@
+package localization;
+import field.FieldMap;
+import field.USModel;
+
+/**
+ * A class aligning a scan of ultrasonic readings to the field map with
+ * point-to-line ICP. The readings are taken with the odometry pose at the
+ * time of each reading, and the match gives the correction to apply to the
+ * odometry so that the points lie on the walls of the map. The closest
+ * walls are found with the grid index of the map.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ScanMatcher {
+	/**
+	 * The maximum number of points recorded per sensor. Covers a full
+	 * rotation in place or a drive through a tunnel at one reading per
+	 * USPoller.PING_DELAY.
+	 */
+	private static final int CAPACITY = 500;
+	/**
+	 * The maximum distance in cm of a reading used as a point.
+	 */
+	private static final int MAX_RANGE = 100;
+	/**
+	 * The maximum distance in cm between a point and the wall
+	 * it is matched to on the first iteration.
+	 */
+	private static final double MAX_CORRESPONDENCE = 12.0;
+	/**
+	 * The minimum distance in cm between a point and the wall it is
+	 * matched to under which it is always kept.
+	 */
+	private static final double MIN_CORRESPONDENCE = 2.0;
+	/**
+	 * The maximum number of iterations.
+	 */
+	private static final int MAX_ITERATIONS = 20;
+	/**
+	 * The change in cm and radians under which the match has converged.
+	 */
+	private static final double CONVERGED = 0.01;
+	/**
+	 * The damping added to the normal equations. Keeps directions that
+	 * the walls do not constrain, such as along a tunnel, from moving.
+	 */
+	private static final double DAMPING = 1.0;
+
+	/**
+	 * The map to match against.
+	 */
+	private final FieldMap map;
+	/**
+	 * The model giving the offsets of the sensors.
+	 */
+	private final USModel model;
+	/**
+	 * The coordinates of the points in cm in the odometry frame.
+	 */
+	private final double[] x, y;
+	/**
+	 * The number of points recorded.
+	 */
+	private int count;
+	/**
+	 * Storage for the closest point of a wall.
+	 */
+	private final double[] closest;
+
+	/**
+	 * Default constructor.
+	 * @param model The model giving the map and the offsets of the sensors.
+	 * @param sensors The number of sensors the points are recorded from.
+	 */
+	public ScanMatcher(USModel model, int sensors) {
+		this.model = model;
+		this.map = model.getMap();
+		x = new double[CAPACITY * sensors];
+		y = new double[CAPACITY * sensors];
+		closest = new double[2];
+		count = 0;
+	}
+
+	/**
+	 * Clears all recorded points.
+	 */
+	public void reset() {
+		count = 0;
+	}
+
+	/**
+	 * Records the point seen by a sensor. Ignores readings farther
+	 * than MAX_RANGE, and readings past the capacity.
+	 * @param x The x position of the robot in cm according to the odometry.
+	 * @param y The y position of the robot in cm according to the odometry.
+	 * @param theta The orientation of the robot in degrees according to the odometry.
+	 * @param angle The angle of the sensor. Accepts angles of
+	 * 				0 degrees, 90 degrees and 180 degrees.
+	 * @param distance The distance read by the sensor in cm.
+	 */
+	public void addSample(double x, double y, double theta, int angle, int distance) {
+		if (distance > MAX_RANGE || count >= this.x.length)
+			return;
+		double rad = Math.toRadians(theta + angle - 90.0);
+		double range = model.getOffset(angle) + distance;
+		this.x[count] = x + range * Math.cos(rad);
+		this.y[count] = y + range * Math.sin(rad);
+		++count;
+	}
+
+	/**
+	 * Returns the number of points recorded.
+	 * @return The number of points recorded.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Aligns the recorded points to the map. The correction is a rotation
+	 * about the given pose followed by a translation.
+	 * @param x The x position of the robot in cm according to the odometry.
+	 * @param y The y position of the robot in cm according to the odometry.
+	 * @return The correction of x and y in cm and of theta in degrees in
+	 * 		   positions 0, 1 and 2, the root mean square distance in cm of
+	 * 		   the matched points to the walls in position 3, the number of
+	 * 		   matched points in position 4 and the standard deviations of the
+	 * 		   correction of x and y in cm and of theta in degrees in positions
+	 * 		   5, 6 and 7. Returns null if no points could be matched.
+	 */
+	public double[] match(double x, double y) {
+		double tx = 0, ty = 0, rotation = 0;
+		double threshold = MAX_CORRESPONDENCE;
+		double[] a = new double[9];
+		double[] b = new double[3];
+		double rms = 0;
+		int matched = 0;
+		for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+			double cos = Math.cos(rotation);
+			double sin = Math.sin(rotation);
+			for (int k = 0; k < 9; ++k) {
+				a[k] = 0;
+			}
+			b[0] = b[1] = b[2] = 0;
+			double sumSquared = 0;
+			matched = 0;
+
+			//Builds the normal equations of the distances to the walls.
+			for (int i = 0; i < count; ++i) {
+				double rx = this.x[i] - x;
+				double ry = this.y[i] - y;
+				double px = x + cos * rx - sin * ry + tx;
+				double py = y + sin * rx + cos * ry + ty;
+				if (map.nearestWall(px, py, threshold, closest) < 0)
+					continue;
+				double nx = px - closest[0];
+				double ny = py - closest[1];
+				double distance = Math.sqrt(nx * nx + ny * ny);
+				if (distance < 1e-6)
+					continue;
+				nx /= distance;
+				ny /= distance;
+				//Derivative of the distance with respect to a rotation about the pose.
+				double nr = nx * -(py - y) + ny * (px - x);
+				a[0] += nx * nx;
+				a[1] += nx * ny;
+				a[2] += nx * nr;
+				a[4] += ny * ny;
+				a[5] += ny * nr;
+				a[8] += nr * nr;
+				b[0] -= nx * distance;
+				b[1] -= ny * distance;
+				b[2] -= nr * distance;
+				sumSquared += distance * distance;
+				++matched;
+			}
+			if (matched == 0)
+				return null;
+			a[3] = a[1];
+			a[6] = a[2];
+			a[7] = a[5];
+			rms = Math.sqrt(sumSquared / matched);
+
+			for (int r = 0; r < 3; ++r) {
+				a[4*r] += DAMPING;
+			}
+			double[] step = solve(a, b);
+			for (int r = 0; r < 3; ++r) {
+				a[4*r] -= DAMPING;
+			}
+			//Composes the step with the current correction.
+			double stepCos = Math.cos(step[2]);
+			double stepSin = Math.sin(step[2]);
+			double newTx = stepCos * tx - stepSin * ty + step[0];
+			double newTy = stepSin * tx + stepCos * ty + step[1];
+			tx = newTx;
+			ty = newTy;
+			rotation += step[2];
+			//Tightens the matching as the points get closer to the walls.
+			threshold = Math.max(MIN_CORRESPONDENCE, Math.min(threshold, 3 * rms));
+			if (Math.abs(step[0]) < CONVERGED && Math.abs(step[1]) < CONVERGED &&
+					Math.abs(step[2]) < CONVERGED / 100)
+				break;
+		}
+
+		//The covariance of the correction is rms^2 (J^T J)^-1.
+		for (int r = 0; r < 3; ++r) {
+			a[4*r] += 1e-9;
+		}
+		double[] covariance = invert(a);
+		double variance = rms * rms;
+		double[] result = {tx, ty, Math.toDegrees(rotation), rms, matched,
+				Math.sqrt(variance * covariance[0]), Math.sqrt(variance * covariance[4]),
+				Math.toDegrees(Math.sqrt(variance * covariance[8]))};
+		return result;
+	}
+
+	/**
+	 * Solves the 3x3 system a v = b.
+	 */
+	private static double[] solve(double[] a, double[] b) {
+		double[] inverse = invert(a);
+		double[] v = new double[3];
+		for (int r = 0; r < 3; ++r) {
+			v[r] = inverse[3*r] * b[0] + inverse[3*r + 1] * b[1] + inverse[3*r + 2] * b[2];
+		}
+		return v;
+	}
+
+	/**
+	 * Returns the inverse of the 3x3 matrix a stored row by row.
+	 */
+	private static double[] invert(double[] a) {
+		double c00 = a[4] * a[8] - a[5] * a[7];
+		double c01 = a[5] * a[6] - a[3] * a[8];
+		double c02 = a[3] * a[7] - a[4] * a[6];
+		double det = a[0] * c00 + a[1] * c01 + a[2] * c02;
+		double[] inverse = {
+				c00 / det, (a[2] * a[7] - a[1] * a[8]) / det, (a[1] * a[5] - a[2] * a[4]) / det,
+				c01 / det, (a[0] * a[8] - a[2] * a[6]) / det, (a[2] * a[3] - a[0] * a[5]) / det,
+				c02 / det, (a[1] * a[6] - a[0] * a[7]) / det, (a[0] * a[4] - a[1] * a[3]) / det};
+		return inverse;
+	}
+}
@@ -1,8 +1,7 @@
 package localization;
-import java.util.ArrayList;
-
 import util.Util;
 import data.DataCenter;
+import data.SensorManager;
 import drivers.HWConstants;
 import drivers.Navigation;
 import drivers.USPoller;
@@ -14,34 +13,21 @@ import drivers.USPoller;
  *
  */
 public class USLocalizer {
-	/**
-	 * Wrapper class for triples of angle, distance and filteredDistance.
-	 * 
-	 * @author Andrei Purcarus
-	 *
-	 */
-	private static class Triple {
-		/**
-		 * Default constructor.
-		 * @param angle The angle in degrees.
-		 * @param distance The distance in cm.
-		 * @param filteredDistance The filtered distance in cm.
-		 */
-		Triple(double angle, int distance, int filteredDistance) {
-			this.angle = angle;
-			this.distance = distance;
-			this.filteredDistance = filteredDistance;
-		}
-		double angle;
-		int distance;
-		int filteredDistance;
-	}
-	
 	/**
 	 * Number of ms to wait after finishing localization to allow
 	 * other processes to update.
 	 */
 	private static final long TIMEOUT = 100;
+	/**
+	 * The longest time in ms to wait for the front sensor to fill
+	 * its filter after it was demanded.
+	 */
+	private static final long READY_TIMEOUT = 10 * USPoller.PING_DELAY;
+	/**
+	 * The time in ms between checks for a new reading of the front sensor,
+	 * short enough that no reading is missed.
+	 */
+	private static final long POLL_DELAY = USPoller.PING_DELAY / 4;
 	
 	/**
 	 * The speed to use during turning for the right motor. The 
@@ -49,6 +35,38 @@ public class USLocalizer {
 	 */
 	private static final int TURN_SPD = 120;
 	
+	/**
+	 * The maximum angle in degrees to rotate while looking for the walls.
+	 */
+	private static final double MAX_ROTATION = 360.0;
+	
+	/**
+	 * The maximum standard deviation in cm of the position for
+	 * the wall fit to be considered accurate.
+	 */
+	private static final double CONFIDENT_XY = 1.0;
+	/**
+	 * The maximum standard deviation in degrees of the orientation for
+	 * the wall fit to be considered accurate.
+	 */
+	private static final double CONFIDENT_THETA = 1.5;
+	/**
+	 * The half width in degrees of the ultrasonic beam, used by the wall fit.
+	 */
+	private static final double US_BEAM = 10.0;
+	/**
+	 * The number of readings between attempts to fit the walls during
+	 * the rotation.
+	 */
+	private static final int FIT_INTERVAL = 15;
+	/**
+	 * The minimum angles in degrees that the points supporting each wall,
+	 * and those supporting one of them, must extend on both sides of the
+	 * normal to the wall for the rotation to stop before a full turn.
+	 * The orientation of a wall seen at a narrower angle may be biased.
+	 */
+	private static final double MIN_COVERAGE = 15.0, WIDE_COVERAGE = 60.0;
+	
 	/**
 	 * The location from which to get data from the ultrasonic sensor.
 	 */
@@ -57,6 +75,11 @@ public class USLocalizer {
 	 * The robot's navigation system.
 	 */
 	private Navigation nav;
+	/**
+	 * The standard deviations of x and y in cm and of theta in degrees
+	 * of the last wall fit localization.
+	 */
+	private double[] error;
 
 	/**
 	 * Default constructor.
@@ -66,6 +89,7 @@ public class USLocalizer {
 	public USLocalizer(DataCenter dc, Navigation nav) {
 		this.dc = dc;
 		this.nav = nav;
+		error = null;
 	}
 
 	/**
@@ -76,107 +100,176 @@ public class USLocalizer {
 	}
 	
 	/**
-	 * Performs localization. Makes the robot turn 360 degrees while
-	 * logging angle and distance pairs from the odometer and ultrasonic
-	 * sensor respectively. Then computes the minimum distance and takes
-	 * the corresponding angle T to be either 180 degrees or 270 degrees. 
-	 * Then checks which of T+90 or T-90 has a smaller distance associated
-	 * with it, and uses that angle as the other of 180 degrees or 270
-	 * degrees. Then determines which is which and updates the position
-	 * of the robot accordingly.
+	 * Performs localization by fitting lines to both walls. Makes the robot
+	 * rotate counterclockwise while recording the points seen by the front
+	 * sensor, fitting the two walls with RANSAC and least squares along the
+	 * way, and sets the pose from them. Stops as soon as both walls are
+	 * seen widely enough for two fits in a row to give the same accurate
+	 * pose, or after a full rotation. Falls back on the minima of the distances if the walls
+	 * cannot be fit.
+	 * @return true if the walls were fit and the estimated errors are small
+	 * 		   enough for the color sensor localization to be skipped.
 	 */
-	private void minimaLocalization() {
-		
-		ArrayList<Triple> pos = new ArrayList<Triple>();
+	public boolean doFitLocalization() {
+		MinimaDetector detector = new MinimaDetector();
+		WallFit fit = new WallFit(US_BEAM, System.currentTimeMillis());
+		error = null;
 
-		//Rotate the robot 360 degrees in a new thread and log values.
-		Thread t = new Thread() {
-			public void run() {
-				nav.turn(360, TURN_SPD);
+		//Rotates counterclockwise until both walls are covered.
+		startSensor();
+		double previous = dc.getTheta();
+		double rotated = 0.0;
+		int samples = 0;
+		boolean covered = false;
+		double[] last = null;
+		int frontSamples = dc.getSamples(90);
+		nav.setSpeeds(-TURN_SPD, TURN_SPD);
+		while (rotated < MAX_ROTATION) {
+			double[] xyt = dc.getXYT();
+			rotated += Math.abs(Util.toRange(xyt[2] - previous, -180.0, true));
+			previous = xyt[2];
+			//Adds only the new readings, so that none is counted twice.
+			if (dc.getSamples(90) != frontSamples) {
+				frontSamples = dc.getSamples(90);
+				int distance = dc.getDistance(90);
+				detector.addSample(xyt[2], distance, dc.getFilteredDistance(90));
+				fit.addSample(xyt[0], xyt[1], xyt[2], HWConstants.FRONT_US_DISTANCE, distance);
+				++samples;
+				if (samples % FIT_INTERVAL == 0) {
+					//Stops once two fits in a row cover both walls and agree.
+					double[] current = coveredPose(fit, xyt);
+					if (current != null && last != null && agree(current, last)) {
+						covered = true;
+						break;
+					}
+					last = current;
+				}
 			}
-		};
-		t.start();
-		
-		while (t.isAlive()) {
-			double angle = dc.getTheta();
-			int dist = dc.getDistance(90);
-			int filteredDist = dc.getFilteredDistance(90);
-			pos.add(new Triple(angle, dist, filteredDist));
 			try {
-				Thread.sleep(USPoller.PING_DELAY);
+				Thread.sleep(POLL_DELAY);
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
 		}
-		
-		//Finds the triple with the minimum distance in the array.
-		Triple min = new Triple(0.0, 255, 255);
-		for (Triple p : pos) {
-			if (p.distance < min.distance) {
-				min = p;
+		nav.stop();
+		dc.getSensors().release(this, SensorManager.FRONT_US);
+
+		if (!covered && !fit.fit()) {
+			if (detector.forceResult()) {
+				setPose(detector.getMinima());
+				try {
+					Thread.sleep(TIMEOUT);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
 			}
+			return false;
 		}
-		
-		//Takes the average of all the angles for which the distance is minimal.
-		//Scales this sum such that min.angle = 0 and all angles are in
-		//(-180, 180] to ensure the results are accurate.
-		double sum = 0;
-		int count = 0;
-		double minAngle = 180.0;
-		double maxAngle = -180.0;
-		for (Triple p : pos) {
-			if (p.distance == min.distance) {
-				++count;
-				double angle = Util.toRange(p.angle - min.angle, -180.0, true);
-				sum += angle;
-				if (angle < minAngle)
-					minAngle = angle;
-				if (angle > maxAngle)
-					maxAngle = angle;
-			}
+		double[] xyt = dc.getXYT();
+		double[] pose = fit.getCornerPose(xyt[0], xyt[1], xyt[2],
+				-HWConstants.TILE_DISTANCE, -HWConstants.TILE_DISTANCE);
+		dc.setXYT(pose[0], pose[1], pose[2]);
+		error = new double[] {pose[3], pose[4], pose[5]};
+		try {
+			Thread.sleep(TIMEOUT);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
 		}
-		//Resets the average in [0, 360).
-		min.angle = Util.toRange(sum / count + min.angle, 0.0, false);
-		
-		//Find the triples at +- 90 degrees from the minimum.
-		double minusAngle = Util.toRange(min.angle - 90.0, 0.0, false);
-		Triple minus = find(pos, minusAngle);
-		double plusAngle = Util.toRange(min.angle + 90.0, 0.0, false);
-		Triple plus = find(pos, plusAngle);
-		
-		//plus and minus have been found. Chooses the one with the lower
-		//filtered distance for the other minimum value.
-		boolean plusMin = plus.filteredDistance < minus.filteredDistance;
-		
-		//Assigns the perpendicular triple that is closest to the wall to otherMin.
-		Triple otherMin = plusMin ? plus : minus;
+		return isConfident(pose);
+	}
 
-		//Finds out which is x and which is y.
-		//xy = true means x -> min and y -> otherMin.
-		boolean xy = (Util.toRange(min.angle - otherMin.angle, -180.0, true) < 0);
-		//Sets x, y and theta using the values from min and otherMin.
-		if (maxAngle - minAngle >= 90) {
-			//This means that the robot is exactly on the y = x line, so special care must be taken.
-			//The x and y are computed using the minimum distance, and the angle is instead set as
-			//225 for the diagonal.
-			double x = HWConstants.FRONT_US_DISTANCE + min.filteredDistance - HWConstants.TILE_DISTANCE;
-			double y = HWConstants.FRONT_US_DISTANCE + otherMin.filteredDistance - HWConstants.TILE_DISTANCE;
-			double angleCorrect = Util.toRange(225.0 - min.angle, 0.0, false);
-			double angle = Util.toRange(dc.getTheta() + angleCorrect, 0.0, false);
-			dc.setXYT(x, y, angle);
-		} else if (xy) {
-			double x = HWConstants.FRONT_US_DISTANCE + min.filteredDistance - HWConstants.TILE_DISTANCE;
-			double y = HWConstants.FRONT_US_DISTANCE + otherMin.filteredDistance - HWConstants.TILE_DISTANCE;
-			double angleCorrect = Util.toRange(180.0 - min.angle, 0.0, false);
-			double angle = Util.toRange(dc.getTheta() + angleCorrect, 0.0, false);
-			dc.setXYT(x, y, angle);
-		} else {
-			double x = HWConstants.FRONT_US_DISTANCE + otherMin.filteredDistance - HWConstants.TILE_DISTANCE;
-			double y = HWConstants.FRONT_US_DISTANCE + min.filteredDistance - HWConstants.TILE_DISTANCE;
-			double angleCorrect = Util.toRange(270.0 - min.angle, 0.0, false);
-			double angle = Util.toRange(dc.getTheta() + angleCorrect, 0.0, false);
-			dc.setXYT(x, y, angle);
+	/**
+	 * Fits the walls to the points so far and returns the pose they give
+	 * if both walls are covered widely enough and the pose is accurate.
+	 * @param fit The wall fit of the points so far.
+	 * @param xyt The current pose of the odometry.
+	 * @return The pose in the format of WallFit.getCornerPose, with the
+	 * 		   correction of the orientation of the odometry in degrees in
+	 * 		   position 2, or null if the rotation should go on.
+	 */
+	private double[] coveredPose(WallFit fit, double[] xyt) {
+		if (!fit.fit())
+			return null;
+		double first = fit.getCoverage(0, xyt[0], xyt[1]);
+		double second = fit.getCoverage(1, xyt[0], xyt[1]);
+		if (Math.min(first, second) < MIN_COVERAGE || Math.max(first, second) < WIDE_COVERAGE)
+			return null;
+		double[] pose = fit.getCornerPose(xyt[0], xyt[1], xyt[2],
+				-HWConstants.TILE_DISTANCE, -HWConstants.TILE_DISTANCE);
+		if (!isConfident(pose))
+			return null;
+		pose[2] = Util.toRange(pose[2] - xyt[2], -180.0, true);
+		return pose;
+	}
+
+	/**
+	 * Returns true if two poses given by coveredPose agree within the
+	 * errors accepted of an accurate pose.
+	 * @param a The first pose.
+	 * @param b The second pose.
+	 */
+	private boolean agree(double[] a, double[] b) {
+		return Math.abs(a[0] - b[0]) < CONFIDENT_XY && Math.abs(a[1] - b[1]) < CONFIDENT_XY &&
+				Math.abs(Util.toRange(a[2] - b[2], -180.0, true)) < CONFIDENT_THETA;
+	}
+
+	/**
+	 * Returns true if the estimated errors of a wall fit pose are small
+	 * enough for the color sensor localization to be skipped.
+	 * @param pose The pose, in the format of WallFit.getCornerPose.
+	 */
+	private boolean isConfident(double[] pose) {
+		return pose[3] < CONFIDENT_XY && pose[4] < CONFIDENT_XY && pose[5] < CONFIDENT_THETA;
+	}
+	
+	/**
+	 * Returns the estimated errors of the last wall fit localization.
+	 * @return The standard deviations of x and y in cm and of theta in degrees
+	 * 		   in positions 0, 1 and 2, or null if the walls were not fit.
+	 */
+	public double[] getError() {
+		return error;
+	}
+	
+	/**
+	 * Performs localization. Makes the robot rotate counterclockwise while
+	 * recording the front distances into angle bins. Stops the rotation
+	 * as soon as two wall minima 90 degrees apart are confirmed, or after a
+	 * full rotation, in which case the minimum distance and the closer of
+	 * the two directions 90 degrees from it are taken as the walls. The
+	 * walls are then taken as the 180 degrees and 270 degrees headings,
+	 * and the position of the robot is updated accordingly.
+	 */
+	private void minimaLocalization() {
+		MinimaDetector detector = new MinimaDetector();
+
+		//Rotates counterclockwise until both walls are found.
+		startSensor();
+		double previous = dc.getTheta();
+		double rotated = 0.0;
+		int frontSamples = dc.getSamples(90);
+		nav.setSpeeds(-TURN_SPD, TURN_SPD);
+		while (rotated < MAX_ROTATION) {
+			double angle = dc.getTheta();
+			rotated += Math.abs(Util.toRange(angle - previous, -180.0, true));
+			previous = angle;
+			if (dc.getSamples(90) != frontSamples) {
+				frontSamples = dc.getSamples(90);
+				if (detector.addSample(angle, dc.getDistance(90), dc.getFilteredDistance(90)))
+					break;
+			}
+			try {
+				Thread.sleep(POLL_DELAY);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
 		}
+		nav.stop();
+		dc.getSensors().release(this, SensorManager.FRONT_US);
+		if (!detector.forceResult())
+			return;
+
+		setPose(detector.getMinima());
 		try {
 			Thread.sleep(TIMEOUT);
 		} catch (InterruptedException e) {
@@ -185,37 +278,54 @@ public class USLocalizer {
 	}
 	
 	/**
-	 * Finds the Triple whose angle is closest to the given angle.
-	 * @param arr The container for the triples to search. The container
-	 * 			  must be sorted in increasing angle order, except for wrap-arounds.
-	 * @param angle The angle to find.
-	 * @return The Triple whose angle is closest to the given angle.
-	 */
-	private Triple find(ArrayList<Triple> arr, double angle) {
-		boolean over = (angle > arr.get(0).angle);
-		Triple result = new Triple(0.0, 255, 255);
-		if (over) {
-			for (Triple p : arr) {
-				if (p.angle >= angle) {
-					result.angle = p.angle;
-					result.distance = p.distance;
-					result.filteredDistance = p.filteredDistance;
-					break;
-				}
-			}
+	 * Starts the front sensor and waits for it to fill its filter, so
+	 * that the first readings of the rotation are real distances.
+	 */
+	private void startSensor() {
+		SensorManager sensors = dc.getSensors();
+		sensors.demand(this, SensorManager.FRONT_US, SensorManager.FASTEST);
+		sensors.awaitReady(SensorManager.FRONT_US, READY_TIMEOUT);
+	}
+	
+	/**
+	 * Sets the pose of the robot from the two wall minima.
+	 * @param minima The angle in degrees and filtered distance in cm of the closest
+	 * 		   wall in positions 0 and 1, and of the other wall in positions 2 and 3.
+	 */
+	private void setPose(double[] minima) {
+		//The closest wall and the other wall.
+		double minAngle = minima[0];
+		double minDistance = minima[1];
+		double otherAngle = minima[2];
+		double otherDistance = minima[3];
+
+		//Finds out which is x and which is y.
+		//xy = true means x -> closest wall and y -> other wall.
+		boolean xy = (Util.toRange(minAngle - otherAngle, -180.0, true) < 0);
+		//Sets x, y and theta using the values from both minima.
+		//The orientation is averaged over both walls.
+		if (xy) {
+			double x = HWConstants.FRONT_US_DISTANCE + minDistance - HWConstants.TILE_DISTANCE;
+			double y = HWConstants.FRONT_US_DISTANCE + otherDistance - HWConstants.TILE_DISTANCE;
+			double angleCorrect = average(180.0 - minAngle, 270.0 - otherAngle);
+			double angle = Util.toRange(dc.getTheta() + angleCorrect, 0.0, false);
+			dc.setXYT(x, y, angle);
 		} else {
-			boolean less = false;
-			for (Triple p : arr) {
-				if (!less && p.angle <= angle) {
-					less = true;
-				} else if (less && p.angle >= angle) {
-					result.angle = p.angle;
-					result.distance = p.distance;
-					result.filteredDistance = p.filteredDistance;
-					break;
-				}
-			}
+			double x = HWConstants.FRONT_US_DISTANCE + otherDistance - HWConstants.TILE_DISTANCE;
+			double y = HWConstants.FRONT_US_DISTANCE + minDistance - HWConstants.TILE_DISTANCE;
+			double angleCorrect = average(270.0 - minAngle, 180.0 - otherAngle);
+			double angle = Util.toRange(dc.getTheta() + angleCorrect, 0.0, false);
+			dc.setXYT(x, y, angle);
 		}
-		return result;
+	}
+	
+	/**
+	 * Returns the average of two angles in degrees, in [0, 360).
+	 * @param a The first angle in degrees.
+	 * @param b The second angle in degrees.
+	 * @return The average of the angles in degrees, in [0, 360).
+	 */
+	private static double average(double a, double b) {
+		return Util.toRange(a + Util.toRange(b - a, -180.0, true) / 2, 0.0, false);
 	}
 }
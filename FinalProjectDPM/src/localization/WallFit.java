@@ -0,0 +1,452 @@
+package localization;
+import java.util.Random;
+
+import util.Util;
+
+/**
+ * A class fitting two perpendicular walls to the points seen by an
+ * ultrasonic sensor while the robot rotates in a corner. Each wall is
+ * found with RANSAC, so that echoes off other objects are rejected, and
+ * then refined with a least squares fit on its inliers. Since the sensor
+ * reads the closest wall within its beam, the points are then moved to
+ * where the beam hits the fitted walls and the walls are fit again. The
+ * residuals of the fits give error estimates on the pose computed from
+ * the walls.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class WallFit {
+	/**
+	 * The maximum number of points recorded.
+	 */
+	private static final int CAPACITY = 1000;
+	/**
+	 * The maximum distance in cm of a reading used as a point.
+	 * Farther readings are too noisy and may see other walls.
+	 */
+	private static final int MAX_DISTANCE = 60;
+	/**
+	 * The number of random lines tried for each wall.
+	 */
+	private static final int ITERATIONS = 150;
+	/**
+	 * The maximum distance in cm from a line of a point supporting it.
+	 */
+	private static final double INLIER_DISTANCE = 2.0;
+	/**
+	 * The minimum number of points supporting a wall.
+	 */
+	private static final int MIN_INLIERS = 10;
+	/**
+	 * The maximum error in degrees from 90 degrees between the two walls.
+	 */
+	private static final double MAX_ANGLE_ERROR = 20.0;
+	/**
+	 * The number of times the points are corrected for the beam width
+	 * and the walls fit again.
+	 */
+	private static final int BEAM_PASSES = 2;
+
+	/**
+	 * The half width in degrees of the ultrasonic beam.
+	 */
+	private final double beam;
+	/**
+	 * The position in cm of the sensor, the direction in degrees in which
+	 * it points and the range in cm of each reading.
+	 */
+	private final double[] sensorX, sensorY, heading, range;
+	/**
+	 * The coordinates of the points in cm.
+	 */
+	private final double[] x, y;
+	/**
+	 * The wall each point belongs to, or -1.
+	 */
+	private final int[] wall;
+	/**
+	 * The number of points recorded.
+	 */
+	private int count;
+	/**
+	 * The random number generator used to pick lines.
+	 */
+	private final Random random;
+	/**
+	 * The normal angle in degrees and offset in cm of the two walls,
+	 * such that the walls are the points p where p . n = offset.
+	 */
+	private final double[] normal, offset;
+	/**
+	 * The centroid of the inliers of the two walls in cm.
+	 */
+	private final double[] centerX, centerY;
+	/**
+	 * The standard deviation in cm of the offset and in degrees
+	 * of the normal of the two walls.
+	 */
+	private final double[] sigmaOffset, sigmaNormal;
+	/**
+	 * Variable keeping track of if both walls have been fit.
+	 */
+	private boolean fit;
+
+	/**
+	 * Default constructor.
+	 * @param beam The half width in degrees of the ultrasonic beam.
+	 * @param seed The seed of the random number generator.
+	 */
+	public WallFit(double beam, long seed) {
+		this.beam = beam;
+		sensorX = new double[CAPACITY];
+		sensorY = new double[CAPACITY];
+		heading = new double[CAPACITY];
+		range = new double[CAPACITY];
+		x = new double[CAPACITY];
+		y = new double[CAPACITY];
+		wall = new int[CAPACITY];
+		random = new Random(seed);
+		normal = new double[2];
+		offset = new double[2];
+		centerX = new double[2];
+		centerY = new double[2];
+		sigmaOffset = new double[2];
+		sigmaNormal = new double[2];
+		reset();
+	}
+
+	/**
+	 * Clears all recorded points.
+	 */
+	public void reset() {
+		count = 0;
+		fit = false;
+	}
+
+	/**
+	 * Records the point seen by a sensor. Ignores readings farther
+	 * than MAX_DISTANCE.
+	 * @param x The x position of the robot in cm.
+	 * @param y The y position of the robot in cm.
+	 * @param theta The direction in degrees in which the sensor points.
+	 * @param sensorOffset The offset in cm of the sensor from the robot's center.
+	 * @param distance The distance read by the sensor in cm.
+	 */
+	public void addSample(double x, double y, double theta, double sensorOffset, int distance) {
+		if (distance > MAX_DISTANCE || count >= CAPACITY)
+			return;
+		double rad = Math.toRadians(theta);
+		sensorX[count] = x + sensorOffset * Math.cos(rad);
+		sensorY[count] = y + sensorOffset * Math.sin(rad);
+		heading[count] = theta;
+		range[count] = distance;
+		this.x[count] = sensorX[count] + distance * Math.cos(rad);
+		this.y[count] = sensorY[count] + distance * Math.sin(rad);
+		++count;
+	}
+
+	/**
+	 * Returns the number of points recorded.
+	 * @return The number of points recorded.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns how far the points supporting a wall of the last fit extend
+	 * on both sides of the normal from the robot to the wall. A wall seen
+	 * on one side only is seen obliquely, and its fit may be biased.
+	 * @param k The wall, 0 for the one supported by the most points and 1
+	 * 			for the other.
+	 * @param x The x position of the robot in cm.
+	 * @param y The y position of the robot in cm.
+	 * @return The smaller of the angles in degrees between the normal and
+	 * 		   the farthest reading supporting the wall on each side of it,
+	 * 		   or 0 if the walls were not fit.
+	 */
+	public double getCoverage(int k, double x, double y) {
+		if (!fit)
+			return 0;
+		double rad = Math.toRadians(normal[k]);
+		double direction = normal[k];
+		if (offset[k] - (x * Math.cos(rad) + y * Math.sin(rad)) < 0)
+			direction = Util.toRange(direction + 180.0, 0.0, false);
+		double left = 0;
+		double right = 0;
+		for (int i = 0; i < count; ++i) {
+			if (wall[i] != k)
+				continue;
+			double angle = Util.toRange(heading[i] - direction, -180.0, true);
+			left = Math.max(left, angle);
+			right = Math.max(right, -angle);
+		}
+		return Math.min(left, right);
+	}
+
+	/**
+	 * Fits the two walls to the recorded points. The first wall is the one
+	 * supported by the most points, and the second is the one supported by
+	 * the most remaining points that is roughly perpendicular to it.
+	 * @return true if both walls were found.
+	 */
+	public boolean fit() {
+		fit = false;
+		for (int i = 0; i < count; ++i) {
+			double rad = Math.toRadians(heading[i]);
+			x[i] = sensorX[i] + range[i] * Math.cos(rad);
+			y[i] = sensorY[i] + range[i] * Math.sin(rad);
+		}
+		if (!fitWalls())
+			return false;
+		for (int pass = 0; pass < BEAM_PASSES && beam > 0; ++pass) {
+			correctBeam();
+			if (!fitWalls())
+				return false;
+		}
+		fit = true;
+		return true;
+	}
+
+	/**
+	 * Returns the pose of the robot in a corner whose walls are at
+	 * x = wallX and y = wallY, with the robot on the positive side of both.
+	 * The fit must have succeeded.
+	 * @param x The x position of the robot in cm in the frame of the points.
+	 * @param y The y position of the robot in cm in the frame of the points.
+	 * @param theta The orientation of the robot in degrees in the frame of the points.
+	 * @param wallX The x coordinate in cm of the wall perpendicular to the x axis.
+	 * @param wallY The y coordinate in cm of the wall perpendicular to the y axis.
+	 * @return The x and y in cm and theta in degrees in positions 0, 1 and 2 and
+	 * 		   the standard deviations of x and y in cm and of theta in degrees in
+	 * 		   positions 3, 4 and 5. Returns null if the walls were not fit.
+	 */
+	public double[] getCornerPose(double x, double y, double theta, double wallX, double wallY) {
+		if (!fit)
+			return null;
+		//Distance and direction from the robot to each wall.
+		double[] distance = new double[2];
+		double[] direction = new double[2];
+		double[] sigma = new double[2];
+		for (int k = 0; k < 2; ++k) {
+			double rad = Math.toRadians(normal[k]);
+			double nx = Math.cos(rad);
+			double ny = Math.sin(rad);
+			distance[k] = offset[k] - (x * nx + y * ny);
+			direction[k] = normal[k];
+			if (distance[k] < 0) {
+				distance[k] = -distance[k];
+				direction[k] = Util.toRange(direction[k] + 180.0, 0.0, false);
+			}
+			//The orientation error grows with the distance along the wall
+			//from the centroid of the points.
+			double along = (x - centerX[k]) * -ny + (y - centerY[k]) * nx;
+			double angleError = Math.toRadians(sigmaNormal[k]) * along;
+			sigma[k] = Math.sqrt(sigmaOffset[k] * sigmaOffset[k] + angleError * angleError);
+		}
+
+		//The x wall is seen 90 degrees clockwise from the y wall.
+		int wx = (Util.toRange(direction[1] - direction[0], -180.0, true) > 0) ? 0 : 1;
+		int wy = 1 - wx;
+		double correctX = Util.toRange(180.0 - direction[wx], -180.0, true);
+		double correctY = Util.toRange(270.0 - direction[wy], -180.0, true);
+		double correct = correctX + Util.toRange(correctY - correctX, -180.0, true) / 2;
+		//Uses the disagreement of the walls when it exceeds the fit errors.
+		double sigmaTheta = Math.sqrt(sigmaNormal[0] * sigmaNormal[0] +
+				sigmaNormal[1] * sigmaNormal[1]) / 2;
+		sigmaTheta = Math.max(sigmaTheta,
+				Math.abs(Util.toRange(correctY - correctX, -180.0, true)) / 2);
+		double[] pose = {wallX + distance[wx], wallY + distance[wy],
+				Util.toRange(theta + correct, 0.0, false),
+				sigma[wx], sigma[wy], sigmaTheta};
+		return pose;
+	}
+
+	/**
+	 * Fits both walls to the current points.
+	 */
+	private boolean fitWalls() {
+		for (int i = 0; i < count; ++i) {
+			wall[i] = -1;
+		}
+		return fitWall(0, Double.NaN) && fitWall(1, normal[0]);
+	}
+
+	/**
+	 * Moves each point to where the beam first hits the closest fitted wall.
+	 * The beam hits a wall perpendicularly if the wall's normal is within
+	 * the beam, and at the edge of the beam closest to the normal otherwise.
+	 */
+	private void correctBeam() {
+		for (int i = 0; i < count; ++i) {
+			double bestError = INLIER_DISTANCE * 2;
+			double bestX = x[i], bestY = y[i];
+			for (int k = 0; k < 2; ++k) {
+				double rad = Math.toRadians(normal[k]);
+				double nx = Math.cos(rad);
+				double ny = Math.sin(rad);
+				double along = offset[k] - (sensorX[i] * nx + sensorY[i] * ny);
+				double toWall = (along < 0) ? normal[k] + 180.0 : normal[k];
+				double diff = Util.toRange(heading[i] - toWall, -180.0, true);
+				if (Math.abs(diff) >= 90.0)
+					continue;
+				double hit = toWall + Math.max(0, Math.abs(diff) - beam) * Math.signum(diff);
+				double hitRad = Math.toRadians(hit);
+				double px = sensorX[i] + range[i] * Math.cos(hitRad);
+				double py = sensorY[i] + range[i] * Math.sin(hitRad);
+				double error = Math.abs(px * nx + py * ny - offset[k]);
+				if (error < bestError) {
+					bestError = error;
+					bestX = px;
+					bestY = py;
+				}
+			}
+			x[i] = bestX;
+			y[i] = bestY;
+		}
+	}
+
+	/**
+	 * Finds wall k among the points not assigned to a wall yet. If
+	 * perpendicular is a number, only accepts walls whose normal is within
+	 * MAX_ANGLE_ERROR of being perpendicular to it.
+	 */
+	private boolean fitWall(int k, double perpendicular) {
+		int free = 0;
+		for (int i = 0; i < count; ++i) {
+			if (wall[i] < 0)
+				++free;
+		}
+		if (free < MIN_INLIERS)
+			return false;
+
+		//Tries lines through random pairs of points.
+		int bestInliers = 0;
+		double bestNormal = 0, bestOffset = 0;
+		for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+			int a = randomFree();
+			int b = randomFree();
+			double dx = x[b] - x[a];
+			double dy = y[b] - y[a];
+			double length = Math.sqrt(dx * dx + dy * dy);
+			if (length < 2 * INLIER_DISTANCE)
+				continue;
+			double nx = -dy / length;
+			double ny = dx / length;
+			double lineNormal = Math.toDegrees(Math.atan2(ny, nx));
+			if (!Double.isNaN(perpendicular) && Math.abs(Math.abs(
+					Util.toRange(lineNormal - perpendicular, -180.0, true)) - 90.0) > MAX_ANGLE_ERROR)
+				continue;
+			double lineOffset = x[a] * nx + y[a] * ny;
+			int inliers = countInliers(nx, ny, lineOffset);
+			if (inliers > bestInliers) {
+				bestInliers = inliers;
+				bestNormal = lineNormal;
+				bestOffset = lineOffset;
+			}
+		}
+		if (bestInliers < MIN_INLIERS)
+			return false;
+
+		//Refines the line twice, taking the inliers of the previous line.
+		normal[k] = bestNormal;
+		offset[k] = bestOffset;
+		for (int pass = 0; pass < 2; ++pass) {
+			if (!refine(k))
+				return false;
+		}
+		double rad = Math.toRadians(normal[k]);
+		double nx = Math.cos(rad);
+		double ny = Math.sin(rad);
+		for (int i = 0; i < count; ++i) {
+			if (wall[i] < 0 && Math.abs(x[i] * nx + y[i] * ny - offset[k]) <= INLIER_DISTANCE)
+				wall[i] = k;
+		}
+		return true;
+	}
+
+	/**
+	 * Fits wall k by orthogonal least squares to the free points within
+	 * INLIER_DISTANCE of its current line and computes its errors.
+	 */
+	private boolean refine(int k) {
+		double rad = Math.toRadians(normal[k]);
+		double nx = Math.cos(rad);
+		double ny = Math.sin(rad);
+		int n = 0;
+		double sumX = 0, sumY = 0;
+		for (int i = 0; i < count; ++i) {
+			if (wall[i] < 0 && Math.abs(x[i] * nx + y[i] * ny - offset[k]) <= INLIER_DISTANCE) {
+				sumX += x[i];
+				sumY += y[i];
+				++n;
+			}
+		}
+		if (n < MIN_INLIERS)
+			return false;
+		double mx = sumX / n;
+		double my = sumY / n;
+		double sxx = 0, syy = 0, sxy = 0;
+		for (int i = 0; i < count; ++i) {
+			if (wall[i] < 0 && Math.abs(x[i] * nx + y[i] * ny - offset[k]) <= INLIER_DISTANCE) {
+				double dx = x[i] - mx;
+				double dy = y[i] - my;
+				sxx += dx * dx;
+				syy += dy * dy;
+				sxy += dx * dy;
+			}
+		}
+		//The normal is the direction of least spread of the points.
+		double direction = 0.5 * Math.atan2(2 * sxy, sxx - syy);
+		double newNx = -Math.sin(direction);
+		double newNy = Math.cos(direction);
+		//Keeps the normal pointing the same way as before.
+		if (newNx * nx + newNy * ny < 0) {
+			newNx = -newNx;
+			newNy = -newNy;
+		}
+		double spread = 0, residuals = 0;
+		for (int i = 0; i < count; ++i) {
+			if (wall[i] < 0 && Math.abs(x[i] * nx + y[i] * ny - offset[k]) <= INLIER_DISTANCE) {
+				double dx = x[i] - mx;
+				double dy = y[i] - my;
+				double across = dx * newNx + dy * newNy;
+				double along = -dx * newNy + dy * newNx;
+				residuals += across * across;
+				spread += along * along;
+			}
+		}
+		double sigma = Math.sqrt(residuals / Math.max(1, n - 2));
+		normal[k] = Math.toDegrees(Math.atan2(newNy, newNx));
+		offset[k] = mx * newNx + my * newNy;
+		centerX[k] = mx;
+		centerY[k] = my;
+		sigmaOffset[k] = sigma / Math.sqrt(n);
+		sigmaNormal[k] = (spread > 0) ? Math.toDegrees(sigma / Math.sqrt(spread)) : 90.0;
+		return true;
+	}
+
+	/**
+	 * Returns the number of free points within INLIER_DISTANCE of the line.
+	 */
+	private int countInliers(double nx, double ny, double lineOffset) {
+		int inliers = 0;
+		for (int i = 0; i < count; ++i) {
+			if (wall[i] < 0 && Math.abs(x[i] * nx + y[i] * ny - lineOffset) <= INLIER_DISTANCE)
+				++inliers;
+		}
+		return inliers;
+	}
+
+	/**
+	 * Returns a random point not assigned to a wall.
+	 */
+	private int randomFree() {
+		int i;
+		do {
+			i = random.nextInt(count);
+		} while (wall[i] >= 0);
+		return i;
+	}
+}
@@ -1,5 +1,6 @@
 package main;
 import data.DataCenter;
+import data.SensorManager;
 import drivers.CSPoller;
 import drivers.HWConstants;
 import lejos.nxt.Button;
@@ -40,6 +41,7 @@ public class ColorSensor {
 
 		(new Thread() {
 			public void run() {
+				dc.getSensors().demand(this, SensorManager.COLOR, SensorManager.FASTEST);
 				while (true) {
 					LCD.clear();
 					LCD.drawInt(dc.getCSValue(), 8, 0);
@@ -0,0 +1,64 @@
+package mission;
+
+/**
+ * A mission compiled from a script by a MissionCompiler. Holds the steps
+ * in the order they are executed and their estimated durations.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class Mission {
+	/**
+	 * The steps of the mission.
+	 */
+	private final MissionStep[] steps;
+
+	/**
+	 * Default constructor.
+	 * @param steps The steps of the mission, in order.
+	 */
+	public Mission(MissionStep[] steps) {
+		this.steps = steps;
+	}
+
+	/**
+	 * Returns the number of steps of the mission.
+	 * @return The number of steps of the mission.
+	 */
+	public int getSize() {
+		return steps.length;
+	}
+
+	/**
+	 * Returns the step at the given index.
+	 * @param i The index of the step.
+	 * @return The step at the given index.
+	 */
+	public MissionStep getStep(int i) {
+		return steps[i];
+	}
+
+	/**
+	 * Returns true if a step of the mission reads the color sensor.
+	 * @return true if a step of the mission reads the color sensor.
+	 */
+	public boolean usesLight() {
+		for (MissionStep step : steps) {
+			if (step.usesLight())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the estimated duration of the whole mission in s.
+	 * @return The estimated duration of the whole mission in s.
+	 */
+	public double getDuration() {
+		double sum = 0;
+		for (MissionStep step : steps) {
+			sum += step.getDuration();
+		}
+		return sum;
+	}
+}
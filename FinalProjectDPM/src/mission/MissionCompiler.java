@@ -0,0 +1,554 @@
+package mission;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import lejos.nxt.Sound;
+import drivers.Arc;
+import drivers.ArcPlanner;
+import drivers.MotionTimer;
+import planning.PathSmoother;
+import planning.RoutePlanner;
+import util.Point;
+import util.Util;
+
+/**
+ * A compiler of mission scripts. Turns each command of a script into a
+ * MissionStep and estimates how long it takes from the pose the robot is
+ * planned to have when the step starts, so that a route can be checked
+ * and timed before the robot moves. Errors in the script are reported
+ * when it is compiled, not in the middle of the mission.
+ *
+ * The script has one command per line. Coordinates are given in tiles and
+ * are scaled to cm when compiled. Empty lines and lines starting with '#'
+ * are ignored. The valid commands are:
+ * <pre>
+ * localize             Fits the walls with the ultrasonic sensors, travels to
+ *                      (0, 0) and sweeps the lines if the fit was not accurate.
+ * travel x y ...       Stops and turns towards each point before driving to it.
+ * avoid x y ...        Travels like travel, going around unexpected obstacles
+ *                      on routes repaired over the field.
+ * arcs x y ...         Drives through the points on arcs.
+ * follow x y ...       Follows the path through the points without stopping,
+ *                      smoothed first if the compiler has a smoother.
+ * waypoint name x y    Names the point (x, y) for the routes. Takes no time.
+ * route from to        Follows the route planned over the field from the
+ *                      waypoint named from to the one named to, like follow.
+ *                      The robot must be at the first waypoint.
+ * tunnel x y           Drives through a tunnel to (x, y). The tunnel is vertical
+ *                      if the move is mostly along y, and horizontal otherwise.
+ * turn angle           Turns in place to the heading in degrees.
+ * left                 Turns left 90 degrees around the left wheel.
+ * right                Turns right 90 degrees around the right wheel.
+ * begin                Starts localizing on the way.
+ * end                  Stops localizing on the way.
+ * checkpoint x y conf  Localizes with the lines at (x, y) unless the confidence
+ *                      of the pose is at least conf.
+ * sweep x y            Turns to 45 degrees and localizes with the lines at (x, y).
+ * light x y            Localizes with the lines at (x, y) from any heading.
+ * scan                 Turns a full rotation in place and matches the walls seen
+ *                      by the ultrasonic sensors to the field map.
+ * fire x y shots       Positions the robot to fire at the target at (x, y) from
+ *                      the planned position and fires the shots.
+ * shoot shots          Fires the shots from where the robot is.
+ * beep                 Beeps twice.
+ * </pre>
+ * The durations of the localization steps are upper bounds, as they end
+ * early or are skipped when the pose is already accurate. The duration of
+ * avoid assumes that no obstacle is met.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MissionCompiler {
+	/**
+	 * Same value as in Navigation.
+	 */
+	private static final double ARC_RADIUS = 15.0;
+	/**
+	 * The rotation in degrees and the wheel speed in deg/s of the
+	 * ultrasonic localization. Same values as in USLocalizer.
+	 */
+	private static final double FIT_ROTATION = 360.0, FIT_SPD = 120;
+	/**
+	 * The largest rotation in degrees and the wheel speed in deg/s of a
+	 * sweep of the lines. Same values as in CSLocalizer.
+	 */
+	private static final double SWEEP_ROTATION = 400.0, SWEEP_SPD = 200;
+	/**
+	 * The rotation in degrees and the wheel speed in deg/s of a scan.
+	 * Same values as in ScanLocalizer and Navigation.
+	 */
+	private static final double SCAN_ROTATION = 360.0, SCAN_SPD = 200;
+	/**
+	 * The time in s to fire the first shot and each of the following shots,
+	 * from the rotations of the launcher at its speeds.
+	 */
+	private static final double FIRST_SHOT_TIME = 3.2, SHOT_TIME = 2.9;
+
+	/**
+	 * The number of cm per unit of the script.
+	 */
+	private final double scale;
+	/**
+	 * The distance between the wheels in cm.
+	 */
+	private final double width;
+	/**
+	 * The estimator of the durations of the moves.
+	 */
+	private final MotionTimer timer;
+	/**
+	 * The distance in cm from the robot to the target when firing.
+	 */
+	private final double launchDistance;
+	/**
+	 * The angle in degrees between the heading of the robot and
+	 * the direction of the target when firing.
+	 */
+	private final double launchAngle;
+	/**
+	 * The x and y position in cm and the heading in degrees that the robot
+	 * is planned to have at the end of the steps compiled so far.
+	 */
+	private final double[] pose = new double[3];
+	/**
+	 * The smoother of the paths followed, or null.
+	 */
+	private PathSmoother smoother;
+	/**
+	 * The planner of the routes between waypoints, or null.
+	 */
+	private RoutePlanner routes;
+
+	/**
+	 * Default constructor.
+	 * @param scale The number of cm per unit of the script,
+	 * 				usually the tile distance.
+	 * @param radius The radius of the wheels in cm.
+	 * @param width The distance between the wheels in cm.
+	 * @param launchDistance The distance in cm from the robot to the
+	 * 						 target when firing.
+	 * @param launchAngle The angle in degrees between the heading of the
+	 * 					  robot and the direction of the target when firing.
+	 */
+	public MissionCompiler(double scale, double radius, double width,
+			double launchDistance, double launchAngle) {
+		this.scale = scale;
+		this.width = width;
+		timer = new MotionTimer(radius, width);
+		this.launchDistance = launchDistance;
+		this.launchAngle = launchAngle;
+	}
+
+	/**
+	 * Sets the smoother that the paths followed are shortcut and
+	 * smoothed with from the planned pose, before they are timed.
+	 * @param smoother The smoother, or null to follow the points given.
+	 */
+	public void setSmoother(PathSmoother smoother) {
+		this.smoother = smoother;
+	}
+
+	/**
+	 * Sets the planner that the routes between waypoints are planned
+	 * with when the script is compiled. Its waypoints are set by the
+	 * scripts compiled.
+	 * @param routes The planner, or null if the scripts have no routes.
+	 */
+	public void setRoutePlanner(RoutePlanner routes) {
+		this.routes = routes;
+	}
+
+	/**
+	 * Compiles a script read from a stream.
+	 * @param in The stream to read from.
+	 * @return The compiled mission.
+	 * @throws IOException If the stream cannot be read.
+	 */
+	public Mission load(InputStream in) throws IOException {
+		return compile(Util.readLines(in));
+	}
+
+	/**
+	 * Compiles a script. The robot is planned to start at (0, 0)
+	 * facing 90 degrees.
+	 * @param lines The lines of the script.
+	 * @return The compiled mission.
+	 */
+	public Mission compile(String[] lines) {
+		pose[0] = 0;
+		pose[1] = 0;
+		pose[2] = 90;
+		ArrayList<MissionStep> steps = new ArrayList<MissionStep>();
+		for (int i = 0; i < lines.length; ++i) {
+			String[] tokens = Util.tokenize(lines[i]);
+			if (tokens.length == 0 || tokens[0].charAt(0) == '#')
+				continue;
+			MissionStep step = compileLine(tokens, lines[i].trim(), i + 1);
+			//The waypoints only name points for the routes.
+			if (step != null)
+				steps.add(step);
+		}
+		MissionStep[] result = new MissionStep[steps.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = steps.get(i);
+		}
+		return new Mission(result);
+	}
+
+	/**
+	 * Compiles a command and moves the planned pose to its end.
+	 * @param tokens The tokens of the line.
+	 * @param command The text of the command.
+	 * @param line The number of the line, used in error messages.
+	 * @return The compiled step, or null if the command has no step.
+	 */
+	private MissionStep compileLine(String[] tokens, String command, int line) {
+		String type = tokens[0];
+		//The waypoints and routes take names, which are not values.
+		if (type.equals("waypoint") || type.equals("route")) {
+			if (routes == null)
+				throw new RuntimeException("No route planner for line " + line + " of mission.");
+			if (type.equals("waypoint")) {
+				if (tokens.length != 4)
+					throw new RuntimeException("Invalid number of values at line " + line + " of mission.");
+				routes.addWaypoint(tokens[1], new Point(scale * parseValue(tokens[2], line),
+						scale * parseValue(tokens[3], line)));
+				return null;
+			}
+			if (tokens.length != 3)
+				throw new RuntimeException("Invalid number of values at line " + line + " of mission.");
+			if (!routes.hasWaypoint(tokens[1]) || !routes.hasWaypoint(tokens[2]))
+				throw new RuntimeException("Unknown waypoint at line " + line + " of mission.");
+			Point[] route = routes.route(tokens[1], tokens[2]);
+			if (route == null)
+				throw new RuntimeException("Unreachable waypoint at line " + line + " of mission.");
+			return followStep(route, command, line);
+		}
+		double[] values = parseValues(tokens, line);
+		if (type.equals("localize")) {
+			checkCount(values, 0, line);
+			double time = timer.spinTime(FIT_ROTATION, FIT_SPD) + moveTime(0, 0) + sweepTime();
+			pose[0] = 0;
+			pose[1] = 0;
+			pose[2] = 45;
+			return new MissionStep(line, command, time, true) {
+				@Override
+				public void execute(MissionRunner runner) {
+					boolean accurate = runner.getUSLocalizer().doFitLocalization();
+					//Travels to 0 for the light localization.
+					runner.getNavigation().travelTo(new Point(0, 0), false);
+					//Skips the light localization if the walls were fit accurately.
+					if (!accurate) {
+						runner.getNavigation().turnTo(45);
+						runner.getCSLocalizer().doSweepLocalization();
+					}
+					//Indicates that the localization is finished.
+					Sound.twoBeeps();
+				}
+			};
+		} else if (type.equals("travel") || type.equals("avoid")) {
+			final Point[] path = toPath(values, line);
+			final boolean obstacles = type.equals("avoid");
+			double time = 0;
+			for (Point point : path) {
+				time += moveTime(point.x, point.y);
+			}
+			return new MissionStep(line, command, time) {
+				@Override
+				public void execute(MissionRunner runner) {
+					runner.getNavigation().travel(path, obstacles);
+				}
+			};
+		} else if (type.equals("arcs")) {
+			final Point[] path = toPath(values, line);
+			double time = 0;
+			Arc[] arcs = new ArcPlanner(ARC_RADIUS).plan(pose[0], pose[1], pose[2], path);
+			for (Arc arc : arcs) {
+				time += timer.arcTime(arc);
+				arc.move(pose);
+			}
+			return new MissionStep(line, command, time) {
+				@Override
+				public void execute(MissionRunner runner) {
+					runner.getNavigation().travelArcs(path);
+				}
+			};
+		} else if (type.equals("follow")) {
+			return followStep(toPath(values, line), command, line);
+		} else if (type.equals("tunnel")) {
+			checkCount(values, 2, line);
+			final Point destination = toPoint(values, 0);
+			double dx = destination.x - pose[0];
+			double dy = destination.y - pose[1];
+			final boolean vertical = Math.abs(dy) >= Math.abs(dx);
+			final boolean positive = vertical ? dy > 0 : dx > 0;
+			double time = moveTime(destination.x, destination.y);
+			return new MissionStep(line, command, time) {
+				@Override
+				public void execute(MissionRunner runner) {
+					if (vertical)
+						runner.getNavigation().travelInTunnelVertical(destination, positive);
+					else
+						runner.getNavigation().travelInTunnelHorizontal(destination, positive);
+				}
+			};
+		} else if (type.equals("turn")) {
+			checkCount(values, 1, line);
+			final double angle = Util.toRange(values[0], 0.0, false);
+			double time = turnTime(angle);
+			pose[2] = angle;
+			return new MissionStep(line, command, time) {
+				@Override
+				public void execute(MissionRunner runner) {
+					runner.getNavigation().turnTo(angle);
+				}
+			};
+		} else if (type.equals("left") || type.equals("right")) {
+			checkCount(values, 0, line);
+			final boolean left = type.equals("left");
+			Arc arc = Arc.turn(width / 2, left ? 90 : -90);
+			double time = timer.arcTime(arc);
+			arc.move(pose);
+			return new MissionStep(line, command, time) {
+				@Override
+				public void execute(MissionRunner runner) {
+					if (left)
+						runner.getNavigation().turnLeft();
+					else
+						runner.getNavigation().turnRight();
+				}
+			};
+		} else if (type.equals("begin") || type.equals("end")) {
+			checkCount(values, 0, line);
+			final boolean begin = type.equals("begin");
+			//The localizations scheduled read the grid lines.
+			return new MissionStep(line, command, 0, begin) {
+				@Override
+				public void execute(MissionRunner runner) {
+					if (begin)
+						runner.getScheduler().begin();
+					else
+						runner.getScheduler().end();
+				}
+			};
+		} else if (type.equals("checkpoint")) {
+			checkCount(values, 3, line);
+			final Point grid = toPoint(values, 0);
+			final double confidence = values[2];
+			if (confidence < 0 || confidence > 1)
+				throw new RuntimeException("Invalid confidence at line " + line + " of mission.");
+			return new MissionStep(line, command, sweepTime(), true) {
+				@Override
+				public void execute(MissionRunner runner) {
+					runner.getScheduler().checkpoint(grid, confidence);
+				}
+			};
+		} else if (type.equals("sweep")) {
+			checkCount(values, 2, line);
+			final Point grid = toPoint(values, 0);
+			double time = sweepTime();
+			pose[2] = 45;
+			return new MissionStep(line, command, time, true) {
+				@Override
+				public void execute(MissionRunner runner) {
+					runner.getNavigation().turnTo(45);
+					runner.getCSLocalizer().doSweepLocalization(grid);
+				}
+			};
+		} else if (type.equals("light")) {
+			checkCount(values, 2, line);
+			final Point grid = toPoint(values, 0);
+			//Turns to the lines and then rotates a full turn over them.
+			double time = 2 * sweepTime();
+			return new MissionStep(line, command, time, true) {
+				@Override
+				public void execute(MissionRunner runner) {
+					runner.getCSLocalizer().doLocalization(grid);
+				}
+			};
+		} else if (type.equals("scan")) {
+			checkCount(values, 0, line);
+			double time = timer.spinTime(SCAN_ROTATION, SCAN_SPD);
+			return new MissionStep(line, command, time) {
+				@Override
+				public void execute(MissionRunner runner) {
+					runner.getScanLocalizer().doLocalization();
+				}
+			};
+		} else if (type.equals("fire")) {
+			checkCount(values, 3, line);
+			Point target = toPoint(values, 0);
+			final int shots = parseShots(values[2], line);
+			//Positions the robot on the line joining the target and the planned position.
+			double angle = Math.atan2(target.y - pose[1], target.x - pose[0]);
+			final Point launch = new Point(target.x - launchDistance * Math.cos(angle),
+					target.y - launchDistance * Math.sin(angle));
+			final double heading = Util.toRange(Math.toDegrees(angle) - launchAngle, 0.0, false);
+			double time = moveTime(launch.x, launch.y) + turnTime(heading);
+			pose[2] = heading;
+			time += shotTime(shots);
+			return new MissionStep(line, command, time) {
+				@Override
+				public void execute(MissionRunner runner) {
+					runner.getNavigation().travelTo(launch, false);
+					runner.getNavigation().turnTo(heading);
+					runner.getLauncher().fire(shots);
+				}
+			};
+		} else if (type.equals("shoot")) {
+			checkCount(values, 1, line);
+			final int shots = parseShots(values[0], line);
+			return new MissionStep(line, command, shotTime(shots)) {
+				@Override
+				public void execute(MissionRunner runner) {
+					runner.getLauncher().fire(shots);
+				}
+			};
+		} else if (type.equals("beep")) {
+			checkCount(values, 0, line);
+			return new MissionStep(line, command, 0) {
+				@Override
+				public void execute(MissionRunner runner) {
+					Sound.twoBeeps();
+				}
+			};
+		}
+		throw new RuntimeException("Invalid command at line " + line + " of mission.");
+	}
+
+	/**
+	 * Compiles a step following the points, smoothed first if the
+	 * compiler has a smoother, and moves the planned pose to its end.
+	 */
+	private MissionStep followStep(Point[] points, String command, int line) {
+		if (smoother != null)
+			points = smoother.process(new Point(pose[0], pose[1]), points);
+		//A path that ends where it starts leaves nothing to follow.
+		if (points.length == 0)
+			throw new RuntimeException("Invalid path at line " + line + " of mission.");
+		final Point[] path = points;
+		//The robot ends facing along the last segment.
+		double time = timer.followTime(pose[0], pose[1], pose[2], path, pose);
+		return new MissionStep(line, command, time) {
+			@Override
+			public void execute(MissionRunner runner) {
+				runner.getNavigation().followPath(path);
+			}
+		};
+	}
+
+	/**
+	 * Parses the values following the command.
+	 */
+	private double[] parseValues(String[] tokens, int line) {
+		double[] values = new double[tokens.length - 1];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = parseValue(tokens[i + 1], line);
+		}
+		return values;
+	}
+
+	/**
+	 * Parses a value of a command.
+	 */
+	private double parseValue(String token, int line) {
+		try {
+			return Double.parseDouble(token);
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Invalid value at line " + line + " of mission.");
+		}
+	}
+
+	/**
+	 * Returns the number of shots given by the value.
+	 */
+	private int parseShots(double value, int line) {
+		int shots = (int) value;
+		if (shots != value || shots < 1)
+			throw new RuntimeException("Invalid number of shots at line " + line + " of mission.");
+		return shots;
+	}
+
+	/**
+	 * Returns the time in s to fire the shots.
+	 */
+	private double shotTime(int shots) {
+		return FIRST_SHOT_TIME + (shots - 1) * SHOT_TIME;
+	}
+
+	/**
+	 * Checks that the command has the given number of values.
+	 */
+	private void checkCount(double[] values, int count, int line) {
+		if (values.length != count)
+			throw new RuntimeException("Invalid number of values at line " + line + " of mission.");
+	}
+
+	/**
+	 * Returns the point in cm given by values i and i + 1.
+	 */
+	private Point toPoint(double[] values, int i) {
+		return new Point(scale * values[i], scale * values[i + 1]);
+	}
+
+	/**
+	 * Returns the points in cm given by pairs of values.
+	 */
+	private Point[] toPath(double[] values, int line) {
+		if (values.length == 0 || values.length % 2 != 0)
+			throw new RuntimeException("Invalid number of values at line " + line + " of mission.");
+		Point[] path = new Point[values.length / 2];
+		for (int i = 0; i < path.length; ++i) {
+			path[i] = toPoint(values, 2 * i);
+		}
+		return path;
+	}
+
+	/**
+	 * Returns the heading in degrees from the planned position to (x, y).
+	 */
+	private double headingTo(double x, double y) {
+		if (Math.hypot(x - pose[0], y - pose[1]) < 1e-9)
+			return pose[2];
+		return Util.toRange(Math.toDegrees(Math.atan2(y - pose[1], x - pose[0])), 0.0, false);
+	}
+
+	/**
+	 * Returns the time in s to turn towards (x, y) and drive to it
+	 * like Navigation.travelTo, and moves the planned pose there.
+	 */
+	private double moveTime(double x, double y) {
+		double heading = headingTo(x, y);
+		double time = turnTime(heading) + timer.straightTime(Math.hypot(x - pose[0], y - pose[1]));
+		moveTo(x, y);
+		pose[2] = heading;
+		return time;
+	}
+
+	/**
+	 * Moves the planned position to (x, y), facing the direction of the move.
+	 */
+	private void moveTo(double x, double y) {
+		pose[2] = headingTo(x, y);
+		pose[0] = x;
+		pose[1] = y;
+	}
+
+	/**
+	 * Returns the time in s to turn in place from the planned heading
+	 * to the given one.
+	 */
+	private double turnTime(double heading) {
+		return timer.turnTime(pose[2], heading);
+	}
+
+	/**
+	 * Returns the longest time in s of a sweep of the lines, turning to
+	 * 45 degrees first.
+	 */
+	private double sweepTime() {
+		return turnTime(45) + timer.spinTime(SWEEP_ROTATION, SWEEP_SPD);
+	}
+}
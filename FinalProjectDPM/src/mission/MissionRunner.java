@@ -0,0 +1,356 @@
+package mission;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import launcher.Launcher;
+import lejos.nxt.Button;
+import lejos.nxt.LCD;
+import localization.BackgroundLocalizer;
+import localization.CSLocalizer;
+import localization.LocalizationScheduler;
+import localization.MCLocalizer;
+import localization.MotionLocalizer;
+import localization.ScanLocalizer;
+import localization.USLocalizer;
+import odometer.Odometer;
+import data.DataCenter;
+import data.SensorManager;
+import drivers.CSPoller;
+import drivers.HWConstants;
+import drivers.Navigation;
+import drivers.USPoller;
+import field.CompetitionField;
+import field.FieldMap;
+import field.USModel;
+import planning.DStarLite;
+import planning.OccupancyGrid;
+import planning.PathSmoother;
+import planning.RoutePlanner;
+
+/**
+ * Initializes the threads of execution of the robot and runs missions
+ * with them. Replaces the setup that each mission main used to repeat,
+ * so that a main only gives its script and the ultrasonic sensors it uses.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MissionRunner {
+	/**
+	 * The size in cm of the cells of the grid of the replanner.
+	 */
+	private static final double CELL_SIZE = HWConstants.TILE_DISTANCE / 4;
+	/**
+	 * The radius in cm of the footprint of the robot that the walls are
+	 * inflated by in the grid of the replanner. Same as Navigation.ROBOT_RADIUS.
+	 */
+	private static final double ROBOT_RADIUS = 10.0;
+	/**
+	 * The wheel speeds in deg/s of the center and of the outer wheel
+	 * in the corners of the paths followed. HIGH_SPD is the same as in
+	 * PathFollower.
+	 */
+	private static final int CORNER_SPD = 300, HIGH_SPD = 500;
+
+	/**
+	 * The data center of the robot.
+	 */
+	private final DataCenter dc;
+	/**
+	 * The odometer of the robot.
+	 */
+	private final Odometer odo;
+	/**
+	 * The navigation of the robot.
+	 */
+	private final Navigation nav;
+	/**
+	 * The pollers of the ultrasonic sensors used.
+	 */
+	private final USPoller[] usPollers;
+	/**
+	 * The poller of the color sensor, started only for missions that
+	 * read it.
+	 */
+	private final CSPoller cs;
+	/**
+	 * The ultrasonic localizer.
+	 */
+	private final USLocalizer usl;
+	/**
+	 * The light localizer.
+	 */
+	private final CSLocalizer ll;
+	/**
+	 * The localizer used while moving.
+	 */
+	private final BackgroundLocalizer ml;
+	/**
+	 * The localizer matching ultrasonic scans to the field map.
+	 */
+	private final ScanLocalizer sl;
+	/**
+	 * The scheduler of the light localizations.
+	 */
+	private final LocalizationScheduler schedule;
+	/**
+	 * The launcher of the robot.
+	 */
+	private final Launcher launcher;
+	/**
+	 * The time in s taken by each step of the last mission run.
+	 */
+	private double[] elapsed;
+
+	/**
+	 * Default constructor. Initializes the threads without starting them,
+	 * with a MotionLocalizer used while moving.
+	 * @param usAngles The angles of the ultrasonic sensors to poll.
+	 */
+	public MissionRunner(int[] usAngles) {
+		this(usAngles, false);
+	}
+
+	/**
+	 * Initializes the threads without starting them.
+	 * @param usAngles The angles of the ultrasonic sensors to poll.
+	 * @param particles true to localize while moving with the particle
+	 * 					filter of an MCLocalizer instead of a MotionLocalizer.
+	 */
+	public MissionRunner(int[] usAngles, boolean particles) {
+		dc = new DataCenter();
+		odo = new Odometer(dc);
+		nav = new Navigation(dc);
+		usPollers = new USPoller[usAngles.length];
+		for (int i = 0; i < usAngles.length; ++i) {
+			usPollers[i] = new USPoller(usAngles[i], dc);
+		}
+		cs = new CSPoller(dc);
+		usl = new USLocalizer(dc, nav);
+		ll = new CSLocalizer(dc, nav);
+		FieldMap field = CompetitionField.build(HWConstants.TILE_DISTANCE);
+		USModel model = new USModel(field);
+		if (particles)
+			ml = new MCLocalizer(dc, model, usAngles);
+		else
+			ml = new MotionLocalizer(dc, model, usAngles);
+		sl = new ScanLocalizer(dc, nav, model, usAngles);
+		//Goes around unexpected obstacles on routes repaired over the field.
+		nav.setReplanner(new DStarLite(new OccupancyGrid(field, CELL_SIZE, ROBOT_RADIUS)));
+		schedule = new LocalizationScheduler(ml, nav, ll);
+		launcher = new Launcher(HWConstants.LAUNCHER_MOTOR);
+		elapsed = new double[0];
+	}
+
+	/**
+	 * Returns a compiler for the scripts of this robot. The routes between
+	 * waypoints are planned over the field, and the paths followed are
+	 * shortcut through the field and rounded within the curvature the
+	 * PathFollower can drive at CORNER_SPD.
+	 * @return A compiler for the scripts of this robot.
+	 */
+	public static MissionCompiler getCompiler() {
+		MissionCompiler compiler = new MissionCompiler(HWConstants.TILE_DISTANCE,
+				HWConstants.RIGHT_RADIUS, HWConstants.C_WIDTH, HWConstants.LAUNCH_DISTANCE,
+				HWConstants.LAUNCH_ANGLE);
+		RoutePlanner routes = new RoutePlanner(CompetitionField.build(HWConstants.TILE_DISTANCE),
+				CELL_SIZE, ROBOT_RADIUS);
+		compiler.setRoutePlanner(routes);
+		//The smoother shares the grid of the planner.
+		double width = (HWConstants.CC_WIDTH + HWConstants.C_WIDTH) / 2;
+		compiler.setSmoother(new PathSmoother(routes.getPlanner().getGrid(),
+				PathSmoother.curvatureLimit(width, CORNER_SPD, HIGH_SPD)));
+		return compiler;
+	}
+
+	/**
+	 * Starts the pollers, which initialize their sensors concurrently
+	 * and keep them off until they are demanded. The color sensor is
+	 * only built if a step of the mission reads it.
+	 * @param mission The mission to run.
+	 */
+	public void startSensors(Mission mission) {
+		for (USPoller poller : usPollers) {
+			poller.start();
+		}
+		if (mission.usesLight())
+			cs.start();
+	}
+
+	/**
+	 * Starts the odometer, the localizer used while moving and the
+	 * recorder of the scans, once the robot is in place.
+	 */
+	public void start() {
+		odo.start();
+		ml.start();
+		sl.start();
+	}
+
+	/**
+	 * Executes the steps of the mission in order and records their
+	 * durations. Blocks until the mission is finished.
+	 * @param mission The mission to run.
+	 */
+	public void run(Mission mission) {
+		double[] times = new double[mission.getSize()];
+		for (int i = 0; i < mission.getSize(); ++i) {
+			MissionStep step = mission.getStep(i);
+			LCD.drawString("Line " + step.getLine() + "    ", 0, 7);
+			long start = System.currentTimeMillis();
+			step.execute(this);
+			times[i] = (System.currentTimeMillis() - start) / 1000.0;
+		}
+		synchronized (this) {
+			elapsed = times;
+		}
+	}
+
+	/**
+	 * Returns the time in s taken by each step of the last mission run.
+	 * @return The time in s taken by each step of the last mission run.
+	 */
+	public synchronized double[] getElapsed() {
+		return elapsed;
+	}
+
+	/**
+	 * Returns the navigation of the robot.
+	 * @return The navigation of the robot.
+	 */
+	public Navigation getNavigation() {
+		return nav;
+	}
+
+	/**
+	 * Returns the ultrasonic localizer.
+	 * @return The ultrasonic localizer.
+	 */
+	public USLocalizer getUSLocalizer() {
+		return usl;
+	}
+
+	/**
+	 * Returns the light localizer.
+	 * @return The light localizer.
+	 */
+	public CSLocalizer getCSLocalizer() {
+		return ll;
+	}
+
+	/**
+	 * Returns the localizer matching ultrasonic scans to the field map.
+	 * @return The localizer matching ultrasonic scans to the field map.
+	 */
+	public ScanLocalizer getScanLocalizer() {
+		return sl;
+	}
+
+	/**
+	 * Returns the scheduler of the light localizations.
+	 * @return The scheduler of the light localizations.
+	 */
+	public LocalizationScheduler getScheduler() {
+		return schedule;
+	}
+
+	/**
+	 * Returns the launcher of the robot.
+	 * @return The launcher of the robot.
+	 */
+	public Launcher getLauncher() {
+		return launcher;
+	}
+
+	/**
+	 * Runs a mission the way the mission mains do. Compiles the script in
+	 * the file if it is on the brick and the given script otherwise, builds
+	 * the threads and warms up the ultrasonic sensors used, then waits for a
+	 * button to start and runs the mission. Another button press exits.
+	 * Uploading a new script file changes the route without rebuilding
+	 * the program. The startup timeline is drawn on the LCD.
+	 * @param fileName The name of the script file on the brick.
+	 * @param script The lines of the script used without the file.
+	 * @param usAngles The angles of the ultrasonic sensors to poll.
+	 */
+	public static void launch(String fileName, String[] script, int[] usAngles) {
+		launch(fileName, script, usAngles, false);
+	}
+
+	/**
+	 * Runs a mission like launch(fileName, script, usAngles), choosing the
+	 * localizer used while moving.
+	 * @param fileName The name of the script file on the brick.
+	 * @param script The lines of the script used without the file.
+	 * @param usAngles The angles of the ultrasonic sensors to poll.
+	 * @param particles true to localize while moving with the particle
+	 * 					filter of an MCLocalizer instead of a MotionLocalizer.
+	 */
+	public static void launch(String fileName, String[] script, int[] usAngles,
+			boolean particles) {
+		final StartupSequencer startup = new StartupSequencer();
+		
+		//Compiles the mission and builds the threads while the
+		//robot is placed, so that it moves as soon as it is started.
+		final Mission mission = load(fileName, script);
+		LCD.drawString("Est. " + (int) Math.ceil(mission.getDuration()) + " s", 0, 6);
+		startup.mark("Compiled");
+		final MissionRunner runner = new MissionRunner(usAngles, particles);
+		startup.mark("Built");
+		runner.startSensors(mission);
+		int[] channels = new int[usAngles.length];
+		for (int i = 0; i < usAngles.length; ++i) {
+			channels[i] = SensorManager.usChannel(usAngles[i]);
+		}
+		startup.warmUp(runner.dc.getSensors(), channels);
+		
+		//Wait for a button to start.
+		int buttonChoice = Button.waitForAnyPress();
+		switch (buttonChoice) {
+		case Button.ID_ENTER: case Button.ID_LEFT: case Button.ID_RIGHT:
+			break;
+		case Button.ID_ESCAPE:
+			//The pollers would keep the program running.
+			System.exit(0);
+			return;
+		default:
+			throw new RuntimeException("Impossible button press.");
+		}
+		startup.pressed(runner.dc);
+		runner.start();
+
+		(new Thread() {
+			public void run() {
+				//The first step demands the sensors it reads before the
+				//ones warmed up stop.
+				startup.release();
+				runner.run(mission);
+				System.exit(0);
+			}
+		}).start();
+
+		//Wait for another button press to exit.
+		Button.waitForAnyPress();
+		System.exit(0);
+	}
+
+	/**
+	 * Compiles the script in the file if it exists, or the given script.
+	 */
+	private static Mission load(String fileName, String[] script) {
+		File file = new File(fileName);
+		if (!file.exists())
+			return getCompiler().compile(script);
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				return getCompiler().load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Cannot read " + fileName + ".");
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package mission;
+
+/**
+ * A step of a compiled mission. Each command of a mission script compiles
+ * to one step, which remembers the line it came from and the time it is
+ * expected to take, and executes through the components of a MissionRunner.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public abstract class MissionStep {
+	/**
+	 * The line of the script the step was compiled from.
+	 */
+	private final int line;
+	/**
+	 * The command the step was compiled from.
+	 */
+	private final String command;
+	/**
+	 * The estimated duration of the step in s.
+	 */
+	private final double duration;
+	/**
+	 * Variable keeping track of if the step reads the color sensor.
+	 */
+	private final boolean light;
+
+	/**
+	 * Default constructor. The step does not read the color sensor.
+	 * @param line The line of the script the step was compiled from.
+	 * @param command The command the step was compiled from.
+	 * @param duration The estimated duration of the step in s.
+	 */
+	protected MissionStep(int line, String command, double duration) {
+		this(line, command, duration, false);
+	}
+
+	/**
+	 * Constructor for steps that may read the color sensor.
+	 * @param line The line of the script the step was compiled from.
+	 * @param command The command the step was compiled from.
+	 * @param duration The estimated duration of the step in s.
+	 * @param light true if the step reads the color sensor.
+	 */
+	protected MissionStep(int line, String command, double duration, boolean light) {
+		this.line = line;
+		this.command = command;
+		this.duration = duration;
+		this.light = light;
+	}
+
+	/**
+	 * Returns the line of the script the step was compiled from.
+	 * @return The line of the script the step was compiled from.
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * Returns the command the step was compiled from.
+	 * @return The command the step was compiled from.
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	/**
+	 * Returns the estimated duration of the step in s.
+	 * @return The estimated duration of the step in s.
+	 */
+	public double getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Returns true if the step reads the color sensor.
+	 * @return true if the step reads the color sensor.
+	 */
+	public boolean usesLight() {
+		return light;
+	}
+
+	/**
+	 * Executes the step. Blocks until the step is finished.
+	 * @param runner The runner holding the components of the robot.
+	 */
+	public abstract void execute(MissionRunner runner);
+}
@@ -0,0 +1,154 @@
+package mission;
+import lejos.nxt.LCD;
+import data.DataCenter;
+import data.SensorManager;
+
+/**
+ * Records the startup of a mission and warms up its sensors. The work
+ * that does not need the robot in place, such as compiling the mission
+ * and building the threads, is done before the start button is pressed,
+ * and the sensors the mission polls warm up concurrently while the robot
+ * waits for it. Each stage is drawn on the LCD with its time in ms since
+ * the program started, ending with the time in ms from the button press
+ * to the first motion of the wheels.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class StartupSequencer {
+	/**
+	 * The longest time in ms to wait for the sensors to warm up.
+	 */
+	private static final long WARM_UP_TIMEOUT = 2000;
+	/**
+	 * The time in ms between checks of the odometer for the first motion.
+	 */
+	private static final long MOTION_DELAY = 5;
+	/**
+	 * The number of LCD rows available to the timeline.
+	 */
+	private static final int ROWS = 6;
+
+	/**
+	 * The time in ms at which the program started.
+	 */
+	private final long origin;
+	/**
+	 * The time in ms at which the start button was pressed, or -1 before.
+	 */
+	private long press;
+	/**
+	 * The number of stages recorded.
+	 */
+	private int stages;
+	/**
+	 * The manager of the sensors warmed up, or null if none are.
+	 */
+	private SensorManager sensors;
+
+	/**
+	 * Default constructor. Starts the timeline.
+	 */
+	public StartupSequencer() {
+		origin = System.currentTimeMillis();
+		press = -1;
+		stages = 0;
+		sensors = null;
+	}
+
+	/**
+	 * Records the end of a stage and draws it on the LCD.
+	 * @param name The name of the stage.
+	 */
+	public void mark(String name) {
+		mark(name, System.currentTimeMillis() - origin);
+	}
+
+	/**
+	 * Draws a stage on the next row of the LCD with its time in ms.
+	 */
+	private synchronized void mark(String name, long time) {
+		if (stages < ROWS)
+			LCD.drawString(name + " " + time, 0, stages);
+		++stages;
+	}
+
+	/**
+	 * Starts the sensors of the channels, which warm up concurrently on
+	 * their pollers, and records when all of them are ready. The sensors
+	 * are kept running until release() is called. The pollers must have
+	 * been started.
+	 * @param sensors The manager of the sensors.
+	 * @param channels The channels to warm up.
+	 */
+	public void warmUp(final SensorManager sensors, final int[] channels) {
+		synchronized (this) {
+			this.sensors = sensors;
+		}
+		for (int channel : channels) {
+			sensors.demand(this, channel, SensorManager.FASTEST);
+		}
+		(new Thread() {
+			public void run() {
+				boolean ready = true;
+				for (int channel : channels) {
+					ready &= sensors.awaitReady(channel, WARM_UP_TIMEOUT);
+				}
+				mark(ready ? "Sensors" : "No sensors");
+			}
+		}).start();
+	}
+
+	/**
+	 * Releases the sensors warmed up. Called just before the first
+	 * step of the mission, which demands the sensors it reads before
+	 * the released ones stop.
+	 */
+	public void release() {
+		SensorManager sensors;
+		synchronized (this) {
+			sensors = this.sensors;
+		}
+		if (sensors != null)
+			sensors.releaseAll(this);
+	}
+
+	/**
+	 * Records the press of the start button, and records the first
+	 * motion after it when the pose in the DataCenter first changes.
+	 * The odometer must be started after this call.
+	 * @param dc The location of the odometry.
+	 */
+	public void pressed(final DataCenter dc) {
+		synchronized (this) {
+			press = System.currentTimeMillis();
+		}
+		mark("Press");
+		final double[] start = dc.getXYT();
+		Thread watcher = new Thread() {
+			public void run() {
+				while (true) {
+					double[] xyt = dc.getXYT();
+					if (xyt[0] != start[0] || xyt[1] != start[1] || xyt[2] != start[2])
+						break;
+					try {
+						Thread.sleep(MOTION_DELAY);
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+				mark("To move", System.currentTimeMillis() - getPress());
+			}
+		};
+		//Does not keep a mission without motion from exiting.
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Returns the time in ms at which the start button was pressed.
+	 */
+	private synchronized long getPress() {
+		return press;
+	}
+}
@@ -0,0 +1,405 @@
+package planning;
+import util.Point;
+
+/**
+ * An incremental planner over an occupancy grid, after the D* Lite
+ * algorithm of Koenig and Likhachev. Searches from the goal towards the
+ * robot, so that when obstacles are added to the grid, only the costs of
+ * the cells they affect are repaired instead of planning again from
+ * scratch. Moves between the 8 neighbouring cells without cutting corners
+ * like GridPlanner. The costs, the open set and its keys are held in
+ * primitive arrays, the costs as floats to halve their memory.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class DStarLite {
+	/**
+	 * The cost of a diagonal move, in cells.
+	 */
+	private static final float DIAGONAL = (float) Math.sqrt(2);
+	/**
+	 * The cost of an impossible move.
+	 */
+	private static final float INFINITY = Float.POSITIVE_INFINITY;
+	/**
+	 * The column and row offsets of the 8 neighbours of a cell.
+	 */
+	private static final int[] DC = {1, 1, 0, -1, -1, -1, 0, 1};
+	private static final int[] DR = {0, 1, 1, 1, 0, -1, -1, -1};
+	/**
+	 * The tolerance in cells of the comparison of keys. Costs summed in
+	 * different orders along equal routes must compare as equal, within
+	 * the rounding of floats, while the costs of different routes across
+	 * the grid differ by more.
+	 */
+	private static final double EPSILON = 1e-3;
+	/**
+	 * The largest number of cells between the robot and the free cell
+	 * a route can start from.
+	 */
+	private static final int START_RANGE = 2;
+	/**
+	 * The largest number of cells blocked by a single obstacle.
+	 */
+	private static final int MAX_CHANGES = 1024;
+
+	/**
+	 * The grid planned over.
+	 */
+	private final OccupancyGrid grid;
+	/**
+	 * The number of columns of the grid.
+	 */
+	private final int columns;
+	/**
+	 * The cost in cells from each cell to the goal, and its one step
+	 * lookahead from the costs of the neighbours.
+	 */
+	private final float[] g, rhs;
+	/**
+	 * The binary heap of the inconsistent cells and their two keys.
+	 * A cell can be in it several times, the old entries are skipped.
+	 */
+	private int[] heap;
+	private double[] keys1, keys2;
+	private int heapSize;
+	/**
+	 * The goal in cm and its cell, or -1 without a goal.
+	 */
+	private Point goal;
+	private int goalCell;
+	/**
+	 * The cell of the robot at the last plan, and the sum of the
+	 * heuristic distances it moved since the search started.
+	 */
+	private int lastCell;
+	private double km;
+	/**
+	 * Storage for the cells blocked by an obstacle.
+	 */
+	private final int[] changed;
+	/**
+	 * Storage for the cells of a route, from the start to the goal.
+	 */
+	private final int[] cells;
+	/**
+	 * The number of cells expanded by the last plan.
+	 */
+	private int expanded;
+
+	/**
+	 * Default constructor.
+	 * @param grid The grid to plan over. Obstacles must be added to
+	 * 			   it through this planner.
+	 */
+	public DStarLite(OccupancyGrid grid) {
+		this.grid = grid;
+		columns = grid.getColumns();
+		int cells = columns * grid.getRows();
+		g = new float[cells];
+		rhs = new float[cells];
+		heap = new int[64];
+		keys1 = new double[64];
+		keys2 = new double[64];
+		changed = new int[MAX_CHANGES];
+		this.cells = new int[cells];
+		goalCell = -1;
+	}
+
+	/**
+	 * Sets the goal and clears the previous search.
+	 * @param goal The goal in cm.
+	 */
+	public synchronized void setGoal(Point goal) {
+		this.goal = goal;
+		for (int i = 0; i < g.length; ++i) {
+			g[i] = INFINITY;
+			rhs[i] = INFINITY;
+		}
+		heapSize = 0;
+		km = 0;
+		lastCell = -1;
+		goalCell = -1;
+		int c = grid.column(goal.x);
+		int r = grid.row(goal.y);
+		if (grid.isBlocked(c, r))
+			return;
+		goalCell = r * columns + c;
+		rhs[goalCell] = 0;
+	}
+
+	/**
+	 * Plans a route from the position of the robot to the goal, reusing
+	 * the costs of the previous plans.
+	 * @param start The position of the robot in cm. If it is in a blocked
+	 * 				cell, the route goes through the closest free cell.
+	 * @return The points to travel through after the start, ending with
+	 * 		   the goal, or null if the goal cannot be reached.
+	 */
+	public synchronized Point[] plan(Point start) {
+		expanded = 0;
+		if (goalCell < 0)
+			return null;
+		int startCell = grid.nearestFree(start.x, start.y, START_RANGE);
+		if (startCell < 0)
+			return null;
+		if (lastCell < 0) {
+			push(goalCell, heuristic(goalCell, startCell), 0);
+		} else {
+			//The keys already queued stay lower bounds when km grows by
+			//the distance moved.
+			km += heuristic(lastCell, startCell);
+		}
+		lastCell = startCell;
+		computePath(startCell);
+		if (g[startCell] == INFINITY)
+			return null;
+
+		//Descends the costs from the start to the goal.
+		int length = 0;
+		int cell = startCell;
+		cells[length++] = cell;
+		while (cell != goalCell) {
+			int best = -1;
+			double bestCost = INFINITY;
+			for (int k = 0; k < 8; ++k) {
+				int next = neighbour(cell, k);
+				double cost = next < 0 ? INFINITY : cost(cell, k) + g[next];
+				if (cost < bestCost) {
+					bestCost = cost;
+					best = next;
+				}
+			}
+			if (best < 0 || length == cells.length)
+				return null;
+			cell = best;
+			cells[length++] = cell;
+		}
+		return grid.shorten(start, goal, cells, length);
+	}
+
+	/**
+	 * Adds an obstacle seen by the robot to the grid and updates the costs
+	 * of the cells around it. The route is repaired by the next plan.
+	 * @param x0 The x coordinate in cm of the start of the obstacle.
+	 * @param y0 The y coordinate in cm of the start of the obstacle.
+	 * @param x1 The x coordinate in cm of the end of the obstacle.
+	 * @param y1 The y coordinate in cm of the end of the obstacle.
+	 * @param radius The radius in cm of the footprint of the robot.
+	 * @return The number of cells blocked.
+	 */
+	public synchronized int addObstacle(double x0, double y0, double x1, double y1, double radius) {
+		int count = Math.min(grid.block(x0, y0, x1, y1, radius, changed), changed.length);
+		if (goalCell < 0)
+			return count;
+		for (int i = 0; i < count; ++i) {
+			//The moves into, out of and around the corners of the cell changed.
+			updateCell(changed[i]);
+			for (int k = 0; k < 8; ++k) {
+				int next = neighbour(changed[i], k);
+				if (next >= 0)
+					updateCell(next);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of cells expanded by the last plan.
+	 * @return The number of cells expanded by the last plan.
+	 */
+	public int getExpanded() {
+		return expanded;
+	}
+
+	/**
+	 * Returns the grid planned over.
+	 * @return The grid planned over.
+	 */
+	public OccupancyGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Expands the inconsistent cells until the cost of the start is known.
+	 */
+	private void computePath(int startCell) {
+		while (heapSize > 0) {
+			double k1 = keys1[0];
+			double k2 = keys2[0];
+			int cell = heap[0];
+			double startKey1 = Math.min(g[startCell], rhs[startCell]) + km;
+			if (!less(k1, k2, startKey1, Math.min(g[startCell], rhs[startCell])) &&
+					rhs[startCell] == g[startCell])
+				break;
+			pop();
+			if (g[cell] == rhs[cell])
+				continue;
+			double min = Math.min(g[cell], rhs[cell]);
+			double new1 = min + heuristic(cell, startCell) + km;
+			if (less(k1, k2, new1, min)) {
+				push(cell, new1, min);
+				continue;
+			}
+			++expanded;
+			if (g[cell] > rhs[cell]) {
+				//Only the moves into the cell got cheaper, so the neighbours
+				//need not look at their other moves.
+				g[cell] = rhs[cell];
+				for (int k = 0; k < 8; ++k) {
+					int next = neighbour(cell, k);
+					if (next < 0 || next == goalCell)
+						continue;
+					float cost = cost(cell, k) + g[cell];
+					if (cost < rhs[next]) {
+						rhs[next] = cost;
+						queue(next);
+					}
+				}
+			} else {
+				//Only the neighbours whose best move was into the cell
+				//must look at their other moves.
+				float old = g[cell];
+				g[cell] = INFINITY;
+				updateCell(cell);
+				for (int k = 0; k < 8; ++k) {
+					int next = neighbour(cell, k);
+					if (next >= 0 && next != goalCell && rhs[next] == cost(cell, k) + old)
+						updateCell(next);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Recomputes the lookahead cost of the cell and queues it if it
+	 * became inconsistent.
+	 */
+	private void updateCell(int cell) {
+		if (cell != goalCell) {
+			float best = INFINITY;
+			if (!grid.isBlocked(cell % columns, cell / columns)) {
+				for (int k = 0; k < 8; ++k) {
+					int next = neighbour(cell, k);
+					if (next >= 0)
+						best = Math.min(best, cost(cell, k) + g[next]);
+				}
+			}
+			rhs[cell] = best;
+		}
+		queue(cell);
+	}
+
+	/**
+	 * Queues the cell if it is inconsistent.
+	 */
+	private void queue(int cell) {
+		if (g[cell] != rhs[cell] && lastCell >= 0) {
+			double min = Math.min(g[cell], rhs[cell]);
+			push(cell, min + heuristic(cell, lastCell) + km, min);
+		}
+	}
+
+	/**
+	 * Returns the neighbour k of the cell, or -1 outside of the grid.
+	 */
+	private int neighbour(int cell, int k) {
+		int c = cell % columns + DC[k];
+		int r = cell / columns + DR[k];
+		if (c < 0 || c >= columns || r < 0 || r >= grid.getRows())
+			return -1;
+		return r * columns + c;
+	}
+
+	/**
+	 * Returns the cost in cells of the move from the cell to its neighbour k,
+	 * which is also the cost of the move back.
+	 */
+	private float cost(int cell, int k) {
+		int c = cell % columns;
+		int r = cell / columns;
+		if (grid.isBlocked(c, r) || grid.isBlocked(c + DC[k], r + DR[k]))
+			return INFINITY;
+		if (DC[k] == 0 || DR[k] == 0)
+			return 1;
+		//Diagonal moves must not cut the corner of a blocked cell.
+		if (grid.isBlocked(c + DC[k], r) || grid.isBlocked(c, r + DR[k]))
+			return INFINITY;
+		return DIAGONAL;
+	}
+
+	/**
+	 * Returns the octile distance in cells between the cells.
+	 */
+	private double heuristic(int a, int b) {
+		int dc = Math.abs(a % columns - b % columns);
+		int dr = Math.abs(a / columns - b / columns);
+		return dc + dr + (DIAGONAL - 2) * Math.min(dc, dr);
+	}
+
+	/**
+	 * Returns true if the key (a1, a2) comes before the key (b1, b2).
+	 */
+	private static boolean less(double a1, double a2, double b1, double b2) {
+		return a1 < b1 - EPSILON || (a1 <= b1 + EPSILON && a2 < b2 - EPSILON);
+	}
+
+	/**
+	 * Adds the cell to the heap.
+	 */
+	private void push(int cell, double key1, double key2) {
+		if (heapSize == heap.length) {
+			int[] newHeap = new int[2 * heap.length];
+			double[] new1 = new double[2 * keys1.length];
+			double[] new2 = new double[2 * keys2.length];
+			System.arraycopy(heap, 0, newHeap, 0, heapSize);
+			System.arraycopy(keys1, 0, new1, 0, heapSize);
+			System.arraycopy(keys2, 0, new2, 0, heapSize);
+			heap = newHeap;
+			keys1 = new1;
+			keys2 = new2;
+		}
+		int i = heapSize++;
+		while (i > 0) {
+			int up = (i - 1) / 2;
+			if (!less(key1, key2, keys1[up], keys2[up]))
+				break;
+			heap[i] = heap[up];
+			keys1[i] = keys1[up];
+			keys2[i] = keys2[up];
+			i = up;
+		}
+		heap[i] = cell;
+		keys1[i] = key1;
+		keys2[i] = key2;
+	}
+
+	/**
+	 * Removes the cell with the lowest key from the heap.
+	 */
+	private void pop() {
+		--heapSize;
+		int cell = heap[heapSize];
+		double key1 = keys1[heapSize];
+		double key2 = keys2[heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && less(keys1[child + 1], keys2[child + 1],
+					keys1[child], keys2[child]))
+				++child;
+			if (!less(keys1[child], keys2[child], key1, key2))
+				break;
+			heap[i] = heap[child];
+			keys1[i] = keys1[child];
+			keys2[i] = keys2[child];
+			i = child;
+		}
+		heap[i] = cell;
+		keys1[i] = key1;
+		keys2[i] = key2;
+	}
+}
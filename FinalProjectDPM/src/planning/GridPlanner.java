@@ -0,0 +1,240 @@
+package planning;
+import util.Point;
+
+/**
+ * An A* planner over an occupancy grid. Moves between the 8 neighbouring
+ * cells without cutting the corners of blocked cells, with the octile
+ * distance as the heuristic. The open set is a binary heap and the closed
+ * set a search stamp per cell, all in primitive arrays reused by every
+ * search, so that planning does not allocate per cell. The route found is
+ * shortened to the cells where it must turn, by keeping only the points
+ * that the straight lines between them cannot skip.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class GridPlanner {
+	/**
+	 * The cost of a diagonal move, in cells.
+	 */
+	private static final double DIAGONAL = Math.sqrt(2);
+	/**
+	 * The column and row offsets of the 8 neighbours of a cell.
+	 */
+	private static final int[] DC = {1, 1, 0, -1, -1, -1, 0, 1};
+	private static final int[] DR = {0, 1, 1, 1, 0, -1, -1, -1};
+
+	/**
+	 * The largest number of cells between the start and the free cell
+	 * a route can start from.
+	 */
+	private static final int START_RANGE = 2;
+
+	/**
+	 * The grid planned over.
+	 */
+	private final OccupancyGrid grid;
+	/**
+	 * The cost in cells from the start to each cell.
+	 */
+	private final double[] cost;
+	/**
+	 * The cell each cell is reached from.
+	 */
+	private final int[] parent;
+	/**
+	 * The search in which the cost of each cell was set, and in which
+	 * the cell was closed.
+	 */
+	private final int[] reached, closed;
+	/**
+	 * The number of the current search.
+	 */
+	private int search;
+	/**
+	 * The binary heap of the open cells and their estimated total costs.
+	 * A cell can be in it several times, the old entries are skipped.
+	 */
+	private int[] heap;
+	private double[] keys;
+	private int heapSize;
+	/**
+	 * The number of cells expanded by the last search.
+	 */
+	private int expanded;
+
+	/**
+	 * Default constructor.
+	 * @param grid The grid to plan over.
+	 */
+	public GridPlanner(OccupancyGrid grid) {
+		this.grid = grid;
+		int cells = grid.getColumns() * grid.getRows();
+		cost = new double[cells];
+		parent = new int[cells];
+		reached = new int[cells];
+		closed = new int[cells];
+		search = 0;
+		heap = new int[64];
+		keys = new double[64];
+	}
+
+	/**
+	 * Plans a route between the points.
+	 * @param start The start of the route in cm. If it is in a blocked
+	 * 				cell, the route goes through the closest free cell.
+	 * @param goal The end of the route in cm.
+	 * @return The points to travel through after the start, ending with
+	 * 		   the goal, or null if the goal cannot be reached.
+	 */
+	public Point[] plan(Point start, Point goal) {
+		int columns = grid.getColumns();
+		int goalC = grid.column(goal.x);
+		int goalR = grid.row(goal.y);
+		expanded = 0;
+		int startCell = grid.nearestFree(start.x, start.y, START_RANGE);
+		if (grid.isBlocked(goalC, goalR) || startCell < 0)
+			return null;
+		int startC = startCell % columns;
+		int startR = startCell / columns;
+
+		++search;
+		heapSize = 0;
+		int goalCell = goalR * columns + goalC;
+		cost[startCell] = 0;
+		parent[startCell] = -1;
+		reached[startCell] = search;
+		push(startCell, heuristic(startC, startR, goalC, goalR));
+
+		boolean found = false;
+		while (heapSize > 0) {
+			int cell = pop();
+			if (closed[cell] == search)
+				continue;
+			closed[cell] = search;
+			++expanded;
+			if (cell == goalCell) {
+				found = true;
+				break;
+			}
+			int c = cell % columns;
+			int r = cell / columns;
+			for (int k = 0; k < 8; ++k) {
+				int nc = c + DC[k];
+				int nr = r + DR[k];
+				if (grid.isBlocked(nc, nr))
+					continue;
+				//Diagonal moves must not cut the corner of a blocked cell.
+				if (DC[k] != 0 && DR[k] != 0 &&
+						(grid.isBlocked(c + DC[k], r) || grid.isBlocked(c, r + DR[k])))
+					continue;
+				int next = nr * columns + nc;
+				if (closed[next] == search)
+					continue;
+				double g = cost[cell] + (DC[k] != 0 && DR[k] != 0 ? DIAGONAL : 1);
+				if (reached[next] != search || g < cost[next]) {
+					reached[next] = search;
+					cost[next] = g;
+					parent[next] = cell;
+					push(next, g + heuristic(nc, nr, goalC, goalR));
+				}
+			}
+		}
+		if (!found)
+			return null;
+		return shorten(start, goal, goalCell);
+	}
+
+	/**
+	 * Returns the number of cells expanded by the last search.
+	 * @return The number of cells expanded by the last search.
+	 */
+	public int getExpanded() {
+		return expanded;
+	}
+
+	/**
+	 * Returns the grid planned over.
+	 * @return The grid planned over.
+	 */
+	public OccupancyGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Collects the cells of the route found, from the start to the goal,
+	 * and shortens them.
+	 */
+	private Point[] shorten(Point start, Point goal, int goalCell) {
+		int length = 0;
+		for (int cell = goalCell; cell != -1; cell = parent[cell]) {
+			++length;
+		}
+		int[] cells = new int[length];
+		int index = length;
+		for (int cell = goalCell; cell != -1; cell = parent[cell]) {
+			cells[--index] = cell;
+		}
+		return grid.shorten(start, goal, cells, length);
+	}
+
+	/**
+	 * Returns the octile distance in cells between the cells.
+	 */
+	private double heuristic(int c, int r, int goalC, int goalR) {
+		int dc = Math.abs(goalC - c);
+		int dr = Math.abs(goalR - r);
+		return dc + dr + (DIAGONAL - 2) * Math.min(dc, dr);
+	}
+
+	/**
+	 * Adds the cell to the heap.
+	 */
+	private void push(int cell, double key) {
+		if (heapSize == heap.length) {
+			int[] newHeap = new int[2 * heap.length];
+			double[] newKeys = new double[2 * keys.length];
+			System.arraycopy(heap, 0, newHeap, 0, heapSize);
+			System.arraycopy(keys, 0, newKeys, 0, heapSize);
+			heap = newHeap;
+			keys = newKeys;
+		}
+		int i = heapSize++;
+		while (i > 0) {
+			int up = (i - 1) / 2;
+			if (keys[up] <= key)
+				break;
+			heap[i] = heap[up];
+			keys[i] = keys[up];
+			i = up;
+		}
+		heap[i] = cell;
+		keys[i] = key;
+	}
+
+	/**
+	 * Removes and returns the cell with the lowest key from the heap.
+	 */
+	private int pop() {
+		int top = heap[0];
+		--heapSize;
+		int cell = heap[heapSize];
+		double key = keys[heapSize];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && keys[child + 1] < keys[child])
+				++child;
+			if (keys[child] >= key)
+				break;
+			heap[i] = heap[child];
+			keys[i] = keys[child];
+			i = child;
+		}
+		heap[i] = cell;
+		keys[i] = key;
+		return top;
+	}
+}
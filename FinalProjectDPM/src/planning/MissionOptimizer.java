@@ -0,0 +1,693 @@
+package planning;
+import java.util.ArrayList;
+import java.util.Random;
+
+import drivers.MotionTimer;
+import util.Point;
+import util.Util;
+
+/**
+ * Plans a run that fires at several targets. The robot can fire at a
+ * target from any point of the ring at the launch distance around it, so
+ * each target gets a set of candidate launch poses on that ring, kept if
+ * the robot fits there. The optimizer then chooses the order of the
+ * targets and a launch pose for each to minimize the time of the run,
+ * which is a generalized travelling salesman problem.
+ *
+ * The time between two poses is that of the grid route between them,
+ * driven like Navigation.travel, or smoothed and followed like the follow
+ * command of the mission scripts, plus the turn to the launch heading. All
+ * these times are computed once. For a given order of the targets, the
+ * best launch poses follow exactly by dynamic programming over the
+ * candidates, so the search only has to explore orders. It does so with
+ * local search, reversing and moving targets in the order until no move
+ * improves the time, from several starts: the greedy order and random
+ * orders. The routes and the starts are shared by several threads, each
+ * with its own planner. Every start has its own seed, so the plan found
+ * does not depend on the number of threads.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MissionOptimizer {
+	/**
+	 * The default number of candidate launch poses around each target.
+	 */
+	public static final int DEFAULT_CANDIDATES = 16;
+
+	/**
+	 * The grid the routes are planned over.
+	 */
+	private final OccupancyGrid grid;
+	/**
+	 * The estimator of the durations of the moves.
+	 */
+	private final MotionTimer timer;
+	/**
+	 * The distance in cm from the robot to the target when firing.
+	 */
+	private final double launchDistance;
+	/**
+	 * The angle in degrees between the heading of the robot and
+	 * the direction of the target when firing.
+	 */
+	private final double launchAngle;
+	/**
+	 * The smoother of the routes followed, or null to travel them.
+	 */
+	private PathSmoother smoother;
+	/**
+	 * The number of candidate launch poses around each target.
+	 */
+	private int candidates;
+	/**
+	 * The number of threads and of starts of the local search.
+	 */
+	private int threads, starts;
+
+	/**
+	 * The number of targets of the current problem.
+	 */
+	private int targets;
+	/**
+	 * The index of the first candidate node of each target, and the index
+	 * of the end node after the last target.
+	 */
+	private int[] first;
+	/**
+	 * The position in cm and the heading in degrees of each node. Node 0
+	 * is the start and the end node has no heading.
+	 */
+	private double[] nodeX, nodeY, nodeHeading;
+	/**
+	 * Variable keeping track of if the run ends at a given point.
+	 */
+	private boolean hasEnd;
+	/**
+	 * The time in s to go from each node to each node.
+	 */
+	private double[][] cost;
+	/**
+	 * The best order found by the search, its time and the start it
+	 * was found from.
+	 */
+	private int[] bestOrder;
+	private double bestTime;
+	private int bestStart;
+
+	/**
+	 * Default constructor.
+	 * @param grid The grid to plan the routes over.
+	 * @param radius The radius of the wheels in cm.
+	 * @param width The distance between the wheels in cm.
+	 * @param launchDistance The distance in cm from the robot to the
+	 * 						 target when firing.
+	 * @param launchAngle The angle in degrees between the heading of the
+	 * 					  robot and the direction of the target when firing.
+	 */
+	public MissionOptimizer(OccupancyGrid grid, double radius, double width,
+			double launchDistance, double launchAngle) {
+		this.grid = grid;
+		this.timer = new MotionTimer(radius, width);
+		this.launchDistance = launchDistance;
+		this.launchAngle = launchAngle;
+		candidates = DEFAULT_CANDIDATES;
+		threads = 1;
+		starts = 8;
+	}
+
+	/**
+	 * Sets the number of candidate launch poses around each target.
+	 * @param candidates The number of candidates.
+	 */
+	public void setCandidates(int candidates) {
+		if (candidates < 1)
+			throw new RuntimeException("Invalid number of candidates.");
+		this.candidates = candidates;
+	}
+
+	/**
+	 * Sets the smoother the routes are followed through, like the compiler
+	 * of the mission scripts does for the follow commands of the plan.
+	 * The routes are then timed as they are followed, and written as
+	 * follow commands.
+	 * @param smoother The smoother of the compiler, or null to time and
+	 * 				   write the routes as travel commands.
+	 */
+	public void setSmoother(PathSmoother smoother) {
+		this.smoother = smoother;
+	}
+
+	/**
+	 * Sets how the search is run.
+	 * @param threads The number of threads to run.
+	 * @param starts The number of starts of the local search.
+	 */
+	public void setSearch(int threads, int starts) {
+		if (threads < 1 || starts < 1)
+			throw new RuntimeException("Invalid search parameters.");
+		this.threads = threads;
+		this.starts = starts;
+	}
+
+	/**
+	 * Plans the run.
+	 * @param x The x position in cm at the start.
+	 * @param y The y position in cm at the start.
+	 * @param theta The heading in degrees at the start.
+	 * @param end The point in cm to go to after the last target, or null.
+	 * @param targets The targets in cm.
+	 * @param shots The number of shots to fire at each target.
+	 * @return The plan of the run.
+	 */
+	public Plan optimize(double x, double y, double theta, Point end,
+			Point[] targets, int[] shots) {
+		if (targets.length == 0 || shots.length != targets.length)
+			throw new RuntimeException("Invalid targets.");
+		buildNodes(x, y, theta, end, targets);
+		buildCosts();
+		search();
+		if (Double.isInfinite(bestTime))
+			throw new RuntimeException("No plan reaches all the targets.");
+		return buildPlan(targets, shots);
+	}
+
+	/**
+	 * Returns the number of candidate launch poses kept around each
+	 * target in the last plan.
+	 * @param target The index of the target.
+	 * @return The number of candidates kept.
+	 */
+	public int getCandidates(int target) {
+		return first[target + 1] - first[target];
+	}
+
+	/**
+	 * Returns the start of the local search the last plan was found from.
+	 * @return The start, 0 for the greedy order.
+	 */
+	public int getBestStart() {
+		return bestStart;
+	}
+
+	/**
+	 * Places the start node, the candidate launch poses of each target
+	 * and the end node.
+	 */
+	private void buildNodes(double x, double y, double theta, Point end, Point[] points) {
+		targets = points.length;
+		hasEnd = (end != null);
+		int size = 1 + targets * candidates + 1;
+		nodeX = new double[size];
+		nodeY = new double[size];
+		nodeHeading = new double[size];
+		first = new int[targets + 1];
+		nodeX[0] = x;
+		nodeY[0] = y;
+		nodeHeading[0] = theta;
+		int count = 1;
+		for (int t = 0; t < targets; ++t) {
+			first[t] = count;
+			for (int k = 0; k < candidates; ++k) {
+				//The direction from the launch pose to the target.
+				double angle = 360.0 * k / candidates;
+				double rad = Math.toRadians(angle);
+				double cx = points[t].x - launchDistance * Math.cos(rad);
+				double cy = points[t].y - launchDistance * Math.sin(rad);
+				if (grid.isBlocked(grid.column(cx), grid.row(cy)))
+					continue;
+				nodeX[count] = cx;
+				nodeY[count] = cy;
+				nodeHeading[count] = Util.toRange(angle - launchAngle, 0.0, false);
+				++count;
+			}
+			if (count == first[t])
+				throw new RuntimeException("No launch position for target " + t + ".");
+		}
+		first[targets] = count;
+		if (hasEnd) {
+			nodeX[count] = end.x;
+			nodeY[count] = end.y;
+			nodeHeading[count] = Double.NaN;
+		}
+	}
+
+	/**
+	 * Computes the time between each pair of nodes a plan can join,
+	 * in parallel.
+	 */
+	private void buildCosts() {
+		cost = new double[first[targets]][];
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; ++i) {
+			final int offset = i;
+			workers[i] = new Thread() {
+				public void run() {
+					GridPlanner planner = new GridPlanner(grid);
+					for (int a = offset; a < first[targets]; a += threads) {
+						cost[a] = costsFrom(a, planner);
+					}
+				}
+			};
+			workers[i].start();
+		}
+		join(workers);
+	}
+
+	/**
+	 * Returns the time from the node to every node, infinite for the
+	 * nodes a plan cannot go to next.
+	 */
+	private double[] costsFrom(int a, GridPlanner planner) {
+		int size = first[targets] + 1;
+		double[] row = new double[size];
+		int target = targetOf(a);
+		for (int b = 1; b < size; ++b) {
+			if (b == size - 1 && !hasEnd || b < first[targets] && targetOf(b) == target) {
+				row[b] = Double.POSITIVE_INFINITY;
+			} else {
+				row[b] = time(a, b, planner, null);
+			}
+		}
+		return row;
+	}
+
+	/**
+	 * Returns the target of a candidate node, or -1 for the start and the end.
+	 */
+	private int targetOf(int node) {
+		for (int t = 0; t < targets; ++t) {
+			if (node >= first[t] && node < first[t + 1])
+				return t;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the time in s to drive from node a to node b and turn to its
+	 * heading, or infinity if no route joins them.
+	 * @param route Storage for the route, or null.
+	 */
+	private double time(int a, int b, GridPlanner planner, Point[][] route) {
+		Point start = new Point(nodeX[a], nodeY[a]);
+		Point[] path = planner.plan(start, new Point(nodeX[b], nodeY[b]));
+		if (path == null)
+			return Double.POSITIVE_INFINITY;
+		if (route != null)
+			route[0] = path;
+		double[] pose = new double[3];
+		double time;
+		if (smoother == null) {
+			time = timer.travelTime(nodeX[a], nodeY[a], nodeHeading[a], path, pose);
+		} else {
+			//Times the path the compiler smooths the route into.
+			Point[] smoothed = smoother.process(start, path);
+			time = timer.followTime(nodeX[a], nodeY[a], nodeHeading[a], smoothed, pose);
+			//A route smoothed to nothing is not followed.
+			if (route != null && smoothed.length == 0)
+				route[0] = smoothed;
+		}
+		if (!Double.isNaN(nodeHeading[b]))
+			time += timer.turnTime(pose[2], nodeHeading[b]);
+		return time;
+	}
+
+	/**
+	 * Runs the local search from every start, in parallel.
+	 */
+	private void search() {
+		bestOrder = null;
+		bestTime = Double.POSITIVE_INFINITY;
+		bestStart = -1;
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; ++i) {
+			final int offset = i;
+			workers[i] = new Thread() {
+				public void run() {
+					double[] values = new double[candidates];
+					double[] next = new double[candidates];
+					for (int start = offset; start < starts; start += threads) {
+						int[] order = startOrder(start);
+						double time = improve(order, values, next);
+						record(order, time, start);
+					}
+				}
+			};
+			workers[i].start();
+		}
+		join(workers);
+	}
+
+	/**
+	 * Keeps the order if it is the best found so far. Ties go to the
+	 * lowest start, so that the result does not depend on the threads.
+	 */
+	private synchronized void record(int[] order, double time, int start) {
+		if (time < bestTime || time == bestTime && start < bestStart) {
+			bestOrder = order;
+			bestTime = time;
+			bestStart = start;
+		}
+	}
+
+	/**
+	 * Returns the order a start of the local search begins from. Start 0
+	 * goes to the closest target each time, the others are random.
+	 */
+	private int[] startOrder(int start) {
+		int[] order = new int[targets];
+		if (start == 0) {
+			boolean[] used = new boolean[targets];
+			int node = 0;
+			for (int i = 0; i < targets; ++i) {
+				int best = -1;
+				int bestNode = -1;
+				double bestCost = Double.POSITIVE_INFINITY;
+				for (int t = 0; t < targets; ++t) {
+					for (int k = first[t]; k < first[t + 1]; ++k) {
+						if (!used[t] && (best < 0 || cost[node][k] < bestCost)) {
+							best = t;
+							bestNode = k;
+							bestCost = cost[node][k];
+						}
+					}
+				}
+				used[best] = true;
+				order[i] = best;
+				node = bestNode;
+			}
+		} else {
+			Random random = new Random(start);
+			for (int i = 0; i < targets; ++i) {
+				order[i] = i;
+			}
+			for (int i = targets - 1; i > 0; --i) {
+				int j = random.nextInt(i + 1);
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Improves the order in place by reversing a part of it or moving a
+	 * target elsewhere, until no move makes the run faster.
+	 * @return The time of the final order.
+	 */
+	private double improve(int[] order, double[] values, double[] next) {
+		double time = evaluate(order, values, next, null);
+		int[] trial = new int[targets];
+		boolean improved = true;
+		while (improved) {
+			improved = false;
+			for (int i = 0; i < targets && !improved; ++i) {
+				for (int j = i + 1; j < targets && !improved; ++j) {
+					//Reverses the targets from i to j.
+					for (int k = 0; k < targets; ++k) {
+						trial[k] = (k >= i && k <= j) ? order[i + j - k] : order[k];
+					}
+					double t = evaluate(trial, values, next, null);
+					if (t < time) {
+						System.arraycopy(trial, 0, order, 0, targets);
+						time = t;
+						improved = true;
+					}
+				}
+			}
+			for (int i = 0; i < targets && !improved; ++i) {
+				for (int j = 0; j < targets && !improved; ++j) {
+					if (j == i || j == i - 1)
+						continue;
+					//Moves target i to position j.
+					move(order, trial, i, j);
+					double t = evaluate(trial, values, next, null);
+					if (t < time) {
+						System.arraycopy(trial, 0, order, 0, targets);
+						time = t;
+						improved = true;
+					}
+				}
+			}
+		}
+		return time;
+	}
+
+	/**
+	 * Copies the order with the target at i moved to position j.
+	 */
+	private void move(int[] order, int[] trial, int i, int j) {
+		int count = 0;
+		for (int k = 0; k < targets; ++k) {
+			if (k != i)
+				trial[count++] = order[k];
+		}
+		System.arraycopy(trial, j, trial, j + 1, targets - 1 - j);
+		trial[j] = order[i];
+	}
+
+	/**
+	 * Returns the time of the fastest run that visits the targets in the
+	 * given order, choosing the launch poses by dynamic programming.
+	 * @param values Storage for the best time to reach each candidate of
+	 * 				 the current target.
+	 * @param next Storage for the best time to reach each candidate of
+	 * 			   the next target.
+	 * @param choice Storage for the candidate chosen at each target and
+	 * 				 the one it is reached from, or null.
+	 */
+	private double evaluate(int[] order, double[] values, double[] next, int[][] choice) {
+		int t = order[0];
+		for (int k = first[t]; k < first[t + 1]; ++k) {
+			values[k - first[t]] = cost[0][k];
+		}
+		for (int i = 1; i < targets; ++i) {
+			int from = order[i - 1];
+			int to = order[i];
+			for (int m = first[to]; m < first[to + 1]; ++m) {
+				double best = Double.POSITIVE_INFINITY;
+				int parent = -1;
+				for (int k = first[from]; k < first[from + 1]; ++k) {
+					double value = values[k - first[from]] + cost[k][m];
+					if (value < best) {
+						best = value;
+						parent = k;
+					}
+				}
+				next[m - first[to]] = best;
+				if (choice != null)
+					choice[i][m - first[to]] = parent;
+			}
+			System.arraycopy(next, 0, values, 0, first[to + 1] - first[to]);
+		}
+		int last = order[targets - 1];
+		double best = Double.POSITIVE_INFINITY;
+		for (int k = first[last]; k < first[last + 1]; ++k) {
+			double value = values[k - first[last]];
+			if (hasEnd)
+				value += cost[k][first[targets]];
+			if (value < best) {
+				best = value;
+				if (choice != null)
+					choice[targets][0] = k;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Builds the plan of the best order, with its launch poses and routes.
+	 */
+	private Plan buildPlan(Point[] points, int[] shots) {
+		int[][] choice = new int[targets + 1][candidates];
+		evaluate(bestOrder, new double[candidates], new double[candidates], choice);
+		int[] nodes = new int[targets];
+		nodes[targets - 1] = choice[targets][0];
+		for (int i = targets - 1; i > 0; --i) {
+			nodes[i - 1] = choice[i][nodes[i] - first[bestOrder[i]]];
+		}
+
+		GridPlanner planner = new GridPlanner(grid);
+		Point[][] routes = new Point[hasEnd ? targets + 1 : targets][];
+		Point[][] route = new Point[1][];
+		Point[] launches = new Point[targets];
+		double[] headings = new double[targets];
+		Point[] ordered = new Point[targets];
+		int[] orderedShots = new int[targets];
+		int node = 0;
+		for (int i = 0; i < targets; ++i) {
+			time(node, nodes[i], planner, route);
+			routes[i] = route[0];
+			node = nodes[i];
+			launches[i] = new Point(nodeX[node], nodeY[node]);
+			headings[i] = nodeHeading[node];
+			ordered[i] = points[bestOrder[i]];
+			orderedShots[i] = shots[bestOrder[i]];
+		}
+		if (hasEnd) {
+			time(node, first[targets], planner, route);
+			routes[targets] = route[0];
+		}
+		return new Plan(bestOrder, ordered, orderedShots, launches, headings, routes, bestTime,
+				smoother != null);
+	}
+
+	/**
+	 * Waits for the threads to finish.
+	 */
+	private static void join(Thread[] workers) {
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * A run planned by the optimizer. Lists the targets in the order they
+	 * are fired at, with the launch pose and the route to it of each.
+	 */
+	public static class Plan {
+		/**
+		 * The indices of the targets in the order they are fired at.
+		 */
+		private final int[] order;
+		/**
+		 * The targets in cm in the order they are fired at.
+		 */
+		private final Point[] targets;
+		/**
+		 * The number of shots fired at each target.
+		 */
+		private final int[] shots;
+		/**
+		 * The launch position in cm for each target.
+		 */
+		private final Point[] launches;
+		/**
+		 * The launch heading in degrees for each target.
+		 */
+		private final double[] headings;
+		/**
+		 * The route to each launch position, and to the end of the run
+		 * if it has one, as the points after the start of the route.
+		 */
+		private final Point[][] routes;
+		/**
+		 * The estimated time in s to drive the run, without firing.
+		 */
+		private final double duration;
+		/**
+		 * Variable keeping track of if the routes were timed as followed.
+		 */
+		private final boolean follow;
+
+		/**
+		 * Default constructor.
+		 */
+		Plan(int[] order, Point[] targets, int[] shots, Point[] launches,
+				double[] headings, Point[][] routes, double duration, boolean follow) {
+			this.follow = follow;
+			this.order = order;
+			this.targets = targets;
+			this.shots = shots;
+			this.launches = launches;
+			this.headings = headings;
+			this.routes = routes;
+			this.duration = duration;
+		}
+
+		/**
+		 * Returns the indices of the targets in the order they are fired at.
+		 * @return The indices of the targets in the order they are fired at.
+		 */
+		public int[] getOrder() {
+			return order;
+		}
+
+		/**
+		 * Returns the launch position of the i-th target fired at.
+		 * @param i The index in the order of the run.
+		 * @return The launch position in cm.
+		 */
+		public Point getLaunch(int i) {
+			return launches[i];
+		}
+
+		/**
+		 * Returns the launch heading of the i-th target fired at.
+		 * @param i The index in the order of the run.
+		 * @return The launch heading in degrees.
+		 */
+		public double getHeading(int i) {
+			return headings[i];
+		}
+
+		/**
+		 * Returns the route to the launch position of the i-th target fired
+		 * at, or to the end of the run if i is the number of targets.
+		 * @param i The index in the order of the run.
+		 * @return The points of the route after its start, in cm.
+		 */
+		public Point[] getRoute(int i) {
+			return routes[i];
+		}
+
+		/**
+		 * Returns the estimated time in s to drive the run. The time to fire
+		 * is left out, as it is the same for every plan.
+		 * @return The estimated time in s.
+		 */
+		public double getDuration() {
+			return duration;
+		}
+
+		/**
+		 * Writes the run as the commands of a mission script. The routes
+		 * are written as the commands they were timed as, follow if the
+		 * optimizer had a smoother and travel otherwise. A followed route
+		 * the smoother reduces to nothing is left out.
+		 * See mission.MissionCompiler for the commands.
+		 * @param scale The number of cm per unit of the script,
+		 * 				usually the tile distance.
+		 * @return The lines of the script.
+		 */
+		public String[] toScript(double scale) {
+			ArrayList<String> lines = new ArrayList<String>();
+			for (int i = 0; i < routes.length; ++i) {
+				if (!follow || routes[i].length > 0)
+					lines.add((follow ? "follow" : "travel") + format(routes[i], scale));
+				if (i < targets.length) {
+					lines.add("turn " + round(headings[i]));
+					lines.add("shoot " + shots[i]);
+				}
+			}
+			String[] result = new String[lines.size()];
+			for (int i = 0; i < result.length; ++i) {
+				result[i] = lines.get(i);
+			}
+			return result;
+		}
+
+		/**
+		 * Formats the points of a route in the units of a script.
+		 */
+		private static String format(Point[] route, double scale) {
+			StringBuffer buffer = new StringBuffer();
+			for (Point p : route) {
+				buffer.append(' ').append(round(p.x / scale)).append(' ').append(round(p.y / scale));
+			}
+			return buffer.toString();
+		}
+
+		/**
+		 * Rounds a number to 3 decimals.
+		 */
+		private static double round(double value) {
+			return Math.round(value * 1000) / 1000.0;
+		}
+	}
+}
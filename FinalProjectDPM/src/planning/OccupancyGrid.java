@@ -0,0 +1,278 @@
+package planning;
+import java.util.ArrayList;
+
+import util.Point;
+import field.FieldMap;
+
+/**
+ * A grid of the cells of the field that the center of the robot can
+ * occupy. A cell is blocked if its center is closer to a wall than the
+ * radius of the footprint of the robot, so that the walls are inflated
+ * by the robot and the planner only has to move a point. The cells can
+ * be as large as a tile or a fraction of one. Stored in a primitive array.
+ * Obstacles seen while driving can be added to the grid.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class OccupancyGrid {
+	/**
+	 * The size in cm of a cell.
+	 */
+	private final double cellSize;
+	/**
+	 * The x and y coordinates in cm of the lower left corner of the grid.
+	 */
+	private final double minX, minY;
+	/**
+	 * The number of columns and rows of the grid.
+	 */
+	private final int columns, rows;
+	/**
+	 * The blocked cells, row by row.
+	 */
+	private final boolean[] blocked;
+
+	/**
+	 * Default constructor. Covers the bounds of the map.
+	 * @param map The walls of the field.
+	 * @param cellSize The size in cm of a cell.
+	 * @param radius The radius in cm of the footprint of the robot.
+	 */
+	public OccupancyGrid(FieldMap map, double cellSize, double radius) {
+		if (cellSize <= 0 || radius < 0)
+			throw new RuntimeException("Invalid occupancy grid size.");
+		this.cellSize = cellSize;
+		double[] bounds = map.getBounds();
+		minX = bounds[0];
+		minY = bounds[1];
+		columns = Math.max(1, (int) Math.ceil((bounds[2] - bounds[0]) / cellSize));
+		rows = Math.max(1, (int) Math.ceil((bounds[3] - bounds[1]) / cellSize));
+		blocked = new boolean[columns * rows];
+		double[] closest = new double[2];
+		for (int r = 0; r < rows; ++r) {
+			for (int c = 0; c < columns; ++c) {
+				blocked[r * columns + c] = map.nearestWall(centerX(c), centerY(r), radius, closest) >= 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of columns of the grid.
+	 * @return The number of columns of the grid.
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Returns the number of rows of the grid.
+	 * @return The number of rows of the grid.
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the size in cm of a cell.
+	 * @return The size in cm of a cell.
+	 */
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Returns true if the cell is blocked or outside of the grid.
+	 * @param c The column of the cell.
+	 * @param r The row of the cell.
+	 * @return true if the robot cannot be in the cell.
+	 */
+	public boolean isBlocked(int c, int r) {
+		return c < 0 || c >= columns || r < 0 || r >= rows || blocked[r * columns + c];
+	}
+
+	/**
+	 * Returns the free cell closest to the point, so that a robot pushed
+	 * into a blocked cell by an obstacle added around it can still plan.
+	 * @param x The x coordinate in cm.
+	 * @param y The y coordinate in cm.
+	 * @param range The largest number of cells searched away from the point.
+	 * @return The index of the cell row by row, or -1 if there is no
+	 * 		   free cell within the range.
+	 */
+	public int nearestFree(double x, double y, int range) {
+		int c0 = column(x);
+		int r0 = row(y);
+		int best = -1;
+		double bestDistance = Double.MAX_VALUE;
+		for (int r = r0 - range; r <= r0 + range; ++r) {
+			for (int c = c0 - range; c <= c0 + range; ++c) {
+				if (isBlocked(c, r))
+					continue;
+				double distance = Math.hypot(centerX(c) - x, centerY(r) - y);
+				if (distance < bestDistance) {
+					bestDistance = distance;
+					best = r * columns + c;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the column of the cell containing the x coordinate.
+	 * @param x The x coordinate in cm.
+	 * @return The column.
+	 */
+	public int column(double x) {
+		return (int) Math.floor((x - minX) / cellSize);
+	}
+
+	/**
+	 * Returns the row of the cell containing the y coordinate.
+	 * @param y The y coordinate in cm.
+	 * @return The row.
+	 */
+	public int row(double y) {
+		return (int) Math.floor((y - minY) / cellSize);
+	}
+
+	/**
+	 * Returns the x coordinate in cm of the center of the column.
+	 * @param c The column.
+	 * @return The x coordinate in cm.
+	 */
+	public double centerX(int c) {
+		return minX + (c + 0.5) * cellSize;
+	}
+
+	/**
+	 * Returns the y coordinate in cm of the center of the row.
+	 * @param r The row.
+	 * @return The y coordinate in cm.
+	 */
+	public double centerY(int r) {
+		return minY + (r + 0.5) * cellSize;
+	}
+
+	/**
+	 * Returns true if the straight line between the points only
+	 * goes through free cells.
+	 * @param x0 The x coordinate in cm of the start.
+	 * @param y0 The y coordinate in cm of the start.
+	 * @param x1 The x coordinate in cm of the end.
+	 * @param y1 The y coordinate in cm of the end.
+	 * @return true if the line is clear.
+	 */
+	public boolean isClear(double x0, double y0, double x1, double y1) {
+		//Walks the cells crossed by the line one boundary at a time.
+		int c = column(x0);
+		int r = row(y0);
+		int endC = column(x1);
+		int endR = row(y1);
+		double dx = x1 - x0;
+		double dy = y1 - y0;
+		int stepC = dx > 0 ? 1 : -1;
+		int stepR = dy > 0 ? 1 : -1;
+		double tMaxX = dx == 0 ? Double.MAX_VALUE :
+			((minX + (c + (dx > 0 ? 1 : 0)) * cellSize) - x0) / dx;
+		double tMaxY = dy == 0 ? Double.MAX_VALUE :
+			((minY + (r + (dy > 0 ? 1 : 0)) * cellSize) - y0) / dy;
+		double tDeltaX = dx == 0 ? Double.MAX_VALUE : cellSize / Math.abs(dx);
+		double tDeltaY = dy == 0 ? Double.MAX_VALUE : cellSize / Math.abs(dy);
+		int remaining = Math.abs(endC - c) + Math.abs(endR - r);
+		while (remaining > 0) {
+			if (isBlocked(c, r))
+				return false;
+			if (tMaxX < tMaxY) {
+				c += stepC;
+				tMaxX += tDeltaX;
+				--remaining;
+			} else if (tMaxY < tMaxX) {
+				r += stepR;
+				tMaxY += tDeltaY;
+				--remaining;
+			} else {
+				//Through a corner, the line touches both neighbours.
+				if (isBlocked(c + stepC, r) || isBlocked(c, r + stepR))
+					return false;
+				c += stepC;
+				r += stepR;
+				tMaxX += tDeltaX;
+				tMaxY += tDeltaY;
+				remaining -= 2;
+			}
+		}
+		return !isBlocked(c, r);
+	}
+
+	/**
+	 * Blocks the free cells whose centers are within the radius of the
+	 * segment, such as a wall seen by the ultrasonic sensor.
+	 * @param x0 The x coordinate in cm of the start of the segment.
+	 * @param y0 The y coordinate in cm of the start of the segment.
+	 * @param x1 The x coordinate in cm of the end of the segment.
+	 * @param y1 The y coordinate in cm of the end of the segment.
+	 * @param radius The radius in cm of the footprint of the robot.
+	 * @param changed Storage for the indices of the cells blocked, row by
+	 * 				  row. Cells past its length are blocked but not stored.
+	 * @return The number of cells blocked.
+	 */
+	public int block(double x0, double y0, double x1, double y1, double radius, int[] changed) {
+		int minC = Math.max(0, column(Math.min(x0, x1) - radius));
+		int maxC = Math.min(columns - 1, column(Math.max(x0, x1) + radius));
+		int minR = Math.max(0, row(Math.min(y0, y1) - radius));
+		int maxR = Math.min(rows - 1, row(Math.max(y0, y1) + radius));
+		double dx = x1 - x0;
+		double dy = y1 - y0;
+		double length = dx * dx + dy * dy;
+		int count = 0;
+		for (int r = minR; r <= maxR; ++r) {
+			for (int c = minC; c <= maxC; ++c) {
+				if (blocked[r * columns + c])
+					continue;
+				double px = centerX(c) - x0;
+				double py = centerY(r) - y0;
+				double u = length == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / length));
+				if (Math.hypot(px - u * dx, py - u * dy) < radius) {
+					blocked[r * columns + c] = true;
+					if (count < changed.length)
+						changed[count] = r * columns + c;
+					++count;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Shortens a route of cells to the points where the robot must turn,
+	 * keeping a point only if the straight line from the last point kept
+	 * cannot skip it.
+	 * @param start The start of the route in cm.
+	 * @param goal The end of the route in cm.
+	 * @param cells The cells of the route from the start to the goal, row by row.
+	 * @param length The number of cells of the route.
+	 * @return The points to travel through after the start, ending with the goal.
+	 */
+	Point[] shorten(Point start, Point goal, int[] cells, int length) {
+		ArrayList<Point> points = new ArrayList<Point>();
+		Point anchor = start;
+		Point last = null;
+		for (int i = 1; i < length; ++i) {
+			Point p = i == length - 1 ? goal :
+				new Point(centerX(cells[i] % columns), centerY(cells[i] / columns));
+			if (last != null && !isClear(anchor.x, anchor.y, p.x, p.y)) {
+				points.add(last);
+				anchor = last;
+			}
+			last = p;
+		}
+		points.add(goal);
+		Point[] result = new Point[points.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = points.get(i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,333 @@
+package planning;
+import java.util.ArrayList;
+
+import util.Point;
+
+/**
+ * Prepares paths for a continuous tracker such as Navigation.followPath.
+ * Shortcuts the points that can be skipped in a straight line through the
+ * free cells of the grid, drops the points in line with their neighbours,
+ * and rounds the corners with pairs of cubic Bezier spirals. The spirals
+ * start and end straight, so that the curvature rises and falls
+ * continuously like on a clothoid, and are sized to stay within a
+ * curvature limit. Corners too sharp or too close to others to round within
+ * the limit are kept, for the tracker to turn at. Paths are given as the
+ * points to travel through after the start, like Navigation.travel takes.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class PathSmoother {
+	/**
+	 * The positions of the control points of the spirals as fractions of
+	 * the distance from the corner where they start, from Yang and
+	 * Sukkarieh. The second and third control points are these fractions
+	 * of the way from the start to the corner, and the last one is reached
+	 * along the tangent at the middle of the corner.
+	 */
+	private static final double C2 = 2 * (Math.sqrt(6) - 1) / 5, C3 = (C2 + 4) / (7.2364 + 6);
+	private static final double DISTANCE_1 = C2 * C3, DISTANCE_2 = C2 * C3 + C3,
+			TANGENT = 1 - DISTANCE_2;
+	/**
+	 * The change of heading in degrees above which a corner is kept.
+	 * Same as ArcPlanner.SPIN_ANGLE.
+	 */
+	private static final double SPIN_ANGLE = 120.0;
+	/**
+	 * The largest distance in cm from a point to the line through its
+	 * neighbours for it to be dropped.
+	 */
+	private static final double COLLINEAR_ERROR = 0.5;
+	/**
+	 * The distance in cm between the points sampled on the spirals.
+	 */
+	private static final double SPACING = 2.0;
+	/**
+	 * The number of samples used to find the largest curvature of a spiral.
+	 */
+	private static final int CURVATURE_SAMPLES = 32;
+	/**
+	 * The number of times a corner that hits a blocked cell is tightened
+	 * before it is kept.
+	 */
+	private static final int TIGHTENINGS = 4;
+
+	/**
+	 * The grid of the field, or null to skip the checks against the walls.
+	 */
+	private final OccupancyGrid grid;
+	/**
+	 * The largest curvature in 1/cm of the corners.
+	 */
+	private final double maxCurvature;
+
+	/**
+	 * Default constructor.
+	 * @param grid The grid of the field, or null to skip the shortcuts
+	 * 			   and the checks of the corners against the walls.
+	 * @param maxCurvature The largest curvature in 1/cm of the corners.
+	 */
+	public PathSmoother(OccupancyGrid grid, double maxCurvature) {
+		if (maxCurvature <= 0)
+			throw new RuntimeException("Invalid curvature limit.");
+		this.grid = grid;
+		this.maxCurvature = maxCurvature;
+	}
+
+	/**
+	 * Returns the largest curvature at which a differential drive robot
+	 * keeps its center at the given speed without a wheel going faster
+	 * than the highest wheel speed.
+	 * @param width The distance in cm between the wheels.
+	 * @param speed The speed of the center of the robot.
+	 * @param maxSpeed The highest wheel speed, in the units of speed.
+	 * @return The curvature limit in 1/cm.
+	 */
+	public static double curvatureLimit(double width, double speed, double maxSpeed) {
+		if (speed <= 0 || maxSpeed <= speed)
+			throw new RuntimeException("Invalid speeds.");
+		//The outer wheel goes at speed * (1 + curvature * width / 2).
+		return 2 * (maxSpeed - speed) / (speed * width);
+	}
+
+	/**
+	 * Shortcuts, simplifies and smooths the path.
+	 * @param start The start of the path in cm.
+	 * @param path The points to travel through after the start.
+	 * @return The smoothed points to travel through after the start.
+	 */
+	public Point[] process(Point start, Point[] path) {
+		return smooth(start, removeCollinear(start, shortcut(start, path)));
+	}
+
+	/**
+	 * Replaces the points that can be skipped by a straight line through
+	 * free cells, keeping the farthest point visible from each point kept.
+	 * Without a grid, returns the path.
+	 * @param start The start of the path in cm.
+	 * @param path The points to travel through after the start.
+	 * @return The points kept after the start.
+	 */
+	public Point[] shortcut(Point start, Point[] path) {
+		if (grid == null || path.length == 0)
+			return path;
+		ArrayList<Point> points = new ArrayList<Point>();
+		Point anchor = start;
+		int i = 0;
+		while (i < path.length) {
+			//The next point is kept even if it is not clear, as the path
+			//may go closer to a wall than the grid allows.
+			int farthest = i;
+			for (int j = path.length - 1; j > i; --j) {
+				if (grid.isClear(anchor.x, anchor.y, path[j].x, path[j].y)) {
+					farthest = j;
+					break;
+				}
+			}
+			anchor = path[farthest];
+			points.add(anchor);
+			i = farthest + 1;
+		}
+		return toArray(points);
+	}
+
+	/**
+	 * Drops the points within COLLINEAR_ERROR of the straight line from the
+	 * last point kept to the next point, and the points on top of the last
+	 * point kept.
+	 * @param start The start of the path in cm.
+	 * @param path The points to travel through after the start.
+	 * @return The points kept after the start.
+	 */
+	public static Point[] removeCollinear(Point start, Point[] path) {
+		ArrayList<Point> points = new ArrayList<Point>();
+		Point last = start;
+		for (int i = 0; i < path.length; ++i) {
+			Point p = path[i];
+			if (Math.hypot(p.x - last.x, p.y - last.y) < COLLINEAR_ERROR)
+				continue;
+			if (i + 1 < path.length) {
+				Point next = path[i + 1];
+				double dx = next.x - last.x;
+				double dy = next.y - last.y;
+				double length = Math.hypot(dx, dy);
+				double along = (p.x - last.x) * dx + (p.y - last.y) * dy;
+				//Points behind or past the chord are turns back, not in line.
+				if (length > 0 && along > 0 && along < length * length &&
+						Math.abs((p.x - last.x) * dy - (p.y - last.y) * dx) / length < COLLINEAR_ERROR)
+					continue;
+			}
+			points.add(p);
+			last = p;
+		}
+		return toArray(points);
+	}
+
+	/**
+	 * Rounds the corners of the path within the curvature limit. Each
+	 * corner is replaced by points SPACING apart along two spirals.
+	 * @param start The start of the path in cm.
+	 * @param path The points to travel through after the start.
+	 * @return The points to travel through after the start.
+	 */
+	public Point[] smooth(Point start, Point[] path) {
+		int n = path.length;
+		Point[] points = new Point[n + 1];
+		points[0] = start;
+		System.arraycopy(path, 0, points, 1, n);
+		ArrayList<Point> result = new ArrayList<Point>();
+		for (int i = 1; i < n; ++i) {
+			Point p = points[i];
+			double before = Math.hypot(p.x - points[i - 1].x, p.y - points[i - 1].y);
+			double after = Math.hypot(points[i + 1].x - p.x, points[i + 1].y - p.y);
+			double[] u1 = {(p.x - points[i - 1].x) / before, (p.y - points[i - 1].y) / before};
+			double[] u2 = {(points[i + 1].x - p.x) / after, (points[i + 1].y - p.y) / after};
+			double turn = Math.acos(Math.max(-1, Math.min(1, u1[0] * u2[0] + u1[1] * u2[1])));
+			//Segments rounded at both ends give half of their length to each corner.
+			double room = Math.min(i == 1 ? before : before / 2, i == n - 1 ? after : after / 2);
+			double distance = spiralCurvature(turn) / maxCurvature;
+			Point[] corner = null;
+			if (Math.toDegrees(turn) <= SPIN_ANGLE && turn > 0 && distance <= room) {
+				for (int k = 0; k <= TIGHTENINGS && corner == null; ++k) {
+					corner = corner(p, u1, u2, distance);
+					//Corners of paths already closer to the walls than the
+					//grid allows are not checked.
+					Point[] legs = {corner[0], p, corner[corner.length - 1]};
+					if (isClear(legs) && !isClear(corner)) {
+						corner = null;
+						distance /= 2;
+					}
+				}
+			}
+			if (corner == null) {
+				result.add(p);
+			} else {
+				for (Point q : corner) {
+					result.add(q);
+				}
+			}
+		}
+		if (n > 0)
+			result.add(path[n - 1]);
+		return toArray(result);
+	}
+
+	/**
+	 * Returns the largest curvature in 1/cm of the spirals rounding a
+	 * corner, when they start 1 cm from it. The curvature scales with the
+	 * inverse of the distance from the corner.
+	 * @param turn The change of heading at the corner in radians.
+	 * @return The largest curvature in 1/cm.
+	 */
+	public static double spiralCurvature(double turn) {
+		double[][] b = spiral(new Point(0, 0), new double[] {1, 0},
+				new double[] {Math.cos(turn), Math.sin(turn)}, 1);
+		double max = 0;
+		for (int k = 0; k <= CURVATURE_SAMPLES; ++k) {
+			max = Math.max(max, curvature(b, (double) k / CURVATURE_SAMPLES));
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the points along the two spirals rounding the corner,
+	 * starting the distance before the corner and ending the distance after.
+	 */
+	private static Point[] corner(Point p, double[] u1, double[] u2, double distance) {
+		double[][] first = spiral(p, u1, u2, distance);
+		double[] reversed = {-u1[0], -u1[1]};
+		double[] back = {-u2[0], -u2[1]};
+		double[][] second = spiral(p, back, reversed, distance);
+		//Samples each spiral about SPACING apart, along its control polygon.
+		double length = 0;
+		for (int k = 0; k < 3; ++k) {
+			length += Math.hypot(first[k + 1][0] - first[k][0], first[k + 1][1] - first[k][1]);
+		}
+		int samples = Math.max(2, (int) Math.ceil(length / SPACING));
+		Point[] points = new Point[2 * samples + 1];
+		for (int k = 0; k <= samples; ++k) {
+			double[] q = evaluate(first, (double) k / samples);
+			points[k] = new Point(q[0], q[1]);
+		}
+		//The second spiral is traversed from its end.
+		for (int k = 1; k <= samples; ++k) {
+			double[] q = evaluate(second, 1 - (double) k / samples);
+			points[samples + k] = new Point(q[0], q[1]);
+		}
+		return points;
+	}
+
+	/**
+	 * Returns the control points of the spiral entering the corner along
+	 * u1, from the distance before the corner to the bisector of the corner,
+	 * where the tangent is halfway between u1 and u2.
+	 */
+	private static double[][] spiral(Point p, double[] u1, double[] u2, double distance) {
+		double wx = u1[0] + u2[0];
+		double wy = u1[1] + u2[1];
+		double w = Math.hypot(wx, wy);
+		wx /= w;
+		wy /= w;
+		double[][] b = new double[4][];
+		b[0] = new double[] {p.x - distance * u1[0], p.y - distance * u1[1]};
+		b[1] = new double[] {b[0][0] + DISTANCE_1 * distance * u1[0], b[0][1] + DISTANCE_1 * distance * u1[1]};
+		b[2] = new double[] {b[0][0] + DISTANCE_2 * distance * u1[0], b[0][1] + DISTANCE_2 * distance * u1[1]};
+		//Reaches the bisector along the middle tangent.
+		double k = TANGENT * distance * (u1[0] * wx + u1[1] * wy);
+		b[3] = new double[] {b[2][0] + k * wx, b[2][1] + k * wy};
+		return b;
+	}
+
+	/**
+	 * Returns the point at t of the cubic Bezier curve.
+	 */
+	private static double[] evaluate(double[][] b, double t) {
+		double s = 1 - t;
+		double[] q = new double[2];
+		for (int i = 0; i < 2; ++i) {
+			q[i] = s * s * s * b[0][i] + 3 * s * s * t * b[1][i] +
+					3 * s * t * t * b[2][i] + t * t * t * b[3][i];
+		}
+		return q;
+	}
+
+	/**
+	 * Returns the curvature at t of the cubic Bezier curve.
+	 */
+	private static double curvature(double[][] b, double t) {
+		double s = 1 - t;
+		double[] d1 = new double[2];
+		double[] d2 = new double[2];
+		for (int i = 0; i < 2; ++i) {
+			d1[i] = 3 * (s * s * (b[1][i] - b[0][i]) + 2 * s * t * (b[2][i] - b[1][i]) +
+					t * t * (b[3][i] - b[2][i]));
+			d2[i] = 6 * (s * (b[2][i] - 2 * b[1][i] + b[0][i]) + t * (b[3][i] - 2 * b[2][i] + b[1][i]));
+		}
+		double speed = Math.hypot(d1[0], d1[1]);
+		return Math.abs(d1[0] * d2[1] - d1[1] * d2[0]) / (speed * speed * speed);
+	}
+
+	/**
+	 * Returns true if the lines between the points go through free cells.
+	 */
+	private boolean isClear(Point[] points) {
+		if (grid == null)
+			return true;
+		for (int i = 0; i + 1 < points.length; ++i) {
+			if (!grid.isClear(points[i].x, points[i].y, points[i + 1].x, points[i + 1].y))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Converts a list of points to an array.
+	 */
+	private static Point[] toArray(ArrayList<Point> points) {
+		Point[] result = new Point[points.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = points.get(i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,112 @@
+package planning;
+import util.Point;
+
+/**
+ * A fixed size cache of routes, which evicts the least recently used
+ * route when full. Kept in primitive arrays searched linearly, since it
+ * only holds a few routes.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class RouteCache {
+	/**
+	 * The keys of the routes, null for the empty entries.
+	 */
+	private final String[] keys;
+	/**
+	 * The routes cached.
+	 */
+	private final Point[][] routes;
+	/**
+	 * The time of the last use of each entry.
+	 */
+	private final long[] used;
+	/**
+	 * A counter increased at every use of the cache.
+	 */
+	private long clock;
+	/**
+	 * The number of hits and misses of the cache.
+	 */
+	private int hits, misses;
+
+	/**
+	 * Default constructor.
+	 * @param capacity The number of routes kept.
+	 */
+	public RouteCache(int capacity) {
+		if (capacity <= 0)
+			throw new RuntimeException("Invalid route cache capacity.");
+		keys = new String[capacity];
+		routes = new Point[capacity][];
+		used = new long[capacity];
+		clock = 0;
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * Returns the route cached under the key.
+	 * @param key The key of the route.
+	 * @return The route, or null if it is not cached. Must not be modified.
+	 */
+	public synchronized Point[] get(String key) {
+		for (int i = 0; i < keys.length; ++i) {
+			if (key.equals(keys[i])) {
+				used[i] = ++clock;
+				++hits;
+				return routes[i];
+			}
+		}
+		++misses;
+		return null;
+	}
+
+	/**
+	 * Caches the route under the key, replacing the least recently used
+	 * route if the cache is full.
+	 * @param key The key of the route.
+	 * @param route The route.
+	 */
+	public synchronized void put(String key, Point[] route) {
+		int slot = 0;
+		for (int i = 0; i < keys.length; ++i) {
+			if (key.equals(keys[i]) || keys[i] == null) {
+				slot = i;
+				break;
+			}
+			if (used[i] < used[slot])
+				slot = i;
+		}
+		keys[slot] = key;
+		routes[slot] = route;
+		used[slot] = ++clock;
+	}
+
+	/**
+	 * Removes all of the routes.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < keys.length; ++i) {
+			keys[i] = null;
+			routes[i] = null;
+		}
+	}
+
+	/**
+	 * Returns the number of lookups that found a route.
+	 * @return The number of hits.
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that did not find a route.
+	 * @return The number of misses.
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+}
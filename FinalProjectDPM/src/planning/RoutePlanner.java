@@ -0,0 +1,128 @@
+package planning;
+import java.util.ArrayList;
+
+import util.Point;
+import field.FieldMap;
+
+/**
+ * Plans the routes of the robot over the map of the field. Routes between
+ * named waypoints, such as the start, the pickup and the dropoff zones, are
+ * planned once and cached. The routes are given as the points to travel
+ * through after the start, as taken by Navigation.travel.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class RoutePlanner {
+	/**
+	 * The number of routes between waypoints cached.
+	 */
+	private static final int CACHE_SIZE = 16;
+
+	/**
+	 * The planner over the grid of the field.
+	 */
+	private final GridPlanner planner;
+	/**
+	 * The names and positions of the waypoints.
+	 */
+	private final ArrayList<String> names;
+	private final ArrayList<Point> waypoints;
+	/**
+	 * The routes between waypoints planned.
+	 */
+	private final RouteCache cache;
+
+	/**
+	 * Default constructor.
+	 * @param map The walls of the field.
+	 * @param cellSize The size in cm of the cells of the grid.
+	 * @param radius The radius in cm of the footprint of the robot.
+	 */
+	public RoutePlanner(FieldMap map, double cellSize, double radius) {
+		planner = new GridPlanner(new OccupancyGrid(map, cellSize, radius));
+		names = new ArrayList<String>();
+		waypoints = new ArrayList<Point>();
+		cache = new RouteCache(CACHE_SIZE);
+	}
+
+	/**
+	 * Adds or moves a named waypoint. Moving a waypoint clears the cache.
+	 * @param name The name of the waypoint.
+	 * @param point The position of the waypoint in cm.
+	 */
+	public synchronized void addWaypoint(String name, Point point) {
+		int i = names.indexOf(name);
+		if (i < 0) {
+			names.add(name);
+			waypoints.add(point);
+		} else {
+			waypoints.set(i, point);
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Returns true if a waypoint has the name.
+	 * @param name The name of the waypoint.
+	 * @return true if a waypoint has the name.
+	 */
+	public synchronized boolean hasWaypoint(String name) {
+		return names.contains(name);
+	}
+
+	/**
+	 * Returns the route between the waypoints, planning it on first use.
+	 * @param from The name of the start waypoint.
+	 * @param to The name of the end waypoint.
+	 * @return The points to travel through after the start, or null
+	 * 		   if the end cannot be reached.
+	 */
+	public synchronized Point[] route(String from, String to) {
+		String key = from + ">" + to;
+		Point[] route = cache.get(key);
+		if (route == null) {
+			route = plan(waypoint(from), waypoint(to));
+			if (route != null)
+				cache.put(key, route);
+		}
+		return route;
+	}
+
+	/**
+	 * Plans a route between the points without caching it.
+	 * @param start The start of the route in cm.
+	 * @param goal The end of the route in cm.
+	 * @return The points to travel through after the start, or null
+	 * 		   if the end cannot be reached.
+	 */
+	public synchronized Point[] plan(Point start, Point goal) {
+		return planner.plan(start, goal);
+	}
+
+	/**
+	 * Returns the cache of the routes between waypoints.
+	 * @return The cache of the routes between waypoints.
+	 */
+	public RouteCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the planner over the grid.
+	 * @return The planner over the grid.
+	 */
+	public GridPlanner getPlanner() {
+		return planner;
+	}
+
+	/**
+	 * Returns the position of the named waypoint.
+	 */
+	private Point waypoint(String name) {
+		int i = names.indexOf(name);
+		if (i < 0)
+			throw new RuntimeException("Unknown waypoint " + name + ".");
+		return waypoints.get(i);
+	}
+}
@@ -0,0 +1,156 @@
+package simulation;
+import util.Point;
+import drivers.Navigation;
+import field.FieldMap;
+
+/**
+ * A simulation of the arc motions on the Mapped and AlphaMapped routes.
+ * Drives each route like the mission programs do, stopping at each point
+ * and pivoting on one wheel at the marked corners, then with plain
+ * stop-turn-go moves, then on arcs planned through the same points with
+ * several corner radii. Prints the route time, the RMS distance from the
+ * route, the error at the end and the smallest distance from the center of
+ * the robot to a wall, all measured on the odometry pose.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ArcRouteSimulation {
+	/**
+	 * The largest corner radii simulated in cm.
+	 */
+	private static final double[] RADII = {8.5, 15, 30};
+	/**
+	 * The number of runs with different wheel and motor errors for each route.
+	 */
+	private static final int TRIALS = 20;
+	/**
+	 * The maximum relative error of the wheel radii.
+	 */
+	private static final double WHEEL_ERROR = 0.005;
+	/**
+	 * The maximum relative speed error of the motors.
+	 */
+	private static final double MOTOR_ERROR = 0.02;
+	/**
+	 * The pivots of Mapped after reaching each point, in degrees.
+	 */
+	private static final double[] MAPPED_PIVOTS = {0, 0, -90, 90, -90, 0, 0};
+	/**
+	 * The pivots of AlphaMapped after reaching each point, in degrees,
+	 * and the headings turned to before them.
+	 */
+	private static final double[] ALPHA_MAPPED_PIVOTS = {0, 0, 0, 0, -90, 0, 0, 90, -90, 0, 0, 0, 0};
+	private static final double[] ALPHA_MAPPED_HEADINGS = {0, 0, 0, 0, 90, 0, 0, 0, 90, 0, 0, 0, 0};
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		FieldMap map = Fields.competition();
+		run("Mapped", Routes.MAPPED, MAPPED_PIVOTS, null, map);
+		run("AlphaMapped", Routes.ALPHA_MAPPED, ALPHA_MAPPED_PIVOTS, ALPHA_MAPPED_HEADINGS, map);
+	}
+
+	/**
+	 * Drives the route in each mode and prints the results.
+	 */
+	private static void run(String name, Point[] route, double[] pivots, double[] headings, FieldMap map) {
+		Point[] rest = new Point[route.length - 1];
+		System.arraycopy(route, 1, rest, 0, rest.length);
+		Point end = route[route.length - 1];
+		for (int mode = -2; mode < RADII.length; ++mode) {
+			//Time, squared error, samples, end error and clearance.
+			double[] totals = {0, 0, 0, 0, Double.MAX_VALUE};
+			for (int trial = 0; trial < TRIALS; ++trial) {
+				double wheel = WHEEL_ERROR * (2.0 * trial / (TRIALS - 1) - 1);
+				SimRobot robot = new SimRobot(route[0].x, route[0].y, 90, wheel, 0, trial);
+				robot.setMotorError(MOTOR_ERROR * (1 - 2.0 * trial / (TRIALS - 1)));
+				SimWorld world = new SimWorld(robot, null);
+				world.addHook(new Recorder(route, map, totals));
+				Navigation nav = world.getNavigation();
+				if (mode == -2) {
+					for (int i = 1; i < route.length; ++i) {
+						nav.travelTo(route[i], false);
+						if (pivots[i] != 0) {
+							if (headings != null)
+								nav.turnTo(headings[i]);
+							if (pivots[i] > 0)
+								nav.turnLeft();
+							else
+								nav.turnRight();
+						}
+					}
+					world.settle();
+				} else if (mode == -1) {
+					world.travel(rest, null);
+				} else {
+					nav.setArcRadius(RADII[mode]);
+					nav.travelArcs(rest);
+					world.settle();
+				}
+				totals[0] += world.currentTimeMillis() / 1000.0;
+				double[] xyt = world.getDataCenter().getXYT();
+				totals[3] += Math.hypot(xyt[0] - end.x, xyt[1] - end.y);
+			}
+			String label = mode == -2 ? "mission with pivots" : mode == -1 ? "stop-turn-go" :
+				"arcs, radius " + RADII[mode] + " cm";
+			System.out.println(name + ", " + label + ": " + format(totals[0] / TRIALS) +
+					" s, tracking error " + format(Math.sqrt(totals[1] / totals[2])) +
+					" cm RMS, end error " + format(totals[3] / TRIALS) + " cm, clearance " +
+					format(totals[4]) + " cm");
+		}
+	}
+
+	/**
+	 * Records the distance from the odometry position to the route
+	 * and to the walls every step of the simulation.
+	 */
+	private static class Recorder implements SimWorld.Hook {
+		/**
+		 * The route driven.
+		 */
+		private final Point[] route;
+		/**
+		 * The map of the field.
+		 */
+		private final FieldMap map;
+		/**
+		 * The totals of the simulation.
+		 */
+		private final double[] totals;
+		/**
+		 * Storage for the closest point of a wall.
+		 */
+		private final double[] closest = new double[2];
+
+		/**
+		 * Default constructor.
+		 */
+		Recorder(Point[] route, FieldMap map, double[] totals) {
+			this.route = route;
+			this.map = map;
+			this.totals = totals;
+		}
+
+		/**
+		 * Called every step of the simulation.
+		 */
+		public void step(SimWorld world, boolean crossed) {
+			double[] xyt = world.getDataCenter().getXYT();
+			totals[1] += Paths.squaredDistanceToPath(xyt[0], xyt[1], route);
+			totals[2] += 1;
+			if (map.nearestWall(xyt[0], xyt[1], Fields.TILE_DISTANCE, closest) >= 0) {
+				totals[4] = Math.min(totals[4],
+						Math.hypot(closest[0] - xyt[0], closest[1] - xyt[1]));
+			}
+		}
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
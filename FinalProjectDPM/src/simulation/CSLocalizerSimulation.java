@@ -0,0 +1,425 @@
+package simulation;
+import java.util.Random;
+
+import util.Point;
+import util.Util;
+import data.DataCenter;
+import drivers.Navigation;
+import localization.CrossingSolver;
+import localization.LineScan;
+
+/**
+ * A simulation comparing the color sensor localizations. The previous
+ * localization spins a full rotation per try until exactly four pings of the
+ * thresholded light value are recorded, and then fine tunes the orientation
+ * in 0.5 degree steps. The spin with solver solves for the pose from any
+ * number of pings, rejecting outliers, and fine tunes the orientation from
+ * the center of the line scanned continuously. The sweep samples the
+ * light values continuously and stops as soon as the pose is determined.
+ * Pings are randomly missed or falsely triggered. The robot starts near the
+ * origin facing roughly 45 degrees, as it does after the ultrasonic
+ * localization. Prints the average time and errors of each approach.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class CSLocalizerSimulation {
+	/**
+	 * Same values as Navigation.TURN_SPD and Navigation.ACCELERATION.
+	 */
+	private static final int TURN_SPD = 200, ACCELERATION = 1000;
+	/**
+	 * Same values as in CSLocalizer.
+	 */
+	private static final int NUM_LINES = 4, MAX_LINES = 16, MAX_TRIES = 3, SWEEP_SPD = 200;
+	/**
+	 * Same values as in CSLocalizer.
+	 */
+	private static final double CORRECTION_FACTOR = 1, MAX_SWEEP = 400;
+	/**
+	 * Same value as CSLocalizer.MIN_CROSSINGS.
+	 */
+	private static final int MIN_CROSSINGS = 4, FINE_SPD = 50;
+	/**
+	 * Same values as in CSLocalizer.
+	 */
+	private static final double FINE_HEADING = 90, FINE_START = 10, FINE_SCAN = 30;
+	/**
+	 * Same values as CSLocalizer.DELAY and CSLocalizer.SAMPLE_DELAY.
+	 */
+	private static final long DELAY = 200, SAMPLE_DELAY = 5;
+	/**
+	 * Same value as CSPoller.MAX_GRID and CSPoller.NUM_VALUES.
+	 */
+	private static final int MAX_GRID = 47, NUM_VALUES = 5;
+	/**
+	 * The standard deviation of the light noise.
+	 */
+	private static final double LIGHT_NOISE = 1.0;
+	/**
+	 * The probabilities of missing a ping and of a false ping
+	 * during a rotation.
+	 */
+	private static final double MISSED_PING = 0.05, FALSE_PING = 0.2;
+	/**
+	 * The approaches compared.
+	 */
+	private static final int OLD_SPIN = 0, SOLVER_SPIN = 1, SWEEP = 2;
+	/**
+	 * The standard deviations of the starting position and
+	 * orientation errors in cm and degrees.
+	 */
+	private static final double SIGMA_XY = 2.0, SIGMA_THETA = 4.0;
+	/**
+	 * The number of random starting poses.
+	 */
+	private static final int TRIALS = 200;
+
+	/**
+	 * The values of the last NUM_VALUES light readings, as in CSPoller.
+	 */
+	private static int[] window = new int[NUM_VALUES];
+	/**
+	 * The random number generator of the ping errors.
+	 */
+	private static Random pingRandom;
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		Random random = new Random(1);
+		double[][] totals = new double[3][4];
+		for (int i = 0; i < TRIALS; ++i) {
+			double x = SIGMA_XY * random.nextGaussian();
+			double y = SIGMA_XY * random.nextGaussian();
+			double theta = 45 + SIGMA_THETA * random.nextGaussian();
+			for (int approach = 0; approach < totals.length; ++approach) {
+				add(totals[approach], run(x, y, theta, i, approach));
+			}
+		}
+		print("Spin until 4 pings and fine tune", totals[OLD_SPIN]);
+		print("Spin with solver and fine tune", totals[SOLVER_SPIN]);
+		print("Sweep", totals[SWEEP]);
+	}
+
+	/**
+	 * Localizes from the given true pose, with the odometry at (0, 0, 45),
+	 * and returns the time in s, the position error in cm, the
+	 * orientation error in degrees and 1 if the localization gave up.
+	 */
+	private static double[] run(double x, double y, double theta, long seed, int approach) {
+		SimRobot robot = new SimRobot(x, y, theta, 0.005, 0.0, seed);
+		robot.odoX = 0;
+		robot.odoY = 0;
+		robot.odoTheta = 45;
+		for (int k = 0; k < NUM_VALUES; ++k) {
+			window[k] = robot.light(LIGHT_NOISE);
+		}
+		//Spreads the seeds, since the first values of generators
+		//with close seeds are close.
+		pingRandom = new Random(seed * 0x9E3779B97F4A7C15L);
+		boolean success;
+		if (approach == SWEEP)
+			success = sweep(robot);
+		else
+			success = spin(robot, approach == SOLVER_SPIN);
+		double dt = Util.toRange(robot.odoTheta - robot.theta, -180.0, true);
+		double[] result = {robot.time / 1000, robot.positionError(), Math.abs(dt),
+				success ? 0 : 1};
+		return result;
+	}
+
+	/**
+	 * The sweep localization of CSLocalizer.doSweepLocalization.
+	 */
+	private static boolean sweep(SimRobot robot) {
+		LineScan scan = new LineScan();
+		double[][] crossings = new double[MAX_LINES][];
+		double[] correction = null;
+		double previous = robot.odoTheta;
+		double rotated = 0;
+		while (rotated < MAX_SWEEP) {
+			robot.step(SWEEP_SPD, -SWEEP_SPD, SAMPLE_DELAY);
+			rotated += Math.abs(Util.toRange(robot.odoTheta - previous, -180.0, true));
+			previous = robot.odoTheta;
+			if (scan.addSample(robot.odoTheta, robot.light(LIGHT_NOISE)) &&
+					scan.getCount() <= MAX_LINES) {
+				int lines = scan.getCount();
+				double[] crossing = {robot.odoX, robot.odoY, scan.getLine(lines - 1)};
+				crossings[lines - 1] = crossing;
+				double[] solution = CrossingSolver.solve(crossings, lines, new Point(0, 0),
+						SimRobot.CS_DISTANCE, SimRobot.CS_ANGLE);
+				if (solution != null)
+					correction = solution;
+				if (solution != null && solution[4] >= MIN_CROSSINGS)
+					break;
+			}
+		}
+		stop(robot);
+		if (correction == null)
+			return spin(robot, true);
+		correction[2] += CORRECTION_FACTOR;
+		correct(robot, correction);
+		return true;
+	}
+
+	/**
+	 * Applies a correction to the odometry.
+	 */
+	private static void correct(SimRobot robot, double[] correction) {
+		robot.odoX += correction[0];
+		robot.odoY += correction[1];
+		robot.odoTheta = Util.toRange(robot.odoTheta + correction[2], 0.0, false);
+	}
+
+	/**
+	 * The localization of CSLocalizer.doLocalization, with the solver,
+	 * or as it was before the solver.
+	 */
+	private static boolean spin(SimRobot robot, boolean solver) {
+		double[][] data = new double[MAX_LINES][];
+		double[] correction = null;
+		int tries = 0;
+		int count = 0;
+		while (solver ? correction == null : count != NUM_LINES) {
+			if (tries > MAX_TRIES)
+				return false;
+			//Turns 360 degrees clockwise, recording the pings.
+			count = 0;
+			double lastPing = robot.time;
+			double wheelAngle = 360.0 * SimRobot.WIDTH / (2 * SimRobot.RIGHT_RADIUS);
+			double done = 0;
+			double falsePing = (pingRandom.nextDouble() < FALSE_PING) ?
+					wheelAngle * pingRandom.nextDouble() : -1;
+			boolean wasLine = false, missed = false;
+			while (done < wheelAngle || robot.leftSpeed != 0) {
+				double speed = profile(wheelAngle - done);
+				robot.step(speed, -speed, SAMPLE_DELAY);
+				double before = done;
+				done += Math.abs(robot.leftSpeed) * SAMPLE_DELAY / 1000;
+				boolean line = ping(robot);
+				//Misses some lines and pings off some marks on the floor.
+				if (line && !wasLine)
+					missed = pingRandom.nextDouble() < MISSED_PING;
+				wasLine = line;
+				line = line && !missed;
+				if (before <= falsePing && falsePing < done)
+					line = true;
+				if (line && robot.time - lastPing > DELAY) {
+					if (solver ? count < MAX_LINES : count < NUM_LINES) {
+						double[] xyt = {robot.odoX, robot.odoY, robot.odoTheta};
+						data[count] = xyt;
+						++count;
+					} else {
+						count = NUM_LINES + 1;
+					}
+					lastPing = robot.time;
+				}
+			}
+			++tries;
+			if (solver)
+				correction = CrossingSolver.solve(data, count, new Point(0, 0),
+						SimRobot.CS_DISTANCE, SimRobot.CS_ANGLE);
+		}
+
+		if (solver) {
+			correction[2] += CORRECTION_FACTOR;
+			correct(robot, correction);
+		} else {
+			double[] pose = solveSpin(data);
+			robot.odoX = pose[0];
+			robot.odoY = pose[1];
+			robot.odoTheta = Util.toRange(robot.odoTheta + pose[2], 0.0, false);
+		}
+
+		//Fine tunes the orientation on the line behind the robot.
+		SimWorld world = new SimWorld(robot, null);
+		DataCenter dc = world.getDataCenter();
+		dc.setXYT(robot.odoX, robot.odoY, robot.odoTheta);
+		Navigation nav = world.getNavigation();
+		nav.travelTo(new Point(0, 0), false);
+		nav.turnTo(FINE_HEADING - FINE_START);
+		if (solver) {
+			//The fine tuning of CSLocalizer.fineTune.
+			LineScan scan = new LineScan();
+			double previous = dc.getTheta();
+			double rotated = 0;
+			nav.setSpeeds(-FINE_SPD, FINE_SPD);
+			while (rotated < FINE_SCAN) {
+				world.sleep(SAMPLE_DELAY);
+				double angle = dc.getTheta();
+				rotated += Math.abs(Util.toRange(angle - previous, -180.0, true));
+				previous = angle;
+				if (scan.addSample(angle, robot.light(LIGHT_NOISE)))
+					break;
+			}
+			nav.stop();
+			world.settle();
+			if (scan.getCount() > 0)
+				dc.offsetXYT(0, 0, Util.toRange(FINE_HEADING + CORRECTION_FACTOR -
+						scan.getLine(0), -180.0, true));
+		}
+		world.settle();
+		double[] xyt = dc.getXYT();
+		robot.odoX = xyt[0];
+		robot.odoY = xyt[1];
+		robot.odoTheta = xyt[2];
+		if (solver)
+			return true;
+		int steps = 0;
+		while (robot.light(LIGHT_NOISE) > MAX_GRID && steps < 1000) {
+			turn(robot, 0.5);
+			++steps;
+		}
+		double tmin = robot.odoTheta;
+		while (robot.light(LIGHT_NOISE) <= MAX_GRID && steps < 1000) {
+			turn(robot, 0.5);
+			++steps;
+		}
+		double tmax = robot.odoTheta;
+		double tavg = (tmin + tmax) / 2;
+		robot.odoTheta = Util.toRange(tmax +
+				Util.toRange(90 + CORRECTION_FACTOR - tavg, -180, true), 0.0, false);
+		return true;
+	}
+
+	/**
+	 * The pose computation of CSLocalizer.doLocalization before the solver,
+	 * from the four recorded poses. Returns x, y and the orientation correction.
+	 */
+	private static double[] solveSpin(double[][] data) {
+		double[] diffs = getXAndYDiff(data, data[0][2], data[1][2], data[2][2], data[3][2]);
+		double thetaXDiff = Util.toRange(diffs[0], -180.0, true);
+		double thetaYDiff = Util.toRange(diffs[1], -180.0, true);
+		double averageError = averageError(data, thetaXDiff, thetaYDiff);
+		double x, y;
+		if (thetaYDiff >= 0.0)
+			x = -SimRobot.CS_DISTANCE * Math.cos(Math.toRadians(thetaYDiff)/2);
+		else
+			x = SimRobot.CS_DISTANCE * Math.cos(Math.toRadians(thetaYDiff)/2);
+		if (thetaXDiff >= 0.0)
+			y = -SimRobot.CS_DISTANCE * Math.cos(Math.toRadians(thetaXDiff)/2);
+		else
+			y = SimRobot.CS_DISTANCE * Math.cos(Math.toRadians(thetaXDiff)/2);
+		double[] pose = {x, y, averageError + CORRECTION_FACTOR};
+		return pose;
+	}
+
+	/**
+	 * The average orientation error of CSLocalizer.doLocalization before the solver.
+	 */
+	private static double averageError(double[][] data, double thetaXDiff, double thetaYDiff) {
+		double[] actual = new double[NUM_LINES];
+		if (thetaXDiff >= 0) {
+			actual[0] = 270.0 + thetaXDiff / 2;
+			actual[2] = 270.0 - thetaXDiff / 2;
+		} else {
+			actual[0] = 90.0 + thetaXDiff / 2;
+			actual[2] = 90.0 - thetaXDiff / 2;
+		}
+		if (thetaYDiff >= 0) {
+			actual[1] = 180.0 + thetaYDiff / 2;
+			actual[3] = 180.0 - thetaYDiff / 2;
+		} else {
+			actual[1] = thetaYDiff / 2;
+			actual[3] = -thetaYDiff / 2;
+		}
+		double sum = 0;
+		for (int i = 0; i < NUM_LINES; ++i) {
+			sum += Util.toRange(Util.toRange(actual[i], 0.0, false) - data[i][2], -180.0, true);
+		}
+		return sum / NUM_LINES;
+	}
+
+	/**
+	 * The line assignment of CSLocalizer.getXAndYDiff before the solver.
+	 */
+	private static double[] getXAndYDiff(double[][] data, double x1, double y1,
+			double x2, double y2) {
+		for (int j = 0; j < 4; ++j) {
+			double thetaXDiff = Math.signum(1.5 - j) * (x1 - x2);
+			double thetaYDiff = Math.signum(0.5 - (j % 2)) * (y1 - y2);
+			double averageError = averageError(data, thetaXDiff, thetaYDiff);
+			if (averageError >= 315 || averageError <= 45) {
+				double[] result = {thetaXDiff, thetaYDiff};
+				return result;
+			}
+		}
+		double[] result = {(x1-x2), (y1-y2)};
+		return result;
+	}
+
+	/**
+	 * Returns true if the mean of the last light values is
+	 * under the threshold of CSPoller.
+	 */
+	private static boolean ping(SimRobot robot) {
+		System.arraycopy(window, 1, window, 0, NUM_VALUES - 1);
+		window[NUM_VALUES - 1] = robot.light(LIGHT_NOISE);
+		int mean = 0;
+		for (int i = 0; i < NUM_VALUES; ++i) {
+			mean += window[i];
+		}
+		return mean / NUM_VALUES <= MAX_GRID;
+	}
+
+	/**
+	 * Turns the robot in place by the given angle in degrees with a motor
+	 * rotation, as Navigation.turn does.
+	 */
+	private static void turn(SimRobot robot, double angle) {
+		double wheelAngle = Math.abs(angle) * SimRobot.WIDTH / (2 * SimRobot.RIGHT_RADIUS);
+		double sign = Math.signum(angle);
+		double done = 0;
+		while (done < wheelAngle || robot.leftSpeed != 0) {
+			double speed = profile(wheelAngle - done);
+			robot.step(-sign * speed, sign * speed, SAMPLE_DELAY);
+			done += Math.abs(robot.leftSpeed) * SAMPLE_DELAY / 1000;
+		}
+	}
+
+	/**
+	 * Returns the wheel speed in deg/s from which the motors can still stop
+	 * within the remaining wheel angle in degrees.
+	 */
+	private static double profile(double remaining) {
+		if (remaining <= 0)
+			return 0;
+		return Math.min(TURN_SPD, Math.sqrt(2 * ACCELERATION * remaining));
+	}
+
+	/**
+	 * Brings the wheels to a stop.
+	 */
+	private static void stop(SimRobot robot) {
+		while (robot.leftSpeed != 0 || robot.rightSpeed != 0) {
+			robot.step(0, 0, SAMPLE_DELAY);
+		}
+	}
+
+	/**
+	 * Adds the values to the totals.
+	 */
+	private static void add(double[] totals, double[] values) {
+		for (int i = 0; i < totals.length; ++i) {
+			totals[i] += values[i];
+		}
+	}
+
+	/**
+	 * Prints the averages of the totals.
+	 */
+	private static void print(String name, double[] totals) {
+		System.out.println(name + ": " + round(totals[0] / TRIALS) + " s, position error " +
+				round(totals[1] / TRIALS) + " cm, heading error " +
+				round(totals[2] / TRIALS) + " deg, " + (int) totals[3] + " gave up");
+	}
+
+	/**
+	 * Rounds to 2 decimals.
+	 */
+	private static double round(double value) {
+		return Math.round(value * 100) / 100.0;
+	}
+}
@@ -0,0 +1,92 @@
+package simulation;
+import util.Point;
+import drivers.Navigation;
+
+/**
+ * A simulation of the rate of the control loops of Navigation and of the
+ * deadband of the motor commands. Drives the Mapped and AlphaMapped routes
+ * with several control periods and deadbands, and prints the route time,
+ * the RMS heading error while driving, the error at the end, the number of
+ * motor commands issued per second of driving and the fraction of the
+ * commands suppressed. Each command suppressed saves setting the speed and
+ * direction of both motors and two changes of thread priority.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ControlRateSimulation {
+	/**
+	 * The control periods simulated in ms.
+	 */
+	private static final long[] PERIODS = {10, 20, 40};
+	/**
+	 * The deadbands simulated in deg/s.
+	 */
+	private static final int[] DEADBANDS = {0, 2, 5, 10};
+	/**
+	 * The number of runs with different wheel and motor errors for each route.
+	 */
+	private static final int TRIALS = 20;
+	/**
+	 * The maximum relative error of the wheel radii.
+	 */
+	private static final double WHEEL_ERROR = 0.005;
+	/**
+	 * The maximum relative speed error of the motors.
+	 */
+	private static final double MOTOR_ERROR = 0.02;
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		run("Mapped", Routes.MAPPED);
+		run("AlphaMapped", Routes.ALPHA_MAPPED);
+	}
+
+	/**
+	 * Drives the route with each period and deadband and prints the results.
+	 */
+	private static void run(String name, Point[] route) {
+		Point[] rest = new Point[route.length - 1];
+		System.arraycopy(route, 1, rest, 0, rest.length);
+		Point end = route[route.length - 1];
+		for (long period : PERIODS) {
+			for (int deadband : DEADBANDS) {
+				double time = 0, heading = 0, endError = 0;
+				long issued = 0, suppressed = 0;
+				for (int trial = 0; trial < TRIALS; ++trial) {
+					double wheel = WHEEL_ERROR * (2.0 * trial / (TRIALS - 1) - 1);
+					SimRobot robot = new SimRobot(route[0].x, route[0].y, 90, wheel, 0, trial);
+					robot.setMotorError(MOTOR_ERROR * (1 - 2.0 * trial / (TRIALS - 1)));
+					SimWorld world = new SimWorld(robot, null);
+					RouteRecorder recorder = new RouteRecorder();
+					world.addHook(recorder);
+					Navigation nav = world.getNavigation();
+					nav.setControlPeriod(period);
+					nav.getMotorCommands().setDeadband(deadband);
+					world.travel(rest, recorder);
+					time += world.currentTimeMillis() / 1000.0;
+					heading += recorder.getHeadingError();
+					double[] xyt = world.getDataCenter().getXYT();
+					endError += Math.hypot(xyt[0] - end.x, xyt[1] - end.y);
+					issued += nav.getMotorCommands().getIssued();
+					suppressed += nav.getMotorCommands().getSuppressed();
+				}
+				System.out.println(name + ", " + period + " ms, deadband " + deadband +
+						": " + format(time / TRIALS) + " s, heading error " +
+						format(heading / TRIALS) + " deg RMS, end error " +
+						format(endError / TRIALS) + " cm, " + format(issued / time) +
+						" commands/s, " + format(100.0 * suppressed / (issued + suppressed)) +
+						" % suppressed");
+			}
+		}
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
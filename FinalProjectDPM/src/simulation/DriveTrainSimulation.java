@@ -0,0 +1,157 @@
+package simulation;
+import util.Util;
+import drivers.MotionProfile;
+
+/**
+ * A simulation of the skew between the two motors of the drive train.
+ * Drives a square of 2 tiles per side with the speed profile of
+ * Navigation, updated every control period, and turns in place at the
+ * corners, on a SimDriveTrain that delays the commands and the reads of
+ * the right motor by up to a given time. No delay is the synchronized
+ * NXTDriveTrain. Prints the skews measured, the heading error of the robot
+ * at the end, caused by the start skew, and the RMS heading error of an
+ * odometer reading the drive train, caused by the read skew.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class DriveTrainSimulation {
+	/**
+	 * The largest delays simulated in ms.
+	 */
+	private static final double[] SKEWS = {0, 1, 2, 4};
+	/**
+	 * The number of runs for each delay.
+	 */
+	private static final int TRIALS = 20;
+	/**
+	 * Same values as in Navigation.
+	 */
+	private static final int HIGH_SPD = 500, TURN_SPD = 200, CONTROL_PERIOD = 10;
+	/**
+	 * Same values as in Navigation.
+	 */
+	private static final double PROFILE_ACCELERATION = 900, JERK = 20000;
+	/**
+	 * The length in cm of a side of the square.
+	 */
+	private static final double SIDE = 2 * Fields.TILE_DISTANCE;
+
+	/**
+	 * The pose of the odometer reading the drive train, in cm and degrees.
+	 */
+	private double x, y, theta;
+	/**
+	 * The previous tachometer readings of the odometer.
+	 */
+	private int leftTacho, rightTacho;
+	/**
+	 * Storage for the tachometer readings.
+	 */
+	private final int[] tachos = new int[2];
+	/**
+	 * The sum of the squared heading errors in degrees of the odometer,
+	 * and the number of samples.
+	 */
+	private double squaredError;
+	private int samples;
+	/**
+	 * The simulated robot and drive train.
+	 */
+	private final SimRobot robot;
+	private final SimDriveTrain train;
+
+	/**
+	 * Default constructor.
+	 */
+	private DriveTrainSimulation(double skew, long seed) {
+		robot = new SimRobot(0, 0, 90, 0, 0, seed);
+		train = new SimDriveTrain(robot, skew, skew, seed);
+		x = y = 0;
+		theta = 90;
+	}
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		for (double skew : SKEWS) {
+			double startSkew = 0, readSkew = 0, heading = 0, odometry = 0;
+			for (int trial = 0; trial < TRIALS; ++trial) {
+				DriveTrainSimulation sim = new DriveTrainSimulation(skew, trial);
+				for (int side = 0; side < 4; ++side) {
+					sim.drive(SIDE);
+					sim.turn(90);
+				}
+				startSkew += sim.train.getStartSkew().getMean();
+				readSkew += sim.train.getReadSkew().getMean();
+				heading += Math.abs(Util.toRange(sim.robot.theta - 90, -180.0, true));
+				odometry += Math.sqrt(sim.squaredError / sim.samples);
+			}
+			System.out.println("Skew up to " + (int) skew + " ms: start skew " +
+					format(startSkew / TRIALS / 1000) + " ms, read skew " +
+					format(readSkew / TRIALS / 1000) + " ms, heading error " +
+					format(heading / TRIALS) + " deg, odometry heading error " +
+					format(odometry / TRIALS) + " deg RMS");
+		}
+	}
+
+	/**
+	 * Drives straight for the distance with the speed profile of
+	 * Navigation, scaling the left speed like Navigation.setMotorSpeeds.
+	 */
+	private void drive(double distance) {
+		MotionProfile profile = new MotionProfile(Math.toDegrees(distance / SimRobot.RIGHT_RADIUS),
+				HIGH_SPD, PROFILE_ACCELERATION, JERK);
+		for (double t = 0; t < profile.getDuration(); t += CONTROL_PERIOD / 1000.0) {
+			int speed = (int) profile.getSpeed(t);
+			train.setSpeeds((int) (speed * SimRobot.RIGHT_RADIUS / SimRobot.LEFT_RADIUS), speed);
+			step();
+		}
+		train.setSpeeds(0, 0);
+		while (robot.leftSpeed != 0 || robot.rightSpeed != 0) {
+			step();
+		}
+	}
+
+	/**
+	 * Turns in place by the angle like Navigation.turnAngle.
+	 */
+	private void turn(double angle) {
+		int wheel = (int) Math.toDegrees(Math.toRadians(angle) * SimRobot.WIDTH / 2 / SimRobot.RIGHT_RADIUS);
+		int leftWheel = (int) (wheel * SimRobot.RIGHT_RADIUS / SimRobot.LEFT_RADIUS);
+		train.rotate((int) (TURN_SPD * SimRobot.RIGHT_RADIUS / SimRobot.LEFT_RADIUS), TURN_SPD,
+				-leftWheel, wheel);
+		while (train.isMoving()) {
+			step();
+		}
+	}
+
+	/**
+	 * Advances one control period and updates the odometer like Odometer.run.
+	 */
+	private void step() {
+		train.advance(CONTROL_PERIOD);
+		train.getTachoCounts(tachos);
+		double leftDistance = Math.toRadians(tachos[0] - leftTacho) * SimRobot.LEFT_RADIUS;
+		double rightDistance = Math.toRadians(tachos[1] - rightTacho) * SimRobot.RIGHT_RADIUS;
+		leftTacho = tachos[0];
+		rightTacho = tachos[1];
+		double thetaChange = Math.toDegrees((rightDistance - leftDistance) / SimRobot.WIDTH);
+		double distanceChange = (leftDistance + rightDistance) / 2;
+		double phi = Math.toRadians(theta + thetaChange / 2);
+		x += distanceChange * Math.cos(phi);
+		y += distanceChange * Math.sin(phi);
+		theta = Util.toRange(theta + thetaChange, 0.0, false);
+		double error = Util.toRange(theta - robot.odoTheta, -180.0, true);
+		squaredError += error * error;
+		++samples;
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
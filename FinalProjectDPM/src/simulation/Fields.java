@@ -0,0 +1,98 @@
+package simulation;
+import java.util.ArrayList;
+import java.util.Random;
+
+import field.CompetitionField;
+import field.FieldMap;
+
+/**
+ * A static class building field maps used by the simulations.
+ * Coordinates are given in tiles and converted to cm.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class Fields {
+	/**
+	 * The distance in cm between parallel grid lines in the field.
+	 * Same value as HWConstants.TILE_DISTANCE, which cannot be loaded
+	 * off the brick.
+	 */
+	public static final double TILE_DISTANCE = 30.48;
+
+	/**
+	 * Returns the competition field used by the Mapped and AlphaMapped
+	 * routes, as laid out in CompetitionField.
+	 * @return The competition field.
+	 */
+	public static FieldMap competition() {
+		return CompetitionField.build(TILE_DISTANCE);
+	}
+
+	/**
+	 * Returns a square field with randomly placed 1 tile obstacles.
+	 * @param tiles The number of tiles on each side of the field.
+	 * @param blocks The number of obstacles.
+	 * @param seed The seed of the random number generator.
+	 * @return The random field.
+	 */
+	public static FieldMap random(int tiles, int blocks, long seed) {
+		Random random = new Random(seed);
+		ArrayList<double[]> walls = new ArrayList<double[]>();
+		addBlock(walls, 0, 0, tiles, tiles);
+		for (int i = 0; i < blocks; ++i) {
+			int x = 1 + random.nextInt(tiles - 2);
+			int y = 1 + random.nextInt(tiles - 2);
+			addBlock(walls, x, y, x + 1, y + 1);
+		}
+		return new FieldMap(toArray(walls));
+	}
+
+	/**
+	 * Returns the field with rectangular obstacles added.
+	 * @param map The field.
+	 * @param blocks The obstacles as {x1, y1, x2, y2} in tiles.
+	 * @return The field with the obstacles.
+	 */
+	public static FieldMap withBlocks(FieldMap map, double[][] blocks) {
+		ArrayList<double[]> walls = new ArrayList<double[]>();
+		for (int i = 0; i < map.getSize(); ++i) {
+			walls.add(map.getWall(i));
+		}
+		for (double[] block : blocks) {
+			addBlock(walls, block[0], block[1], block[2], block[3]);
+		}
+		return new FieldMap(toArray(walls));
+	}
+
+	/**
+	 * Adds a wall given in tiles.
+	 */
+	private static void addWall(ArrayList<double[]> walls,
+			double x1, double y1, double x2, double y2) {
+		walls.add(new double[] {x1 * TILE_DISTANCE, y1 * TILE_DISTANCE,
+				x2 * TILE_DISTANCE, y2 * TILE_DISTANCE});
+	}
+
+	/**
+	 * Adds the four walls of a rectangle given in tiles.
+	 */
+	private static void addBlock(ArrayList<double[]> walls,
+			double x1, double y1, double x2, double y2) {
+		addWall(walls, x1, y1, x2, y1);
+		addWall(walls, x2, y1, x2, y2);
+		addWall(walls, x2, y2, x1, y2);
+		addWall(walls, x1, y2, x1, y1);
+	}
+
+	/**
+	 * Converts a list of walls to an array.
+	 */
+	private static double[][] toArray(ArrayList<double[]> walls) {
+		double[][] result = new double[walls.size()][];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = walls.get(i);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,149 @@
+package simulation;
+import util.Point;
+import util.Util;
+import drivers.MotionProfile;
+import drivers.Navigation;
+
+/**
+ * A simulation of the heading corrections of Navigation.travelToPoint on
+ * the Mapped and AlphaMapped routes. Drives each route with wheel radius
+ * errors and with motor speed errors that make the robot turn while
+ * driving straight, once turning in place whenever the heading error would miss the
+ * point and once steering with the HeadingController, and prints the
+ * route time, the RMS heading error while driving, the number of turns in
+ * place made to correct the heading, the RMS distance from the path and
+ * the error at the end.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class HeadingControlSimulation {
+	/**
+	 * The number of runs with different wheel errors for each route.
+	 */
+	private static final int TRIALS = 20;
+	/**
+	 * The maximum relative error of the wheel radii.
+	 */
+	private static final double WHEEL_ERROR = 0.005;
+	/**
+	 * The maximum relative speed error of the motors.
+	 */
+	private static final double MOTOR_ERROR = 0.02;
+	/**
+	 * Same values as in Navigation.
+	 */
+	private static final int HIGH_SPD = 500, CREEP_SPD = 50, CONTROL_PERIOD = 10;
+	private static final double CM_ERR = 1.0, DEG_ERR = 2.0, JERK = 20000,
+			PROFILE_ACCELERATION = 900;
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		run("Mapped", Routes.MAPPED);
+		run("AlphaMapped", Routes.ALPHA_MAPPED);
+	}
+
+	/**
+	 * Drives the route with both heading corrections and prints the results.
+	 */
+	private static void run(String name, Point[] route) {
+		Point[] rest = new Point[route.length - 1];
+		System.arraycopy(route, 1, rest, 0, rest.length);
+		Point end = route[route.length - 1];
+		for (int mode = 0; mode < 2; ++mode) {
+			double time = 0, heading = 0, tracking = 0, endError = 0;
+			int corrections = 0;
+			for (int trial = 0; trial < TRIALS; ++trial) {
+				double wheel = WHEEL_ERROR * (2.0 * trial / (TRIALS - 1) - 1);
+				SimRobot robot = new SimRobot(route[0].x, route[0].y, 90, wheel, 0, trial);
+				robot.setMotorError(MOTOR_ERROR * (1 - 2.0 * trial / (TRIALS - 1)));
+				SimWorld world = new SimWorld(robot, null);
+				RouteRecorder recorder = new RouteRecorder();
+				world.addHook(recorder);
+				if (mode == 0)
+					former(world, rest, recorder);
+				else
+					world.travel(rest, recorder);
+				time += world.currentTimeMillis() / 1000.0;
+				heading += recorder.getHeadingError();
+				tracking += recorder.getTrackingError();
+				corrections += recorder.getCorrections();
+				double[] xyt = world.getDataCenter().getXYT();
+				endError += Math.hypot(xyt[0] - end.x, xyt[1] - end.y);
+			}
+			System.out.println(name + ", " + (mode == 0 ? "turn in place" : "heading controller") +
+					": " + format(time / TRIALS) + " s, heading error " +
+					format(heading / TRIALS) + " deg RMS, " +
+					format((double) corrections / TRIALS) + " turns, tracking error " +
+					format(tracking / TRIALS) + " cm RMS, end error " +
+					format(endError / TRIALS) + " cm");
+		}
+	}
+
+	/**
+	 * Drives through the points with the former heading correction of
+	 * Navigation.travelToPoint, which drove the same velocity profile
+	 * without steering and turned in place whenever the heading error
+	 * would miss the point.
+	 */
+	private static void former(SimWorld world, Point[] path, RouteRecorder recorder) {
+		Navigation nav = world.getNavigation();
+		for (Point p : path) {
+			double[] xyt = world.getDataCenter().getXYT();
+			recorder.segment(new Point(xyt[0], xyt[1]), p);
+			nav.turnTo(bearing(xyt, p));
+			MotionProfile profile = plan(world, p);
+			long start = world.currentTimeMillis();
+			double speed = 0;
+			xyt = world.getDataCenter().getXYT();
+			while (Math.abs(p.x - xyt[0]) > CM_ERR || Math.abs(p.y - xyt[1]) > CM_ERR) {
+				double distance = Math.hypot(p.x - xyt[0], p.y - xyt[1]);
+				double remaining = Math.toDegrees(distance / SimRobot.RIGHT_RADIUS) -
+						speed * CONTROL_PERIOD / 1000.0;
+				speed = profile.getSpeed((world.currentTimeMillis() - start) / 1000.0, remaining);
+				speed = Math.max(speed, CREEP_SPD);
+				nav.setSpeeds((int) speed, (int) speed);
+				world.sleep(CONTROL_PERIOD);
+				xyt = world.getDataCenter().getXYT();
+				distance = Math.hypot(p.x - xyt[0], p.y - xyt[1]);
+				double error = Util.toRange(bearing(xyt, p) - xyt[2], -180.0, true);
+				double tolerance = Math.max(DEG_ERR, Math.toDegrees(Math.atan2(CM_ERR, distance)));
+				if (Math.abs(error) > tolerance) {
+					nav.turnTo(bearing(xyt, p));
+					profile = plan(world, p);
+					start = world.currentTimeMillis();
+					xyt = world.getDataCenter().getXYT();
+				}
+			}
+			nav.stop();
+		}
+		world.settle();
+	}
+
+	/**
+	 * Plans the velocity profile of a straight move from rest to the point
+	 * like Navigation.planMove.
+	 */
+	private static MotionProfile plan(SimWorld world, Point p) {
+		double[] xyt = world.getDataCenter().getXYT();
+		double distance = Math.toDegrees(Math.hypot(p.x - xyt[0], p.y - xyt[1]) /
+				SimRobot.RIGHT_RADIUS);
+		return new MotionProfile(distance, HIGH_SPD, PROFILE_ACCELERATION, JERK);
+	}
+
+	/**
+	 * Returns the heading in degrees from the position to the point.
+	 */
+	private static double bearing(double[] xyt, Point p) {
+		return Util.toRange(Math.toDegrees(Math.atan2(p.y - xyt[1], p.x - xyt[0])), 0.0, false);
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
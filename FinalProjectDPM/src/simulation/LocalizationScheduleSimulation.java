@@ -0,0 +1,223 @@
+package simulation;
+import java.util.Random;
+
+import util.Point;
+import util.Util;
+import data.DataCenter;
+import drivers.Navigation;
+import field.USModel;
+import localization.BackgroundLocalizer;
+import localization.CrossingSolver;
+import localization.LineScan;
+import localization.MCLocalizer;
+import localization.MotionLocalizer;
+
+/**
+ * A simulation of the localization schedule of the Mapped mission. Drives
+ * to the destination, aims, and drives back to the origin, with checkpoints
+ * at the destination before and after aiming and at the origin. The fixed
+ * schedule stops for a sweep localization at every checkpoint, while the
+ * gated schedules stop only if the confidence of the tracker is below the
+ * minimum of the checkpoint. The MotionLocalizer, or the MCLocalizer
+ * that the MissionRunner can run instead, tracks the pose while
+ * driving. Prints the mission time, the number of stops and the pose
+ * errors when aiming and at the end.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class LocalizationScheduleSimulation {
+	/**
+	 * The number of missions simulated for each schedule.
+	 */
+	private static final int TRIALS = 100;
+	/**
+	 * The maximum relative error of the wheel radii.
+	 */
+	private static final double WHEEL_ERROR = 0.005;
+	/**
+	 * The standard deviations of the pose error left by the starting
+	 * localization in cm and degrees.
+	 */
+	private static final double START_XY = 0.5, START_THETA = 1.0;
+	/**
+	 * Same values as LocalizationScheduler.LOCALIZED_XY and LOCALIZED_THETA.
+	 */
+	private static final double LOCALIZED_XY = 1.0, LOCALIZED_THETA = 2.0;
+	/**
+	 * Same values as in CSLocalizer.
+	 */
+	private static final int MAX_LINES = 16, SWEEP_SPD = 200, MIN_CROSSINGS = 4;
+	private static final double MAX_SWEEP = 400, CORRECTION_FACTOR = 1;
+	private static final long SAMPLE_DELAY = 5;
+	/**
+	 * The standard deviation of the noise of the light values.
+	 */
+	private static final double LIGHT_NOISE = 1.0;
+	/**
+	 * The minimum confidences of the checkpoints before aiming, after
+	 * aiming and at the end of the mission. A minimum above 1 always stops.
+	 */
+	private static final double[][] SCHEDULES = {
+		{2, 2, 2}, {0.9, 0.5, 0.5}, {0.95, 0.8, 0.8}, {0.99, 0.99, 0.99}
+	};
+	/**
+	 * The names of the schedules.
+	 */
+	private static final String[] NAMES = {
+		"Fixed", "Mapped (0.9, 0.5, 0.5)", "Strict (0.95, 0.8, 0.8)", "All 0.99"
+	};
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		USModel model = new USModel(Fields.competition(), SimRobot.RIGHT_US_DISTANCE,
+				SimRobot.FRONT_US_DISTANCE, SimRobot.LEFT_US_DISTANCE);
+		int[][] sensors = {{90}, {0, 90, 180}};
+		String[] sensorNames = {"front sensor", "all sensors"};
+		for (int p = 0; p < 2; ++p) {
+			boolean particles = (p == 1);
+			String localizerName = particles ? "MCLocalizer" : "MotionLocalizer";
+			for (int s = 0; s < sensors.length; ++s) {
+				double fixedTime = 0;
+				for (int i = 0; i < SCHEDULES.length; ++i) {
+					double[] totals = new double[8];
+					for (int trial = 0; trial < TRIALS; ++trial) {
+						add(totals, mission(model, sensors[s], particles, SCHEDULES[i], trial));
+					}
+					double time = totals[0] / TRIALS;
+					if (i == 0)
+						fixedTime = time;
+					System.out.println(NAMES[i] + ", " + localizerName + ", " + sensorNames[s] +
+							": " + format(time) + " s (" + format(fixedTime - time) +
+							" s saved), " + format(totals[1] / TRIALS) + " stops, aim error " +
+							format(totals[2] / TRIALS) + " cm " + format(totals[3] / TRIALS) +
+							" deg (worst " + format(totals[6]) + " cm " + format(totals[7]) +
+							" deg), end error " + format(totals[4] / TRIALS) + " cm " +
+							format(totals[5] / TRIALS) + " deg");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Simulates one mission and returns the time in s, the number of stops,
+	 * the position and orientation errors when aiming, the position and
+	 * orientation errors at the end, and the aim errors again for the worst case.
+	 */
+	private static double[] mission(USModel model, int[] sensors, boolean particles,
+			double[] schedule, int trial) {
+		Random random = new Random((trial + 1) * 0x9E3779B97F4A7C15L);
+		double wheel = WHEEL_ERROR * (2 * random.nextDouble() - 1);
+		SimRobot robot = new SimRobot(START_XY * random.nextGaussian(),
+				START_XY * random.nextGaussian(), 90 + START_THETA * random.nextGaussian(),
+				wheel, 1.0, trial);
+		SimWorld world = new SimWorld(robot, model);
+		DataCenter dc = world.getDataCenter();
+		dc.setXYT(0, 0, 90);
+		BackgroundLocalizer localizer;
+		if (particles)
+			localizer = new MCLocalizer(dc, model, sensors);
+		else
+			localizer = new MotionLocalizer(dc, model, sensors);
+		world.addLocalizer(localizer);
+		Navigation nav = world.getNavigation();
+		Point destination = Routes.MAPPED[Routes.MAPPED.length - 1];
+		Point[] back = new Point[Routes.MAPPED.length];
+		for (int i = 0; i < back.length; ++i) {
+			back[i] = Routes.MAPPED[back.length - 1 - i];
+		}
+
+		int stops = 0;
+		localizer.begin(LOCALIZED_XY, LOCALIZED_THETA);
+		world.travel(Routes.MAPPED, null);
+		if (checkpoint(world, localizer, destination, schedule[0]))
+			++stops;
+		double aimXY = world.positionError();
+		double aimT = world.headingError();
+		//Turns towards the target and back to the destination.
+		nav.turnTo(45);
+		nav.travelTo(destination, false);
+		world.settle();
+		if (checkpoint(world, localizer, destination, schedule[1]))
+			++stops;
+		world.travel(back, null);
+		if (checkpoint(world, localizer, back[back.length - 1], schedule[2]))
+			++stops;
+		double[] result = {world.currentTimeMillis() / 1000.0, stops, aimXY, aimT,
+				world.positionError(), world.headingError(), aimXY, aimT};
+		return result;
+	}
+
+	/**
+	 * Localizes at the grid intersection like LocalizationScheduler.checkpoint.
+	 * @return true if the robot stopped to localize.
+	 */
+	private static boolean checkpoint(SimWorld world, BackgroundLocalizer localizer,
+			Point grid, double minConfidence) {
+		if (localizer.getConfidence() >= minConfidence)
+			return false;
+		localizer.end();
+		world.getNavigation().turnTo(45);
+		sweep(world, grid);
+		localizer.begin(LOCALIZED_XY, LOCALIZED_THETA);
+		return true;
+	}
+
+	/**
+	 * The sweep localization of CSLocalizer.doSweepLocalization,
+	 * without the fallback to the spin.
+	 */
+	private static void sweep(SimWorld world, Point grid) {
+		Navigation nav = world.getNavigation();
+		DataCenter dc = world.getDataCenter();
+		SimRobot robot = world.getRobot();
+		LineScan scan = new LineScan();
+		double[][] crossings = new double[MAX_LINES][];
+		double[] correction = null;
+		double previous = dc.getTheta();
+		double rotated = 0;
+		nav.setSpeeds(SWEEP_SPD, -SWEEP_SPD);
+		while (rotated < MAX_SWEEP) {
+			world.sleep(SAMPLE_DELAY);
+			double[] xyt = dc.getXYT();
+			rotated += Math.abs(Util.toRange(xyt[2] - previous, -180.0, true));
+			previous = xyt[2];
+			if (scan.addSample(xyt[2], robot.light(LIGHT_NOISE)) &&
+					scan.getCount() <= MAX_LINES) {
+				int lines = scan.getCount();
+				double[] crossing = {xyt[0], xyt[1], scan.getLine(lines - 1)};
+				crossings[lines - 1] = crossing;
+				double[] solution = CrossingSolver.solve(crossings, lines, grid,
+						SimRobot.CS_DISTANCE, SimRobot.CS_ANGLE);
+				if (solution != null)
+					correction = solution;
+				if (solution != null && solution[4] >= MIN_CROSSINGS)
+					break;
+			}
+		}
+		nav.stop();
+		world.settle();
+		if (correction != null)
+			dc.offsetXYT(correction[0], correction[1], correction[2] + CORRECTION_FACTOR);
+	}
+
+	/**
+	 * Adds the values to the totals, keeping the maximum of the worst case.
+	 */
+	private static void add(double[] totals, double[] values) {
+		for (int i = 0; i < 6; ++i) {
+			totals[i] += values[i];
+		}
+		totals[6] = Math.max(totals[6], values[6]);
+		totals[7] = Math.max(totals[7], values[7]);
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
@@ -0,0 +1,176 @@
+package simulation;
+import java.util.Random;
+
+import util.Point;
+import drivers.MotionTimer;
+import planning.GridPlanner;
+import planning.MissionOptimizer;
+import planning.OccupancyGrid;
+import planning.PathSmoother;
+
+/**
+ * A benchmark of the mission optimizer on the competition field. Draws
+ * sets of targets and compares the time of the run planned by the optimizer
+ * with the run of the mission mains, which fire at the targets in the given
+ * order from the reachable point of the ring closest to the robot, as
+ * turnToLaunch does. Both runs are timed with the same routes and motion
+ * estimates, from the corner back to it, as they are traveled. The run
+ * planned for routes smoothed and followed is also timed. Then prints the effect of the number of starts
+ * of the local search and the time to optimize with several threads.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MissionOptimizationBenchmark {
+	/**
+	 * The radius in cm of the footprint of the robot.
+	 * Same value as in Navigation.
+	 */
+	private static final double ROBOT_RADIUS = 10.0;
+	/**
+	 * Same values as HWConstants.LAUNCH_DISTANCE and LAUNCH_ANGLE,
+	 * which cannot be loaded off the brick.
+	 */
+	private static final double LAUNCH_DISTANCE = Math.hypot(117, 4),
+			LAUNCH_ANGLE = Math.toDegrees(Math.atan2(4, 117));
+	/**
+	 * The numbers of targets drawn.
+	 */
+	private static final int[] TARGETS = {2, 4, 6, 8};
+	/**
+	 * The number of sets of targets drawn for each number.
+	 */
+	private static final int TRIALS = 10;
+	/**
+	 * The numbers of starts of the local search compared.
+	 */
+	private static final int[] STARTS = {1, 8, 64};
+	/**
+	 * The numbers of threads compared.
+	 */
+	private static final int[] THREADS = {1, 2, 4};
+	/**
+	 * The speeds in deg/s the routes are followed at.
+	 * Same values as in MissionRunner.
+	 */
+	private static final int CORNER_SPD = 300, HIGH_SPD = 500;
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) {
+		OccupancyGrid grid = new OccupancyGrid(Fields.competition(),
+				Fields.TILE_DISTANCE / 4, ROBOT_RADIUS);
+		MotionTimer timer = new MotionTimer(SimRobot.RIGHT_RADIUS, SimRobot.WIDTH);
+		Point corner = new Point(0, 0);
+		for (int count : TARGETS) {
+			double[] totals = new double[2 + STARTS.length];
+			for (int trial = 0; trial < TRIALS; ++trial) {
+				Random random = new Random(1000 * count + trial);
+				Point[] targets = new Point[count];
+				int[] shots = new int[count];
+				for (int i = 0; i < count; ++i) {
+					targets[i] = new Point(Fields.TILE_DISTANCE * (random.nextDouble() * 12 - 1),
+							Fields.TILE_DISTANCE * (random.nextDouble() * 12 - 1));
+					shots[i] = 1 + random.nextInt(3);
+				}
+				totals[0] += baseline(grid, timer, corner, targets);
+				for (int s = 0; s < STARTS.length; ++s) {
+					MissionOptimizer optimizer = optimizer(grid);
+					optimizer.setSearch(1, STARTS[s]);
+					totals[1 + s] += optimizer.optimize(corner.x, corner.y, 45, corner,
+							targets, shots).getDuration();
+				}
+				MissionOptimizer optimizer = optimizer(grid);
+				optimizer.setSmoother(new PathSmoother(grid,
+						PathSmoother.curvatureLimit(SimRobot.WIDTH, CORNER_SPD, HIGH_SPD)));
+				optimizer.setSearch(1, STARTS[STARTS.length - 1]);
+				totals[1 + STARTS.length] += optimizer.optimize(corner.x, corner.y, 45, corner,
+						targets, shots).getDuration();
+			}
+			StringBuilder line = new StringBuilder(count + " targets: given order " +
+					format(totals[0] / TRIALS) + " s");
+			for (int s = 0; s < STARTS.length; ++s) {
+				line.append(", optimized with " + STARTS[s] + " starts " +
+						format(totals[1 + s] / TRIALS) + " s");
+			}
+			line.append(", followed " + format(totals[1 + STARTS.length] / TRIALS) + " s");
+			System.out.println(line);
+		}
+
+		//Times the optimization of the largest problem.
+		Random random = new Random(0);
+		int count = TARGETS[TARGETS.length - 1];
+		Point[] targets = new Point[count];
+		int[] shots = new int[count];
+		for (int i = 0; i < count; ++i) {
+			targets[i] = new Point(Fields.TILE_DISTANCE * (random.nextDouble() * 12 - 1),
+					Fields.TILE_DISTANCE * (random.nextDouble() * 12 - 1));
+			shots[i] = 1;
+		}
+		for (int threads : THREADS) {
+			MissionOptimizer optimizer = optimizer(grid);
+			optimizer.setSearch(threads, STARTS[STARTS.length - 1]);
+			long begin = System.nanoTime();
+			MissionOptimizer.Plan plan = optimizer.optimize(corner.x, corner.y, 45, corner,
+					targets, shots);
+			double elapsed = (System.nanoTime() - begin) / 1e6;
+			System.out.println(threads + " threads, " + count + " targets, " +
+					STARTS[STARTS.length - 1] + " starts: " + format(elapsed) + " ms, plan " +
+					format(plan.getDuration()) + " s, found from start " + optimizer.getBestStart());
+		}
+		System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Returns an optimizer with the parameters of the robot.
+	 */
+	private static MissionOptimizer optimizer(OccupancyGrid grid) {
+		return new MissionOptimizer(grid, SimRobot.RIGHT_RADIUS, SimRobot.WIDTH,
+				LAUNCH_DISTANCE, LAUNCH_ANGLE);
+	}
+
+	/**
+	 * Returns the time in s of the run that fires at the targets in the
+	 * given order, each from the reachable point of the ring closest to the
+	 * robot, and returns to the corner.
+	 */
+	private static double baseline(OccupancyGrid grid, MotionTimer timer,
+			Point corner, Point[] targets) {
+		GridPlanner planner = new GridPlanner(grid);
+		double[] pose = {corner.x, corner.y, 45};
+		double time = 0;
+		for (Point target : targets) {
+			double best = Double.POSITIVE_INFINITY;
+			Point[] route = null;
+			double heading = 0;
+			for (int k = 0; k < 360; ++k) {
+				double rad = Math.toRadians(k);
+				Point p = new Point(target.x - LAUNCH_DISTANCE * Math.cos(rad),
+						target.y - LAUNCH_DISTANCE * Math.sin(rad));
+				double distance = Math.hypot(p.x - pose[0], p.y - pose[1]);
+				if (distance >= best || grid.isBlocked(grid.column(p.x), grid.row(p.y)))
+					continue;
+				//Skips the points walled off from the robot.
+				Point[] path = planner.plan(new Point(pose[0], pose[1]), p);
+				if (path != null) {
+					best = distance;
+					route = path;
+					heading = k - LAUNCH_ANGLE;
+				}
+			}
+			time += timer.travelTime(pose[0], pose[1], pose[2], route, pose);
+			time += timer.turnTime(pose[2], heading);
+			pose[2] = heading;
+		}
+		return time + timer.travelTime(pose[0], pose[1], pose[2],
+				planner.plan(new Point(pose[0], pose[1]), corner), null);
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
@@ -0,0 +1,130 @@
+package simulation;
+import java.util.Random;
+
+import util.Point;
+import util.Util;
+import data.DataCenter;
+import field.FieldMap;
+import field.USModel;
+import localization.MotionLocalizer;
+
+/**
+ * A simulation of localizing while traveling on the Mapped mission. Drives
+ * from the origin to the destination and back with a random wheel error and
+ * a random error left by the starting localization, with the MotionLocalizer
+ * correcting the odometry. At the two localization
+ * stops of the mission, prints how often the tracker was confident enough
+ * to skip the stop and the position and orientation errors at those stops,
+ * next to the errors of dead reckoning.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MotionLocalizerSimulation {
+	/**
+	 * The number of missions simulated for each configuration.
+	 */
+	private static final int TRIALS = 100;
+	/**
+	 * The maximum relative error of the wheel radii.
+	 */
+	private static final double WHEEL_ERROR = 0.005;
+	/**
+	 * The standard deviations of the pose error left by the starting
+	 * localization in cm and degrees.
+	 */
+	private static final double START_XY = 0.5, START_THETA = 1.0;
+
+	/**
+	 * The minimum confidence at which a stop is skipped.
+	 */
+	private static final double MIN_CONFIDENCE = 0.8;
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		FieldMap map = Fields.competition();
+		USModel model = new USModel(map, SimRobot.RIGHT_US_DISTANCE,
+				SimRobot.FRONT_US_DISTANCE, SimRobot.LEFT_US_DISTANCE);
+		run("Dead reckoning", null, null, false);
+		run("Lines", null, new int[0], false);
+		run("Lines and front sensor", model, new int[] {90}, false);
+		run("Lines and all sensors", model, new int[] {0, 90, 180}, false);
+		run("Lines and all sensors, bad pings", model, new int[] {0, 90, 180}, true);
+	}
+
+	/**
+	 * Simulates the missions with the given sensors and prints the results.
+	 * @param name The name of the configuration.
+	 * @param model The model of the ultrasonic sensors, or null for none.
+	 * @param sensors The sensors used, or null for dead reckoning.
+	 * @param badPings Are grid lines missed and falsely detected?
+	 */
+	private static void run(String name, USModel model, int[] sensors, boolean badPings) {
+		Point[] back = new Point[Routes.MAPPED.length];
+		for (int i = 0; i < back.length; ++i) {
+			back[i] = Routes.MAPPED[back.length - 1 - i];
+		}
+		//Number of stops skipped, sum of the errors at skipped stops,
+		//worst error at skipped stops and sum of the errors at all stops.
+		double[] totals = new double[6];
+		for (int trial = 0; trial < TRIALS; ++trial) {
+			Random random = new Random((trial + 1) * 0x9E3779B97F4A7C15L);
+			double wheel = WHEEL_ERROR * (2 * random.nextDouble() - 1);
+			SimRobot robot = new SimRobot(START_XY * random.nextGaussian(),
+					START_XY * random.nextGaussian(), 90 + START_THETA * random.nextGaussian(),
+					wheel, 1.0, trial);
+			SimWorld world = new SimWorld(robot, model);
+			DataCenter dc = world.getDataCenter();
+			dc.setXYT(0, 0, 90);
+			if (badPings)
+				world.setLineNoise(random);
+			MotionLocalizer localizer = null;
+			if (sensors != null) {
+				localizer = new MotionLocalizer(dc, model, sensors);
+				world.addLocalizer(localizer);
+				localizer.begin(2 * START_XY, 2 * START_THETA);
+			}
+			world.travel(Routes.MAPPED, null);
+			record(world, localizer, totals);
+			//The stop at the destination relocalizes whether skipped or not.
+			dc.setXYT(robot.x + START_XY * random.nextGaussian(),
+					robot.y + START_XY * random.nextGaussian(),
+					Util.toRange(robot.theta + START_THETA * random.nextGaussian(), 0.0, false));
+			if (localizer != null)
+				localizer.begin(2 * START_XY, 2 * START_THETA);
+			world.travel(back, null);
+			record(world, localizer, totals);
+		}
+		int stops = 2 * TRIALS;
+		System.out.println(name + ": " + (int) totals[0] + "/" + stops + " stops skipped, error " +
+				format(totals[4] / stops) + " cm " + format(totals[5] / stops) + " deg over all stops" +
+				(totals[0] > 0 ? ", " + format(totals[1] / totals[0]) + " cm " +
+				format(totals[2] / totals[0]) + " deg mean and " + format(totals[3]) +
+				" cm worst when skipped" : ""));
+	}
+
+	/**
+	 * Adds the results of the stop to the totals.
+	 */
+	private static void record(SimWorld world, MotionLocalizer localizer, double[] totals) {
+		double errorXY = world.positionError();
+		double errorT = world.headingError();
+		totals[4] += errorXY;
+		totals[5] += errorT;
+		if (localizer != null && localizer.getConfidence() >= MIN_CONFIDENCE) {
+			++totals[0];
+			totals[1] += errorXY;
+			totals[2] += errorT;
+			totals[3] = Math.max(totals[3], errorXY);
+		}
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
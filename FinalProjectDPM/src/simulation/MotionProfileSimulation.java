@@ -0,0 +1,98 @@
+package simulation;
+import util.Point;
+import util.Util;
+import drivers.Navigation;
+
+/**
+ * A simulation of straight moves with the speed laws of Navigation.
+ * Drives straight moves of several lengths with the former speed law,
+ * which interpolated the speed on the squared distance left, and with
+ * trapezoidal and S-curve velocity profiles. Prints the time to reach
+ * the target and stop, the overshoot past the target and the final error.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class MotionProfileSimulation {
+	/**
+	 * The lengths of the moves simulated in cm.
+	 */
+	private static final double[] DISTANCES = {5, 10, 20, 30.48, 60.96, 121.92};
+	/**
+	 * The jerk limits simulated in deg/s/s/s. The infinite limit is the
+	 * trapezoidal profile.
+	 */
+	private static final double[] JERKS = {Double.POSITIVE_INFINITY, 20000, 5000};
+	/**
+	 * Same values as the former Navigation speed law.
+	 */
+	private static final int LOW_SPD = 100, HIGH_SPD = 500;
+	/**
+	 * Same values as in Navigation.
+	 */
+	private static final double CM_ERR = 1.0, DEG_ERR = 2.0;
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		for (double distance : DISTANCES) {
+			print("Squared distance law", distance, former(distance));
+			for (double jerk : JERKS) {
+				SimWorld world = new SimWorld(new SimRobot(0, 0, 90, 0, 0, 0), null);
+				world.getNavigation().setJerk(jerk);
+				world.travel(new Point[] {new Point(0, distance)}, null);
+				String name = Double.isInfinite(jerk) ? "Trapezoidal" : "S-curve, jerk " + (int) jerk;
+				print(name, distance, world);
+			}
+		}
+	}
+
+	/**
+	 * Drives the move with the former speed law of Navigation.travelToPoint,
+	 * which updated the speed as fast as it could and turned in place
+	 * whenever the heading error exceeded DEG_ERR.
+	 */
+	private static SimWorld former(double distance) {
+		SimWorld world = new SimWorld(new SimRobot(0, 0, 90, 0, 0, 0), null);
+		Navigation nav = world.getNavigation();
+		double[] xyt = world.getDataCenter().getXYT();
+		while (Math.abs(xyt[0]) > CM_ERR || Math.abs(distance - xyt[1]) > CM_ERR) {
+			double dist = xyt[0] * xyt[0] + (distance - xyt[1]) * (distance - xyt[1]);
+			if (dist > Fields.TILE_DISTANCE)
+				dist = Fields.TILE_DISTANCE;
+			int speed = (int) (LOW_SPD + dist / Fields.TILE_DISTANCE * (HIGH_SPD - LOW_SPD));
+			nav.setSpeeds(speed, speed);
+			world.sleep(1);
+			xyt = world.getDataCenter().getXYT();
+			double minAng = Util.toRange(Math.toDegrees(
+					Math.atan2(distance - xyt[1], -xyt[0])), 0.0, false);
+			double error = Math.abs(xyt[2] - minAng);
+			if (error > DEG_ERR && error < 360 - DEG_ERR) {
+				nav.turnTo(minAng);
+				xyt = world.getDataCenter().getXYT();
+			}
+		}
+		nav.stop();
+		world.settle();
+		return world;
+	}
+
+	/**
+	 * Prints the results of a move.
+	 */
+	private static void print(String name, double distance, SimWorld world) {
+		double y = world.getDataCenter().getY();
+		System.out.println(format(distance) + " cm, " + name + ": " +
+				format(world.currentTimeMillis() / 1000.0) + " s, overshoot " +
+				format(Math.max(0, y - distance)) + " cm, error " +
+				format(Math.abs(y - distance)) + " cm");
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
@@ -0,0 +1,130 @@
+package simulation;
+import util.Util;
+import data.DataCenter;
+import field.FieldMap;
+import field.USModel;
+import localization.ParticleFilter;
+
+/**
+ * A simulation of the particle filter localizer on the Mapped route.
+ * Drives the route with drifting odometry, once with dead reckoning only
+ * and once with the filter correcting the odometry in the background
+ * like MCLocalizer, and prints the position errors and update times. The
+ * filter is run directly rather than through MCLocalizer to vary its
+ * number of particles and threads.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ParticleFilterSimulation {
+	/**
+	 * The relative error of the wheel radii.
+	 */
+	private static final double WHEEL_ERROR = 0.01;
+	/**
+	 * The number of hook calls between filter updates.
+	 * Matches the 50 ms period of MCLocalizer.
+	 */
+	private static final int UPDATE_STEPS = 5;
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		FieldMap map = Fields.competition();
+		final USModel model = new USModel(map, SimRobot.RIGHT_US_DISTANCE,
+				SimRobot.FRONT_US_DISTANCE, SimRobot.LEFT_US_DISTANCE);
+
+		//Dead reckoning only.
+		SimWorld world = new SimWorld(new SimRobot(0, 0, 90, WHEEL_ERROR, 1.0, 1), null);
+		final double[] worst = new double[1];
+		world.addHook(new SimWorld.Hook() {
+			public void step(SimWorld w, boolean crossed) {
+				worst[0] = Math.max(worst[0], w.positionError());
+			}
+		});
+		world.travel(Routes.MAPPED, null);
+		System.out.println("Dead reckoning: final error " + format(world.positionError()) +
+				" cm, worst " + format(worst[0]) + " cm");
+
+		int[] front = {90};
+		int[] all = {0, 90, 180};
+		run(model, front, 300, 1);
+		run(model, all, 300, 1);
+		for (int threads = 1; threads <= 4; threads *= 2) {
+			run(model, all, 5000, threads);
+		}
+	}
+
+	/**
+	 * Drives the route with the filter correcting the odometry.
+	 */
+	private static void run(final USModel model, final int[] sensors,
+			int particles, int threads) {
+		SimWorld world = new SimWorld(new SimRobot(0, 0, 90, WHEEL_ERROR, 1.0, 1), null);
+		final ParticleFilter filter = new ParticleFilter(model, particles, threads, 2);
+		filter.setColorSensor(SimRobot.CS_DISTANCE, SimRobot.CS_ANGLE, Fields.TILE_DISTANCE);
+		filter.init(0, 0, 90, 2.0, 2.0);
+		//The odometry pose at the last update, distance and angle
+		//since the last range update, worst error, time spent and updates.
+		final double[] state = {0, 0, 90, 0, 0, 0, 0, 0};
+		world.addHook(new SimWorld.Hook() {
+			int steps = 0;
+			boolean line = false;
+			public void step(SimWorld w, boolean crossed) {
+				line |= crossed;
+				if (++steps % UPDATE_STEPS != 0)
+					return;
+				long start = System.nanoTime();
+				SimRobot r = w.getRobot();
+				DataCenter dc = w.getDataCenter();
+				double[] xyt = dc.getXYT();
+				double dx = xyt[0] - state[0];
+				double dy = xyt[1] - state[1];
+				double turn = Util.toRange(xyt[2] - state[2], -180.0, true);
+				double distance = Math.sqrt(dx * dx + dy * dy);
+				double heading = Math.toRadians(state[2] + turn / 2);
+				if (dx * Math.cos(heading) + dy * Math.sin(heading) < 0)
+					distance = -distance;
+				filter.predict(distance, turn);
+				state[3] += Math.abs(distance);
+				state[4] += Math.abs(turn);
+				if (line)
+					filter.updateLine();
+				line = false;
+				if (state[3] > 2.0 || state[4] > 5.0) {
+					for (int angle : sensors) {
+						filter.updateRange(angle, r.ultrasonic(model, angle));
+					}
+					state[3] = 0;
+					state[4] = 0;
+				}
+				filter.resampleIfNeeded();
+				double[] estimate = filter.getEstimate();
+				if (estimate[3] < 3.0 && estimate[4] < 4.0)
+					dc.setXYT(estimate[0], estimate[1], estimate[2]);
+				xyt = dc.getXYT();
+				state[0] = xyt[0];
+				state[1] = xyt[1];
+				state[2] = xyt[2];
+				state[5] = Math.max(state[5], w.positionError());
+				state[6] += System.nanoTime() - start;
+				++state[7];
+			}
+		});
+		world.travel(Routes.MAPPED, null);
+		filter.stop();
+		System.out.println("Particle filter (" + particles + " particles, " + sensors.length + " sensor" +
+				(sensors.length > 1 ? "s, " : ", ") + threads + " thread" + (threads > 1 ? "s" : "") +
+				"): final error " + format(world.positionError()) + " cm, worst " +
+				format(state[5]) + " cm, " + format(state[6] / state[7] / 1000) +
+				" us per update");
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
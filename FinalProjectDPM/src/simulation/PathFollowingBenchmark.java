@@ -0,0 +1,122 @@
+package simulation;
+import util.Point;
+import field.FieldMap;
+
+/**
+ * A benchmark of the path following modes on the Mapped and AlphaMapped
+ * routes. Drives each route with the stop-turn-go behaviour of
+ * Navigation.travel and with the pure pursuit PathFollower, and prints the
+ * traversal time, the RMS and worst distance from the path, the error at
+ * the end and the smallest distance from the center of the robot to a wall.
+ * The distances are measured from the odometry pose, which the controllers
+ * act on, so that the drift of the odometry does not hide their errors.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class PathFollowingBenchmark {
+	/**
+	 * The number of runs with different wheel errors for each route.
+	 */
+	private static final int TRIALS = 20;
+	/**
+	 * The maximum relative error of the wheel radii.
+	 */
+	private static final double WHEEL_ERROR = 0.005;
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) {
+		FieldMap map = Fields.competition();
+		run("Mapped", Routes.MAPPED, map);
+		run("AlphaMapped", Routes.ALPHA_MAPPED, map);
+	}
+
+	/**
+	 * Benchmarks both modes on the route and prints the results.
+	 */
+	private static void run(String name, Point[] route, FieldMap map) {
+		for (int mode = 0; mode < 2; ++mode) {
+			//Time, squared error, samples, worst error, end error and clearance.
+			double[] totals = {0, 0, 0, 0, 0, Double.MAX_VALUE};
+			for (int trial = 0; trial < TRIALS; ++trial) {
+				double wheel = WHEEL_ERROR * (2.0 * trial / (TRIALS - 1) - 1);
+				SimRobot robot = new SimRobot(route[0].x, route[0].y, 90, wheel, 0, trial);
+				SimWorld world = new SimWorld(robot, null);
+				world.addHook(new Recorder(route, map, totals));
+				Point[] rest = new Point[route.length - 1];
+				System.arraycopy(route, 1, rest, 0, rest.length);
+				if (mode == 0) {
+					world.travel(rest, null);
+				} else {
+					world.getNavigation().followPath(rest);
+					world.settle();
+				}
+				totals[0] += world.currentTimeMillis() / 1000.0;
+				double[] xyt = world.getDataCenter().getXYT();
+				totals[4] += Math.hypot(xyt[0] - route[route.length - 1].x,
+						xyt[1] - route[route.length - 1].y);
+			}
+			System.out.println(name + ", " + (mode == 0 ? "stop-turn-go" : "pure pursuit") +
+					": " + format(totals[0] / TRIALS) + " s, tracking error " +
+					format(Math.sqrt(totals[1] / totals[2])) + " cm RMS, worst " +
+					format(totals[3]) + " cm, end error " + format(totals[4] / TRIALS) +
+					" cm, clearance " + format(totals[5]) + " cm");
+		}
+	}
+
+	/**
+	 * Records the distance from the odometry position to the route
+	 * and to the walls every step of the simulation.
+	 */
+	private static class Recorder implements SimWorld.Hook {
+		/**
+		 * The route driven.
+		 */
+		private final Point[] route;
+		/**
+		 * The map of the field.
+		 */
+		private final FieldMap map;
+		/**
+		 * The totals of the benchmark.
+		 */
+		private final double[] totals;
+		/**
+		 * Storage for the closest point of a wall.
+		 */
+		private final double[] closest = new double[2];
+
+		/**
+		 * Default constructor.
+		 */
+		Recorder(Point[] route, FieldMap map, double[] totals) {
+			this.route = route;
+			this.map = map;
+			this.totals = totals;
+		}
+
+		/**
+		 * Called every step of the simulation.
+		 */
+		public void step(SimWorld world, boolean crossed) {
+			double[] xyt = world.getDataCenter().getXYT();
+			double squared = Paths.squaredDistanceToPath(xyt[0], xyt[1], route);
+			totals[1] += squared;
+			totals[2] += 1;
+			totals[3] = Math.max(totals[3], Math.sqrt(squared));
+			if (map.nearestWall(xyt[0], xyt[1], Fields.TILE_DISTANCE, closest) >= 0) {
+				totals[5] = Math.min(totals[5],
+						Math.hypot(closest[0] - xyt[0], closest[1] - xyt[1]));
+			}
+		}
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
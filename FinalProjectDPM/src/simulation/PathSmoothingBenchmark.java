@@ -0,0 +1,255 @@
+package simulation;
+import util.Point;
+import util.Util;
+import drivers.MotionProfile;
+import field.FieldMap;
+import planning.GridPlanner;
+import planning.OccupancyGrid;
+import planning.PathSmoother;
+
+/**
+ * A benchmark of the PathSmoother on the hand-made routes of Mapped and
+ * AlphaMapped, with and without the shortcuts through the map, and on
+ * routes planned on random fields. Prints the number of
+ * points left after each stage and the number of stops, then the traversal
+ * time estimated from the speed limits of the robot and the time simulated,
+ * for stop-turn-go on the original points and for pure pursuit on the
+ * smoothed points, with the smallest distance to a wall.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class PathSmoothingBenchmark {
+	/**
+	 * Same values as in Navigation and PathFollower.
+	 */
+	private static final int HIGH_SPD = 500, MID_SPD = 300, TURN_SPD = 200;
+	/**
+	 * Same values as in Navigation and PathFollower.
+	 */
+	private static final double PROFILE_ACCELERATION = 900, JERK = 20000, DECELERATION = 600;
+	/**
+	 * The radius in cm of the footprint of the robot.
+	 */
+	private static final double ROBOT_RADIUS = 10.0;
+	/**
+	 * The size in cm of the cells of the grid.
+	 */
+	private static final double CELL_SIZE = Fields.TILE_DISTANCE / 4;
+	/**
+	 * The number of random fields.
+	 */
+	private static final int FIELDS = 3;
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) {
+		//The corners are driven with the center at MID_SPD and the outer wheel at HIGH_SPD.
+		double curvature = PathSmoother.curvatureLimit(SimRobot.WIDTH, MID_SPD, HIGH_SPD);
+		System.out.println("Curvature limit " + format(curvature) + " 1/cm, radius " +
+				format(1 / curvature) + " cm");
+		FieldMap competition = Fields.competition();
+		run("Mapped", competition, Routes.MAPPED, curvature, true);
+		run("Mapped without shortcuts", competition, Routes.MAPPED, curvature, false);
+		run("AlphaMapped", competition, Routes.ALPHA_MAPPED, curvature, true);
+		run("AlphaMapped without shortcuts", competition, Routes.ALPHA_MAPPED, curvature, false);
+		for (int f = 0; f < FIELDS; ++f) {
+			FieldMap map = Fields.random(12, 24, f);
+			Point start = tiles(0.5, 0.5);
+			Point[] planned = new GridPlanner(new OccupancyGrid(map, CELL_SIZE, ROBOT_RADIUS))
+					.plan(start, tiles(11.5, 11.5));
+			Point[] route = new Point[planned.length + 1];
+			route[0] = start;
+			System.arraycopy(planned, 0, route, 1, planned.length);
+			run("Random field " + f, map, route, curvature, true);
+		}
+	}
+
+	/**
+	 * Smooths the route and prints the results.
+	 */
+	private static void run(String name, FieldMap map, Point[] route, double curvature,
+			boolean shortcuts) {
+		OccupancyGrid grid = new OccupancyGrid(map, CELL_SIZE, ROBOT_RADIUS);
+		PathSmoother smoother = new PathSmoother(grid, curvature);
+		Point start = route[0];
+		Point[] original = new Point[route.length - 1];
+		System.arraycopy(route, 1, original, 0, original.length);
+		Point[] shortcut = shortcuts ? smoother.shortcut(start, original) : original;
+		Point[] simplified = PathSmoother.removeCollinear(start, shortcut);
+		Point[] smoothed = smoother.smooth(start, simplified);
+		System.out.println(name + ": " + original.length + " points, " + shortcut.length +
+				" after shortcuts, " + simplified.length + " after collinear removal, " +
+				smoothed.length + " smoothed samples with " + stops(start, smoothed) + " stops");
+
+		double[] clearance = {Double.MAX_VALUE};
+		SimWorld world = new SimWorld(new SimRobot(start.x, start.y, 90, 0, 0, 0), null);
+		world.addHook(recorder(map, clearance));
+		world.travel(original, null);
+		System.out.println("  stop-turn-go: estimated " + format(estimateStops(start, original)) +
+				" s, simulated " + format(world.currentTimeMillis() / 1000.0) + " s, clearance " +
+				format(clearance[0]) + " cm");
+
+		Point[] path = new Point[smoothed.length + 1];
+		path[0] = start;
+		System.arraycopy(smoothed, 0, path, 1, smoothed.length);
+		clearance[0] = Double.MAX_VALUE;
+		world = new SimWorld(new SimRobot(start.x, start.y, 90, 0, 0, 0), null);
+		world.addHook(recorder(map, clearance));
+		world.getNavigation().followPath(smoothed);
+		world.settle();
+		double[] xyt = world.getDataCenter().getXYT();
+		System.out.println("  smoothed pure pursuit: estimated " + format(estimateSmooth(path)) +
+				" s, simulated " + format(world.currentTimeMillis() / 1000.0) + " s, clearance " +
+				format(clearance[0]) + " cm, end error " +
+				format(Math.hypot(xyt[0] - path[path.length - 1].x,
+						xyt[1] - path[path.length - 1].y)) + " cm");
+	}
+
+	/**
+	 * Returns the number of points of the path where the robot must stop
+	 * and turn: its corners sharper than the follower can steer through,
+	 * and its end.
+	 */
+	private static int stops(Point start, Point[] path) {
+		int stops = 1;
+		Point previous = start;
+		for (int i = 0; i + 1 < path.length; ++i) {
+			if (Math.abs(turn(previous, path[i], path[i + 1])) > 60)
+				++stops;
+			previous = path[i];
+		}
+		return stops;
+	}
+
+	/**
+	 * Estimates the time in s of Navigation.travel through the points:
+	 * a turn in place and a straight move on the velocity profile for each.
+	 */
+	private static double estimateStops(Point start, Point[] path) {
+		double time = 0;
+		double heading = 90;
+		Point previous = start;
+		for (Point p : path) {
+			double direction = Math.toDegrees(Math.atan2(p.y - previous.y, p.x - previous.x));
+			time += spinTime(Util.toRange(direction - heading, -180.0, true));
+			heading = direction;
+			double distance = Math.toDegrees(Math.hypot(p.x - previous.x, p.y - previous.y) /
+					SimRobot.RIGHT_RADIUS);
+			time += new MotionProfile(distance, HIGH_SPD, PROFILE_ACCELERATION, JERK).getDuration();
+			previous = p;
+		}
+		return time;
+	}
+
+	/**
+	 * Estimates the time in s to follow the points continuously: the speed
+	 * of the center is limited by the curvature at each point, so that the
+	 * outer wheel stays under HIGH_SPD, and changes at DECELERATION.
+	 * The robot starts and ends at rest and turns in place at sharp corners.
+	 */
+	private static double estimateSmooth(Point[] path) {
+		int n = path.length;
+		double[] curvature = new double[n];
+		double[] limit = new double[n];
+		double time = spinTime(Util.toRange(Math.toDegrees(Math.atan2(path[1].y - path[0].y,
+				path[1].x - path[0].x)) - 90, -180.0, true));
+		for (int i = 1; i + 1 < n; ++i) {
+			double turn = turn(path[i - 1], path[i], path[i + 1]);
+			if (Math.abs(turn) > 60) {
+				time += spinTime(turn);
+				continue;
+			}
+			//The curvature of the circle through the three points.
+			double chord = distance(path[i - 1], path[i + 1]);
+			curvature[i] = chord == 0 ? 0 : 2 * Math.sin(Math.toRadians(Math.abs(turn))) / chord;
+			limit[i] = HIGH_SPD / (1 + curvature[i] * SimRobot.WIDTH / 2);
+		}
+		//Limits the changes of speed in both directions.
+		for (int i = 1; i < n; ++i) {
+			limit[i] = Math.min(limit[i], Math.sqrt(limit[i - 1] * limit[i - 1] +
+					2 * DECELERATION * wheelDistance(path[i - 1], path[i])));
+		}
+		for (int i = n - 2; i >= 0; --i) {
+			limit[i] = Math.min(limit[i], Math.sqrt(limit[i + 1] * limit[i + 1] +
+					2 * DECELERATION * wheelDistance(path[i], path[i + 1])));
+		}
+		//Accelerates, cruises and decelerates on each segment.
+		for (int i = 1; i < n; ++i) {
+			double length = wheelDistance(path[i - 1], path[i]);
+			double v0 = limit[i - 1];
+			double v1 = limit[i];
+			double cap = HIGH_SPD / (1 + Math.min(curvature[i - 1], curvature[i]) * SimRobot.WIDTH / 2);
+			double peak = Math.min(cap, Math.sqrt(DECELERATION * length + (v0 * v0 + v1 * v1) / 2));
+			peak = Math.max(peak, Math.max(v0, v1));
+			if (peak == 0)
+				continue;
+			double ramps = (2 * peak * peak - v0 * v0 - v1 * v1) / (2 * DECELERATION);
+			time += (2 * peak - v0 - v1) / DECELERATION + Math.max(0, length - ramps) / peak;
+		}
+		return time;
+	}
+
+	/**
+	 * Returns the rotation in degrees of the wheels to drive between the points.
+	 */
+	private static double wheelDistance(Point a, Point b) {
+		return Math.toDegrees(distance(a, b) / SimRobot.RIGHT_RADIUS);
+	}
+
+	/**
+	 * Returns the time in s to turn in place by the angle at TURN_SPD.
+	 */
+	private static double spinTime(double angle) {
+		double wheel = Math.abs(angle) * SimRobot.WIDTH / (2 * SimRobot.RIGHT_RADIUS);
+		return new MotionProfile(wheel, TURN_SPD, SimRobot.ACCELERATION,
+				Double.POSITIVE_INFINITY).getDuration();
+	}
+
+	/**
+	 * Returns the change of heading in degrees at b.
+	 */
+	private static double turn(Point a, Point b, Point c) {
+		double first = Math.toDegrees(Math.atan2(b.y - a.y, b.x - a.x));
+		double second = Math.toDegrees(Math.atan2(c.y - b.y, c.x - b.x));
+		return Util.toRange(second - first, -180.0, true);
+	}
+
+	/**
+	 * Returns the distance in cm between the points.
+	 */
+	private static double distance(Point a, Point b) {
+		return Math.hypot(b.x - a.x, b.y - a.y);
+	}
+
+	/**
+	 * Returns a hook recording the smallest distance to a wall.
+	 */
+	private static SimWorld.Hook recorder(final FieldMap map, final double[] clearance) {
+		return new SimWorld.Hook() {
+			private final double[] closest = new double[2];
+			public void step(SimWorld world, boolean crossed) {
+				SimRobot robot = world.getRobot();
+				if (map.nearestWall(robot.x, robot.y, Fields.TILE_DISTANCE, closest) >= 0) {
+					clearance[0] = Math.min(clearance[0],
+							Math.hypot(closest[0] - robot.x, closest[1] - robot.y));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Converts a position in tiles to a point in cm.
+	 */
+	private static Point tiles(double x, double y) {
+		return new Point(x * Fields.TILE_DISTANCE, y * Fields.TILE_DISTANCE);
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
@@ -0,0 +1,47 @@
+package simulation;
+import util.Point;
+
+/**
+ * A static class with geometric helpers on paths used by the simulations.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class Paths {
+	/**
+	 * Returns the squared distance in cm^2 from (x, y) to the segment ab.
+	 */
+	public static double squaredDistanceToSegment(double x, double y, Point a, Point b) {
+		double ex = b.x - a.x;
+		double ey = b.y - a.y;
+		double length = ex * ex + ey * ey;
+		double u = length == 0 ? 0 : ((x - a.x) * ex + (y - a.y) * ey) / length;
+		u = Math.max(0, Math.min(1, u));
+		double dx = a.x + u * ex - x;
+		double dy = a.y + u * ey - y;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Returns the squared distance in cm^2 from (x, y) to the closest
+	 * segment of the path.
+	 */
+	public static double squaredDistanceToPath(double x, double y, Point[] path) {
+		double best = Double.MAX_VALUE;
+		for (int i = 0; i + 1 < path.length; ++i) {
+			best = Math.min(best, squaredDistanceToSegment(x, y, path[i], path[i+1]));
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the length in cm of the path.
+	 */
+	public static double length(Point[] path) {
+		double sum = 0;
+		for (int i = 0; i + 1 < path.length; ++i) {
+			sum += Math.hypot(path[i+1].x - path[i].x, path[i+1].y - path[i].y);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,80 @@
+package simulation;
+import java.util.Random;
+
+import field.FieldMap;
+import field.USModel;
+
+/**
+ * A benchmark measuring the number of ray casts per second answered by
+ * the field map. Runs on a desktop JVM and prints its results.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class RayCastBenchmark {
+	/**
+	 * The number of ray casts per measurement.
+	 */
+	private static final int NUM_RAYS = 2000000;
+	/**
+	 * The number of measurements done before timing to let the JIT
+	 * compile the ray casting code.
+	 */
+	private static final int WARMUP = 3;
+	/**
+	 * The number of timed measurements.
+	 */
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Runs the benchmark on the competition field and on large random fields.
+	 */
+	public static void main(String[] args) {
+		run("competition", Fields.competition(), -1, 11);
+		run("random 24x24", Fields.random(24, 100, 1), 0, 24);
+		run("random 48x48", Fields.random(48, 400, 1), 0, 48);
+	}
+
+	/**
+	 * Benchmarks ray casts from random poses inside the given bounds in tiles.
+	 */
+	private static void run(String name, FieldMap map, double min, double max) {
+		USModel model = new USModel(map, 10.7, 4, 7.5);
+		Random random = new Random(0);
+		double[] xs = new double[1024];
+		double[] ys = new double[1024];
+		double[] ts = new double[1024];
+		for (int i = 0; i < xs.length; ++i) {
+			xs[i] = (min + (max - min) * random.nextDouble()) * Fields.TILE_DISTANCE;
+			ys[i] = (min + (max - min) * random.nextDouble()) * Fields.TILE_DISTANCE;
+			ts[i] = 360.0 * random.nextDouble();
+		}
+
+		double sink = 0;
+		for (int i = 0; i < WARMUP; ++i) {
+			sink += castAll(model, xs, ys, ts);
+		}
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; ++i) {
+			long start = System.nanoTime();
+			sink += castAll(model, xs, ys, ts);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		double rate = NUM_RAYS / (best / 1e9);
+		System.out.println(name + ": " + map.getSize() + " walls, " +
+				(long) rate + " rays/s (" + (sink > 0 ? "ok" : "?") + ")");
+	}
+
+	/**
+	 * Casts NUM_RAYS rays from the poses, cycling through the three sensors.
+	 */
+	private static double castAll(USModel model, double[] xs, double[] ys, double[] ts) {
+		double sum = 0;
+		int mask = xs.length - 1;
+		for (int i = 0; i < NUM_RAYS; ++i) {
+			int j = i & mask;
+			sum += model.expectedDistance(xs[j], ys[j], ts[j] + i, 90 * (i % 3));
+		}
+		return sum;
+	}
+}
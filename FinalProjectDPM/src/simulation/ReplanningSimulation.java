@@ -0,0 +1,323 @@
+package simulation;
+import util.Point;
+import drivers.Navigation;
+import field.FieldMap;
+import field.USModel;
+import planning.DStarLite;
+import planning.GridPlanner;
+import planning.OccupancyGrid;
+
+/**
+ * A simulation of the detours around obstacles missing from the map.
+ * Drives from one corner of a field to the other through unexpected
+ * obstacles with Navigation, once without a replanner, following them,
+ * and once with a D* Lite replanner over the known field, stopping in
+ * front of them and following the repaired routes. Prints the success rate, the time, the
+ * distance driven and the smallest distance to a wall of each behaviour,
+ * and the time to repair the route next to the time to plan it again
+ * from scratch with A*. Then times the repairs on a large random field,
+ * where the obstacles are seen along the route close to the robot.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ReplanningSimulation {
+	/**
+	 * The obstacles of each scenario, as {x1, y1, x2, y2} in tiles.
+	 */
+	private static final double[][][] SCENARIOS = {
+		{{3, 3, 4, 4}},
+		{{2, 4, 5, 5}},
+		{{3, 4, 5, 5}, {4, 2, 5, 4}},
+		{{2, 3, 6, 4}, {5, 4, 6, 6}}
+	};
+	/**
+	 * The names of the scenarios.
+	 */
+	private static final String[] NAMES = {"Block", "Bar", "Corner", "Pocket"};
+	/**
+	 * The number of tiles on each side of the field.
+	 */
+	private static final int TILES = 8;
+	/**
+	 * Same values as in Navigation.
+	 */
+	private static final double ROBOT_RADIUS = 10.0, OBSTACLE_WIDTH = 40.0;
+	/**
+	 * The size in cm of the cells of the grid.
+	 */
+	private static final double CELL_SIZE = Fields.TILE_DISTANCE / 4;
+	/**
+	 * The number of runs of each behaviour in each scenario.
+	 */
+	private static final int TRIALS = 10;
+	/**
+	 * The maximum relative error of the motor speeds. The wheel radii are
+	 * exact, so that the odometry does not drift and the distances to the
+	 * walls only measure the behaviours.
+	 */
+	private static final double MOTOR_ERROR = 0.02;
+	/**
+	 * The standard deviation in cm of the noise of the ultrasonic sensors.
+	 */
+	private static final double US_NOISE = 1.0;
+	/**
+	 * The half width in degrees of the beam of the ultrasonic sensors.
+	 */
+	private static final double US_BEAM = 15;
+	/**
+	 * The time in ms after which a run fails.
+	 */
+	private static final long TIME_LIMIT = 300000;
+	/**
+	 * The largest distance in cm from the goal of a successful run.
+	 */
+	private static final double GOAL_ERROR = 3.0;
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		FieldMap known = Fields.random(TILES, 0, 0);
+		Point start = tiles(1, 1);
+		Point goal = tiles(TILES - 1, TILES - 1);
+		for (int s = 0; s < SCENARIOS.length; ++s) {
+			FieldMap field = Fields.withBlocks(known, SCENARIOS[s]);
+			USModel model = new USModel(field, SimRobot.RIGHT_US_DISTANCE,
+					SimRobot.FRONT_US_DISTANCE, SimRobot.LEFT_US_DISTANCE);
+			for (int mode = 0; mode < 2; ++mode) {
+				//Successes, time, distance, clearance, replans, repair time and A* time.
+				double[] totals = {0, 0, 0, Double.MAX_VALUE, 0, 0, 0};
+				for (int trial = 0; trial < TRIALS; ++trial) {
+					double error = 2.0 * trial / (TRIALS - 1) - 1;
+					SimRobot robot = new SimRobot(start.x, start.y, 90, 0, US_NOISE, trial);
+					robot.setMotorError(-MOTOR_ERROR * error);
+					robot.setBeam(US_BEAM);
+					SimWorld world = new SimWorld(robot, model);
+					Recorder recorder = new Recorder(field);
+					world.addHook(recorder);
+					Navigation nav = world.getNavigation();
+					if (mode == 1)
+						nav.setReplanner(new TimedPlanner(known, totals));
+					nav.travelTo(goal, true);
+					world.settle();
+					long time = world.currentTimeMillis();
+					if (time < TIME_LIMIT &&
+							Math.hypot(robot.x - goal.x, robot.y - goal.y) < GOAL_ERROR) {
+						totals[0] += 1;
+						totals[1] += time / 1000.0;
+						totals[2] += recorder.distance;
+					}
+					totals[3] = Math.min(totals[3], recorder.clearance);
+				}
+				double successes = Math.max(1, totals[0]);
+				String line = NAMES[s] + ", " + (mode == 0 ? "wall follow" : "D* Lite") +
+						": " + (int) totals[0] + "/" + TRIALS + " reached, " +
+						format(totals[1] / successes) + " s, " + format(totals[2] / successes) +
+						" cm driven, clearance " + format(totals[3]) + " cm";
+				if (mode == 1) {
+					double replans = Math.max(1, totals[4]);
+					line += ", " + format(totals[4] / TRIALS) + " obstacles seen, repair " +
+							format(totals[5] / replans) + " ms, A* " + format(totals[6] / replans) + " ms";
+				}
+				System.out.println(line);
+			}
+		}
+		repairLatency();
+	}
+
+	/**
+	 * Drives a point along a route across a large random field, adding an
+	 * obstacle across the route ahead of it every tile, and prints the mean
+	 * time and number of cells expanded to repair the route and to plan it
+	 * again from scratch.
+	 */
+	private static void repairLatency() {
+		int tiles = 48;
+		FieldMap map = Fields.random(tiles, tiles * tiles / 6, tiles);
+		DStarLite planner = new DStarLite(new OccupancyGrid(map, CELL_SIZE, ROBOT_RADIUS));
+		OccupancyGrid grid = new OccupancyGrid(map, CELL_SIZE, ROBOT_RADIUS);
+		GridPlanner scratch = new GridPlanner(grid);
+		int[] changed = new int[1024];
+		Point position = tiles(0.5, 0.5);
+		Point goal = tiles(tiles - 0.5, tiles - 0.5);
+		planner.setGoal(goal);
+		long begin = System.nanoTime();
+		Point[] route = planner.plan(position);
+		double first = (System.nanoTime() - begin) / 1e6;
+		//Repair time, A* time, cells expanded by each, and repairs.
+		double[] totals = {0, 0, 0, 0, 0};
+		while (route != null && Math.hypot(goal.x - position.x, goal.y - position.y) > 2 * Fields.TILE_DISTANCE) {
+			//Moves a tile along the route.
+			double dx = route[0].x - position.x;
+			double dy = route[0].y - position.y;
+			double length = Math.hypot(dx, dy);
+			double step = Math.min(length, Fields.TILE_DISTANCE);
+			position = new Point(position.x + dx * step / length, position.y + dy * step / length);
+			if (length - step < Fields.TILE_DISTANCE) {
+				route = planner.plan(position);
+				continue;
+			}
+			//Sees an obstacle across the route MIN_FRONT_DISTANCE ahead.
+			double ux = dx / length;
+			double uy = dy / length;
+			double x = position.x + 24 * ux;
+			double y = position.y + 24 * uy;
+			double w = OBSTACLE_WIDTH / 2;
+			planner.addObstacle(x + w * uy, y - w * ux, x - w * uy, y + w * ux, ROBOT_RADIUS);
+			grid.block(x + w * uy, y - w * ux, x - w * uy, y + w * ux, ROBOT_RADIUS, changed);
+			begin = System.nanoTime();
+			route = planner.plan(position);
+			totals[0] += (System.nanoTime() - begin) / 1e6;
+			totals[2] += planner.getExpanded();
+			begin = System.nanoTime();
+			scratch.plan(position, goal);
+			totals[1] += (System.nanoTime() - begin) / 1e6;
+			totals[3] += scratch.getExpanded();
+			totals[4] += 1;
+		}
+		double repairs = Math.max(1, totals[4]);
+		System.out.println("Random " + tiles + "x" + tiles + ", " + grid.getColumns() + "x" +
+				grid.getRows() + " cells: first plan " + format(first) + " ms, " + (int) totals[4] +
+				" repairs, repair " + format(totals[0] / repairs) + " ms and " +
+				(int) (totals[2] / repairs) + " cells, A* " + format(totals[1] / repairs) +
+				" ms and " + (int) (totals[3] / repairs) + " cells");
+	}
+
+	/**
+	 * A D* Lite replanner that times each repair of the route next to
+	 * planning it from scratch with A* on a copy of its grid.
+	 */
+	private static class TimedPlanner extends DStarLite {
+		/**
+		 * The copy of the grid, blocked with the same obstacles.
+		 */
+		private final OccupancyGrid grid;
+		/**
+		 * The planner from scratch.
+		 */
+		private final GridPlanner scratch;
+		/**
+		 * Storage for the cells changed by an obstacle.
+		 */
+		private final int[] changed = new int[1024];
+		/**
+		 * The totals of the simulation.
+		 */
+		private final double[] totals;
+		/**
+		 * The goal of the routes.
+		 */
+		private Point goal;
+		/**
+		 * Variable keeping track of if an obstacle was added since the last plan.
+		 */
+		private boolean repair;
+
+		/**
+		 * Default constructor.
+		 */
+		TimedPlanner(FieldMap known, double[] totals) {
+			super(new OccupancyGrid(known, CELL_SIZE, ROBOT_RADIUS));
+			grid = new OccupancyGrid(known, CELL_SIZE, ROBOT_RADIUS);
+			scratch = new GridPlanner(grid);
+			this.totals = totals;
+		}
+
+		@Override
+		public synchronized void setGoal(Point goal) {
+			super.setGoal(goal);
+			this.goal = goal;
+		}
+
+		@Override
+		public synchronized Point[] plan(Point start) {
+			long begin = System.nanoTime();
+			Point[] route = super.plan(start);
+			if (repair) {
+				totals[5] += (System.nanoTime() - begin) / 1e6;
+				begin = System.nanoTime();
+				scratch.plan(start, goal);
+				totals[6] += (System.nanoTime() - begin) / 1e6;
+				repair = false;
+			}
+			return route;
+		}
+
+		@Override
+		public synchronized int addObstacle(double x0, double y0, double x1, double y1, double radius) {
+			grid.block(x0, y0, x1, y1, radius, changed);
+			totals[4] += 1;
+			repair = true;
+			return super.addObstacle(x0, y0, x1, y1, radius);
+		}
+	}
+
+	/**
+	 * Records the distance driven and the smallest distance from the
+	 * center of the robot to a wall, and stops the motions once the
+	 * time is up.
+	 */
+	private static class Recorder implements SimWorld.Hook {
+		/**
+		 * The true field.
+		 */
+		private final FieldMap field;
+		/**
+		 * The distance driven in cm and the smallest distance to a wall in cm.
+		 */
+		double distance, clearance;
+		/**
+		 * The last true position.
+		 */
+		private double lastX, lastY;
+		/**
+		 * Variable keeping track of if a position was recorded.
+		 */
+		private boolean started;
+		/**
+		 * Storage for the closest point of a wall.
+		 */
+		private final double[] closest = new double[2];
+
+		/**
+		 * Default constructor.
+		 */
+		Recorder(FieldMap field) {
+			this.field = field;
+			clearance = Double.MAX_VALUE;
+		}
+
+		/**
+		 * Called every step of the simulation.
+		 */
+		public void step(SimWorld world, boolean crossed) {
+			SimRobot robot = world.getRobot();
+			if (world.currentTimeMillis() > TIME_LIMIT)
+				world.getNavigation().cancelAll();
+			if (started)
+				distance += Math.hypot(robot.x - lastX, robot.y - lastY);
+			started = true;
+			lastX = robot.x;
+			lastY = robot.y;
+			if (field.nearestWall(robot.x, robot.y, Fields.TILE_DISTANCE, closest) >= 0) {
+				clearance = Math.min(clearance,
+						Math.hypot(closest[0] - robot.x, closest[1] - robot.y));
+			}
+		}
+	}
+
+	/**
+	 * Converts a position in tiles to a point in cm.
+	 */
+	private static Point tiles(double x, double y) {
+		return new Point(x * Fields.TILE_DISTANCE, y * Fields.TILE_DISTANCE);
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
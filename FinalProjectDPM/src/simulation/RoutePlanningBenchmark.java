@@ -0,0 +1,150 @@
+package simulation;
+import util.Point;
+import field.FieldMap;
+import planning.RoutePlanner;
+
+/**
+ * A benchmark of the grid route planner. Prints the time to plan routes
+ * across the competition field and across random fields of growing size,
+ * at the resolution of a tile and of a quarter tile, with the number of
+ * cells expanded, and the time of a route found in the cache. Then drives
+ * the planned route from the start to the destination of Mapped and prints
+ * its time and its smallest distance to a wall next to the hand-made route.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class RoutePlanningBenchmark {
+	/**
+	 * The radius in cm of the footprint of the robot, half the distance
+	 * between the wheels with a margin.
+	 */
+	private static final double ROBOT_RADIUS = 10.0;
+	/**
+	 * The sizes in tiles of the random fields.
+	 */
+	private static final int[] SIZES = {12, 24, 48, 96};
+	/**
+	 * The number of routes planned on each field.
+	 */
+	private static final int ROUTES = 20;
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) {
+		FieldMap competition = Fields.competition();
+		Point start = Routes.MAPPED[0];
+		Point end = Routes.MAPPED[Routes.MAPPED.length - 1];
+		for (int resolution = 1; resolution <= 4; resolution *= 4) {
+			double cell = Fields.TILE_DISTANCE / resolution;
+			time("Competition", competition, cell, start, end);
+			for (int size : SIZES) {
+				FieldMap map = Fields.random(size, size * size / 6, size);
+				time("Random " + size + "x" + size, map, cell,
+						tiles(0.5, 0.5), tiles(size - 0.5, size - 0.5));
+			}
+		}
+		cache(competition, start, end);
+		drive(competition, start, end);
+	}
+
+	/**
+	 * Prints the time to build the grid and to plan routes on the field,
+	 * from the start to the end and then between random free points.
+	 */
+	private static void time(String name, FieldMap map, double cell, Point start, Point end) {
+		long begin = System.nanoTime();
+		RoutePlanner planner = new RoutePlanner(map, cell, ROBOT_RADIUS);
+		double build = (System.nanoTime() - begin) / 1e6;
+		//Warms up the planner.
+		planner.plan(start, end);
+		double total = 0;
+		double worst = 0;
+		long expanded = 0;
+		int found = 0;
+		for (int i = 0; i < ROUTES; ++i) {
+			begin = System.nanoTime();
+			Point[] route = planner.plan(start, end);
+			double elapsed = (System.nanoTime() - begin) / 1e6;
+			total += elapsed;
+			worst = Math.max(worst, elapsed);
+			expanded += planner.getPlanner().getExpanded();
+			if (route != null)
+				++found;
+		}
+		System.out.println(name + ", " + planner.getPlanner().getGrid().getColumns() + "x" +
+				planner.getPlanner().getGrid().getRows() + " cells: grid " + format(build) +
+				" ms, plan " + format(total / ROUTES) + " ms, worst " + format(worst) +
+				" ms, " + expanded / ROUTES + " cells expanded, " + found + "/" + ROUTES + " found");
+	}
+
+	/**
+	 * Prints the time of a route between waypoints planned and cached.
+	 */
+	private static void cache(FieldMap map, Point start, Point end) {
+		RoutePlanner planner = new RoutePlanner(map, Fields.TILE_DISTANCE / 4, ROBOT_RADIUS);
+		planner.addWaypoint("start", start);
+		planner.addWaypoint("destination", end);
+		long begin = System.nanoTime();
+		planner.route("start", "destination");
+		double miss = (System.nanoTime() - begin) / 1e6;
+		begin = System.nanoTime();
+		for (int i = 0; i < ROUTES; ++i) {
+			planner.route("start", "destination");
+		}
+		double hit = (System.nanoTime() - begin) / 1e6 / ROUTES;
+		System.out.println("Cache: miss " + format(miss) + " ms, hit " +
+				format(hit * 1000) + " us, " + planner.getCache().getHits() + " hits, " +
+				planner.getCache().getMisses() + " misses");
+	}
+
+	/**
+	 * Drives the hand-made and the planned route of Mapped and prints
+	 * their times and clearances.
+	 */
+	private static void drive(final FieldMap map, Point start, Point end) {
+		RoutePlanner planner = new RoutePlanner(map, Fields.TILE_DISTANCE / 4, ROBOT_RADIUS);
+		Point[] planned = planner.plan(start, end);
+		Point[] mapped = new Point[Routes.MAPPED.length - 1];
+		System.arraycopy(Routes.MAPPED, 1, mapped, 0, mapped.length);
+		StringBuilder points = new StringBuilder();
+		for (Point p : planned) {
+			points.append(" (" + format(p.x / Fields.TILE_DISTANCE) + ", " +
+					format(p.y / Fields.TILE_DISTANCE) + ")");
+		}
+		System.out.println("Planned route in tiles:" + points);
+		for (int mode = 0; mode < 2; ++mode) {
+			SimWorld world = new SimWorld(new SimRobot(start.x, start.y, 90, 0, 0, 0), null);
+			final double[] clearance = {Double.MAX_VALUE};
+			world.addHook(new SimWorld.Hook() {
+				private final double[] closest = new double[2];
+				public void step(SimWorld world, boolean crossed) {
+					SimRobot robot = world.getRobot();
+					if (map.nearestWall(robot.x, robot.y, Fields.TILE_DISTANCE, closest) >= 0) {
+						clearance[0] = Math.min(clearance[0],
+								Math.hypot(closest[0] - robot.x, closest[1] - robot.y));
+					}
+				}
+			});
+			world.travel(mode == 0 ? mapped : planned, null);
+			System.out.println((mode == 0 ? "Hand-made" : "Planned") + " route: " +
+					(mode == 0 ? mapped : planned).length + " points, " +
+					format(world.currentTimeMillis() / 1000.0) + " s, clearance " + format(clearance[0]) + " cm");
+		}
+	}
+
+	/**
+	 * Converts a position in tiles to a point in cm.
+	 */
+	private static Point tiles(double x, double y) {
+		return new Point(x * Fields.TILE_DISTANCE, y * Fields.TILE_DISTANCE);
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
@@ -0,0 +1,122 @@
+package simulation;
+import util.Point;
+import util.Util;
+
+/**
+ * Measures how a simulated robot follows the segments of a route. While
+ * the robot drives forward, records the distance from its true position
+ * to the current segment and, away from the end of the segment, the
+ * heading error of the odometry towards the end. Counts the turns in
+ * place made after driving on a segment, which correct the heading. A
+ * segment starts once the robot turns in place or heads to its end, so
+ * that the robot coasting at the end of the previous segment, which
+ * Navigation does not wait for, is not counted on it.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class RouteRecorder implements SimWorld.Hook {
+	/**
+	 * The distance in cm from the end of a segment inside which the
+	 * heading error is not recorded. Same as Navigation.APPROACH_DISTANCE.
+	 */
+	private static final double APPROACH_DISTANCE = 3.0;
+	/**
+	 * The heading error in degrees under which the robot is driving on
+	 * a segment. Same as Navigation.TURN_ERR.
+	 */
+	private static final double TURN_ERR = 30.0;
+
+	/**
+	 * The start and the end of the current segment, or null.
+	 */
+	private Point start, end;
+	/**
+	 * The sum of the squared distances in cm from the true position
+	 * to the current segment, and the number of samples.
+	 */
+	private double squaredError;
+	private int samples;
+	/**
+	 * The sum of the squared heading errors in degrees while driving,
+	 * and the number of samples.
+	 */
+	private double squaredHeadingError;
+	private int headingSamples;
+	/**
+	 * The number of turns in place made after driving on a segment.
+	 */
+	private int corrections;
+	/**
+	 * Variables keeping track of if the robot started the current segment,
+	 * if it drove forward on it and if it is turning in place.
+	 */
+	private boolean started, drove, turning;
+
+	/**
+	 * Sets the segment the robot drives on next.
+	 * @param start The start of the segment.
+	 * @param end The end of the segment.
+	 */
+	public synchronized void segment(Point start, Point end) {
+		this.start = start;
+		this.end = end;
+		started = false;
+		drove = false;
+		turning = false;
+	}
+
+	/**
+	 * Records the robot on the current segment.
+	 */
+	public synchronized void step(SimWorld world, boolean crossed) {
+		if (start == null)
+			return;
+		SimRobot robot = world.getRobot();
+		double[] xyt = world.getDataCenter().getXYT();
+		double bearing = Math.toDegrees(Math.atan2(end.y - xyt[1], end.x - xyt[0]));
+		double error = Util.toRange(bearing - xyt[2], -180.0, true);
+		boolean turn = robot.leftSpeed * robot.rightSpeed < 0;
+		started |= turn || Math.abs(error) < TURN_ERR;
+		if (!started)
+			return;
+		if (turn && !turning && drove)
+			++corrections;
+		turning = turn;
+		if (robot.leftSpeed <= 0 || robot.rightSpeed <= 0)
+			return;
+		drove = true;
+		squaredError += Paths.squaredDistanceToSegment(robot.x, robot.y, start, end);
+		++samples;
+		if (Math.hypot(end.x - xyt[0], end.y - xyt[1]) > APPROACH_DISTANCE) {
+			squaredHeadingError += error * error;
+			++headingSamples;
+		}
+	}
+
+	/**
+	 * Returns the RMS distance in cm between the true position and the
+	 * segments driven.
+	 * @return The RMS tracking error in cm.
+	 */
+	public synchronized double getTrackingError() {
+		return samples == 0 ? 0 : Math.sqrt(squaredError / samples);
+	}
+
+	/**
+	 * Returns the RMS heading error in degrees while driving, away from
+	 * the ends of the segments.
+	 * @return The RMS heading error in degrees.
+	 */
+	public synchronized double getHeadingError() {
+		return headingSamples == 0 ? 0 : Math.sqrt(squaredHeadingError / headingSamples);
+	}
+
+	/**
+	 * Returns the number of turns in place made to correct the heading.
+	 * @return The number of turns in place made to correct the heading.
+	 */
+	public synchronized int getCorrections() {
+		return corrections;
+	}
+}
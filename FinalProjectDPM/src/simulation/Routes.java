@@ -0,0 +1,35 @@
+package simulation;
+import util.Point;
+
+/**
+ * A static class holding the routes of the mission programs, in cm.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class Routes {
+	/**
+	 * The route from the origin to the destination in Mapped.
+	 */
+	public static final Point[] MAPPED = {
+		tiles(0, 0), tiles(-0.5, 2.5), tiles(-0.5, 5.1), tiles(1.1, 5.5),
+		tiles(1.5, 6.1), tiles(4.5, 6.5), tiles(6, 6)
+	};
+
+	/**
+	 * The route from the origin to the destination in AlphaMapped.
+	 */
+	public static final Point[] ALPHA_MAPPED = {
+		tiles(0, 0), tiles(-0.45, 2.5), tiles(-0.45, 3.2), tiles(-0.45, 4.8),
+		tiles(-0.45, 5.2), tiles(0.2, 5.5), tiles(0.8, 5.5), tiles(1.2, 5.5),
+		tiles(1.55, 6.2), tiles(2.2, 6.4), tiles(2.8, 6.4), tiles(4.5, 6.25),
+		tiles(6, 6)
+	};
+
+	/**
+	 * Converts a position in tiles to a point in cm.
+	 */
+	private static Point tiles(double x, double y) {
+		return new Point(x * Fields.TILE_DISTANCE, y * Fields.TILE_DISTANCE);
+	}
+}
@@ -0,0 +1,195 @@
+package simulation;
+import java.util.Random;
+
+import util.Util;
+import field.FieldMap;
+import field.USModel;
+import localization.ScanMatcher;
+
+/**
+ * A benchmark of the scan matcher on the competition field. Records scans
+ * from a simulated robot whose odometry starts with a random error, either
+ * while rotating in place at random positions or while driving through the
+ * vertical tunnel, and prints the time taken by the matches and the pose
+ * errors before and after the correction. The time of the CSLocalizer spin
+ * is printed for comparison.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ScanMatchBenchmark {
+	/**
+	 * Same values as Navigation.TURN_SPD, Navigation.MID_SPD and USPoller.PING_DELAY.
+	 */
+	private static final int TURN_SPD = 200, MID_SPD = 300, PING_DELAY = 20;
+	/**
+	 * The simulation time step in ms.
+	 */
+	private static final double STEP = 10;
+	/**
+	 * The number of random scans of each kind.
+	 */
+	private static final int TRIALS = 200;
+	/**
+	 * The standard deviations of the initial odometry error in cm and degrees.
+	 */
+	private static final double SIGMA_XY = 3.0, SIGMA_THETA = 3.0;
+	/**
+	 * The number of times each scan is matched for timing.
+	 */
+	private static final int REPEATS = 20;
+	/**
+	 * The sensors used, as DataCenter angles.
+	 */
+	private static final int[] SENSORS = {0, 90, 180};
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public static void main(String[] args) {
+		FieldMap map = Fields.competition();
+		USModel model = new USModel(map, SimRobot.RIGHT_US_DISTANCE,
+				SimRobot.FRONT_US_DISTANCE, SimRobot.LEFT_US_DISTANCE);
+		ScanMatcher matcher = new ScanMatcher(model, SENSORS.length);
+		Random random = new Random(1);
+
+		//Rotation scans at random positions away from the walls.
+		double[] totals = new double[7];
+		double[] closest = new double[2];
+		for (int i = 0; i < TRIALS; ++i) {
+			double x, y;
+			do {
+				x = Fields.TILE_DISTANCE * (-1 + 12 * random.nextDouble());
+				y = Fields.TILE_DISTANCE * (-1 + 12 * random.nextDouble());
+			} while (map.nearestWall(x, y, 15.0, closest) >= 0 || inBlock(x, y));
+			SimRobot robot = start(x, y, 360 * random.nextDouble(), random, i);
+			matcher.reset();
+			double rotated = 0;
+			double previous = robot.odoTheta;
+			double left = -TURN_SPD * SimRobot.RIGHT_RADIUS / SimRobot.LEFT_RADIUS;
+			while (rotated < 360) {
+				record(robot, model, matcher, left, TURN_SPD);
+				rotated += Math.abs(Util.toRange(robot.odoTheta - previous, -180.0, true));
+				previous = robot.odoTheta;
+			}
+			add(totals, evaluate(robot, matcher));
+		}
+		print("Rotation scan", totals);
+
+		//Scans while driving through the vertical tunnel.
+		totals = new double[7];
+		for (int i = 0; i < TRIALS; ++i) {
+			double x = -0.5 * Fields.TILE_DISTANCE + 2 * random.nextGaussian();
+			SimRobot robot = start(x, 2.5 * Fields.TILE_DISTANCE, 90 + 2 * random.nextGaussian(),
+					random, i);
+			matcher.reset();
+			while (robot.y < 5.5 * Fields.TILE_DISTANCE) {
+				record(robot, model, matcher, MID_SPD, MID_SPD);
+			}
+			add(totals, evaluate(robot, matcher));
+		}
+		print("Tunnel scan", totals);
+
+		//Times the spin of the CSLocalizer.
+		SimRobot robot = new SimRobot(0, 0, 0, 0, 0, 0);
+		double rotated = 0;
+		double previous = 0;
+		while (rotated < 360) {
+			robot.step(TURN_SPD, -TURN_SPD, STEP);
+			rotated += Math.abs(Util.toRange(robot.odoTheta - previous, -180.0, true));
+			previous = robot.odoTheta;
+		}
+		System.out.println("CSLocalizer spin: " + round(robot.time) + " ms");
+	}
+
+	/**
+	 * Returns a robot at the given pose whose odometry starts with a random error.
+	 */
+	private static SimRobot start(double x, double y, double theta, Random random, long seed) {
+		SimRobot robot = new SimRobot(x, y, theta, 0.005, 1.0, seed);
+		robot.odoX += SIGMA_XY * random.nextGaussian();
+		robot.odoY += SIGMA_XY * random.nextGaussian();
+		robot.odoTheta = Util.toRange(robot.odoTheta + SIGMA_THETA * random.nextGaussian(),
+				0.0, false);
+		return robot;
+	}
+
+	/**
+	 * Moves the robot for one ping delay and records the sensor readings.
+	 */
+	private static void record(SimRobot robot, USModel model, ScanMatcher matcher,
+			double left, double right) {
+		for (int k = 0; k < PING_DELAY / STEP; ++k) {
+			robot.step(left, right, STEP);
+		}
+		for (int angle : SENSORS) {
+			matcher.addSample(robot.odoX, robot.odoY, robot.odoTheta, angle,
+					robot.ultrasonic(model, angle));
+		}
+	}
+
+	/**
+	 * Matches the scan and returns the time in ms per match, the position
+	 * and orientation errors before and after the correction in cm and
+	 * degrees, the number of points and 1 if the match failed.
+	 */
+	private static double[] evaluate(SimRobot robot, ScanMatcher matcher) {
+		double[] result = null;
+		long start = System.nanoTime();
+		for (int k = 0; k < REPEATS; ++k) {
+			result = matcher.match(robot.odoX, robot.odoY);
+		}
+		double time = (System.nanoTime() - start) / 1e6 / REPEATS;
+		//Keeps the odometry when there is nothing to match.
+		boolean failed = (result == null);
+		if (failed)
+			result = new double[3];
+		double beforeXY = robot.positionError();
+		double beforeT = Math.abs(Util.toRange(robot.odoTheta - robot.theta, -180.0, true));
+		double dx = robot.odoX + result[0] - robot.x;
+		double dy = robot.odoY + result[1] - robot.y;
+		double afterXY = Math.sqrt(dx * dx + dy * dy);
+		double afterT = Math.abs(Util.toRange(robot.odoTheta + result[2] - robot.theta,
+				-180.0, true));
+		double[] values = {time, beforeXY, beforeT, afterXY, afterT, matcher.getCount(),
+				failed ? 1 : 0};
+		return values;
+	}
+
+	/**
+	 * Returns true if the point is inside one of the blocks of the competition field.
+	 */
+	private static boolean inBlock(double x, double y) {
+		double tx = x / Fields.TILE_DISTANCE;
+		double ty = y / Fields.TILE_DISTANCE;
+		return (tx > 0 && tx < 2 && ty > 3 && ty < 5) || (tx > 0 && tx < 1 && ty > 6 && ty < 7)
+				|| (tx > 2 && tx < 3 && ty > 5 && ty < 6) || (tx > 2 && tx < 3 && ty > 7 && ty < 8);
+	}
+
+	/**
+	 * Adds the values to the totals.
+	 */
+	private static void add(double[] totals, double[] values) {
+		for (int i = 0; i < totals.length; ++i) {
+			totals[i] += values[i];
+		}
+	}
+
+	/**
+	 * Prints the averages of the totals.
+	 */
+	private static void print(String name, double[] totals) {
+		System.out.println(name + ": " + round(totals[0] / TRIALS) + " ms per match, " +
+				round(totals[5] / TRIALS) + " points, error " +
+				round(totals[1] / TRIALS) + " cm " + round(totals[2] / TRIALS) + " deg -> " +
+				round(totals[3] / TRIALS) + " cm " + round(totals[4] / TRIALS) + " deg, " +
+				(int) totals[6] + " without walls in range");
+	}
+
+	/**
+	 * Rounds to 3 decimals.
+	 */
+	private static double round(double value) {
+		return Math.round(value * 1000) / 1000.0;
+	}
+}
@@ -0,0 +1,243 @@
+package simulation;
+import java.util.Random;
+
+import drivers.DriveTrain;
+import drivers.SkewStatistics;
+
+/**
+ * A drive train acting on a simulated robot, used to test the code driving
+ * the wheels without the NXT. Can delay the commands and the reads of the
+ * right motor by a random time after those of the left motor, like two
+ * separate motor calls that the scheduler preempts in between. With no
+ * delay, it behaves like the synchronized NXTDriveTrain. The acceleration
+ * is always the SimRobot acceleration.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class SimDriveTrain implements DriveTrain {
+	/**
+	 * The time step in ms of the simulation.
+	 */
+	private static final double STEP = 1;
+	/**
+	 * The error in degrees at which a rotation ends.
+	 */
+	private static final double TOLERANCE = 1;
+	/**
+	 * The number of past tachometer readings kept, one per step.
+	 */
+	private static final int HISTORY = 32;
+
+	/**
+	 * The simulated robot.
+	 */
+	private final SimRobot robot;
+	/**
+	 * The largest delay in ms of the commands and reads of the right motor.
+	 */
+	private final double maxStartSkew, maxReadSkew;
+	/**
+	 * The random number generator for the delays.
+	 */
+	private final Random random;
+	/**
+	 * The motors of the left and right wheels.
+	 */
+	private final Motor left, right;
+	/**
+	 * The command of the right motor waiting for its delay, or null.
+	 */
+	private Motor pending;
+	/**
+	 * The time in ms left before the pending command takes effect.
+	 */
+	private double pendingDelay;
+	/**
+	 * The past left tachometer readings, the latest at index 0.
+	 */
+	private final double[] leftHistory = new double[HISTORY];
+	/**
+	 * The statistics of the delays.
+	 */
+	private final SkewStatistics startSkew, readSkew;
+
+	/**
+	 * Default constructor.
+	 * @param robot The simulated robot.
+	 * @param maxStartSkew The largest delay in ms of the commands of the right motor.
+	 * @param maxReadSkew The largest delay in ms of the reads of the right motor.
+	 * @param seed The seed of the random number generator.
+	 */
+	public SimDriveTrain(SimRobot robot, double maxStartSkew, double maxReadSkew, long seed) {
+		if (maxReadSkew > (HISTORY - 1) * STEP)
+			throw new RuntimeException("Read skew too large.");
+		this.robot = robot;
+		this.maxStartSkew = maxStartSkew;
+		this.maxReadSkew = maxReadSkew;
+		this.random = new Random(seed);
+		this.left = new Motor();
+		this.right = new Motor();
+		this.startSkew = new SkewStatistics();
+		this.readSkew = new SkewStatistics();
+	}
+
+	@Override
+	public synchronized void setAcceleration(int acceleration) {
+	}
+
+	@Override
+	public synchronized void setSpeeds(int lSpd, int rSpd) {
+		left.run(lSpd);
+		Motor command = new Motor();
+		command.run(rSpd);
+		command(command);
+	}
+
+	@Override
+	public synchronized void rotate(int leftSpeed, int rightSpeed, int leftAngle, int rightAngle) {
+		left.rotate(Math.abs(leftSpeed), left.tacho + leftAngle);
+		Motor command = new Motor();
+		command.rotate(Math.abs(rightSpeed), right.tacho + rightAngle);
+		command(command);
+	}
+
+	@Override
+	public synchronized boolean isMoving() {
+		return left.rotating || right.rotating || (pending != null && pending.rotating);
+	}
+
+	@Override
+	public synchronized void stop() {
+		setSpeeds(0, 0);
+	}
+
+	@Override
+	public synchronized void flt() {
+		setSpeeds(0, 0);
+	}
+
+	@Override
+	public synchronized void getTachoCounts(int[] counts) {
+		//Reading the right tachometer later is the same as
+		//reading the left one earlier.
+		int delay = (int) Math.round(random.nextDouble() * maxReadSkew / STEP);
+		readSkew.record((long) (delay * STEP * 1000000));
+		counts[0] = (int) Math.round(leftHistory[delay]);
+		counts[1] = (int) Math.round(right.tacho);
+	}
+
+	@Override
+	public SkewStatistics getStartSkew() {
+		return startSkew;
+	}
+
+	@Override
+	public SkewStatistics getReadSkew() {
+		return readSkew;
+	}
+
+	/**
+	 * Moves the robot for dt ms.
+	 * @param dt The time in ms.
+	 * @return true if the color sensor crossed a grid line.
+	 */
+	public synchronized boolean advance(double dt) {
+		boolean crossed = false;
+		for (double t = 0; t < dt; t += STEP) {
+			if (pending != null) {
+				pendingDelay -= STEP;
+				if (pendingDelay <= 0) {
+					right.set(pending);
+					pending = null;
+				}
+			}
+			crossed |= robot.step(left.target(), right.target(), STEP);
+			left.tacho += robot.leftSpeed * STEP / 1000;
+			right.tacho += robot.rightSpeed * STEP / 1000;
+			System.arraycopy(leftHistory, 0, leftHistory, 1, HISTORY - 1);
+			leftHistory[0] = left.tacho;
+		}
+		return crossed;
+	}
+
+	/**
+	 * Sends the command to the right motor after a random delay.
+	 */
+	private void command(Motor command) {
+		double delay = Math.round(random.nextDouble() * maxStartSkew / STEP) * STEP;
+		startSkew.record((long) (delay * 1000000));
+		if (delay == 0) {
+			right.set(command);
+			pending = null;
+		} else {
+			pending = command;
+			pendingDelay = delay;
+		}
+	}
+
+	/**
+	 * The state of a simulated regulated motor.
+	 */
+	private static class Motor {
+		/**
+		 * The angle of the motor in degrees.
+		 */
+		double tacho;
+		/**
+		 * The speed in deg/s when running, or the speed limit when rotating.
+		 */
+		double speed;
+		/**
+		 * Variable keeping track of if the motor is rotating to an angle.
+		 */
+		boolean rotating;
+		/**
+		 * The angle in degrees the motor is rotating to.
+		 */
+		double goal;
+
+		/**
+		 * Runs the motor at the speed.
+		 */
+		void run(double speed) {
+			this.speed = speed;
+			rotating = false;
+		}
+
+		/**
+		 * Rotates the motor to the angle within the speed.
+		 */
+		void rotate(double speed, double goal) {
+			this.speed = speed;
+			this.goal = goal;
+			rotating = true;
+		}
+
+		/**
+		 * Takes the command of the other motor, keeping the angle.
+		 */
+		void set(Motor command) {
+			speed = command.speed;
+			goal = command.goal;
+			rotating = command.rotating;
+		}
+
+		/**
+		 * Returns the speed the regulator drives the motor towards.
+		 * A rotation slows down to stop on its angle.
+		 */
+		double target() {
+			if (!rotating)
+				return speed;
+			double remaining = goal - tacho;
+			if (Math.abs(remaining) < TOLERANCE) {
+				rotating = false;
+				speed = 0;
+				return 0;
+			}
+			double limit = Math.min(speed, Math.sqrt(2 * SimRobot.ACCELERATION * Math.abs(remaining)));
+			return Math.signum(remaining) * limit;
+		}
+	}
+}
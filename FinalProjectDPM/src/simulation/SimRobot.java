@@ -0,0 +1,255 @@
+package simulation;
+import java.util.Random;
+
+import util.Util;
+import field.USModel;
+
+/**
+ * A kinematic model of the robot used by the simulations. Moves a true
+ * pose from wheel speeds and keeps an odometry pose computed like the
+ * Odometer from slightly wrong wheel radii, so that the odometry drifts
+ * like it does on the field. Also simulates the ultrasonic sensors and the
+ * color sensor.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class SimRobot {
+	/**
+	 * The radius of the left wheel in cm. Same as HWConstants.LEFT_RADIUS.
+	 */
+	public static final double LEFT_RADIUS = 2.076;
+	/**
+	 * The radius of the right wheel in cm. Same as HWConstants.RIGHT_RADIUS.
+	 */
+	public static final double RIGHT_RADIUS = 2.095;
+	/**
+	 * The distance in cm between the wheels. Average of HWConstants.CC_WIDTH
+	 * and HWConstants.C_WIDTH.
+	 */
+	public static final double WIDTH = 17.02;
+	/**
+	 * The offsets in cm of the right, front and left ultrasonic sensors.
+	 * Same as the HWConstants values.
+	 */
+	public static final double RIGHT_US_DISTANCE = 10.7, FRONT_US_DISTANCE = 4,
+			LEFT_US_DISTANCE = 7.5;
+	/**
+	 * The distance in cm and angle in degrees of the color sensor.
+	 * Same as HWConstants.CS_DISTANCE and HWConstants.CS_ANGLE.
+	 */
+	public static final double CS_DISTANCE = 11.504, CS_ANGLE = 178.5;
+	/**
+	 * The motor acceleration in deg/s/s. Same as in Navigation.
+	 */
+	public static final double ACCELERATION = 1000;
+	/**
+	 * The light values of the floor and of a grid line.
+	 */
+	public static final int FLOOR_LIGHT = 55, LINE_LIGHT = 35;
+	/**
+	 * The width in cm of the grid lines and of the spot seen
+	 * by the color sensor.
+	 */
+	public static final double LINE_WIDTH = 0.5, SPOT_WIDTH = 0.8;
+
+	/**
+	 * The true pose of the robot in cm and degrees.
+	 */
+	public double x, y, theta;
+	/**
+	 * The pose of the robot according to its odometry in cm and degrees.
+	 */
+	public double odoX, odoY, odoTheta;
+	/**
+	 * The current wheel speeds in deg/s.
+	 */
+	public double leftSpeed, rightSpeed;
+	/**
+	 * The simulated time in ms.
+	 */
+	public double time;
+
+	/**
+	 * The ratio between the true and the assumed radius of each wheel.
+	 */
+	private final double leftError, rightError;
+	/**
+	 * The ratio between the speed each motor reaches and the speed it is
+	 * commanded, as the motor regulation leaves a steady error under load.
+	 */
+	private double leftMotorError, rightMotorError;
+	/**
+	 * The standard deviation in cm of the ultrasonic noise.
+	 */
+	private final double usNoise;
+	/**
+	 * The half width in degrees of the ultrasonic beam. The sensors
+	 * read the closest wall within the beam.
+	 */
+	private double usBeam;
+	/**
+	 * The random number generator for the sensor noise.
+	 */
+	private final Random random;
+	/**
+	 * The position of the color sensor at the last step, in cm.
+	 */
+	private double lastCsX, lastCsY;
+
+	/**
+	 * Default constructor.
+	 * @param x The initial x position in cm.
+	 * @param y The initial y position in cm.
+	 * @param theta The initial orientation in degrees.
+	 * @param wheelError The relative error of the wheel radii. The left
+	 * 					 wheel is that much bigger and the right that much
+	 * 					 smaller than the odometry assumes.
+	 * @param usNoise The standard deviation in cm of the ultrasonic noise.
+	 * @param seed The seed of the random number generator.
+	 */
+	public SimRobot(double x, double y, double theta, double wheelError,
+			double usNoise, long seed) {
+		this.x = odoX = x;
+		this.y = odoY = y;
+		this.theta = odoTheta = theta;
+		this.leftError = 1 + wheelError;
+		this.rightError = 1 - wheelError;
+		this.leftMotorError = this.rightMotorError = 1;
+		this.usNoise = usNoise;
+		this.usBeam = 0;
+		this.random = new Random(seed);
+		double[] cs = csPosition();
+		lastCsX = cs[0];
+		lastCsY = cs[1];
+	}
+
+	/**
+	 * Sets the steady speed error of the motors. Unlike the wheel error,
+	 * the odometry sees it, so it makes the robot turn while driving straight.
+	 * @param motorError The relative speed error of the motors. The left
+	 * 					 motor is that much faster and the right that much
+	 * 					 slower than commanded.
+	 */
+	public void setMotorError(double motorError) {
+		this.leftMotorError = 1 + motorError;
+		this.rightMotorError = 1 - motorError;
+	}
+
+	/**
+	 * Moves the robot for dt ms with the wheels accelerating towards the
+	 * given speeds at the motor acceleration.
+	 * @param left The target speed of the left wheel in deg/s.
+	 * @param right The target speed of the right wheel in deg/s.
+	 * @param dt The time step in ms.
+	 * @return true if the color sensor crossed a grid line during the step.
+	 */
+	public boolean step(double left, double right, double dt) {
+		double maxChange = ACCELERATION * dt / 1000;
+		left *= leftMotorError;
+		right *= rightMotorError;
+		leftSpeed += Math.max(-maxChange, Math.min(maxChange, left - leftSpeed));
+		rightSpeed += Math.max(-maxChange, Math.min(maxChange, right - rightSpeed));
+		double leftAngle = Math.toRadians(leftSpeed * dt / 1000);
+		double rightAngle = Math.toRadians(rightSpeed * dt / 1000);
+
+		//Moves the true pose with the true wheel radii.
+		move(leftAngle * LEFT_RADIUS * leftError, rightAngle * RIGHT_RADIUS * rightError, true);
+		//Moves the odometry pose with the assumed wheel radii.
+		move(leftAngle * LEFT_RADIUS, rightAngle * RIGHT_RADIUS, false);
+		time += dt;
+
+		double[] cs = csPosition();
+		boolean crossed = Math.floor(cs[0] / Fields.TILE_DISTANCE) != Math.floor(lastCsX / Fields.TILE_DISTANCE)
+				|| Math.floor(cs[1] / Fields.TILE_DISTANCE) != Math.floor(lastCsY / Fields.TILE_DISTANCE);
+		lastCsX = cs[0];
+		lastCsY = cs[1];
+		return crossed;
+	}
+
+	/**
+	 * Returns a noisy reading of the ultrasonic sensor at the given angle
+	 * from the true pose, as an integer like the real sensor.
+	 * @param model The model of the sensors against the field.
+	 * @param angle The angle of the sensor. Accepts angles of
+	 * 				0 degrees, 90 degrees and 180 degrees.
+	 * @return The reading in cm, or 255 if no wall is seen.
+	 */
+	public int ultrasonic(USModel model, int angle) {
+		double d = model.expectedDistance(x, y, theta, angle);
+		for (int k = 1; k <= usBeam; ++k) {
+			d = Math.min(d, model.expectedDistance(x, y, theta + k, angle));
+			d = Math.min(d, model.expectedDistance(x, y, theta - k, angle));
+		}
+		if (d >= USModel.MAX_DISTANCE)
+			return USModel.MAX_DISTANCE;
+		d += usNoise * random.nextGaussian();
+		return (int) Math.max(0, Math.min(USModel.MAX_DISTANCE, Math.round(d)));
+	}
+
+	/**
+	 * Returns a noisy reading of the color sensor from the true pose.
+	 * The reading falls from the floor value to the line value with the
+	 * fraction of the spot of the sensor covering a grid line.
+	 * @param noise The standard deviation of the noise.
+	 * @return The light value read.
+	 */
+	public int light(double noise) {
+		double[] cs = csPosition();
+		double dx = Math.abs(cs[0] - Math.round(cs[0] / Fields.TILE_DISTANCE) * Fields.TILE_DISTANCE);
+		double dy = Math.abs(cs[1] - Math.round(cs[1] / Fields.TILE_DISTANCE) * Fields.TILE_DISTANCE);
+		double d = Math.min(dx, dy);
+		double overlap = Math.min(d + SPOT_WIDTH / 2, LINE_WIDTH / 2) -
+				Math.max(d - SPOT_WIDTH / 2, -LINE_WIDTH / 2);
+		double coverage = Math.max(0, overlap) / SPOT_WIDTH;
+		double value = FLOOR_LIGHT - (FLOOR_LIGHT - LINE_LIGHT) * coverage +
+				noise * random.nextGaussian();
+		return (int) Math.round(value);
+	}
+
+	/**
+	 * Sets the half width of the ultrasonic beam. The default is 0,
+	 * where the sensors read along a single ray.
+	 * @param usBeam The half width in degrees of the beam.
+	 */
+	public void setBeam(double usBeam) {
+		this.usBeam = usBeam;
+	}
+
+	/**
+	 * Returns the position error of the odometry in cm.
+	 * @return The distance between the odometry and true positions in cm.
+	 */
+	public double positionError() {
+		return Math.sqrt((x - odoX) * (x - odoX) + (y - odoY) * (y - odoY));
+	}
+
+	/**
+	 * Returns the true position of the color sensor in cm.
+	 */
+	private double[] csPosition() {
+		double rad = Math.toRadians(theta + CS_ANGLE);
+		double[] cs = {x + CS_DISTANCE * Math.cos(rad), y + CS_DISTANCE * Math.sin(rad)};
+		return cs;
+	}
+
+	/**
+	 * Moves either the true or the odometry pose by the given wheel
+	 * distances, using the same equations as the Odometer.
+	 */
+	private void move(double leftDistance, double rightDistance, boolean real) {
+		double thetaChange = Math.toDegrees((rightDistance - leftDistance) / WIDTH);
+		double distanceChange = (leftDistance + rightDistance) / 2;
+		if (real) {
+			double phi = Math.toRadians(theta + thetaChange / 2);
+			x += distanceChange * Math.cos(phi);
+			y += distanceChange * Math.sin(phi);
+			theta = Util.toRange(theta + thetaChange, 0.0, false);
+		} else {
+			double phi = Math.toRadians(odoTheta + thetaChange / 2);
+			odoX += distanceChange * Math.cos(phi);
+			odoY += distanceChange * Math.sin(phi);
+			odoTheta = Util.toRange(odoTheta + thetaChange, 0.0, false);
+		}
+	}
+}
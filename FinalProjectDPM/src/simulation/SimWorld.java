@@ -0,0 +1,330 @@
+package simulation;
+import java.util.ArrayList;
+import java.util.Random;
+
+import util.Clock;
+import util.Point;
+import util.Util;
+import data.DataCenter;
+import data.SensorManager;
+import drivers.Navigation;
+import drivers.USPoller;
+import field.USModel;
+import localization.BackgroundLocalizer;
+import odometer.Odometer;
+
+/**
+ * A simulated robot driven by the code of the robot. Runs the Navigation,
+ * the Odometer and the filters of the USPollers against a SimRobot through
+ * a SimDriveTrain, with the simulated time as their clock. Time only
+ * passes when the code sleeps on the clock, so a motion run by the
+ * Navigation moves the robot exactly as far as its control loop waits,
+ * however long the simulation takes to compute. The odometry is the pose
+ * in the DataCenter, not the one the SimRobot keeps.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class SimWorld implements Clock {
+	/**
+	 * The time in ms between calls to the hooks.
+	 */
+	public static final long DT = 10;
+	/**
+	 * The time in ms between updates of the odometer. Same as
+	 * Odometer.ODOMETER_PERIOD.
+	 */
+	private static final long ODOMETER_PERIOD = 10;
+	/**
+	 * The time in ms between updates of the localizers. Same as
+	 * BackgroundLocalizer.PERIOD.
+	 */
+	private static final long LOCALIZER_PERIOD = 50;
+	/**
+	 * The longest simulated time in ms, after which the motions are cancelled.
+	 */
+	private static final long TIME_LIMIT = 3600000;
+	/**
+	 * The probabilities of missing a grid line and of detecting
+	 * a line where there is none in a hook period.
+	 */
+	private static final double MISSED_PING = 0.05, FALSE_PING = 0.0005;
+	/**
+	 * The angles of the ultrasonic sensors, in the order of their channels.
+	 */
+	private static final int[] ANGLES = {0, 90, 180};
+
+	/**
+	 * An action executed every DT ms of simulated time.
+	 */
+	public static interface Hook {
+		/**
+		 * Called every DT ms of simulated time.
+		 * @param world The simulated world.
+		 * @param crossed Did the color sensor cross a grid line since the
+		 * 				  last call?
+		 */
+		void step(SimWorld world, boolean crossed);
+	}
+
+	/**
+	 * The simulated robot.
+	 */
+	private final SimRobot robot;
+	/**
+	 * The drive train of the simulated robot.
+	 */
+	private final SimDriveTrain train;
+	/**
+	 * The data center of the code of the robot.
+	 */
+	private final DataCenter dc;
+	/**
+	 * The odometer of the code of the robot.
+	 */
+	private final Odometer odo;
+	/**
+	 * The navigation of the code of the robot.
+	 */
+	private final Navigation nav;
+	/**
+	 * The model of the ultrasonic sensors, or null for no sensors.
+	 */
+	private final USModel model;
+	/**
+	 * The filters of the ultrasonic sensors, by channel.
+	 */
+	private final USPoller[] pollers;
+	/**
+	 * Variables keeping track of if each ultrasonic sensor is on.
+	 */
+	private final boolean[] on;
+	/**
+	 * The time in ms of the last reading of each ultrasonic sensor.
+	 */
+	private final long[] pinged;
+	/**
+	 * The actions executed every DT ms.
+	 */
+	private final ArrayList<Hook> hooks;
+	/**
+	 * The localizers updated in the background.
+	 */
+	private final ArrayList<BackgroundLocalizer> localizers;
+	/**
+	 * The source of missed and false grid lines, or null for perfect detections.
+	 */
+	private Random pings;
+	/**
+	 * The simulated time in ms.
+	 */
+	private long time;
+	/**
+	 * Lock for synchronized access to the time, which the sensor manager
+	 * reads while holding its own lock.
+	 */
+	private final Object timeLock;
+	/**
+	 * Variable keeping track of if the color sensor crossed a line since
+	 * the last call to the hooks.
+	 */
+	private boolean crossed;
+
+	/**
+	 * Default constructor. Starts the odometry at the true pose of the robot.
+	 * @param robot The simulated robot.
+	 * @param model The model of the ultrasonic sensors against the true
+	 * 				field, or null for no sensors.
+	 */
+	public SimWorld(SimRobot robot, USModel model) {
+		this.robot = robot;
+		this.model = model;
+		timeLock = new Object();
+		train = new SimDriveTrain(robot, 0, 0, 0);
+		dc = new DataCenter(this);
+		dc.setXYT(robot.x, robot.y, robot.theta);
+		odo = new Odometer(dc, train);
+		nav = new Navigation(dc, train, this);
+		pollers = new USPoller[ANGLES.length];
+		for (int i = 0; i < ANGLES.length; ++i) {
+			pollers[i] = new USPoller(ANGLES[i], dc);
+		}
+		on = new boolean[ANGLES.length];
+		pinged = new long[ANGLES.length];
+		hooks = new ArrayList<Hook>();
+		localizers = new ArrayList<BackgroundLocalizer>();
+		pings = null;
+		crossed = false;
+	}
+
+	/**
+	 * Returns the simulated robot.
+	 * @return The simulated robot.
+	 */
+	public SimRobot getRobot() {
+		return robot;
+	}
+
+	/**
+	 * Returns the data center, which holds the odometry.
+	 * @return The data center.
+	 */
+	public DataCenter getDataCenter() {
+		return dc;
+	}
+
+	/**
+	 * Returns the navigation driving the robot.
+	 * @return The navigation driving the robot.
+	 */
+	public Navigation getNavigation() {
+		return nav;
+	}
+
+	/**
+	 * Adds an action executed every DT ms.
+	 * @param hook The action.
+	 */
+	public synchronized void addHook(Hook hook) {
+		hooks.add(hook);
+	}
+
+	/**
+	 * Adds a localizer updated every period and pinged on the grid
+	 * lines like its thread and the CSPoller would. The localizer is
+	 * not started.
+	 * @param localizer The localizer.
+	 */
+	public synchronized void addLocalizer(BackgroundLocalizer localizer) {
+		localizers.add(localizer);
+	}
+
+	/**
+	 * Makes the color sensor miss grid lines and detect lines where
+	 * there are none.
+	 * @param pings The source of the errors, or null for perfect detections.
+	 */
+	public synchronized void setLineNoise(Random pings) {
+		this.pings = pings;
+	}
+
+	/**
+	 * Returns the simulated time.
+	 * @return The simulated time in ms.
+	 */
+	@Override
+	public long currentTimeMillis() {
+		synchronized (timeLock) {
+			return time;
+		}
+	}
+
+	/**
+	 * Moves the simulated world forward by the time, updating the odometer,
+	 * the sensors, the hooks and the localizers on their periods. Cancels
+	 * the motions once the time limit is reached.
+	 * @param ms The time in ms.
+	 */
+	@Override
+	public synchronized void sleep(long ms) {
+		for (long t = 0; t < ms; ++t) {
+			crossed |= train.advance(1);
+			long time;
+			synchronized (timeLock) {
+				time = ++this.time;
+			}
+			if (time % ODOMETER_PERIOD == 0)
+				odo.update();
+			if (model != null)
+				poll();
+			if (time % DT == 0) {
+				boolean line = crossed;
+				crossed = false;
+				if (pings != null)
+					line = line ? pings.nextDouble() >= MISSED_PING : pings.nextDouble() < FALSE_PING;
+				for (Hook hook : hooks) {
+					hook.step(this, line);
+				}
+				for (BackgroundLocalizer localizer : localizers) {
+					if (line)
+						localizer.ping();
+					if (time % LOCALIZER_PERIOD == 0)
+						localizer.update();
+				}
+			}
+			if (time > TIME_LIMIT)
+				nav.cancelAll();
+		}
+	}
+
+	/**
+	 * Drives through the points of the path like Navigation.travel,
+	 * without checking for obstacles, and lets the robot stop at the end.
+	 * @param path The path to travel.
+	 * @param recorder The recorder given each leg before it is driven, or
+	 * 				   null. Must have been added as a hook.
+	 */
+	public void travel(Point[] path, RouteRecorder recorder) {
+		for (Point p : path) {
+			double[] xyt = dc.getXYT();
+			if (recorder != null)
+				recorder.segment(new Point(xyt[0], xyt[1]), p);
+			nav.travelTo(p, false);
+		}
+		settle();
+	}
+
+	/**
+	 * Lets the wheels come to a stop after a motion, which leaves the
+	 * motors floating.
+	 */
+	public void settle() {
+		while (robot.leftSpeed != 0 || robot.rightSpeed != 0) {
+			sleep(1);
+		}
+	}
+
+	/**
+	 * Returns the distance in cm between the odometry and the true position.
+	 * @return The position error of the odometry in cm.
+	 */
+	public double positionError() {
+		double[] xyt = dc.getXYT();
+		return Math.hypot(xyt[0] - robot.x, xyt[1] - robot.y);
+	}
+
+	/**
+	 * Returns the absolute difference in degrees between the odometry
+	 * and the true heading.
+	 * @return The heading error of the odometry in degrees.
+	 */
+	public double headingError() {
+		return Math.abs(Util.toRange(dc.getTheta() - robot.theta, -180.0, true));
+	}
+
+	/**
+	 * Runs the ultrasonic sensors that are demanded like the USPollers,
+	 * at the period demanded but no faster than a ping, and turns off
+	 * the others.
+	 */
+	private void poll() {
+		SensorManager sensors = dc.getSensors();
+		for (int i = 0; i < ANGLES.length; ++i) {
+			int channel = SensorManager.usChannel(ANGLES[i]);
+			int period = sensors.getPeriod(channel);
+			if (period < 0) {
+				if (on[i]) {
+					on[i] = false;
+					sensors.setReady(channel, false);
+				}
+			} else if (!on[i]) {
+				on[i] = true;
+				pollers[i].reset();
+				pinged[i] = time;
+			} else if (time - pinged[i] >= Math.max(USPoller.PING_DELAY, period)) {
+				pinged[i] = time;
+				pollers[i].record(robot.ultrasonic(model, ANGLES[i]));
+			}
+		}
+	}
+}
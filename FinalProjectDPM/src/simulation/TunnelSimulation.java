@@ -0,0 +1,230 @@
+package simulation;
+import java.util.Random;
+
+import util.Point;
+import util.Util;
+import data.DataCenter;
+import data.SensorManager;
+import drivers.Navigation;
+import field.FieldMap;
+import field.USModel;
+
+/**
+ * A simulation of the drives through the tunnels of AlphaMapped. Starts
+ * each drive with the true pose off the odometry, as after the turns
+ * before a tunnel, and drives it with the former tunnel law of Navigation,
+ * which turned in place whenever the heading drifted and reset the lateral
+ * position from the filtered side readings every 2 s, and with the tunnel
+ * tracker steering at speed. Prints the time, the RMS and largest distance
+ * of the true position from the center line, the smallest distance from the
+ * center of the robot to a wall, and the lateral and heading errors of the
+ * odometry at the end of the tunnel. The tracker is the one of Navigation,
+ * fed by the side sensors through their USPollers.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class TunnelSimulation {
+	/**
+	 * The tunnels, as the start and end points on their center line in tiles
+	 * and the heading along them.
+	 */
+	private static final double[][] TUNNELS = {
+		{-0.5, 3.2, -0.5, 4.8, 90}, {0.2, 5.5, 0.8, 5.5, 0}, {2.2, 6.5, 2.8, 6.5, 0}
+	};
+	/**
+	 * The number of drives through each tunnel.
+	 */
+	private static final int TRIALS = 20;
+	/**
+	 * The largest errors of the true pose at the start in cm and degrees,
+	 * and of the wheel radii.
+	 */
+	private static final double OFFSET_ERROR = 3.0, HEADING_ERROR = 3.0, WHEEL_ERROR = 0.005;
+	/**
+	 * The standard deviation in cm of the noise of the side sensors.
+	 */
+	private static final double US_NOISE = 1.0;
+	/**
+	 * Same values as in the former Navigation tunnel law.
+	 */
+	private static final int LOW_SPD = 100, HIGH_SPD = 500;
+	private static final double CM_ERR = 1.0, DEG_ERR = 2.0, TUNNEL_DELAY = 2000;
+	/**
+	 * The longest time in ms of a drive through a tunnel with the former law.
+	 */
+	private static final long TIME_LIMIT = 100000;
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		FieldMap map = Fields.competition();
+		USModel model = new USModel(map, SimRobot.RIGHT_US_DISTANCE,
+				SimRobot.FRONT_US_DISTANCE, SimRobot.LEFT_US_DISTANCE);
+		for (double[] tunnel : TUNNELS) {
+			Point start = new Point(tunnel[0] * Fields.TILE_DISTANCE, tunnel[1] * Fields.TILE_DISTANCE);
+			Point end = new Point(tunnel[2] * Fields.TILE_DISTANCE, tunnel[3] * Fields.TILE_DISTANCE);
+			for (int mode = 0; mode < 2; ++mode) {
+				//Time, squared offset, samples, largest offset, clearance,
+				//squared end offset error and squared end heading error.
+				double[] totals = {0, 0, 0, 0, Double.MAX_VALUE, 0, 0};
+				for (int trial = 0; trial < TRIALS; ++trial) {
+					Random random = new Random(trial);
+					double wheel = WHEEL_ERROR * (2 * random.nextDouble() - 1);
+					SimRobot robot = new SimRobot(start.x, start.y, tunnel[4], wheel, US_NOISE, trial);
+					SimWorld world = new SimWorld(robot, model);
+					//The true pose is off the odometry.
+					double offset = OFFSET_ERROR * (2 * random.nextDouble() - 1);
+					double rad = Math.toRadians(tunnel[4]);
+					robot.x -= offset * Math.sin(rad);
+					robot.y += offset * Math.cos(rad);
+					robot.theta = Util.toRange(robot.theta +
+							HEADING_ERROR * (2 * random.nextDouble() - 1), 0.0, false);
+					world.addHook(new Recorder(start, tunnel[4], map, totals));
+					if (mode == 0) {
+						former(world, end, tunnel[4]);
+					} else if (tunnel[4] == 90) {
+						world.getNavigation().travelInTunnelVertical(end, true);
+					} else {
+						world.getNavigation().travelInTunnelHorizontal(end, true);
+					}
+					world.settle();
+					totals[0] += world.currentTimeMillis() / 1000.0;
+					double[] xyt = world.getDataCenter().getXYT();
+					double lateral = -(robot.x - xyt[0]) * Math.sin(rad) +
+							(robot.y - xyt[1]) * Math.cos(rad);
+					totals[5] += lateral * lateral;
+					double headingError = Util.toRange(robot.theta - xyt[2], -180.0, true);
+					totals[6] += headingError * headingError;
+				}
+				System.out.println("Tunnel to (" + tunnel[2] + ", " + tunnel[3] + "), " +
+						(mode == 0 ? "former law" : "tracker") + ": " + format(totals[0] / TRIALS) +
+						" s, offset " + format(Math.sqrt(totals[1] / totals[2])) + " cm RMS, worst " +
+						format(totals[3]) + " cm, clearance " + format(totals[4]) +
+						" cm, end odometry error " + format(Math.sqrt(totals[5] / TRIALS)) +
+						" cm, " + format(Math.sqrt(totals[6] / TRIALS)) + " deg RMS");
+			}
+		}
+	}
+
+	/**
+	 * Drives through the tunnel with the former law of Navigation. Turns
+	 * in place towards the destination whenever the heading is off by
+	 * DEG_ERR, and every TUNNEL_DELAY sets the lateral position from the
+	 * filtered readings of each side sensor.
+	 */
+	private static void former(SimWorld world, Point destination, double axis) {
+		Navigation nav = world.getNavigation();
+		DataCenter dc = world.getDataCenter();
+		SensorManager sensors = dc.getSensors();
+		Object demand = new Object();
+		sensors.demand(demand, SensorManager.LEFT_US, SensorManager.FASTEST);
+		sensors.demand(demand, SensorManager.RIGHT_US, SensorManager.FASTEST);
+		nav.turnTo(heading(dc.getXYT(), destination));
+		while (!sensors.isReady(SensorManager.LEFT_US) || !sensors.isReady(SensorManager.RIGHT_US)) {
+			world.sleep(1);
+		}
+		double rad = Math.toRadians(axis);
+		long lastCheck = world.currentTimeMillis();
+		double[] xyt = dc.getXYT();
+		while ((Math.abs(destination.x - xyt[0]) > CM_ERR ||
+				Math.abs(destination.y - xyt[1]) > CM_ERR) && world.currentTimeMillis() < TIME_LIMIT) {
+			double dist = (destination.x - xyt[0]) * (destination.x - xyt[0]) +
+					(destination.y - xyt[1]) * (destination.y - xyt[1]);
+			if (dist > Fields.TILE_DISTANCE)
+				dist = Fields.TILE_DISTANCE;
+			double speed = LOW_SPD + dist / Fields.TILE_DISTANCE * (HIGH_SPD - LOW_SPD);
+			nav.setSpeeds((int) speed, (int) speed);
+			world.sleep(SimWorld.DT);
+			xyt = dc.getXYT();
+			double error = Math.abs(xyt[2] - heading(xyt, destination));
+			if (error > DEG_ERR && error < 360 - DEG_ERR) {
+				nav.turnTo(heading(xyt, destination));
+				xyt = dc.getXYT();
+				continue;
+			}
+			if (world.currentTimeMillis() - lastCheck > TUNNEL_DELAY) {
+				lastCheck = world.currentTimeMillis();
+				double left = dc.getFilteredDistance(180) + SimRobot.LEFT_US_DISTANCE;
+				double right = dc.getFilteredDistance(0) + SimRobot.RIGHT_US_DISTANCE;
+				if (left > Fields.TILE_DISTANCE || right > Fields.TILE_DISTANCE)
+					continue;
+				//Moves the odometry across the tunnel to the measured offset.
+				double measured = (right - left) / 2;
+				double current = -(xyt[0] - destination.x) * Math.sin(rad) +
+						(xyt[1] - destination.y) * Math.cos(rad);
+				dc.offsetXYT(-(measured - current) * Math.sin(rad),
+						(measured - current) * Math.cos(rad), 0);
+				xyt = dc.getXYT();
+			}
+		}
+		nav.stop();
+		sensors.releaseAll(demand);
+	}
+
+	/**
+	 * Returns the heading in degrees from the position to the point.
+	 */
+	private static double heading(double[] xyt, Point p) {
+		return Util.toRange(Math.toDegrees(Math.atan2(p.y - xyt[1], p.x - xyt[0])), 0.0, false);
+	}
+
+	/**
+	 * Records the distance of the true position from the center line
+	 * and to the walls every step of the simulation.
+	 */
+	private static class Recorder implements SimWorld.Hook {
+		/**
+		 * A point on the center line.
+		 */
+		private final Point center;
+		/**
+		 * The heading along the tunnel in radians.
+		 */
+		private final double axis;
+		/**
+		 * The map of the field.
+		 */
+		private final FieldMap map;
+		/**
+		 * The totals of the simulation.
+		 */
+		private final double[] totals;
+		/**
+		 * Storage for the closest point of a wall.
+		 */
+		private final double[] closest = new double[2];
+
+		/**
+		 * Default constructor.
+		 */
+		Recorder(Point center, double axis, FieldMap map, double[] totals) {
+			this.center = center;
+			this.axis = Math.toRadians(axis);
+			this.map = map;
+			this.totals = totals;
+		}
+
+		/**
+		 * Called every step of the simulation.
+		 */
+		public void step(SimWorld world, boolean crossed) {
+			SimRobot robot = world.getRobot();
+			double offset = -(robot.x - center.x) * Math.sin(axis) + (robot.y - center.y) * Math.cos(axis);
+			totals[1] += offset * offset;
+			totals[2] += 1;
+			totals[3] = Math.max(totals[3], Math.abs(offset));
+			if (map.nearestWall(robot.x, robot.y, Fields.TILE_DISTANCE, closest) >= 0) {
+				totals[4] = Math.min(totals[4], Math.hypot(closest[0] - robot.x, closest[1] - robot.y));
+			}
+		}
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
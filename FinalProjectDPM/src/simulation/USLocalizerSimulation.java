@@ -0,0 +1,314 @@
+package simulation;
+import java.util.Random;
+
+import util.Util;
+import field.USModel;
+import localization.MinimaDetector;
+import localization.WallFit;
+
+/**
+ * A simulation comparing the streaming ultrasonic localization and the
+ * wall fit localization against the previous full rotation localization.
+ * The robot starts at random poses in the corner tile and rotates at the
+ * USLocalizer speed. Prints the average time and errors of each approach,
+ * and for the wall fit how often it is confident and how accurate it is then.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class USLocalizerSimulation {
+	/**
+	 * Same values as in USLocalizer and USPoller.
+	 */
+	private static final int TURN_SPD = 120, PING_DELAY = 20;
+	/**
+	 * The simulation time step in ms.
+	 */
+	private static final double STEP = 10;
+	/**
+	 * The number of random starting poses.
+	 */
+	private static final int TRIALS = 200;
+	/**
+	 * The approaches compared.
+	 */
+	private static final int FULL_ROTATION = 0, STREAMING = 1, WALL_FIT = 2;
+	/**
+	 * Same values as USLocalizer.CONFIDENT_XY and USLocalizer.CONFIDENT_THETA.
+	 */
+	private static final double CONFIDENT_XY = 1.0, CONFIDENT_THETA = 1.5;
+	/**
+	 * Same value as USLocalizer.FIT_INTERVAL.
+	 */
+	private static final int FIT_INTERVAL = 15;
+	/**
+	 * Same values as USLocalizer.MIN_COVERAGE and USLocalizer.WIDE_COVERAGE.
+	 */
+	private static final double MIN_COVERAGE = 15.0, WIDE_COVERAGE = 60.0;
+	/**
+	 * The half width in degrees of the simulated ultrasonic beam, assumed
+	 * known by the wall fit. Same default as USLocalizer.US_BEAM.
+	 */
+	private static double beam = 10.0;
+
+	/**
+	 * Runs the simulation. The half width of the beam can be given
+	 * as the first argument.
+	 */
+	public static void main(String[] args) {
+		if (args.length > 0)
+			beam = Double.parseDouble(args[0]);
+		USModel model = new USModel(Fields.competition(), SimRobot.RIGHT_US_DISTANCE,
+				SimRobot.FRONT_US_DISTANCE, SimRobot.LEFT_US_DISTANCE);
+		Random random = new Random(1);
+		double[] oldTotals = new double[3];
+		double[] newTotals = new double[3];
+		double[] fitTotals = new double[3];
+		double[] confidentTotals = new double[3];
+		double[] worst = new double[2];
+		int confident = 0;
+		for (int i = 0; i < TRIALS; ++i) {
+			double x = -22 + 12 * random.nextDouble();
+			double y = -22 + 12 * random.nextDouble();
+			double theta = 360 * random.nextDouble();
+			add(oldTotals, run(model, x, y, theta, i, FULL_ROTATION));
+			add(newTotals, run(model, x, y, theta, i, STREAMING));
+			double[] fit = run(model, x, y, theta, i, WALL_FIT);
+			add(fitTotals, fit);
+			if (fit.length > 3 && fit[3] < CONFIDENT_XY && fit[4] < CONFIDENT_XY &&
+					fit[5] < CONFIDENT_THETA) {
+				add(confidentTotals, fit);
+				worst[0] = Math.max(worst[0], fit[1]);
+				worst[1] = Math.max(worst[1], fit[2]);
+				++confident;
+			}
+		}
+		print("Full rotation", oldTotals, TRIALS);
+		print("Streaming", newTotals, TRIALS);
+		print("Wall fit", fitTotals, TRIALS);
+		print("Wall fit when confident (" + confident + "/" + TRIALS + ")",
+				confidentTotals, Math.max(1, confident));
+		System.out.println("Worst confident errors: " + round(worst[0]) + " cm, " +
+				round(worst[1]) + " deg");
+	}
+
+	/**
+	 * Localizes from the given pose and returns the time in s, the
+	 * position error in cm and the orientation error in degrees. The wall
+	 * fit also returns its estimated errors of x, y and theta.
+	 */
+	private static double[] run(USModel model, double x, double y, double theta,
+			long seed, int approach) {
+		SimRobot robot = new SimRobot(x, y, theta, 0.005, 1.0, seed);
+		robot.setBeam(beam);
+		//Starts the odometry at (0, 0, 90) like the DataCenter.
+		robot.odoX = 0;
+		robot.odoY = 0;
+		robot.odoTheta = 90;
+		int[] window = new int[5];
+		for (int k = 0; k < window.length; ++k) {
+			window[k] = robot.ultrasonic(model, 90);
+		}
+
+		MinimaDetector detector = new MinimaDetector();
+		WallFit wallFit = new WallFit(beam, seed);
+		int capacity = 2000;
+		double[] angles = new double[capacity];
+		int[] distances = new int[capacity];
+		int[] filtered = new int[capacity];
+		int count = 0;
+
+		double previous = robot.odoTheta;
+		double rotated = 0;
+		boolean covered = false;
+		double[] last = null;
+		double left = -TURN_SPD * SimRobot.RIGHT_RADIUS / SimRobot.LEFT_RADIUS;
+		while (rotated < 360 && count < capacity) {
+			for (int k = 0; k < PING_DELAY / STEP; ++k) {
+				robot.step(left, TURN_SPD, STEP);
+			}
+			//Polls like USPoller.pollMin.
+			int value = robot.ultrasonic(model, 90);
+			int min = value;
+			for (int k = 0; k < window.length; ++k) {
+				min = Math.min(min, window[k]);
+			}
+			System.arraycopy(window, 1, window, 0, window.length - 1);
+			window[window.length - 1] = value;
+
+			rotated += Math.abs(Util.toRange(robot.odoTheta - previous, -180.0, true));
+			previous = robot.odoTheta;
+			angles[count] = robot.odoTheta;
+			distances[count] = value;
+			filtered[count] = min;
+			++count;
+			wallFit.addSample(robot.odoX, robot.odoY, robot.odoTheta,
+					SimRobot.FRONT_US_DISTANCE, value);
+			if (approach == STREAMING && detector.addSample(robot.odoTheta, value, min))
+				break;
+			if (approach == WALL_FIT && count % FIT_INTERVAL == 0) {
+				double[] current = coveredPose(wallFit, robot);
+				if (current != null && last != null && agree(current, last)) {
+					covered = true;
+					break;
+				}
+				last = current;
+			}
+		}
+		while (robot.leftSpeed != 0 || robot.rightSpeed != 0) {
+			robot.step(0, 0, STEP);
+		}
+
+		double[] pose;
+		if (approach == WALL_FIT && (covered || wallFit.fit())) {
+			pose = wallFit.getCornerPose(robot.odoX, robot.odoY, robot.odoTheta,
+					-Fields.TILE_DISTANCE, -Fields.TILE_DISTANCE);
+		} else if (approach == STREAMING) {
+			detector.forceResult();
+			double[] m = detector.getMinima();
+			pose = solve(m[0], m[1], m[2], m[3], robot.odoTheta);
+		} else {
+			pose = fullRotation(angles, distances, filtered, count, robot.odoTheta);
+		}
+		double dx = pose[0] - robot.x;
+		double dy = pose[1] - robot.y;
+		double dt = Util.toRange(pose[2] - robot.theta, -180.0, true);
+		if (pose.length > 3) {
+			double[] result = {robot.time / 1000, Math.sqrt(dx * dx + dy * dy), Math.abs(dt),
+					pose[3], pose[4], pose[5]};
+			return result;
+		}
+		double[] result = {robot.time / 1000, Math.sqrt(dx * dx + dy * dy), Math.abs(dt)};
+		return result;
+	}
+
+	/**
+	 * The early stop of USLocalizer.doFitLocalization, from USLocalizer.coveredPose.
+	 */
+	private static double[] coveredPose(WallFit fit, SimRobot robot) {
+		if (!fit.fit())
+			return null;
+		double first = fit.getCoverage(0, robot.odoX, robot.odoY);
+		double second = fit.getCoverage(1, robot.odoX, robot.odoY);
+		if (Math.min(first, second) < MIN_COVERAGE || Math.max(first, second) < WIDE_COVERAGE)
+			return null;
+		double[] pose = fit.getCornerPose(robot.odoX, robot.odoY, robot.odoTheta,
+				-Fields.TILE_DISTANCE, -Fields.TILE_DISTANCE);
+		if (pose[3] >= CONFIDENT_XY || pose[4] >= CONFIDENT_XY || pose[5] >= CONFIDENT_THETA)
+			return null;
+		pose[2] = Util.toRange(pose[2] - robot.odoTheta, -180.0, true);
+		return pose;
+	}
+
+	/**
+	 * From USLocalizer.agree.
+	 */
+	private static boolean agree(double[] a, double[] b) {
+		return Math.abs(a[0] - b[0]) < CONFIDENT_XY && Math.abs(a[1] - b[1]) < CONFIDENT_XY &&
+				Math.abs(Util.toRange(a[2] - b[2], -180.0, true)) < CONFIDENT_THETA;
+	}
+
+	/**
+	 * The pose computation shared by both approaches, from USLocalizer.
+	 */
+	private static double[] solve(double minAngle, double minDistance,
+			double otherAngle, double otherDistance, double theta) {
+		boolean xy = (Util.toRange(minAngle - otherAngle, -180.0, true) < 0);
+		double x, y, angleCorrect;
+		if (xy) {
+			x = SimRobot.FRONT_US_DISTANCE + minDistance - Fields.TILE_DISTANCE;
+			y = SimRobot.FRONT_US_DISTANCE + otherDistance - Fields.TILE_DISTANCE;
+			angleCorrect = average(180.0 - minAngle, 270.0 - otherAngle);
+		} else {
+			x = SimRobot.FRONT_US_DISTANCE + otherDistance - Fields.TILE_DISTANCE;
+			y = SimRobot.FRONT_US_DISTANCE + minDistance - Fields.TILE_DISTANCE;
+			angleCorrect = average(270.0 - minAngle, 180.0 - otherAngle);
+		}
+		double[] pose = {x, y, Util.toRange(theta + angleCorrect, 0.0, false)};
+		return pose;
+	}
+
+	/**
+	 * Returns the average of two angles in degrees, in [0, 360).
+	 */
+	private static double average(double a, double b) {
+		return Util.toRange(a + Util.toRange(b - a, -180.0, true) / 2, 0.0, false);
+	}
+
+	/**
+	 * The previous USLocalizer computation on a full rotation log.
+	 */
+	private static double[] fullRotation(double[] angles, int[] distances,
+			int[] filtered, int count, double theta) {
+		int min = 0;
+		for (int i = 0; i < count; ++i) {
+			if (distances[i] < distances[min])
+				min = i;
+		}
+		double sum = 0;
+		int n = 0;
+		double minAngle = 180.0;
+		double maxAngle = -180.0;
+		for (int i = 0; i < count; ++i) {
+			if (distances[i] == distances[min]) {
+				++n;
+				double angle = Util.toRange(angles[i] - angles[min], -180.0, true);
+				sum += angle;
+				minAngle = Math.min(minAngle, angle);
+				maxAngle = Math.max(maxAngle, angle);
+			}
+		}
+		double center = Util.toRange(sum / n + angles[min], 0.0, false);
+		int plus = closest(angles, count, Util.toRange(center + 90.0, 0.0, false));
+		int minus = closest(angles, count, Util.toRange(center - 90.0, 0.0, false));
+		int other = filtered[plus] < filtered[minus] ? plus : minus;
+		if (maxAngle - minAngle >= 90) {
+			double x = SimRobot.FRONT_US_DISTANCE + filtered[min] - Fields.TILE_DISTANCE;
+			double y = SimRobot.FRONT_US_DISTANCE + filtered[other] - Fields.TILE_DISTANCE;
+			double[] pose = {x, y, Util.toRange(theta + 225.0 - center, 0.0, false)};
+			return pose;
+		}
+		boolean xy = (Util.toRange(center - angles[other], -180.0, true) < 0);
+		double[] pose = solve(center, filtered[min], angles[other], filtered[other], theta);
+		pose[2] = Util.toRange(theta + (xy ? 180.0 : 270.0) - center, 0.0, false);
+		return pose;
+	}
+
+	/**
+	 * Returns the index of the sample whose angle is closest to the given angle.
+	 */
+	private static int closest(double[] angles, int count, double angle) {
+		int best = 0;
+		for (int i = 0; i < count; ++i) {
+			if (Math.abs(Util.toRange(angles[i] - angle, -180.0, true)) <
+					Math.abs(Util.toRange(angles[best] - angle, -180.0, true)))
+				best = i;
+		}
+		return best;
+	}
+
+	/**
+	 * Adds the values to the totals.
+	 */
+	private static void add(double[] totals, double[] values) {
+		for (int i = 0; i < totals.length; ++i) {
+			totals[i] += values[i];
+		}
+	}
+
+	/**
+	 * Prints the averages of the totals over n trials.
+	 */
+	private static void print(String name, double[] totals, int n) {
+		System.out.println(name + ": " + round(totals[0] / n) + " s, position error " +
+				round(totals[1] / n) + " cm, heading error " +
+				round(totals[2] / n) + " deg");
+	}
+
+	/**
+	 * Rounds to 2 decimals.
+	 */
+	private static double round(double value) {
+		return Math.round(value * 100) / 100.0;
+	}
+}
@@ -0,0 +1,321 @@
+package simulation;
+import util.Point;
+import util.Util;
+import data.DataCenter;
+import data.SensorManager;
+import drivers.Navigation;
+import field.FieldMap;
+import field.USModel;
+
+/**
+ * A simulation of the wall following around obstacles missing from the
+ * map. Drives from one corner of a field to the other through the
+ * obstacles of ReplanningSimulation, stopping in front of them and
+ * following them until heading towards the goal, once with the former
+ * p-type law of Navigation.processUSData and once with the WallFollower
+ * of Navigation.wallFollow, each at the intermediate and highest speeds.
+ * Prints the success rate, the time, the time and speed while following,
+ * the RMS error of the distance from the center of the robot to the
+ * nearest wall while following, the number of times the error crossed
+ * zero by more than 1 cm per m followed, and the smallest distance to a wall.
+ * The robot is following while its left sensor is demanded.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class WallFollowSimulation {
+	/**
+	 * The obstacles of each scenario, as {x1, y1, x2, y2} in tiles.
+	 */
+	private static final double[][][] SCENARIOS = {
+		{{3, 3, 4, 4}},
+		{{2, 4, 5, 5}},
+		{{3, 4, 5, 5}, {4, 2, 5, 4}},
+		{{2, 3, 6, 4}, {5, 4, 6, 6}}
+	};
+	/**
+	 * The names of the scenarios.
+	 */
+	private static final String[] NAMES = {"Block", "Bar", "Corner", "Pocket"};
+	/**
+	 * The number of tiles on each side of the field.
+	 */
+	private static final int TILES = 8;
+	/**
+	 * The number of runs of each law in each scenario.
+	 */
+	private static final int TRIALS = 10;
+	/**
+	 * The maximum relative error of the motor speeds.
+	 */
+	private static final double MOTOR_ERROR = 0.02;
+	/**
+	 * The standard deviation in cm of the noise of the ultrasonic sensors.
+	 */
+	private static final double US_NOISE = 1.0;
+	/**
+	 * The half width in degrees of the beam of the ultrasonic sensors.
+	 */
+	private static final double US_BEAM = 10;
+	/**
+	 * The time in ms after which a run fails.
+	 */
+	private static final long TIME_LIMIT = 300000;
+	/**
+	 * The largest distance in cm from the goal of a successful run.
+	 */
+	private static final double GOAL_ERROR = 3.0;
+	/**
+	 * Same values as in Navigation.
+	 */
+	private static final int LOW_SPD = 100, MID_SPD = 300, HIGH_SPD = 500;
+	private static final int MIN_FRONT_DISTANCE = 20, MIN_SIDE_DISTANCE = 10;
+	private static final double WALL_FOLLOW_DEG_ERR = 15.0;
+	/**
+	 * The number of readings the filtered distance of a USPoller
+	 * is the minimum of.
+	 */
+	private static final int FILTER_SIZE = 6;
+	/**
+	 * The distance in cm from the center of the robot to the wall at which
+	 * the left sensor reads MIN_SIDE_DISTANCE, which both laws keep.
+	 */
+	private static final double WALL_DISTANCE = MIN_SIDE_DISTANCE + SimRobot.LEFT_US_DISTANCE;
+	/**
+	 * The distance error in cm past which the robot must go on the other
+	 * side for the error to count as having crossed zero, so that the noise
+	 * around zero is not counted.
+	 */
+	private static final double HYSTERESIS = 1.0;
+
+	/**
+	 * Runs the simulation.
+	 */
+	public static void main(String[] args) {
+		FieldMap known = Fields.random(TILES, 0, 0);
+		Point start = tiles(1, 1);
+		Point goal = tiles(TILES - 1, TILES - 1);
+		int[] speeds = {MID_SPD, HIGH_SPD};
+		for (int s = 0; s < SCENARIOS.length; ++s) {
+			FieldMap field = Fields.withBlocks(known, SCENARIOS[s]);
+			USModel model = new USModel(field, SimRobot.RIGHT_US_DISTANCE,
+					SimRobot.FRONT_US_DISTANCE, SimRobot.LEFT_US_DISTANCE);
+			for (int mode = 0; mode < 2 * speeds.length; ++mode) {
+				boolean tracker = mode >= speeds.length;
+				int speed = speeds[mode % speeds.length];
+				//Successes, time, time following, distance following,
+				//squared distance error, samples, zero crossings and clearance.
+				double[] totals = {0, 0, 0, 0, 0, 0, 0, Double.MAX_VALUE};
+				for (int trial = 0; trial < TRIALS; ++trial) {
+					double error = 2.0 * trial / (TRIALS - 1) - 1;
+					SimRobot robot = new SimRobot(start.x, start.y, 90, 0, US_NOISE, trial);
+					robot.setMotorError(-MOTOR_ERROR * error);
+					robot.setBeam(US_BEAM);
+					SimWorld world = new SimWorld(robot, model);
+					Recorder recorder = new Recorder(field, totals);
+					world.addHook(recorder);
+					Navigation nav = world.getNavigation();
+					if (tracker) {
+						nav.setWallSpeed(speed);
+						nav.travelTo(goal, true);
+					} else {
+						SensorManager sensors = world.getDataCenter().getSensors();
+						sensors.demand(recorder, SensorManager.FRONT_US, SensorManager.FASTEST);
+						recorder.stopping = true;
+						while (world.currentTimeMillis() < TIME_LIMIT) {
+							recorder.blocked = false;
+							nav.travelTo(goal, false);
+							if (!recorder.blocked)
+								break;
+							world.settle();
+							recorder.stopping = false;
+							former(world, goal, speed);
+							recorder.stopping = true;
+						}
+						sensors.releaseAll(recorder);
+					}
+					world.settle();
+					long time = world.currentTimeMillis();
+					if (time < TIME_LIMIT &&
+							Math.hypot(robot.x - goal.x, robot.y - goal.y) < GOAL_ERROR) {
+						totals[0] += 1;
+						totals[1] += time / 1000.0;
+					}
+				}
+				double successes = Math.max(1, totals[0]);
+				System.out.println(NAMES[s] + ", " + (tracker ? "wall model" : "former law") +
+						" at " + speed + " deg/s: " + (int) totals[0] + "/" + TRIALS + " reached, " +
+						format(totals[1] / successes) + " s, following " +
+						format(totals[2] / TRIALS) + " s at " + format(totals[3] / totals[2]) +
+						" cm/s, distance error " + format(Math.sqrt(totals[4] / totals[5])) +
+						" cm RMS, " + format(totals[6] / (totals[3] / 100)) +
+						" crossings/m, clearance " + format(totals[7]) + " cm");
+			}
+		}
+	}
+
+	/**
+	 * Follows the obstacle on the left with the former law of
+	 * Navigation.wallFollow, with the intermediate speed of its
+	 * p-type controller set to the speed. Takes the minimum of the readings
+	 * since the last turn, as the former USPoller restarted after each turn.
+	 */
+	private static void former(SimWorld world, Point destination, int speed) {
+		Navigation nav = world.getNavigation();
+		DataCenter dc = world.getDataCenter();
+		SensorManager sensors = dc.getSensors();
+		Object demand = new Object();
+		sensors.demand(demand, SensorManager.LEFT_US, SensorManager.FASTEST);
+		sensors.demand(demand, SensorManager.FRONT_US, SensorManager.FASTEST);
+		nav.turn(-90);
+		int[] lefts = new int[FILTER_SIZE];
+		int[] fronts = new int[FILTER_SIZE];
+		fill(dc, lefts, fronts);
+		int leftSamples = dc.getSamples(180);
+		int frontSamples = dc.getSamples(90);
+		double left = 0, right = 0;
+		while (world.currentTimeMillis() < TIME_LIMIT) {
+			if (dc.getSamples(180) != leftSamples) {
+				leftSamples = dc.getSamples(180);
+				lefts[leftSamples % FILTER_SIZE] = dc.getDistance(180);
+			}
+			if (dc.getSamples(90) != frontSamples) {
+				frontSamples = dc.getSamples(90);
+				fronts[frontSamples % FILTER_SIZE] = dc.getDistance(90);
+			}
+			if (min(fronts) < MIN_FRONT_DISTANCE) {
+				nav.turn(-45);
+				fill(dc, lefts, fronts);
+				left = 0;
+				right = 0;
+			} else {
+				int error = min(lefts) - MIN_SIDE_DISTANCE;
+				if (error > MIN_SIDE_DISTANCE)
+					error = MIN_SIDE_DISTANCE;
+				double turn = (double) (HIGH_SPD - MID_SPD) * error / MIN_SIDE_DISTANCE;
+				left = Math.max(speed - turn, speed + (LOW_SPD - MID_SPD));
+				right = Math.min(speed + turn, speed + (HIGH_SPD - MID_SPD));
+			}
+			nav.setSpeeds((int) left, (int) right);
+			world.sleep(SimWorld.DT);
+			double[] xyt = dc.getXYT();
+			double heading = Math.toDegrees(Math.atan2(destination.y - xyt[1],
+					destination.x - xyt[0]));
+			if (Math.abs(Util.toRange(heading - xyt[2], -180.0, true)) < WALL_FOLLOW_DEG_ERR) {
+				nav.turnTo(Util.toRange(heading, 0.0, false));
+				break;
+			}
+		}
+		sensors.releaseAll(demand);
+	}
+
+	/**
+	 * Fills the readings with the last ones, as after the poller restarts.
+	 */
+	private static void fill(DataCenter dc, int[] lefts, int[] fronts) {
+		for (int i = 0; i < FILTER_SIZE; ++i) {
+			lefts[i] = dc.getDistance(180);
+			fronts[i] = dc.getDistance(90);
+		}
+	}
+
+	/**
+	 * Returns the smallest value.
+	 */
+	private static int min(int[] values) {
+		int min = values[0];
+		for (int value : values) {
+			min = Math.min(min, value);
+		}
+		return min;
+	}
+
+	/**
+	 * Records the distance from the center of the robot to the nearest
+	 * wall every step of the simulation. Stops the motions in front of
+	 * the obstacles while driving to the goal with the former law, and
+	 * once the time is up.
+	 */
+	private static class Recorder implements SimWorld.Hook {
+		/**
+		 * The true field.
+		 */
+		private final FieldMap field;
+		/**
+		 * The totals of the simulation.
+		 */
+		private final double[] totals;
+		/**
+		 * Variables keeping track of if the robot stops in front of the
+		 * obstacles and if it stopped in front of one.
+		 */
+		boolean stopping, blocked;
+		/**
+		 * The last true position, and the side of the distance the robot
+		 * was last on by more than HYSTERESIS while following.
+		 */
+		private double lastX, lastY, lastSide;
+		/**
+		 * Storage for the closest point of a wall.
+		 */
+		private final double[] closest = new double[2];
+
+		/**
+		 * Default constructor.
+		 */
+		Recorder(FieldMap field, double[] totals) {
+			this.field = field;
+			this.totals = totals;
+		}
+
+		/**
+		 * Called every step of the simulation.
+		 */
+		public void step(SimWorld world, boolean crossed) {
+			SimRobot robot = world.getRobot();
+			DataCenter dc = world.getDataCenter();
+			SensorManager sensors = dc.getSensors();
+			if (world.currentTimeMillis() > TIME_LIMIT)
+				world.getNavigation().cancelAll();
+			if (stopping && !blocked && sensors.isReady(SensorManager.FRONT_US) &&
+					dc.getFilteredDistance(90) < MIN_FRONT_DISTANCE) {
+				blocked = true;
+				world.getNavigation().cancelAll();
+			}
+			boolean following = sensors.isDemanded(SensorManager.LEFT_US);
+			if (following)
+				totals[2] += SimWorld.DT / 1000.0;
+			double distance = Fields.TILE_DISTANCE;
+			if (field.nearestWall(robot.x, robot.y, Fields.TILE_DISTANCE, closest) >= 0)
+				distance = Math.hypot(closest[0] - robot.x, closest[1] - robot.y);
+			totals[7] = Math.min(totals[7], distance);
+			if (following) {
+				double error = distance - WALL_DISTANCE;
+				totals[3] += Math.hypot(robot.x - lastX, robot.y - lastY);
+				totals[4] += error * error;
+				totals[5] += 1;
+				if (Math.abs(error) > HYSTERESIS) {
+					if (error * lastSide < 0)
+						totals[6] += 1;
+					lastSide = Math.signum(error);
+				}
+			}
+			lastX = robot.x;
+			lastY = robot.y;
+		}
+	}
+
+	/**
+	 * Converts a position in tiles to a point in cm.
+	 */
+	private static Point tiles(double x, double y) {
+		return new Point(x * Fields.TILE_DISTANCE, y * Fields.TILE_DISTANCE);
+	}
+
+	/**
+	 * Formats a number with 2 decimals.
+	 */
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+}
@@ -0,0 +1,23 @@
+package util;
+
+/**
+ * The source of time of the control loops and of the sensor manager.
+ * Lets the code driving the robot run against a simulated world, whose
+ * time only passes when the driving code sleeps.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public interface Clock {
+	/**
+	 * Returns the current time.
+	 * @return The current time in ms.
+	 */
+	public long currentTimeMillis();
+
+	/**
+	 * Sleeps for the given time.
+	 * @param ms The time to sleep in ms.
+	 */
+	public void sleep(long ms);
+}
@@ -0,0 +1,23 @@
+package util;
+
+/**
+ * The clock of the system, used on the robot.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class SystemClock implements Clock {
+	@Override
+	public long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public void sleep(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+}
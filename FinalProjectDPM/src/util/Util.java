@@ -1,4 +1,7 @@
 package util;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 
 /**
  * A utility class containing various useful static methods.
@@ -32,4 +35,72 @@ public class Util {
 		}
 		return angle;
 	}
+
+	/**
+	 * Returns the error function of x, with an absolute error
+	 * under 1.5e-7.
+	 * @param x The argument of the function.
+	 * @return The probability that a normal variable with mean 0 and
+	 * 		   variance 1/2 lies in [-x, x], negated for negative x.
+	 */
+	public static double erf(double x) {
+		//Abramowitz and Stegun, formula 7.1.26.
+		double t = 1 / (1 + 0.3275911 * Math.abs(x));
+		double poly = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 +
+				t * (-1.453152027 + t * 1.061405429))));
+		double result = 1 - poly * Math.exp(-x * x);
+		return x >= 0 ? result : -result;
+	}
+
+	/**
+	 * Reads the stream until its end and splits it into lines.
+	 * Carriage returns are ignored.
+	 * @param in The stream to read.
+	 * @return The lines of the stream, without line terminators.
+	 * @throws IOException If the stream cannot be read.
+	 */
+	public static String[] readLines(InputStream in) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+		StringBuffer line = new StringBuffer();
+		int c;
+		while ((c = in.read()) != -1) {
+			if (c == '\n') {
+				lines.add(line.toString());
+				line.setLength(0);
+			} else if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		if (line.length() > 0)
+			lines.add(line.toString());
+		String[] result = new String[lines.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = lines.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Splits a line into its whitespace separated tokens.
+	 * @param line The line to split.
+	 * @return The tokens of the line.
+	 */
+	public static String[] tokenize(String line) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		int start = -1;
+		for (int i = 0; i <= line.length(); ++i) {
+			boolean blank = (i == line.length() || line.charAt(i) <= ' ');
+			if (blank && start >= 0) {
+				tokens.add(line.substring(start, i));
+				start = -1;
+			} else if (!blank && start < 0) {
+				start = i;
+			}
+		}
+		String[] result = new String[tokens.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = tokens.get(i);
+		}
+		return result;
+	}
 }